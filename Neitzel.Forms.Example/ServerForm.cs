@@ -1,5 +1,4 @@
 ﻿using System;
-using System.Collections.ObjectModel;
 using System.Globalization;
 using System.Windows.Forms;
 using Neitzel.Forms.Example.Properties;
@@ -22,11 +21,6 @@ namespace Neitzel.Forms.Example
         /// </summary>
         private TcpIpServerConnection _connection;
 
-        /// <summary>
-        /// Collection of connected clients.
-        /// </summary>
-        private Collection<TcpIpServerConnection.ClientConnection> _clients  = new Collection<TcpIpServerConnection.ClientConnection>();
-
         /// <summary>
         /// Creates a new instance of ServerForm.
         /// </summary>
@@ -40,7 +34,7 @@ namespace Neitzel.Forms.Example
         /// </summary>
         public string Status => _connection == null
             ? NotConnectedStatus
-            : string.Format(CultureInfo.CurrentCulture, NumberClientsStatus, _clients.Count);
+            : string.Format(CultureInfo.CurrentCulture, NumberClientsStatus, _connection.Clients.Count);
 
         /// <summary>
         /// Handles the click on Stop Button.
@@ -51,7 +45,6 @@ namespace Neitzel.Forms.Example
         {
             StopButton.Enabled = false;
             _connection.Dispose();
-            _clients.Clear();
             _connection = null;
             StartButton.Enabled = true;
             PortTextBox.ReadOnly = false;
@@ -63,7 +56,6 @@ namespace Neitzel.Forms.Example
         /// </summary>
         private void OnClientConnected(object sender, ClientEventArgs e)
         {
-            _clients.Add(e.Client);
             StatusLabel.Text = Status;
         }
 
@@ -74,17 +66,13 @@ namespace Neitzel.Forms.Example
         /// <param name="e"></param>
         private void OnClientDisconnected(object sender, ClientEventArgs e)
         {
-            _clients.Remove(e.Client);
             StatusLabel.Text = Status;
         }
 
         private void OnMessageReceived(object sender, BytesReceivedEventArgs e)
         {
             // We simply send a message to all clients!
-            foreach (var client in _clients)
-            {
-                client.Send(e.ReceivedBytes);
-            } 
+            _connection?.Broadcast(e.Data);
         }
 
         /// <summary>
@@ -104,7 +92,8 @@ namespace Neitzel.Forms.Example
             }
 
             Port = port;
-            _connection = new TcpIpServerConnection(port);
+            // Queue the sends so a slow client does not block the io thread that broadcasts.
+            _connection = new TcpIpServerConnection(port) { SendQueueOptions = new SendQueueOptions() };
             _connection.ClientConnected += (sender, args) => Invoke(new EventHandler<ClientEventArgs>(OnClientConnected), sender, args);
             _connection.ClientDisconnected += (sender, args) => Invoke(new EventHandler<ClientEventArgs>(OnClientDisconnected), sender, args);
             _connection.MessageReceived += OnMessageReceived;
@@ -0,0 +1,117 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Network;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Measures memory, threads and round trip latency of a lot of TcpIpClientConnections in one process.
+    /// </summary>
+    [TestClass]
+    public class ClientConnectionBenchmark
+    {
+        /// <summary>
+        /// Port to use in this benchmark.
+        /// </summary>
+        public const int BenchmarkPort = 12356;
+
+        /// <summary>
+        /// Number of connected clients.
+        /// </summary>
+        public const int Clients = 5000;
+
+        /// <summary>
+        /// Number of measured round trips.
+        /// </summary>
+        public const int RoundTrips = 1000;
+
+        /// <summary>
+        /// Test context used to report the results.
+        /// </summary>
+        public TestContext TestContext { get; set; }
+
+        /// <summary>
+        /// Connects a lot of clients to an echo server and measures the round trips of some of them.
+        /// </summary>
+        [TestMethod]
+        [TestCategory("Benchmark")]
+        public void ManyClients()
+        {
+            var connected = 0;
+            var allConnected = new ManualResetEventSlim();
+            var server = new TcpIpServerConnection(BenchmarkPort) { IoMode = ServerIoMode.Asynchronous, Backlog = Clients };
+            server.ClientConnected += (s, e) =>
+            {
+                if (Interlocked.Increment(ref connected) == Clients)
+                    allConnected.Set();
+            };
+            server.MessageReceived += (s, e) => ((TcpIpServerConnection.ClientConnection) s).Send(e.ReceivedBytes);
+            server.Open();
+
+            var process = Process.GetCurrentProcess();
+            var managedBefore = GC.GetTotalMemory(true);
+            var privateBefore = process.PrivateMemorySize64;
+            var threadsBefore = process.Threads.Count;
+
+            var replies = new TaskCompletionSource<bool>[Clients];
+            var clients = new List<TcpIpClientConnection>(Clients);
+            try
+            {
+                for (var index = 0; index < Clients; index++)
+                {
+                    var client = new TcpIpClientConnection("127.0.0.1", BenchmarkPort);
+                    var slot = index;
+                    client.MessageReceived += (s, e) => Volatile.Read(ref replies[slot])?.TrySetResult(true);
+                    clients.Add(client);
+                }
+
+                var stopwatch = Stopwatch.StartNew();
+                Assert.IsTrue(Task.WaitAll(clients.Select(c => c.ConnectAsync()).ToArray(), TimeSpan.FromSeconds(120)));
+                Assert.IsTrue(allConnected.Wait(TimeSpan.FromSeconds(120)));
+                var connectTime = stopwatch.Elapsed;
+
+                process.Refresh();
+                var managedAfter = GC.GetTotalMemory(true);
+                var privateAfter = process.PrivateMemorySize64;
+                var threadsAfter = process.Threads.Count;
+
+                // Round trips spread over all clients.
+                var message = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+                var results = new List<double>(RoundTrips);
+                for (var roundTrip = 0; roundTrip < RoundTrips; roundTrip++)
+                {
+                    var index = roundTrip * (Clients / RoundTrips);
+                    var reply = new TaskCompletionSource<bool>();
+                    Volatile.Write(ref replies[index], reply);
+                    stopwatch.Restart();
+                    clients[index].SendMessage(message);
+                    Assert.IsTrue(reply.Task.Wait(5000));
+                    stopwatch.Stop();
+                    results.Add(stopwatch.Elapsed.TotalMilliseconds);
+                    Volatile.Write(ref replies[index], null);
+                }
+
+                TestContext.WriteLine("{0} clients connected in {1:F0} ms", Clients, connectTime.TotalMilliseconds);
+                TestContext.WriteLine("Memory: {0:F1} KB managed and {1:F1} KB private per client, {2} more threads",
+                    (managedAfter - managedBefore) / 1024.0 / Clients, (privateAfter - privateBefore) / 1024.0 / Clients, threadsAfter - threadsBefore);
+                TestContext.WriteLine("Round trips: p50 {0:F3} ms, p99 {1:F3} ms, max {2:F3} ms",
+                    TestHelpers.Percentile(results, 0.5), TestHelpers.Percentile(results, 0.99), results.Max());
+
+                // A thread per client would add thousands of threads, the sleep of a polling loop up to 10 ms.
+                Assert.IsTrue(threadsAfter - threadsBefore < 100);
+                Assert.IsTrue(TestHelpers.Percentile(results, 0.5) < 10);
+            }
+            finally
+            {
+                foreach (var client in clients)
+                    client.Dispose();
+                server.Close();
+            }
+        }
+    }
+}
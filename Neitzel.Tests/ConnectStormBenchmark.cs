@@ -0,0 +1,93 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Linq;
+using System.Net;
+using System.Net.Sockets;
+using System.Threading;
+using System.Threading.Tasks;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Network;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Measures how fast the TcpIpServerConnection accepts a lot of connections that arrive at the same time.
+    /// </summary>
+    [TestClass]
+    public class ConnectStormBenchmark
+    {
+        /// <summary>
+        /// Port to use in this benchmark.
+        /// </summary>
+        public const int BenchmarkPort = 12347;
+
+        /// <summary>
+        /// Number of connections of the storm.
+        /// </summary>
+        public const int StormConnections = 2000;
+
+        /// <summary>
+        /// Test context used to report the results.
+        /// </summary>
+        public TestContext TestContext { get; set; }
+
+        /// <summary>
+        /// Connects a lot of clients in parallel and measures the time till the server accepted all of them.
+        /// </summary>
+        [TestMethod]
+        [TestCategory("Benchmark")]
+        public void ConnectStorm()
+        {
+            foreach (var mode in new[] { ServerIoMode.Polling, ServerIoMode.Asynchronous })
+            {
+                var elapsed = MeasureStorm(mode);
+                TestContext.WriteLine("{0}: {1} connections accepted in {2:F0} ms ({3:F0} connections/s)",
+                    mode, StormConnections, elapsed.TotalMilliseconds, StormConnections / elapsed.TotalSeconds);
+
+                // Accepting one connection per loop pass would need more than 20 seconds.
+                Assert.IsTrue(elapsed < TimeSpan.FromSeconds(20));
+            }
+        }
+
+        /// <summary>
+        /// Measure a connect storm with a server in the given mode.
+        /// </summary>
+        /// <param name="mode">Mode of the server.</param>
+        /// <returns>Time till all connections were accepted.</returns>
+        private static TimeSpan MeasureStorm(ServerIoMode mode)
+        {
+            var connected = 0;
+            var allConnected = new ManualResetEventSlim();
+            var server = new TcpIpServerConnection(BenchmarkPort) { IoMode = mode, Backlog = StormConnections };
+            server.ClientConnected += (s, e) =>
+            {
+                if (Interlocked.Increment(ref connected) == StormConnections)
+                    allConnected.Set();
+            };
+            server.Open();
+
+            var sockets = new List<Socket>();
+            try
+            {
+                var stopwatch = Stopwatch.StartNew();
+                Parallel.For(0, StormConnections, index =>
+                {
+                    var socket = new Socket(AddressFamily.InterNetwork, SocketType.Stream, ProtocolType.Tcp);
+                    lock (sockets)
+                        sockets.Add(socket);
+                    socket.Connect(new IPEndPoint(IPAddress.Loopback, BenchmarkPort));
+                });
+
+                Assert.IsTrue(allConnected.Wait(TimeSpan.FromSeconds(120)));
+                return stopwatch.Elapsed;
+            }
+            finally
+            {
+                foreach (var socket in sockets)
+                    socket.Dispose();
+                server.Close();
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+﻿using System;
+using System.Linq;
+using System.Text;
+using System.Threading;
+using System.Threading.Tasks;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Network;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Tests the ConnectionPool and the MultiplexedConnection.
+    /// </summary>
+    [TestClass]
+    public class ConnectionPoolTests
+    {
+        /// <summary>
+        /// Port to use in our tests.
+        /// </summary>
+        public const int TestPort = 12357;
+
+        /// <summary>
+        /// Tests that many requests share one connection and get their own responses, even if the server
+        /// answers in another order.
+        /// </summary>
+        [TestMethod]
+        public void MultiplexTest()
+        {
+            var server = TestHelpers.StartFrameEchoServer(TestPort);
+            using (var pool = new ConnectionPool(new ConnectionPoolOptions { MaxConnections = 4 }))
+            {
+                var requests = Enumerable.Range(0, 50)
+                    .Select(i => pool.RequestAsync("127.0.0.1", TestPort, Encoding.ASCII.GetBytes("request " + i)))
+                    .ToList();
+                Assert.IsTrue(Task.WaitAll(requests.ToArray<Task>(), 10000));
+
+                for (var index = 0; index < requests.Count; index++)
+                    Assert.AreEqual("request " + index, Encoding.ASCII.GetString(requests[index].Result));
+                Assert.AreEqual(1, pool.GetConnectionCount("127.0.0.1", TestPort));
+            }
+
+            server.Close();
+        }
+
+        /// <summary>
+        /// Tests that waiting leases are served in order and time out.
+        /// </summary>
+        [TestMethod]
+        public void LeaseQueueTest()
+        {
+            var server = TestHelpers.StartFrameEchoServer(TestPort);
+            var options = new ConnectionPoolOptions { MaxConnections = 1, MaxLeasesPerConnection = 1, LeaseTimeout = TimeSpan.FromMilliseconds(500) };
+            using (var pool = new ConnectionPool(options))
+            {
+                var first = pool.LeaseAsync("127.0.0.1", TestPort).Result;
+                var second = pool.LeaseAsync("127.0.0.1", TestPort);
+                var third = pool.LeaseAsync("127.0.0.1", TestPort);
+                Assert.IsFalse(second.IsCompleted);
+
+                first.Dispose();
+                Assert.IsTrue(second.Wait(1000));
+                Assert.AreSame(first.Connection, second.Result.Connection);
+                Assert.IsFalse(third.IsCompleted);
+
+                second.Result.Dispose();
+                Assert.IsTrue(third.Wait(1000));
+
+                // No connection gets free anymore.
+                try
+                {
+                    pool.LeaseAsync("127.0.0.1", TestPort).Wait(5000);
+                    Assert.Fail("Lease did not time out.");
+                }
+                catch (AggregateException ex)
+                {
+                    Assert.IsInstanceOfType(ex.InnerException, typeof(TimeoutException));
+                }
+
+                third.Result.Dispose();
+            }
+
+            server.Close();
+        }
+    }
+}
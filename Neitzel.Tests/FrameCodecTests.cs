@@ -0,0 +1,148 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Linq;
+using System.Text;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Network;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Tests the frame codecs.
+    /// </summary>
+    [TestClass]
+    public class FrameCodecTests
+    {
+        /// <summary>
+        /// Tests that length prefixed frames are decoded when they are split or arrive together.
+        /// </summary>
+        [TestMethod]
+        public void LengthPrefixTest()
+        {
+            foreach (var format in new[] { LengthPrefixFormat.VarInt, LengthPrefixFormat.Int16, LengthPrefixFormat.Int32, LengthPrefixFormat.Int64 })
+            {
+                foreach (var bigEndian in new[] { true, false })
+                {
+                    var codec = new LengthPrefixFrameCodec(format, bigEndian);
+                    var payloads = new[] { "a", new string('b', 300), "", "end" };
+                    CollectionAssert.AreEqual(payloads, RoundTrip(codec, payloads), format + " " + bigEndian);
+                }
+            }
+        }
+
+        /// <summary>
+        /// Tests the encoding of the prefix.
+        /// </summary>
+        [TestMethod]
+        public void LengthPrefixEncodingTest()
+        {
+            var payload = new ArraySegment<byte>(new byte[300]);
+
+            CollectionAssert.AreEqual(new byte[] { 0xAC, 0x02 }, EncodeFrame(new LengthPrefixFrameCodec(LengthPrefixFormat.VarInt, true), payload).Take(2).ToArray());
+            CollectionAssert.AreEqual(new byte[] { 0x01, 0x2C }, EncodeFrame(new LengthPrefixFrameCodec(LengthPrefixFormat.Int16, true), payload).Take(2).ToArray());
+            CollectionAssert.AreEqual(new byte[] { 0x2C, 0x01, 0, 0 }, EncodeFrame(new LengthPrefixFrameCodec(LengthPrefixFormat.Int32, false), payload).Take(4).ToArray());
+        }
+
+        /// <summary>
+        /// Tests that fixed size frames are decoded.
+        /// </summary>
+        [TestMethod]
+        public void FixedSizeTest()
+        {
+            var codec = new FixedSizeFrameCodec(3);
+            var payloads = new[] { "abc", "def", "ghi" };
+            CollectionAssert.AreEqual(payloads, RoundTrip(codec, payloads));
+        }
+
+        /// <summary>
+        /// Tests that delimited frames are decoded when the delimiter is split over receives.
+        /// </summary>
+        [TestMethod]
+        public void DelimiterTest()
+        {
+            var codec = new DelimiterFrameCodec(0xFF, 0x00, 0xFF);
+            var payloads = new[] { "first", "", "ÿ\u0000second", "third" };
+            CollectionAssert.AreEqual(payloads, RoundTrip(codec, payloads));
+        }
+
+        /// <summary>
+        /// Tests that the sender is disposed when a frame is longer than MaxFrameLength.
+        /// </summary>
+        [TestMethod]
+        public void MaxFrameLengthTest()
+        {
+            var codecs = new FrameCodec[]
+            {
+                new LengthPrefixFrameCodec { MaxFrameLength = 10 },
+                new DelimiterFrameCodec((byte) '\n') { MaxFrameLength = 10 }
+            };
+
+            foreach (var codec in codecs)
+            {
+                var sender = new DisposableObject();
+                Receive(codec, sender, EncodeFrame(codec, new ArraySegment<byte>(new byte[5])));
+                Assert.IsFalse(sender.Disposed);
+
+                // The length is checked before the payload arrived.
+                var frame = EncodeFrame(new LengthPrefixFrameCodec(), new ArraySegment<byte>(new byte[20]));
+                Receive(codec, sender, frame.Take(16).ToArray());
+                Assert.IsTrue(sender.Disposed, codec.GetType().Name);
+            }
+        }
+
+        /// <summary>
+        /// Encode payloads, receive them one byte after another and all at once and return the decoded payloads.
+        /// </summary>
+        /// <param name="codec">Codec to test.</param>
+        /// <param name="payloads">Payloads to encode.</param>
+        /// <returns>The decoded payloads of both receives.</returns>
+        private static List<string> RoundTrip(FrameCodec codec, string[] payloads)
+        {
+            var encoding = Encoding.GetEncoding("ISO-8859-1");
+            var stream = payloads.SelectMany(p => EncodeFrame(codec, new ArraySegment<byte>(encoding.GetBytes(p)))).ToArray();
+
+            var decoded = new List<string>();
+            codec.FrameDecoded += (s, e) => decoded.Add(encoding.GetString(e.Data.Array, e.Data.Offset, e.Data.Count));
+
+            var sender = new object();
+            for (var index = 0; index < stream.Length; index++)
+                codec.MessageReceiver(sender, new BytesReceivedEventArgs(new ArraySegment<byte>(stream, index, 1)));
+            var split = decoded.ToList();
+
+            decoded.Clear();
+            Receive(codec, sender, stream);
+            CollectionAssert.AreEqual(split, decoded);
+            return decoded;
+        }
+
+        /// <summary>
+        /// Encode a frame into a new array.
+        /// </summary>
+        /// <param name="codec">Codec to use.</param>
+        /// <param name="payload">Payload of the frame.</param>
+        /// <returns>The encoded frame.</returns>
+        private static byte[] EncodeFrame(FrameCodec codec, ArraySegment<byte> payload)
+        {
+            var buffer = codec.Encode(payload);
+            try
+            {
+                return buffer.Data.ToArray();
+            }
+            finally
+            {
+                buffer.Release();
+            }
+        }
+
+        /// <summary>
+        /// Hand over received bytes to the codec.
+        /// </summary>
+        /// <param name="codec">Codec to use.</param>
+        /// <param name="sender">Sender of the bytes.</param>
+        /// <param name="bytes">Received bytes.</param>
+        private static void Receive(FrameCodec codec, object sender, byte[] bytes)
+        {
+            codec.MessageReceiver(sender, new BytesReceivedEventArgs(new ArraySegment<byte>(bytes)));
+        }
+    }
+}
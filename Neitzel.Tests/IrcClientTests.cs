@@ -0,0 +1,98 @@
+﻿using System;
+using System.Diagnostics;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Irc;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Tests the IrcClient class.
+    /// </summary>
+    [TestClass]
+    public class IrcClientTests
+    {
+        /// <summary>
+        /// Port to use in our tests.
+        /// </summary>
+        public const int TestPort = 12355;
+
+        /// <summary>
+        /// Tests registration, requests and messages between two clients.
+        /// </summary>
+        [TestMethod]
+        public void RequestTest()
+        {
+            using (var server = new IrcServer("irc.test", TestPort))
+            using (var alice = new IrcClient("127.0.0.1", TestPort))
+            using (var bob = new IrcClient("127.0.0.1", TestPort))
+            {
+                server.Open();
+                Assert.IsTrue(alice.ConnectAsync("alice", "alice", "Alice").Wait(5000));
+                Assert.IsTrue(bob.ConnectAsync("bob", "bob", "Bob").Wait(5000));
+                Assert.AreEqual("alice", alice.Nick);
+                Assert.AreEqual("irc.test", alice.ServerName);
+
+                // JOIN completes with the names of the channel.
+                var join = alice.JoinAsync("#test").Result;
+                Assert.AreEqual(IrcNumeric.RplEndOfNames, join.Last().Numeric);
+                Assert.AreEqual("@alice", join.Single(r => r.Numeric == IrcNumeric.RplNameReply).Parameters[3]);
+
+                var received = new TaskCompletionSource<string>();
+                bob.MessageReceived += (s, e) =>
+                {
+                    if (e.Message.Command == IrcCommand.Privmsg)
+                        received.TrySetResult(new IrcReply(e.Message, bob.Encoding).Parameters[1]);
+                };
+                bob.JoinAsync("#test").Wait(5000);
+                alice.SendMessage("#test", "Hello");
+                Assert.IsTrue(received.Task.Wait(5000));
+                Assert.AreEqual("Hello", received.Task.Result);
+
+                // A command the server does not know ends with ERR_UNKNOWNCOMMAND.
+                var whois = alice.WhoisAsync("bob").Result;
+                Assert.AreEqual(IrcNumeric.ErrUnknownCommand, whois.Single().Numeric);
+
+                // The nickname is in use.
+                using (var copy = new IrcClient("127.0.0.1", TestPort))
+                {
+                    try
+                    {
+                        copy.ConnectAsync("alice", "alice", "Alice").Wait(5000);
+                        Assert.Fail("Registration was not refused.");
+                    }
+                    catch (AggregateException ex)
+                    {
+                        Assert.IsInstanceOfType(ex.InnerException, typeof(InvalidOperationException));
+                    }
+                }
+            }
+        }
+
+        /// <summary>
+        /// Tests that pipelined requests are paced and get their own replies.
+        /// </summary>
+        [TestMethod]
+        public void PacingTest()
+        {
+            using (var server = new IrcServer("irc.test", TestPort))
+            using (var client = new IrcClient("127.0.0.1", TestPort) { MaxBurstLines = 2, LineInterval = TimeSpan.FromMilliseconds(200) })
+            {
+                server.Open();
+                Assert.IsTrue(client.ConnectAsync("alice", "alice", "Alice").Wait(5000));
+
+                // NICK and USER used the burst, so the six lines need more than a second.
+                var stopwatch = Stopwatch.StartNew();
+                var requests = Enumerable.Range(0, 6).Select(i => client.NamesAsync("#c" + i)).ToList();
+                Assert.IsTrue(client.QueuedLines > 0);
+                Assert.IsTrue(Task.WaitAll(requests.ToArray<Task>(), 5000));
+                Assert.IsTrue(stopwatch.ElapsedMilliseconds >= 900);
+
+                for (var index = 0; index < requests.Count; index++)
+                    Assert.AreEqual("#c" + index, requests[index].Result.Single().Parameters[1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+﻿using System;
+using System.Linq;
+using System.Text;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Irc;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Tests the IrcMessageParser class.
+    /// </summary>
+    [TestClass]
+    public class IrcMessageParserTests
+    {
+        /// <summary>
+        /// Tests a message with a full prefix and a trailing parameter.
+        /// </summary>
+        [TestMethod]
+        public void PrefixAndTrailingTest()
+        {
+            var message = Parse(":nick!user@host.example PRIVMSG #channel :Hello World\r\n");
+
+            Assert.AreEqual("nick!user@host.example", Text(message.Prefix));
+            Assert.AreEqual("nick", Text(message.PrefixName));
+            Assert.AreEqual("user", Text(message.PrefixUser));
+            Assert.AreEqual("host.example", Text(message.PrefixHost));
+            Assert.AreEqual(IrcCommand.Privmsg, message.Command);
+            Assert.AreEqual(2, message.ParameterCount);
+            Assert.AreEqual("#channel", Text(message.GetParameter(0)));
+            Assert.IsTrue(message.HasTrailing);
+            Assert.AreEqual("Hello World", Text(message.Trailing));
+        }
+
+        /// <summary>
+        /// Tests numeric replies and commands without prefix.
+        /// </summary>
+        [TestMethod]
+        public void CommandTest()
+        {
+            var message = Parse(":irc.example 433 * nick :Nickname is already in use");
+            Assert.AreEqual("irc.example", Text(message.PrefixName));
+            Assert.AreEqual(0, message.PrefixHost.Count);
+            Assert.AreEqual(IrcCommand.Numeric, message.Command);
+            Assert.AreEqual(IrcNumeric.ErrNicknameInUse, message.Numeric);
+            Assert.IsTrue(IrcMessageParser.IsKnownNumeric(message.Numeric));
+
+            message = Parse(":irc.example 999 x");
+            Assert.AreEqual(999, (int) message.Numeric);
+            Assert.IsFalse(IrcMessageParser.IsKnownNumeric(message.Numeric));
+
+            message = Parse("ping  irc.example");
+            Assert.AreEqual(0, message.Prefix.Count);
+            Assert.AreEqual(IrcCommand.Ping, message.Command);
+            Assert.AreEqual(1, message.ParameterCount);
+            Assert.IsFalse(message.HasTrailing);
+
+            message = Parse("FOO bar");
+            Assert.AreEqual(IrcCommand.Unknown, message.Command);
+            Assert.AreEqual("FOO", Text(message.CommandBytes));
+        }
+
+        /// <summary>
+        /// Tests that the 15th parameter is the trailing parameter and empty trailing parameters.
+        /// </summary>
+        [TestMethod]
+        public void ParametersTest()
+        {
+            var middle = string.Join(" ", Enumerable.Range(1, 14));
+            var message = Parse("CMD " + middle + " 15 and more");
+            Assert.AreEqual(IrcMessage.MaxParameters, message.ParameterCount);
+            Assert.AreEqual("14", Text(message.GetParameter(13)));
+            Assert.AreEqual("15 and more", Text(message.Trailing));
+
+            message = Parse("TOPIC #channel :");
+            Assert.AreEqual(2, message.ParameterCount);
+            Assert.IsTrue(message.HasTrailing);
+            Assert.AreEqual(0, message.Trailing.Count);
+        }
+
+        /// <summary>
+        /// Tests that lines without a command are invalid.
+        /// </summary>
+        [TestMethod]
+        public void InvalidTest()
+        {
+            var message = new IrcMessage();
+            Assert.IsFalse(IrcMessageParser.TryParse(Bytes(""), message));
+            Assert.IsFalse(IrcMessageParser.TryParse(Bytes(":prefix"), message));
+            Assert.IsFalse(IrcMessageParser.TryParse(Bytes(": PING"), message));
+        }
+
+        /// <summary>
+        /// Parse a line that must be valid.
+        /// </summary>
+        /// <param name="line">Line to parse.</param>
+        /// <returns>The parsed message.</returns>
+        private static IrcMessage Parse(string line)
+        {
+            var message = new IrcMessage();
+            Assert.IsTrue(IrcMessageParser.TryParse(Bytes(line), message));
+            return message;
+        }
+
+        /// <summary>
+        /// Get the bytes of a line inside a larger buffer, so offsets are tested, too.
+        /// </summary>
+        /// <param name="line">The line.</param>
+        /// <returns>Segment with the line.</returns>
+        private static ArraySegment<byte> Bytes(string line)
+        {
+            var bytes = Encoding.UTF8.GetBytes("xx" + line + "xx");
+            return new ArraySegment<byte>(bytes, 2, bytes.Length - 4);
+        }
+
+        /// <summary>
+        /// Get a part of a message as text.
+        /// </summary>
+        /// <param name="part">Part of the message.</param>
+        /// <returns>The text.</returns>
+        private static string Text(ArraySegment<byte> part)
+        {
+            return IrcMessage.GetString(part, Encoding.UTF8);
+        }
+    }
+}
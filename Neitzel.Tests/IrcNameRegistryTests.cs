@@ -0,0 +1,94 @@
+﻿using System;
+using System.Text;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Irc;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Tests the IrcNameRegistry and IrcCaseMapping classes.
+    /// </summary>
+    [TestClass]
+    public class IrcNameRegistryTests
+    {
+        /// <summary>
+        /// Tests the RFC 1459 casemapping.
+        /// </summary>
+        [TestMethod]
+        public void CaseMappingTest()
+        {
+            Assert.IsTrue(IrcCaseMapping.Equals("Nick[a]\\~", "nICK{A}|^"));
+            Assert.IsFalse(IrcCaseMapping.Equals("Nick", "Nick_"));
+            Assert.IsFalse(IrcCaseMapping.Equals("a[", "a]"));
+
+            var first = Segment("#Chan[1]~");
+            var second = Segment("#chan{1}^", 3);
+            Assert.IsTrue(IrcCaseMapping.Equals(first, second));
+            Assert.AreEqual(IrcCaseMapping.GetHashCode(first), IrcCaseMapping.GetHashCode(second));
+            Assert.IsFalse(IrcCaseMapping.Equals(first, Segment("#Chan[2]~")));
+        }
+
+        /// <summary>
+        /// Tests lookups with strings and with segments of a received line.
+        /// </summary>
+        [TestMethod]
+        public void LookupTest()
+        {
+            var registry = new IrcNameRegistry<string>();
+            Assert.IsTrue(registry.TryAdd("Alice[away]", "alice"));
+            Assert.IsFalse(registry.TryAdd("ALICE{AWAY}", "other"));
+            Assert.AreEqual(1, registry.Count);
+
+            string value;
+            Assert.IsTrue(registry.TryGetValue("alice{away}", out value));
+            Assert.AreEqual("alice", value);
+
+            var line = Encoding.UTF8.GetBytes("PRIVMSG ALICE[AWAY] :Hi");
+            Assert.IsTrue(registry.TryGetValue(new ArraySegment<byte>(line, 8, 11), out value));
+            Assert.AreEqual("alice", value);
+            Assert.IsFalse(registry.Contains(new ArraySegment<byte>(line, 8, 5)));
+
+            Assert.IsFalse(registry.TryRemove("alice[away]", "other"));
+            Assert.IsTrue(registry.TryRemove("alice[away]", "alice"));
+            Assert.AreEqual(0, registry.Count);
+            Assert.IsFalse(registry.Contains("Alice[away]"));
+        }
+
+        /// <summary>
+        /// Tests the change of names.
+        /// </summary>
+        [TestMethod]
+        public void RenameTest()
+        {
+            var registry = new IrcNameRegistry<string>();
+            registry.TryAdd("alice", "alice");
+            registry.TryAdd("bob", "bob");
+
+            Assert.IsFalse(registry.TryRename("alice", "BOB", "alice"));
+            Assert.IsTrue(registry.TryRename("alice", "ALICE", "alice"));
+            Assert.IsTrue(registry.TryRename("alice", "carol", "alice"));
+            Assert.AreEqual(2, registry.Count);
+            Assert.IsFalse(registry.Contains("alice"));
+
+            string value;
+            Assert.IsTrue(registry.TryGetValue("Carol", out value));
+            Assert.AreEqual("alice", value);
+            Assert.AreEqual("bob", registry.GetOrAdd("Bob", name => name));
+            Assert.AreEqual("Dave", registry.GetOrAdd("Dave", name => name));
+            Assert.AreEqual(3, registry.Count);
+        }
+
+        /// <summary>
+        /// Encode a text.
+        /// </summary>
+        /// <param name="text">The text.</param>
+        /// <param name="offset">Offset of the segment.</param>
+        /// <returns>Segment with the encoded text.</returns>
+        private static ArraySegment<byte> Segment(string text, int offset = 0)
+        {
+            var bytes = new byte[text.Length + offset];
+            Encoding.UTF8.GetBytes(text, 0, text.Length, bytes, offset);
+            return new ArraySegment<byte>(bytes, offset, text.Length);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+﻿using System;
+using System.Diagnostics;
+using System.Linq;
+using System.Text;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Irc;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Measures the time the IrcMessageParser needs per message.
+    /// </summary>
+    [TestClass]
+    public class IrcParserBenchmark
+    {
+        /// <summary>
+        /// Number of parsed messages.
+        /// </summary>
+        public const int Messages = 2000000;
+
+        /// <summary>
+        /// Typical lines of a busy network as a bouncer sees them.
+        /// </summary>
+        private static readonly string[] Lines =
+        {
+            ":nick!~user@host.example.com PRIVMSG #channel :Hello everyone, how are you doing today?",
+            ":irc.example.net 353 me = #channel :@op +voice nick1 nick2 nick3 nick4 nick5 nick6",
+            ":nick!~user@host.example.com JOIN #channel",
+            "PING :irc.example.net",
+            ":nick!~user@host.example.com MODE #channel +ov nick1 nick2",
+            ":irc.example.net 001 me :Welcome to the Internet Relay Network me!user@host",
+            ":nick!~user@host.example.com QUIT :Ping timeout: 240 seconds"
+        };
+
+        /// <summary>
+        /// Test context used to report the results.
+        /// </summary>
+        public TestContext TestContext { get; set; }
+
+        /// <summary>
+        /// Parse a lot of messages and report the time and the allocations per message.
+        /// </summary>
+        [TestMethod]
+        [TestCategory("Benchmark")]
+        public void ParseMessages()
+        {
+            var lines = Lines.Select(l => new ArraySegment<byte>(Encoding.UTF8.GetBytes(l))).ToArray();
+            var message = new IrcMessage();
+
+            // Warm up, so the lookup tables are created and the code is jitted.
+            foreach (var line in lines)
+                Assert.IsTrue(IrcMessageParser.TryParse(line, message));
+
+            AppDomain.MonitoringIsEnabled = true;
+            var allocatedBefore = AppDomain.CurrentDomain.MonitoringTotalAllocatedMemorySize;
+            var parameters = 0L;
+            var stopwatch = Stopwatch.StartNew();
+            for (var index = 0; index < Messages; index++)
+            {
+                IrcMessageParser.TryParse(lines[index % lines.Length], message);
+                parameters += message.ParameterCount;
+            }
+            stopwatch.Stop();
+            var allocated = AppDomain.CurrentDomain.MonitoringTotalAllocatedMemorySize - allocatedBefore;
+
+            TestContext.WriteLine("{0} messages ({1} parameters): {2:F1} ns/message, {3} bytes allocated",
+                Messages, parameters, stopwatch.Elapsed.TotalMilliseconds * 1000000 / Messages, allocated);
+
+            // Parsing must not allocate per message.
+            Assert.IsTrue(allocated < Messages);
+        }
+    }
+}
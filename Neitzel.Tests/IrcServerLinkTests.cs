@@ -0,0 +1,163 @@
+﻿using System;
+using System.Diagnostics;
+using System.IO;
+using System.Net.Sockets;
+using System.Text;
+using System.Threading;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Irc;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Tests the server links of the IrcServer class.
+    /// </summary>
+    [TestClass]
+    public class IrcServerLinkTests
+    {
+        /// <summary>
+        /// First port to use in our tests. The tests use the five ports starting with this one.
+        /// </summary>
+        public const int FirstTestPort = 12350;
+
+        /// <summary>
+        /// Password of the server links.
+        /// </summary>
+        private const string Password = "secret";
+
+        /// <summary>
+        /// Links three servers to a chain, sends a channel message over the chain and splits the last server.
+        /// </summary>
+        [TestMethod]
+        public void NetworkTest()
+        {
+            using (var hub = new IrcServer("a.test", FirstTestPort) { LinkPassword = Password })
+            using (var middle = new IrcServer("b.test", FirstTestPort + 1) { LinkPassword = Password })
+            using (var leaf = new IrcServer("c.test", FirstTestPort + 2) { LinkPassword = Password })
+            {
+                hub.Open();
+                middle.Open();
+                leaf.Open();
+
+                using (var alice = new TcpClient("127.0.0.1", FirstTestPort))
+                {
+                    // alice is known before the link, so c.test gets her with the burst.
+                    var aliceReader = Register(alice, "alice", "a.test");
+                    Send(alice, "JOIN #test");
+                    ReadUntil(aliceReader, " 366 ");
+
+                    middle.Link("127.0.0.1", FirstTestPort);
+                    leaf.Link("127.0.0.1", FirstTestPort + 1);
+                    Assert.IsTrue(WaitFor(() => hub.ServerCount == 2 && leaf.ServerCount == 2), "Servers were not linked.");
+                    Assert.IsTrue(WaitFor(() => leaf.NickCount == 1), "Burst did not arrive.");
+
+                    using (var carol = new TcpClient("127.0.0.1", FirstTestPort + 2))
+                    {
+                        var carolReader = Register(carol, "carol", "c.test");
+
+                        // Nicknames are unique in the whole network.
+                        Send(carol, "NICK ALICE");
+                        Assert.AreEqual(":c.test 433 carol ALICE :Nickname is already in use", ReadUntil(carolReader, " 433 "));
+
+                        Send(carol, "JOIN #test");
+                        Assert.AreEqual(":c.test 353 carol = #test :@alice carol", ReadUntil(carolReader, " 353 "));
+                        StringAssert.StartsWith(ReadUntil(aliceReader, " JOIN "), ":carol!carol@");
+
+                        Send(carol, "PRIVMSG #test :Hello");
+                        StringAssert.EndsWith(ReadUntil(aliceReader, " PRIVMSG "), " PRIVMSG #test :Hello");
+                        Send(alice, "PRIVMSG carol :Hi");
+                        StringAssert.StartsWith(ReadUntil(carolReader, " PRIVMSG "), ":alice!alice@");
+
+                        // Netsplit: all users of c.test leave.
+                        leaf.Close();
+                        Assert.AreEqual(":carol!carol@127.0.0.1 QUIT :b.test c.test", ReadUntil(aliceReader, " QUIT "));
+                        Assert.IsTrue(WaitFor(() => hub.ServerCount == 1 && hub.NickCount == 1), "Split servers were not removed.");
+                    }
+                }
+            }
+        }
+
+        /// <summary>
+        /// A link with the wrong password is refused.
+        /// </summary>
+        [TestMethod]
+        public void BadPasswordTest()
+        {
+            using (var hub = new IrcServer("a.test", FirstTestPort + 3) { LinkPassword = Password })
+            using (var leaf = new IrcServer("c.test", FirstTestPort + 4) { LinkPassword = "wrong" })
+            {
+                hub.Open();
+                leaf.Open();
+
+                var link = leaf.Link("127.0.0.1", FirstTestPort + 3);
+                Assert.IsTrue(WaitFor(() => link.Closed && leaf.Links.Count == 0), "Link was not refused.");
+                Assert.IsFalse(link.Registered);
+                Assert.AreEqual(0, hub.ServerCount);
+            }
+        }
+
+        /// <summary>
+        /// Register a client.
+        /// </summary>
+        /// <param name="client">The client.</param>
+        /// <param name="nick">Nickname of the client.</param>
+        /// <param name="serverName">Name of the server.</param>
+        /// <returns>Reader of the lines of the client.</returns>
+        private static StreamReader Register(TcpClient client, string nick, string serverName)
+        {
+            client.ReceiveTimeout = 5000;
+            var reader = new StreamReader(client.GetStream(), Encoding.UTF8);
+            Send(client, "NICK " + nick);
+            Send(client, "USER " + nick + " 0 * :Test User");
+            StringAssert.StartsWith(ReadUntil(reader, " 001 "), ":" + serverName + " 001 " + nick + " :Welcome");
+            return reader;
+        }
+
+        /// <summary>
+        /// Send a line.
+        /// </summary>
+        /// <param name="client">The client.</param>
+        /// <param name="line">Line without line end.</param>
+        private static void Send(TcpClient client, string line)
+        {
+            var bytes = Encoding.UTF8.GetBytes(line + "\r\n");
+            client.GetStream().Write(bytes, 0, bytes.Length);
+        }
+
+        /// <summary>
+        /// Read lines till a line contains a text.
+        /// </summary>
+        /// <param name="reader">Reader of the client.</param>
+        /// <param name="text">Text to wait for.</param>
+        /// <returns>The line that contains the text.</returns>
+        private static string ReadUntil(StreamReader reader, string text)
+        {
+            while (true)
+            {
+                var line = reader.ReadLine();
+                if (line == null)
+                    throw new IOException("Connection closed.");
+                if (line.Contains(text))
+                    return line;
+            }
+        }
+
+        /// <summary>
+        /// Wait up to five seconds till a condition is true.
+        /// </summary>
+        /// <param name="condition">Condition to wait for.</param>
+        /// <returns>True if the condition became true.</returns>
+        private static bool WaitFor(Func<bool> condition)
+        {
+            var waitTime = Stopwatch.StartNew();
+            while (!condition())
+            {
+                if (waitTime.Elapsed > TimeSpan.FromSeconds(5))
+                    return false;
+                Thread.Sleep(10);
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Globalization;
+using System.IO;
+using System.Linq;
+using System.Net;
+using System.Net.Sockets;
+using System.Text;
+using System.Threading;
+using System.Threading.Tasks;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Irc;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Measures the channel fan-out of the IrcServer with a lot of clients.
+    /// </summary>
+    [TestClass]
+    public class IrcServerLoadTest
+    {
+        /// <summary>
+        /// Port to use in this test.
+        /// </summary>
+        public const int LoadTestPort = 12348;
+
+        /// <summary>
+        /// Number of connected clients.
+        /// </summary>
+        public const int Clients = 10000;
+
+        /// <summary>
+        /// Number of channels. Every client joins one of them.
+        /// </summary>
+        public const int Channels = 1000;
+
+        /// <summary>
+        /// Number of rounds. In each round one member of every channel sends a message.
+        /// </summary>
+        public const int Rounds = 20;
+
+        /// <summary>
+        /// Delivery latencies in stopwatch ticks.
+        /// </summary>
+        private long[] _latencies;
+
+        /// <summary>
+        /// Number of delivered messages.
+        /// </summary>
+        private long _delivered;
+
+        /// <summary>
+        /// Number of clients that joined their channel.
+        /// </summary>
+        private int _joined;
+
+        /// <summary>
+        /// Test context used to report the results.
+        /// </summary>
+        public TestContext TestContext { get; set; }
+
+        /// <summary>
+        /// Hold 10k clients in 1k channels, send messages to all channels and report the messages per second
+        /// and the p99 delivery latency.
+        /// </summary>
+        [TestMethod]
+        [TestCategory("Benchmark")]
+        public void ChannelFanOut()
+        {
+            const int membersPerChannel = Clients / Channels;
+            var expected = (long) Rounds * Channels * (membersPerChannel - 1);
+            _latencies = new long[expected];
+
+            var server = new IrcServer("irc.test", LoadTestPort);
+            server.Open();
+
+            var sockets = new List<Socket>(Clients);
+            var receivers = new List<Task>(Clients);
+            try
+            {
+                // Connect and register all clients, client i joins channel i % Channels.
+                for (var index = 0; index < Clients; index++)
+                {
+                    var socket = new Socket(AddressFamily.InterNetwork, SocketType.Stream, ProtocolType.Tcp) { NoDelay = true };
+                    socket.Connect(new IPEndPoint(IPAddress.Loopback, LoadTestPort));
+                    sockets.Add(socket);
+                    receivers.Add(ReceiveAsync(socket));
+                    Send(socket, string.Format(CultureInfo.InvariantCulture, "NICK u{0}\r\nUSER u{0} 0 * :load\r\nJOIN #c{1}\r\n", index, index % Channels));
+                }
+
+                Assert.IsTrue(WaitFor(() => Volatile.Read(ref _joined) == Clients, TimeSpan.FromMinutes(5)), "Not all clients joined.");
+
+                // In round r member r of every channel sends a message with the current time.
+                var stopwatch = Stopwatch.StartNew();
+                for (var round = 0; round < Rounds; round++)
+                {
+                    for (var channel = 0; channel < Channels; channel++)
+                    {
+                        var sender = sockets[channel + Channels * (round % membersPerChannel)];
+                        Send(sender, string.Format(CultureInfo.InvariantCulture, "PRIVMSG #c{0} :{1}\r\n", channel, Stopwatch.GetTimestamp()));
+                    }
+                }
+
+                var complete = WaitFor(() => Interlocked.Read(ref _delivered) >= expected, TimeSpan.FromMinutes(2));
+                stopwatch.Stop();
+
+                var delivered = Math.Min(Interlocked.Read(ref _delivered), expected);
+                var latencies = _latencies.Take((int) delivered).OrderBy(l => l).ToList();
+                Assert.IsTrue(latencies.Count > 0, "No message was delivered.");
+                TestContext.WriteLine("{0} clients in {1} channels: {2} messages sent, {3} delivered in {4:F0} ms, {5:F0} deliveries/s",
+                    Clients, Channels, Rounds * Channels, delivered, stopwatch.Elapsed.TotalMilliseconds, delivered / stopwatch.Elapsed.TotalSeconds);
+                TestContext.WriteLine("Delivery latency: p50 {0:F3} ms, p99 {1:F3} ms, max {2:F3} ms",
+                    ToMilliseconds(Percentile(latencies, 0.5)), ToMilliseconds(Percentile(latencies, 0.99)), ToMilliseconds(latencies.Last()));
+
+                Assert.IsTrue(complete, "Not all messages were delivered.");
+            }
+            finally
+            {
+                foreach (var socket in sockets)
+                    socket.Dispose();
+                server.Close();
+            }
+        }
+
+        /// <summary>
+        /// Receive the lines of a client and record joins and message latencies.
+        /// </summary>
+        /// <param name="socket">Socket of the client.</param>
+        /// <returns>Task that completes when the connection ended.</returns>
+        private async Task ReceiveAsync(Socket socket)
+        {
+            var buffer = new byte[4096];
+            var count = 0;
+            var message = new IrcMessage();
+            using (var stream = new NetworkStream(socket, false))
+            {
+                while (true)
+                {
+                    int read;
+                    try
+                    {
+                        read = await stream.ReadAsync(buffer, count, buffer.Length - count).ConfigureAwait(false);
+                    }
+                    catch (IOException)
+                    {
+                        return;
+                    }
+                    catch (ObjectDisposedException)
+                    {
+                        return;
+                    }
+
+                    if (read == 0)
+                        return;
+
+                    count += read;
+                    var start = 0;
+                    int end;
+                    while ((end = Array.IndexOf(buffer, (byte) '\n', start, count - start)) >= 0)
+                    {
+                        if (IrcMessageParser.TryParse(new ArraySegment<byte>(buffer, start, end - start), message))
+                            HandleMessage(message);
+                        start = end + 1;
+                    }
+
+                    count -= start;
+                    Buffer.BlockCopy(buffer, start, buffer, 0, count);
+                }
+            }
+        }
+
+        /// <summary>
+        /// Record a received message.
+        /// </summary>
+        /// <param name="message">The message.</param>
+        private void HandleMessage(IrcMessage message)
+        {
+            if (message.Command == IrcCommand.Numeric && message.Numeric == IrcNumeric.RplEndOfNames)
+            {
+                Interlocked.Increment(ref _joined);
+            }
+            else if (message.Command == IrcCommand.Privmsg)
+            {
+                var latency = Stopwatch.GetTimestamp() - long.Parse(IrcMessage.GetString(message.Trailing, Encoding.ASCII), CultureInfo.InvariantCulture);
+                var index = Interlocked.Increment(ref _delivered) - 1;
+                if (index < _latencies.Length)
+                    _latencies[index] = latency;
+            }
+        }
+
+        /// <summary>
+        /// Send a line.
+        /// </summary>
+        /// <param name="socket">Socket to send with.</param>
+        /// <param name="line">Line to send.</param>
+        private static void Send(Socket socket, string line)
+        {
+            socket.Send(Encoding.ASCII.GetBytes(line));
+        }
+
+        /// <summary>
+        /// Wait till a condition is true.
+        /// </summary>
+        /// <param name="condition">Condition to wait for.</param>
+        /// <param name="timeout">Maximum time to wait.</param>
+        /// <returns>True if the condition became true.</returns>
+        private static bool WaitFor(Func<bool> condition, TimeSpan timeout)
+        {
+            var waitTime = Stopwatch.StartNew();
+            while (!condition())
+            {
+                if (waitTime.Elapsed > timeout)
+                    return false;
+                Thread.Sleep(10);
+            }
+
+            return true;
+        }
+
+        /// <summary>
+        /// Gets a percentile of sorted values.
+        /// </summary>
+        /// <param name="sorted">Sorted values.</param>
+        /// <param name="percentile">Percentile between 0 and 1.</param>
+        /// <returns>Value of the percentile.</returns>
+        private static long Percentile(List<long> sorted, double percentile)
+        {
+            var index = (int) Math.Ceiling(percentile * sorted.Count) - 1;
+            return sorted[Math.Max(0, index)];
+        }
+
+        /// <summary>
+        /// Convert stopwatch ticks to milliseconds.
+        /// </summary>
+        /// <param name="ticks">Stopwatch ticks.</param>
+        /// <returns>Milliseconds.</returns>
+        private static double ToMilliseconds(long ticks)
+        {
+            return ticks * 1000.0 / Stopwatch.Frequency;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+﻿using System.IO;
+using System.Net.Sockets;
+using System.Text;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Irc;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Tests the IrcServer class.
+    /// </summary>
+    [TestClass]
+    public class IrcServerTests
+    {
+        /// <summary>
+        /// Port to use in our tests.
+        /// </summary>
+        public const int TestPort = 12349;
+
+        /// <summary>
+        /// Tests registration, channel messages and the moderated mode.
+        /// </summary>
+        [TestMethod]
+        public void ChannelMessageTest()
+        {
+            using (var server = new IrcServer("irc.test", TestPort))
+            {
+                server.Open();
+
+                using (var alice = new TcpClient("127.0.0.1", TestPort))
+                using (var bob = new TcpClient("127.0.0.1", TestPort))
+                {
+                    var aliceReader = Register(alice, "alice");
+                    var bobReader = Register(bob, "bob");
+
+                    // The first member becomes operator of the new channel.
+                    Send(alice, "JOIN #test");
+                    Assert.AreEqual(":irc.test 353 alice = #test :@alice", ReadUntil(aliceReader, " 353 "));
+                    Send(bob, "JOIN #TEST");
+                    ReadUntil(bobReader, " 366 ");
+                    StringAssert.StartsWith(ReadUntil(aliceReader, " JOIN "), ":bob!bob@");
+
+                    // Messages go to the other members only.
+                    Send(bob, "PRIVMSG #test :Hello");
+                    StringAssert.EndsWith(ReadUntil(aliceReader, " PRIVMSG "), " PRIVMSG #test :Hello");
+
+                    // In a moderated channel bob needs voice.
+                    Send(alice, "MODE #test +m");
+                    StringAssert.EndsWith(ReadUntil(bobReader, " MODE "), " MODE #test +m");
+                    Send(bob, "PRIVMSG #test :Hidden");
+                    Assert.AreEqual(":irc.test 404 bob #test :Cannot send to channel", ReadUntil(bobReader, " 404 "));
+
+                    Send(alice, "MODE #test +v bob");
+                    StringAssert.EndsWith(ReadUntil(bobReader, " MODE "), " MODE #test +v bob");
+                    Send(bob, "PRIVMSG #test :Voiced");
+                    StringAssert.EndsWith(ReadUntil(aliceReader, " PRIVMSG "), " PRIVMSG #test :Voiced");
+
+                    Assert.AreEqual(1, server.ChannelCount);
+                }
+            }
+        }
+
+        /// <summary>
+        /// Register a client.
+        /// </summary>
+        /// <param name="client">The client.</param>
+        /// <param name="nick">Nickname of the client.</param>
+        /// <returns>Reader of the lines of the client.</returns>
+        private static StreamReader Register(TcpClient client, string nick)
+        {
+            client.ReceiveTimeout = 5000;
+            var reader = new StreamReader(client.GetStream(), Encoding.UTF8);
+            Send(client, "NICK " + nick);
+            Send(client, "USER " + nick + " 0 * :Test User");
+            StringAssert.StartsWith(ReadUntil(reader, " 001 "), ":irc.test 001 " + nick + " :Welcome");
+            return reader;
+        }
+
+        /// <summary>
+        /// Send a line.
+        /// </summary>
+        /// <param name="client">The client.</param>
+        /// <param name="line">Line without line end.</param>
+        private static void Send(TcpClient client, string line)
+        {
+            var bytes = Encoding.UTF8.GetBytes(line + "\r\n");
+            client.GetStream().Write(bytes, 0, bytes.Length);
+        }
+
+        /// <summary>
+        /// Read lines till a line contains a text.
+        /// </summary>
+        /// <param name="reader">Reader of the client.</param>
+        /// <param name="text">Text to wait for.</param>
+        /// <returns>The line that contains the text.</returns>
+        private static string ReadUntil(StreamReader reader, string text)
+        {
+            while (true)
+            {
+                var line = reader.ReadLine();
+                if (line == null)
+                    throw new IOException("Connection closed.");
+                if (line.Contains(text))
+                    return line;
+            }
+        }
+    }
+}
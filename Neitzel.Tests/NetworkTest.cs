@@ -1,7 +1,10 @@
-﻿using System.Collections.Generic;
+﻿using System;
+using System.Collections.Generic;
 using System.Linq;
+using System.Net;
 using System.Text;
 using System.Threading;
+using System.Threading.Tasks;
 using Microsoft.VisualStudio.TestTools.UnitTesting;
 using Neitzel.Network;
 
@@ -85,6 +88,558 @@ namespace Neitzel.Tests
             client.Close();
         }
 
+        /// <summary>
+        /// Tests a TcpIpServerConnection with multiple io shards.
+        /// </summary>
+        [TestMethod]
+        public void ShardedServerTests()
+        {
+            // Create and start a server with 2 shards.
+            var server = new TcpIpServerConnection(TestPort) { IoShardCount = 2 };
+            server.Open();
+            server.MessageReceived += MessageReceived;
+
+            // Connect 4 clients and send a message from each client.
+            var byteMessage = new byte[] { 1, 2, 3 };
+            var clients = new List<TcpIpClientConnection>();
+            for (var index = 0; index < 4; index++)
+            {
+                var client = new TcpIpClientConnection("127.0.0.1", TestPort);
+                client.Connect();
+                client.SendMessage(byteMessage);
+                clients.Add(client);
+            }
+
+            // Sleep so messages can arrive
+            Thread.Sleep(1000);
+
+            // The clients are assigned round robin and every message arrived.
+            Assert.AreEqual(2, server.ShardStatistics.Count);
+            Assert.IsTrue(server.ShardStatistics.All(s => s.Connections == 2));
+            Assert.AreEqual(4, server.ShardStatistics.Sum(s => s.MessagesReceived));
+            Assert.AreEqual(4, ReceivedMessages.Count);
+
+            foreach (var client in clients)
+                client.Close();
+            server.Close();
+        }
+
+        /// <summary>
+        /// Tests the ReceiveMode.Pooled of the TcpIpServerConnection.
+        /// </summary>
+        [TestMethod]
+        public void PooledReceiveTests()
+        {
+            // Create and start a server that reuses the event arguments.
+            var received = new List<byte[]>();
+            var receivedArgs = new List<BytesReceivedEventArgs>();
+            var server = new TcpIpServerConnection(TestPort) { IoMode = ServerIoMode.Asynchronous, ReceiveMode = ReceiveMode.Pooled };
+            server.MessageReceived += (s, e) =>
+            {
+                received.Add(e.ToArray());
+                receivedArgs.Add(e);
+            };
+            server.Open();
+
+            var client = new TcpIpClientConnection("127.0.0.1", TestPort);
+            client.Connect();
+
+            // Send two messages.
+            var firstMessage = new byte[] { 1, 2, 3 };
+            var secondMessage = new byte[] { 4, 5, 6, 7 };
+            client.SendMessage(firstMessage);
+            Thread.Sleep(500);
+            client.SendMessage(secondMessage);
+            Thread.Sleep(500);
+
+            // The copies are correct and the event arguments were reused.
+            Assert.AreEqual(2, received.Count);
+            Assert.IsTrue(firstMessage.SequenceEqual(received[0]));
+            Assert.IsTrue(secondMessage.SequenceEqual(received[1]));
+            Assert.AreSame(receivedArgs[0], receivedArgs[1]);
+
+            client.Close();
+            server.Close();
+        }
+
+        /// <summary>
+        /// Tests that a pooled connection in ServerIoMode.Polling that is closed by its own handler keeps its
+        /// buffer till the io shard dropped it.
+        /// </summary>
+        [TestMethod]
+        public void PooledCloseInHandlerTests()
+        {
+            var sameArray = false;
+            var handled = new ManualResetEventSlim();
+            var server = new TcpIpServerConnection(TestPort) { IoMode = ServerIoMode.Polling, ReceiveMode = ReceiveMode.Pooled };
+            server.MessageReceived += (s, e) =>
+            {
+                // E.g. a QUIT: the rest of the received bytes is still parsed after the close.
+                ((TcpIpServerConnection.ClientConnection) s).Close();
+
+                // A new connection must not get the buffer that is still in use.
+                var rented = BufferPool.Shared.Rent(e.Data.Array.Length);
+                sameArray = rented == e.Data.Array;
+                BufferPool.Shared.Return(rented);
+                handled.Set();
+            };
+            server.Open();
+
+            var client = new TcpIpClientConnection("127.0.0.1", TestPort);
+            client.Connect();
+            client.SendMessage(new byte[] { 1, 2, 3 });
+
+            Assert.IsTrue(handled.Wait(5000));
+            Assert.IsFalse(sameArray);
+
+            client.Close();
+            server.Close();
+        }
+
+        /// <summary>
+        /// Tests the send queues of the TcpIpServerConnection.
+        /// </summary>
+        [TestMethod]
+        public void QueuedSendTests()
+        {
+            // Create and start a server with send queues.
+            var server = new TcpIpServerConnection(TestPort) { SendQueueOptions = new SendQueueOptions() };
+            server.Open();
+            server.MessageReceived += MessageReceived;
+
+            var client = new TcpIpClientConnection("127.0.0.1", TestPort);
+            client.MessageReceived += MessageReceived;
+            client.Connect();
+            client.SendMessage(new byte[] { 1 });
+
+            // Sleep so message can arrive
+            Thread.Sleep(1000);
+
+            // Queue a few messages from the server to the client.
+            var clientConnectionInServer = (TcpIpServerConnection.ClientConnection) ReceivedMessages.Keys.First();
+            for (byte index = 0; index < 10; index++)
+                clientConnectionInServer.Send(new[] { index });
+
+            // Sleep so messages can arrive
+            Thread.Sleep(1000);
+
+            // All bytes arrived in order and the queue is empty.
+            var bytes = ReceivedMessages[client].Reverse().SelectMany(e => e.ReceivedBytes).ToArray();
+            Assert.IsTrue(Enumerable.Range(0, 10).Select(i => (byte) i).SequenceEqual(bytes));
+            Assert.AreEqual(10, clientConnectionInServer.SendQueue.MessagesSent);
+            Assert.AreEqual(0, clientConnectionInServer.SendQueue.QueueLength);
+            Assert.AreEqual(0, clientConnectionInServer.SendQueue.PendingBytes);
+
+            client.Close();
+            server.Close();
+        }
+
+        /// <summary>
+        /// Tests that the rate limit delays the input of a flooding client.
+        /// </summary>
+        [TestMethod]
+        public void RateLimitTests()
+        {
+            // 10 lines per second with a burst of 5 lines.
+            var receivedBytes = 0;
+            var server = new TcpIpServerConnection(TestPort)
+            {
+                IoMode = ServerIoMode.Asynchronous,
+                RateLimitOptions = new RateLimitOptions { MessagesPerSecond = 10, BurstMessages = 5, PenaltyDelay = TimeSpan.Zero }
+            };
+            server.MessageReceived += (s, e) => Interlocked.Add(ref receivedBytes, e.ReceivedBytes.Length);
+            server.Open();
+
+            var client = new TcpIpClientConnection("127.0.0.1", TestPort);
+            client.Connect();
+            for (var index = 0; index < 30; index++)
+            {
+                client.SendMessage(Encoding.ASCII.GetBytes("flood\n"));
+                Thread.Sleep(5);
+            }
+
+            // The client is throttled: the 30 lines need about 2.5 seconds.
+            Thread.Sleep(1000);
+            Assert.IsTrue(Volatile.Read(ref receivedBytes) < 30 * 6);
+            var clientConnectionInServer = server.Clients.Single();
+            Assert.IsTrue(clientConnectionInServer.RateLimitStatistics.Throttles > 0);
+
+            Thread.Sleep(3000);
+            Assert.AreEqual(30 * 6, Volatile.Read(ref receivedBytes));
+            Assert.AreEqual(30, clientConnectionInServer.RateLimitStatistics.MessagesReceived);
+            Assert.IsTrue(clientConnectionInServer.RateLimitStatistics.ThrottledTime > TimeSpan.FromSeconds(1));
+
+            client.Close();
+            server.Close();
+        }
+
+        /// <summary>
+        /// Tests that queued messages are written together on Flush.
+        /// </summary>
+        [TestMethod]
+        public void FlushTests()
+        {
+            var server = new TcpIpServerConnection(TestPort);
+            server.Open();
+            server.MessageReceived += MessageReceived;
+
+            // Messages of the client wait till Flush is called.
+            var client = new TcpIpClientConnection("127.0.0.1", TestPort)
+            {
+                SendQueueOptions = new SendQueueOptions { FlushDelay = Timeout.InfiniteTimeSpan }
+            };
+            client.Connect();
+            for (byte index = 0; index < 10; index++)
+                client.SendMessage(new[] { index });
+
+            Thread.Sleep(500);
+            Assert.AreEqual(10, client.SendQueue.QueueLength);
+            Assert.AreEqual(0, ReceivedMessages.Count);
+
+            client.Flush();
+
+            // Sleep so messages can arrive
+            Thread.Sleep(1000);
+
+            // All messages were written with one send.
+            Assert.AreEqual(1, client.SendQueue.BatchesSent);
+            Assert.AreEqual(10, client.SendQueue.MessagesSent);
+            var bytes = ReceivedMessages.Values.Single().Reverse().SelectMany(e => e.ReceivedBytes).ToArray();
+            Assert.IsTrue(Enumerable.Range(0, 10).Select(i => (byte) i).SequenceEqual(bytes));
+
+            client.Close();
+            server.Close();
+        }
+
+        /// <summary>
+        /// Tests that a blocked sender does not wait for an infinite flush delay.
+        /// </summary>
+        [TestMethod]
+        public void BlockedFlushTests()
+        {
+            var server = new TcpIpServerConnection(TestPort);
+            server.Open();
+            server.MessageReceived += MessageReceived;
+
+            var client = new TcpIpClientConnection("127.0.0.1", TestPort)
+            {
+                SendQueueOptions = new SendQueueOptions
+                {
+                    FlushDelay = Timeout.InfiniteTimeSpan,
+                    MaxQueueLength = 2,
+                    OverflowPolicy = SendOverflowPolicy.Block
+                }
+            };
+            client.Connect();
+
+            // The full queue is flushed, so the sends do not block forever.
+            var sending = Task.Run(() =>
+            {
+                for (byte index = 0; index < 5; index++)
+                    client.SendMessage(new[] { index });
+            });
+            Assert.IsTrue(sending.Wait(5000));
+
+            client.Flush();
+
+            // Sleep so messages can arrive
+            Thread.Sleep(1000);
+
+            var bytes = ReceivedMessages.Values.Single().Reverse().SelectMany(e => e.ReceivedBytes).ToArray();
+            Assert.IsTrue(Enumerable.Range(0, 5).Select(i => (byte) i).SequenceEqual(bytes));
+
+            client.Close();
+            server.Close();
+        }
+
+        /// <summary>
+        /// Tests that a broadcast reaches all clients and a multicast only the selected clients.
+        /// </summary>
+        [TestMethod]
+        public void BroadcastTests()
+        {
+            var server = new TcpIpServerConnection(TestPort) { SendQueueOptions = new SendQueueOptions() };
+            var serverClients = new List<TcpIpServerConnection.ClientConnection>();
+            server.ClientConnected += (s, e) => { lock (serverClients) serverClients.Add(e.Client); };
+            server.Open();
+
+            var clients = Enumerable.Range(0, 3).Select(i => new TcpIpClientConnection("127.0.0.1", TestPort)).ToList();
+            foreach (var client in clients)
+            {
+                client.MessageReceived += MessageReceived;
+                client.Connect();
+            }
+
+            // Sleep so all connections are accepted
+            Thread.Sleep(1000);
+
+            // The message is copied once, so the array can be changed directly after the broadcast.
+            var message = new byte[] { 7, 8, 9 };
+            Assert.AreEqual(3, server.Broadcast(message));
+            message[0] = 0;
+            var selected = serverClients.First();
+            Assert.AreEqual(1, server.Multicast(new ArraySegment<byte>(message, 1, 2), c => c == selected));
+
+            // Sleep so messages can arrive
+            Thread.Sleep(1000);
+
+            var received = clients.Select(c => ReceivedMessages[c].Reverse().SelectMany(e => e.ReceivedBytes).ToArray()).ToList();
+            Assert.AreEqual(2, received.Count(bytes => bytes.SequenceEqual(new byte[] { 7, 8, 9 })));
+            Assert.AreEqual(1, received.Count(bytes => bytes.SequenceEqual(new byte[] { 7, 8, 9, 8, 9 })));
+
+            foreach (var client in clients)
+                client.Close();
+            server.Close();
+        }
+
+        /// <summary>
+        /// Tests the lookup of clients by id and sending to a client from another thread.
+        /// </summary>
+        [TestMethod]
+        public void ClientRegistryTests()
+        {
+            var server = new TcpIpServerConnection(TestPort);
+            server.Open();
+
+            var clients = Enumerable.Range(0, 2).Select(i => new TcpIpClientConnection("127.0.0.1", TestPort)).ToList();
+            foreach (var client in clients)
+            {
+                client.MessageReceived += MessageReceived;
+                client.Connect();
+            }
+
+            // Sleep so all connections are accepted
+            Thread.Sleep(1000);
+
+            Assert.AreEqual(2, server.Clients.Count);
+            var ids = server.Clients.Select(c => c.Id).ToList();
+            Assert.AreEqual(2, ids.Distinct().Count());
+            TcpIpServerConnection.ClientConnection found;
+            Assert.IsTrue(server.Clients.TryGetClient(ids[0], out found));
+            Assert.AreEqual(ids[0], found.Id);
+
+            // Send from a thread pool thread to one client.
+            Assert.IsTrue(ThreadPool.QueueUserWorkItem(state => server.Send(ids[0], new byte[] { 42 })));
+            Assert.IsFalse(server.Send(-1, new byte[] { 42 }));
+
+            // Sleep so message can arrive
+            Thread.Sleep(1000);
+
+            Assert.AreEqual(1, ReceivedMessages.Count);
+            Assert.AreEqual(42, ReceivedMessages.Values.Single().Single().ReceivedBytes.Single());
+
+            foreach (var client in clients)
+                client.Close();
+            server.Close();
+            Assert.AreEqual(0, server.Clients.Count);
+        }
+
+        /// <summary>
+        /// Tests that messages that are split over several receives are parsed from the pipe and echoed
+        /// through the pipe.
+        /// </summary>
+        [TestMethod]
+        public void PipeTests()
+        {
+            var server = new TcpIpServerConnection(TestPort) { IoMode = ServerIoMode.Asynchronous, ReceiveMode = ReceiveMode.Pipe };
+            server.ClientConnected += (s, e) => Task.Run(() => EchoMessages(e.Client.Pipe));
+            server.Open();
+
+            var client = new TcpIpClientConnection("127.0.0.1", TestPort);
+            client.MessageReceived += MessageReceived;
+            client.Connect();
+
+            // Messages end with 0, the first message is split over two sends.
+            client.SendMessage(new byte[] { 1, 2, 3 });
+            Thread.Sleep(200);
+            client.SendMessage(new byte[] { 4, 0, 5, 6, 0 });
+
+            // Sleep so messages can arrive
+            Thread.Sleep(1000);
+
+            var bytes = ReceivedMessages[client].Reverse().SelectMany(e => e.ReceivedBytes).ToArray();
+            Assert.IsTrue(new byte[] { 1, 2, 3, 4, 0, 5, 6, 0 }.SequenceEqual(bytes));
+
+            client.Close();
+            server.Close();
+        }
+
+        /// <summary>
+        /// Tests ConnectAsync with a host name: the addresses are cached and the cache entry is removed when
+        /// no address is reachable.
+        /// </summary>
+        [TestMethod]
+        public void ConnectAsyncTests()
+        {
+            var cache = new DnsCache();
+            var server = new TcpIpServerConnection(TestPort);
+            server.Open();
+
+            // localhost can resolve to ::1 first, the connect falls back to 127.0.0.1.
+            var client = new TcpIpClientConnection("localhost", TestPort) { DnsCache = cache };
+            Assert.IsTrue(client.ConnectAsync().Wait(5000));
+            Assert.IsTrue(client.Connected);
+            Assert.AreEqual(1, cache.Count);
+            client.Close();
+            server.Close();
+
+            // Nobody listens anymore.
+            var refused = new TcpIpClientConnection("localhost", TestPort) { DnsCache = cache };
+            try
+            {
+                refused.ConnectAsync().Wait(5000);
+                Assert.Fail("Connect did not fail.");
+            }
+            catch (AggregateException ex)
+            {
+                Assert.IsInstanceOfType(ex.InnerException, typeof(System.Net.Sockets.SocketException));
+            }
+            finally
+            {
+                refused.Close();
+            }
+
+            Assert.AreEqual(0, cache.Count);
+        }
+
+        /// <summary>
+        /// Tests that a client connects again after the server was restarted and sends the message that was
+        /// sent while the connection was down.
+        /// </summary>
+        [TestMethod]
+        public void ReconnectTests()
+        {
+            var server = new TcpIpServerConnection(TestPort);
+            server.Open();
+
+            var policy = new ReconnectPolicy { InitialDelay = TimeSpan.FromMilliseconds(200), MaxDelay = TimeSpan.FromMilliseconds(200) };
+            var client = new TcpIpClientConnection("127.0.0.1", TestPort) { ReconnectPolicy = policy, SendQueueOptions = new SendQueueOptions() };
+            var reconnected = new ManualResetEventSlim();
+            client.Reconnected += (s, e) => reconnected.Set();
+            client.Connect();
+
+            // The client notices the lost connection and keeps the message.
+            server.Close();
+            for (var wait = 0; wait < 50 && !client.IsReconnecting; wait++)
+                Thread.Sleep(100);
+            Assert.IsTrue(client.IsReconnecting);
+            var byteMessage = new byte[] { 1, 2, 3 };
+            client.SendMessage(byteMessage);
+
+            server = new TcpIpServerConnection(TestPort);
+            server.MessageReceived += MessageReceived;
+            server.Open();
+            Assert.IsTrue(reconnected.Wait(10000));
+            Assert.IsTrue(client.Connected);
+
+            // Sleep so message can arrive
+            Thread.Sleep(1000);
+            var clientConnectionInServer = (TcpIpServerConnection.ClientConnection) ReceivedMessages.Keys.Single();
+            Assert.IsTrue(byteMessage.SequenceEqual(ReceivedMessages[clientConnectionInServer].Pop().ReceivedBytes));
+
+            client.Close();
+            server.Close();
+
+            // The delays stay below the limit of each attempt.
+            var delays = new ReconnectPolicy { InitialDelay = TimeSpan.FromSeconds(1), MaxDelay = TimeSpan.FromSeconds(4) };
+            Assert.IsTrue(delays.GetDelay(1) <= TimeSpan.FromSeconds(1));
+            Assert.IsTrue(delays.GetDelay(2) <= TimeSpan.FromSeconds(2));
+            Assert.IsTrue(delays.GetDelay(10) <= TimeSpan.FromSeconds(4));
+        }
+
+        /// <summary>
+        /// Echo all messages (ending with 0) that are read from the pipe.
+        /// </summary>
+        /// <param name="pipe">Pipe of the connection.</param>
+        /// <returns>Task that ends with the connection.</returns>
+        private static async Task EchoMessages(ConnectionPipe pipe)
+        {
+            while (true)
+            {
+                var result = await pipe.Input.ReadAsync();
+                long consumed = 0;
+                long end;
+                while ((end = result.PositionOf(0, consumed)) >= 0)
+                {
+                    var length = (int) (end + 1 - consumed);
+                    var buffer = pipe.Output.GetBuffer(length);
+                    result.CopyTo(consumed, buffer.Array, buffer.Offset, length);
+                    pipe.Output.Advance(length);
+                    consumed = end + 1;
+                }
+
+                pipe.Output.Flush();
+                pipe.Input.AdvanceTo(consumed, result.Length);
+                if (result.IsCompleted)
+                {
+                    pipe.Input.Complete();
+                    return;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Tests that one server listens on several endpoints with a shared client registry.
+        /// </summary>
+        [TestMethod]
+        public void MultipleEndpointsTests()
+        {
+            foreach (var ioMode in new[] { ServerIoMode.Polling, ServerIoMode.Asynchronous })
+            {
+                var server = new TcpIpServerConnection { IoMode = ioMode, IoShardCount = 2 };
+                server.Endpoints.Add(new IPEndPoint(IPAddress.Loopback, 0));
+                server.Endpoints.Add(new IPEndPoint(IPAddress.Loopback, 0));
+                server.Open();
+                Assert.AreEqual(2, server.LocalEndPoints.Count);
+
+                var clients = server.LocalEndPoints
+                    .Cast<IPEndPoint>()
+                    .Select(e => new TcpIpClientConnection("127.0.0.1", e.Port))
+                    .ToList();
+                foreach (var client in clients)
+                    client.Connect();
+
+                // Wait till the server accepted both clients.
+                for (var wait = 0; wait < 50 && server.Clients.Count < 2; wait++)
+                    Thread.Sleep(100);
+                Assert.AreEqual(2, server.Clients.Count);
+
+                foreach (var client in clients)
+                    client.Close();
+                server.Close();
+            }
+        }
+
+        /// <summary>
+        /// Tests that a dual mode listener accepts IPv4 clients and reports their IPv4 address.
+        /// </summary>
+        [TestMethod]
+        public void DualModeTests()
+        {
+            if (!System.Net.Sockets.Socket.OSSupportsIPv6)
+                Assert.Inconclusive("IPv6 is not supported.");
+
+            var server = new TcpIpServerConnection();
+            server.Endpoints.Add(new IPEndPoint(IPAddress.IPv6Any, 0));
+            server.Open();
+            var port = ((IPEndPoint) server.LocalEndPoints[0]).Port;
+
+            var ipv4Client = new TcpIpClientConnection("127.0.0.1", port);
+            ipv4Client.Connect();
+            var ipv6Client = new TcpIpClientConnection("::1", port);
+            ipv6Client.Connect();
+
+            for (var wait = 0; wait < 50 && server.Clients.Count < 2; wait++)
+                Thread.Sleep(100);
+            var addresses = server.Clients.Select(c => ((IPEndPoint) c.RemoteEndPoint).Address).ToList();
+            CollectionAssert.Contains(addresses, IPAddress.Loopback);
+            CollectionAssert.Contains(addresses, IPAddress.IPv6Loopback);
+
+            ipv4Client.Close();
+            ipv6Client.Close();
+            server.Close();
+        }
+
         /// <summary>
         /// Handler that receives Messages.
         /// </summary>
@@ -92,11 +647,15 @@ namespace Neitzel.Tests
         /// <param name="bytesReceivedEvent">Event with received message.</param>
         public void MessageReceived(object sender, BytesReceivedEventArgs bytesReceivedEvent)
         {
-            if (!ReceivedMessages.ContainsKey(sender))
-                ReceivedMessages.Add(sender, new Stack<BytesReceivedEventArgs>());
+            // Lock because the shards of a server raise their events in parallel.
+            lock (ReceivedMessages)
+            {
+                if (!ReceivedMessages.ContainsKey(sender))
+                    ReceivedMessages.Add(sender, new Stack<BytesReceivedEventArgs>());
 
-            var stackofMessages = ReceivedMessages[sender];
-            stackofMessages.Push(bytesReceivedEvent);
+                var stackofMessages = ReceivedMessages[sender];
+                stackofMessages.Push(bytesReceivedEvent);
+            }
         }
 
         /// <summary>
@@ -0,0 +1,123 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Linq;
+using System.Net;
+using System.Net.Sockets;
+using System.Threading;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Network;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Compares the receive latency of the different ServerIoModes of the TcpIpServerConnection.
+    /// </summary>
+    [TestClass]
+    public class ServerIoModeBenchmark
+    {
+        /// <summary>
+        /// Port to use in this benchmark.
+        /// </summary>
+        public const int BenchmarkPort = 12346;
+
+        /// <summary>
+        /// Number of idle connections that are open while we measure.
+        /// </summary>
+        public const int IdleConnections = 500;
+
+        /// <summary>
+        /// Number of measured round trips.
+        /// </summary>
+        public const int RoundTrips = 1000;
+
+        /// <summary>
+        /// Test context used to report the results.
+        /// </summary>
+        public TestContext TestContext { get; set; }
+
+        /// <summary>
+        /// Measures the round trip time of small messages in both modes while a lot of idle connections are open.
+        /// </summary>
+        [TestMethod]
+        [TestCategory("Benchmark")]
+        public void CompareIoModes()
+        {
+            var polling = MeasureRoundTrips(ServerIoMode.Polling);
+            var asynchronous = MeasureRoundTrips(ServerIoMode.Asynchronous);
+
+            Report(ServerIoMode.Polling, polling);
+            Report(ServerIoMode.Asynchronous, asynchronous);
+
+            Assert.IsTrue(TestHelpers.Percentile(asynchronous, 0.99) <= TestHelpers.Percentile(polling, 0.99));
+        }
+
+        /// <summary>
+        /// Measure the round trips with a server in the given mode.
+        /// </summary>
+        /// <param name="mode">Mode of the server.</param>
+        /// <returns>Round trip times in milliseconds.</returns>
+        private static List<double> MeasureRoundTrips(ServerIoMode mode)
+        {
+            var connected = 0;
+            var server = new TcpIpServerConnection(BenchmarkPort) { IoMode = mode };
+            server.ClientConnected += (s, e) => Interlocked.Increment(ref connected);
+            server.MessageReceived += (s, e) => ((TcpIpServerConnection.ClientConnection) s).Send(e.ReceivedBytes);
+            server.Open();
+
+            var sockets = new List<Socket>();
+            try
+            {
+                // Open all connections and wait till the server accepted them.
+                for (var index = 0; index <= IdleConnections; index++)
+                {
+                    var socket = new Socket(AddressFamily.InterNetwork, SocketType.Stream, ProtocolType.Tcp);
+                    socket.Connect(new IPEndPoint(IPAddress.Loopback, BenchmarkPort));
+                    sockets.Add(socket);
+                }
+
+                var waitTime = Stopwatch.StartNew();
+                while (connected <= IdleConnections && waitTime.Elapsed.TotalSeconds < 120)
+                    Thread.Sleep(10);
+                Assert.AreEqual(IdleConnections + 1, connected);
+
+                // Only the last connection is active.
+                var active = sockets.Last();
+                active.NoDelay = true;
+                var message = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+                var buffer = new byte[message.Length];
+                var results = new List<double>(RoundTrips);
+                var stopwatch = new Stopwatch();
+                for (var roundTrip = 0; roundTrip < RoundTrips; roundTrip++)
+                {
+                    stopwatch.Restart();
+                    active.Send(message);
+                    var received = 0;
+                    while (received < buffer.Length)
+                        received += active.Receive(buffer, received, buffer.Length - received, SocketFlags.None);
+                    stopwatch.Stop();
+                    results.Add(stopwatch.Elapsed.TotalMilliseconds);
+                }
+
+                return results;
+            }
+            finally
+            {
+                foreach (var socket in sockets)
+                    socket.Dispose();
+                server.Close();
+            }
+        }
+
+        /// <summary>
+        /// Report the results of a mode.
+        /// </summary>
+        /// <param name="mode">Mode that was measured.</param>
+        /// <param name="values">Round trip times in milliseconds.</param>
+        private void Report(ServerIoMode mode, List<double> values)
+        {
+            TestContext.WriteLine("{0}: {1} idle connections, p50 {2:F3} ms, p99 {3:F3} ms, max {4:F3} ms",
+                mode, IdleConnections, TestHelpers.Percentile(values, 0.5), TestHelpers.Percentile(values, 0.99), values.Max());
+        }
+    }
+}
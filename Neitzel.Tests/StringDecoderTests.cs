@@ -0,0 +1,118 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Text;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Network;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Tests the StringDecoder class.
+    /// </summary>
+    [TestClass]
+    public class StringDecoderTests
+    {
+        /// <summary>
+        /// Tests that lines and characters that are split over several receives are decoded correctly.
+        /// </summary>
+        [TestMethod]
+        public void SplitLinesTest()
+        {
+            var lines = new List<string>();
+            var decoder = new StringDecoder(Encoding.UTF8);
+            decoder.MessageDecoded += (s, e) => lines.Add(e.Message);
+
+            // "ä" is encoded with 2 bytes that arrive in different receives.
+            var bytes = Encoding.UTF8.GetBytes("Hä\r\n\r\nA\nB\r\nrest");
+            Receive(decoder, new object(), bytes, 0, 2);
+            Receive(decoder, new object(), bytes, 2, 2);
+            Receive(decoder, new object(), bytes, 4, bytes.Length - 4);
+
+            // Empty lines are skipped, a LF without CR is part of the line.
+            CollectionAssert.AreEqual(new[] { "Hä", "A\nB" }, lines);
+        }
+
+        /// <summary>
+        /// Tests that too long lines are discarded and decoding continues with the next line.
+        /// </summary>
+        [TestMethod]
+        public void DiscardTest()
+        {
+            var lines = new List<string>();
+            var decoder = new StringDecoder(Encoding.UTF8) { MaxLineLength = 5 };
+            decoder.MessageDecoded += (s, e) => lines.Add(e.Message);
+
+            var sender = new object();
+            Receive(decoder, sender, Encoding.UTF8.GetBytes("abc\r\n123456789"));
+            Receive(decoder, sender, Encoding.UTF8.GetBytes("0123\r"));
+            Receive(decoder, sender, Encoding.UTF8.GetBytes("\nok\r\n1234567\r\nfine\r\n"));
+
+            CollectionAssert.AreEqual(new[] { "abc", "ok", "fine" }, lines);
+        }
+
+        /// <summary>
+        /// Tests that the sender is disposed when a line is too long with LineOverflowPolicy.Disconnect.
+        /// </summary>
+        [TestMethod]
+        public void DisconnectTest()
+        {
+            var decoder = new StringDecoder(Encoding.UTF8) { MaxLineLength = 5, LineOverflowPolicy = LineOverflowPolicy.Disconnect };
+            var sender = new DisposableObject();
+
+            Receive(decoder, sender, Encoding.UTF8.GetBytes("ok\r\n"));
+            Assert.IsFalse(sender.Disposed);
+
+            Receive(decoder, sender, Encoding.UTF8.GetBytes("1234567"));
+            Assert.IsTrue(sender.Disposed);
+        }
+
+        /// <summary>
+        /// Tests that LineDecoded reuses its event arguments and MessageDecoded still gets strings.
+        /// </summary>
+        [TestMethod]
+        public void LineDecodedTest()
+        {
+            var lines = new List<string>();
+            var lengths = new List<int>();
+            var eventArgs = new HashSet<LineDecodedEventArgs>();
+            var decoder = new StringDecoder(Encoding.UTF8);
+            decoder.LineDecoded += (s, e) =>
+            {
+                eventArgs.Add(e);
+                lengths.Add(e.Bytes.Count);
+                Assert.AreEqual('x', e.Chars.Array[e.Chars.Offset]);
+            };
+            decoder.MessageDecoded += (s, e) => lines.Add(e.Message);
+
+            Receive(decoder, new object(), Encoding.UTF8.GetBytes("xä\r\nxyz\r\n"));
+
+            Assert.AreEqual(1, eventArgs.Count);
+            CollectionAssert.AreEqual(new[] { 3, 3 }, lengths);
+            CollectionAssert.AreEqual(new[] { "xä", "xyz" }, lines);
+        }
+
+        /// <summary>
+        /// Hand over received bytes to the decoder.
+        /// </summary>
+        /// <param name="decoder">Decoder to use.</param>
+        /// <param name="sender">Sender of the bytes.</param>
+        /// <param name="bytes">Received bytes.</param>
+        private static void Receive(StringDecoder decoder, object sender, byte[] bytes)
+        {
+            Receive(decoder, sender, bytes, 0, bytes.Length);
+        }
+
+        /// <summary>
+        /// Hand over a part of received bytes to the decoder.
+        /// </summary>
+        /// <param name="decoder">Decoder to use.</param>
+        /// <param name="sender">Sender of the bytes.</param>
+        /// <param name="bytes">Received bytes.</param>
+        /// <param name="offset">Start of the part.</param>
+        /// <param name="count">Length of the part.</param>
+        private static void Receive(StringDecoder decoder, object sender, byte[] bytes, int offset, int count)
+        {
+            decoder.MessageReceiver(sender, new BytesReceivedEventArgs(new ArraySegment<byte>(bytes, offset, count)));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Linq;
+using System.Threading.Tasks;
+using Neitzel.Network;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Helpers that are shared by the tests and benchmarks.
+    /// </summary>
+    internal static class TestHelpers
+    {
+        /// <summary>
+        /// Gets a percentile of the measured values.
+        /// </summary>
+        /// <param name="values">Measured values.</param>
+        /// <param name="percentile">Percentile between 0 and 1.</param>
+        /// <returns>Value of the percentile.</returns>
+        public static double Percentile(List<double> values, double percentile)
+        {
+            var sorted = values.OrderBy(v => v).ToList();
+            var index = (int) Math.Ceiling(percentile * sorted.Count) - 1;
+            return sorted[Math.Max(0, index)];
+        }
+
+        /// <summary>
+        /// Start a server in ServerIoMode.Polling that sends each message back.
+        /// </summary>
+        /// <param name="port">Port of the server.</param>
+        /// <param name="tlsOptions">Options of TLS. Null if the connections are not encrypted.</param>
+        /// <returns>The opened server.</returns>
+        public static TcpIpServerConnection StartEchoServer(int port, TlsServerOptions tlsOptions)
+        {
+            var server = new TcpIpServerConnection(port) { TlsOptions = tlsOptions };
+            server.MessageReceived += (s, e) => ((TcpIpServerConnection.ClientConnection) s).Send(e.ReceivedBytes);
+            server.Open();
+            return server;
+        }
+
+        /// <summary>
+        /// Start a server that answers each length prefixed frame with the same frame after a random delay,
+        /// so the responses can arrive in another order than the requests.
+        /// </summary>
+        /// <param name="port">Port of the server.</param>
+        /// <returns>The opened server.</returns>
+        public static TcpIpServerConnection StartFrameEchoServer(int port)
+        {
+            var random = new Random();
+            var server = new TcpIpServerConnection(port);
+            server.ClientConnected += (s, e) =>
+            {
+                var client = e.Client;
+                var codec = new LengthPrefixFrameCodec();
+                codec.FrameDecoded += (sender, frame) =>
+                {
+                    var response = codec.Encode(frame.Data);
+                    int delay;
+                    lock (random)
+                        delay = random.Next(50);
+                    Task.Delay(delay).ContinueWith(t =>
+                    {
+                        client.Send(response);
+                        response.Release();
+                    });
+                };
+                client.MessageReceived += codec.MessageReceiver;
+            };
+            server.Open();
+            return server;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+﻿using System;
+using System.Threading;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Network;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Tests the TimingWheel class.
+    /// </summary>
+    [TestClass]
+    public class TimingWheelTests
+    {
+        /// <summary>
+        /// Tests that scheduled callbacks are called after their delay, also if the delay needs more than one rotation.
+        /// </summary>
+        [TestMethod]
+        public void ScheduleTest()
+        {
+            using (var wheel = new TimingWheel(TimeSpan.FromMilliseconds(10), 8))
+            {
+                var shortCalled = new ManualResetEventSlim();
+                var longCalled = new ManualResetEventSlim();
+                wheel.Schedule(TimeSpan.FromMilliseconds(30), shortCalled.Set);
+                wheel.Schedule(TimeSpan.FromMilliseconds(300), longCalled.Set);
+
+                Assert.IsTrue(shortCalled.Wait(1000));
+                Assert.IsFalse(longCalled.IsSet);
+                Assert.IsTrue(longCalled.Wait(1000));
+            }
+        }
+
+        /// <summary>
+        /// Tests that cancelled entries are not called.
+        /// </summary>
+        [TestMethod]
+        public void CancelTest()
+        {
+            using (var wheel = new TimingWheel(TimeSpan.FromMilliseconds(10), 8))
+            {
+                var called = 0;
+                var entry = wheel.Schedule(TimeSpan.FromMilliseconds(50), () => Interlocked.Increment(ref called));
+                entry.Cancel();
+
+                Thread.Sleep(200);
+                Assert.AreEqual(0, called);
+            }
+        }
+
+        /// <summary>
+        /// Tests that a server closes a client connection that does not complete its handshake.
+        /// </summary>
+        [TestMethod]
+        public void HandshakeTimeoutTest()
+        {
+            var disconnected = new ManualResetEventSlim();
+            var server = new TcpIpServerConnection(NetworkTest.TestPort)
+            {
+                IoMode = ServerIoMode.Asynchronous,
+                Timeouts = new ConnectionTimeouts(TimeSpan.Zero, TimeSpan.Zero, TimeSpan.Zero, TimeSpan.FromMilliseconds(500))
+            };
+            server.ClientDisconnected += (s, e) => disconnected.Set();
+            server.Open();
+
+            var client = new TcpIpClientConnection("127.0.0.1", NetworkTest.TestPort);
+            client.Connect();
+
+            Assert.IsTrue(disconnected.Wait(5000));
+
+            client.Close();
+            server.Close();
+        }
+    }
+}
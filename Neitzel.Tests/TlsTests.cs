@@ -0,0 +1,298 @@
+﻿using System;
+using System.Net.Security;
+using System.Net.Sockets;
+using System.Runtime.InteropServices;
+using System.Security.Cryptography;
+using System.Security.Cryptography.X509Certificates;
+using System.Text;
+using System.Threading;
+using System.Threading.Tasks;
+using Microsoft.VisualStudio.TestTools.UnitTesting;
+using Neitzel.Network;
+
+namespace Neitzel.Tests
+{
+    /// <summary>
+    /// Tests the TLS connections of TcpIpServerConnection and TcpIpClientConnection.
+    /// </summary>
+    [TestClass]
+    public class TlsTests
+    {
+        /// <summary>
+        /// Port to use in our tests.
+        /// </summary>
+        public const int TestPort = 12358;
+
+        /// <summary>
+        /// Tests that messages are exchanged through TLS and that the second connection resumes the session.
+        /// </summary>
+        [TestMethod]
+        public void HandshakeAndResumptionTest()
+        {
+            using (var certificate = new TestCertificate())
+            {
+                var server = TestHelpers.StartEchoServer(TestPort, new TlsServerOptions(certificate.Certificate));
+                var clientOptions = CreateClientOptions(certificate.Certificate);
+
+                for (var connection = 0; connection < 2; connection++)
+                {
+                    var reply = new TaskCompletionSource<string>();
+                    using (var client = new TcpIpClientConnection("127.0.0.1", TestPort) { TlsOptions = clientOptions })
+                    {
+                        client.MessageReceived += (s, e) => reply.TrySetResult(Encoding.ASCII.GetString(e.ReceivedBytes));
+                        client.Connect();
+                        Assert.IsTrue(client.IsEncrypted);
+
+                        client.SendMessage(Encoding.ASCII.GetBytes("hello"));
+                        Assert.IsTrue(reply.Task.Wait(5000));
+                        Assert.AreEqual("hello", reply.Task.Result);
+                    }
+                }
+
+                Assert.AreEqual(2, clientOptions.Statistics.Handshakes);
+                Assert.AreEqual(1, clientOptions.Statistics.ResumedHandshakes);
+                Assert.AreEqual(0.5, clientOptions.Statistics.ResumptionRate);
+                Assert.IsTrue(clientOptions.Statistics.AverageHandshakeTime > TimeSpan.Zero);
+                Assert.AreEqual(2, server.TlsOptions.Statistics.Handshakes);
+                server.Close();
+            }
+        }
+
+        /// <summary>
+        /// Tests that a client that never finishes its handshake does not stop other clients, and that
+        /// it is closed by the handshake timeout.
+        /// </summary>
+        [TestMethod]
+        public void StalledHandshakeTest()
+        {
+            using (var certificate = new TestCertificate())
+            {
+                var server = TestHelpers.StartEchoServer(TestPort, new TlsServerOptions(certificate.Certificate));
+                server.TlsOptions.HandshakeTimeout = TimeSpan.FromSeconds(1);
+
+                // Connects but sends nothing.
+                using (var stalled = new Socket(AddressFamily.InterNetwork, SocketType.Stream, ProtocolType.Tcp))
+                {
+                    stalled.Connect("127.0.0.1", TestPort);
+
+                    using (var client = new TcpIpClientConnection("127.0.0.1", TestPort) { TlsOptions = CreateClientOptions(certificate.Certificate) })
+                    {
+                        client.Connect();
+                        Assert.IsTrue(client.IsEncrypted);
+                    }
+
+                    // The server closes the stalled socket after the handshake timeout.
+                    Assert.IsTrue(stalled.Poll(5000000, SelectMode.SelectRead));
+                    Assert.AreEqual(0, stalled.Available);
+                }
+
+                Thread.Sleep(100);
+                Assert.AreEqual(1, server.TlsOptions.Statistics.FailedHandshakes);
+                Assert.AreEqual(1, server.TlsOptions.Statistics.Handshakes);
+                server.Close();
+            }
+        }
+
+        /// <summary>
+        /// Tests that the client does not connect to a server with an unknown certificate.
+        /// </summary>
+        [TestMethod]
+        public void UntrustedCertificateTest()
+        {
+            using (var certificate = new TestCertificate())
+            {
+                var server = TestHelpers.StartEchoServer(TestPort, new TlsServerOptions(certificate.Certificate));
+                var options = new TlsClientOptions { TargetHost = "localhost" };
+                using (var client = new TcpIpClientConnection("127.0.0.1", TestPort) { TlsOptions = options })
+                {
+                    try
+                    {
+                        client.Connect();
+                        Assert.Fail("Connected to an untrusted server.");
+                    }
+                    catch (System.Security.Authentication.AuthenticationException)
+                    {
+                        // Expected.
+                    }
+                }
+
+                Assert.AreEqual(1, options.Statistics.FailedHandshakes);
+                server.Close();
+            }
+        }
+
+        /// <summary>
+        /// Create client options that trust only the test certificate.
+        /// </summary>
+        /// <param name="certificate">The test certificate.</param>
+        /// <returns>The options.</returns>
+        private static TlsClientOptions CreateClientOptions(X509Certificate2 certificate)
+        {
+            return new TlsClientOptions
+            {
+                TargetHost = "localhost",
+                ServerCertificateValidation = (sender, remote, chain, errors) =>
+                    remote != null && remote.GetCertHashString() == certificate.Thumbprint
+            };
+        }
+
+        /// <summary>
+        /// A self signed certificate for localhost, created for the test.
+        /// </summary>
+        /// <remarks>
+        /// The key is kept in a CAPI key container that is deleted on Dispose. CertCreateSelfSignCertificate
+        /// is used because the .NET Framework cannot create certificates before version 4.7.2.
+        /// </remarks>
+        private sealed class TestCertificate : IDisposable
+        {
+            private const string ProviderName = "Microsoft Enhanced RSA and AES Cryptographic Provider";
+            private const int ProviderType = 24;
+            private const int KeyExchange = 1;
+            private const int X509AsnEncoding = 1;
+            private const int X500NameString = 3;
+
+            /// <summary>
+            /// The key of the certificate.
+            /// </summary>
+            private readonly RSACryptoServiceProvider _key;
+
+            /// <summary>
+            /// Creates a new instance of TestCertificate.
+            /// </summary>
+            public TestCertificate()
+            {
+                var containerName = "Neitzel.Tests." + Guid.NewGuid().ToString("N");
+                _key = new RSACryptoServiceProvider(2048, new CspParameters(ProviderType, ProviderName, containerName) { KeyNumber = KeyExchange })
+                {
+                    PersistKeyInCsp = true
+                };
+
+                var name = EncodeName("CN=localhost");
+                var nameHandle = GCHandle.Alloc(name, GCHandleType.Pinned);
+                try
+                {
+                    var nameBlob = new CryptoApiBlob { Length = name.Length, Data = nameHandle.AddrOfPinnedObject() };
+                    var keyInfo = new CryptKeyProviderInfo
+                    {
+                        ContainerName = containerName,
+                        ProviderName = ProviderName,
+                        ProviderType = ProviderType,
+                        KeySpec = KeyExchange
+                    };
+                    var start = ToSystemTime(DateTime.UtcNow.AddDays(-1));
+                    var end = ToSystemTime(DateTime.UtcNow.AddDays(1));
+
+                    var context = CertCreateSelfSignCertificate(IntPtr.Zero, ref nameBlob, 0, ref keyInfo, IntPtr.Zero, ref start, ref end, IntPtr.Zero);
+                    if (context == IntPtr.Zero)
+                        throw new CryptographicException(Marshal.GetLastWin32Error());
+
+                    try
+                    {
+                        Certificate = new X509Certificate2(context);
+                    }
+                    finally
+                    {
+                        CertFreeCertificateContext(context);
+                    }
+                }
+                finally
+                {
+                    nameHandle.Free();
+                }
+            }
+
+            /// <summary>
+            /// The certificate with its private key.
+            /// </summary>
+            public X509Certificate2 Certificate { get; }
+
+            /// <summary>
+            /// Delete the certificate and its key container.
+            /// </summary>
+            public void Dispose()
+            {
+                Certificate?.Reset();
+                _key.PersistKeyInCsp = false;
+                _key.Clear();
+            }
+
+            /// <summary>
+            /// Encode a distinguished name.
+            /// </summary>
+            /// <param name="name">The name, e.g. CN=localhost.</param>
+            /// <returns>The encoded name.</returns>
+            private static byte[] EncodeName(string name)
+            {
+                var length = 0;
+                if (!CertStrToName(X509AsnEncoding, name, X500NameString, IntPtr.Zero, null, ref length, IntPtr.Zero))
+                    throw new CryptographicException(Marshal.GetLastWin32Error());
+
+                var encoded = new byte[length];
+                if (!CertStrToName(X509AsnEncoding, name, X500NameString, IntPtr.Zero, encoded, ref length, IntPtr.Zero))
+                    throw new CryptographicException(Marshal.GetLastWin32Error());
+                return encoded;
+            }
+
+            /// <summary>
+            /// Convert a time to a SYSTEMTIME.
+            /// </summary>
+            /// <param name="time">The time in UTC.</param>
+            /// <returns>The SYSTEMTIME.</returns>
+            private static SystemTime ToSystemTime(DateTime time)
+            {
+                return new SystemTime
+                {
+                    Year = (short) time.Year,
+                    Month = (short) time.Month,
+                    DayOfWeek = (short) time.DayOfWeek,
+                    Day = (short) time.Day,
+                    Hour = (short) time.Hour,
+                    Minute = (short) time.Minute,
+                    Second = (short) time.Second
+                };
+            }
+
+            [DllImport("crypt32.dll", CharSet = CharSet.Unicode, SetLastError = true)]
+            private static extern bool CertStrToName(int encodingType, string x500, int stringType, IntPtr reserved, byte[] encoded, ref int encodedLength, IntPtr error);
+
+            [DllImport("crypt32.dll", SetLastError = true)]
+            private static extern IntPtr CertCreateSelfSignCertificate(IntPtr provider, ref CryptoApiBlob subjectIssuer, int flags, ref CryptKeyProviderInfo keyProviderInfo,
+                IntPtr signatureAlgorithm, ref SystemTime startTime, ref SystemTime endTime, IntPtr extensions);
+
+            [DllImport("crypt32.dll")]
+            private static extern bool CertFreeCertificateContext(IntPtr context);
+
+            [StructLayout(LayoutKind.Sequential)]
+            private struct CryptoApiBlob
+            {
+                public int Length;
+                public IntPtr Data;
+            }
+
+            [StructLayout(LayoutKind.Sequential, CharSet = CharSet.Unicode)]
+            private struct CryptKeyProviderInfo
+            {
+                public string ContainerName;
+                public string ProviderName;
+                public int ProviderType;
+                public int Flags;
+                public int ProviderParameterCount;
+                public IntPtr ProviderParameters;
+                public int KeySpec;
+            }
+
+            [StructLayout(LayoutKind.Sequential)]
+            private struct SystemTime
+            {
+                public short Year;
+                public short Month;
+                public short DayOfWeek;
+                public short Day;
+                public short Hour;
+                public short Minute;
+                public short Second;
+                public short Milliseconds;
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+﻿using System;
+using System.Threading.Tasks;
+using Neitzel.Network;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// Streams the lines of a netburst to a server link.
+    /// </summary>
+    /// <remarks>
+    /// Lines are written into chunks of ChunkSize bytes and every full chunk is sent while the next lines
+    /// are written. When more than MaxPendingBytes wait inside the send queue of the link the writer waits
+    /// till the other server read them, so a burst of any size only needs a few chunks of memory.
+    /// </remarks>
+    internal class IrcBurstWriter
+    {
+        #region Constants
+
+        /// <summary>
+        /// Size of a chunk in bytes.
+        /// </summary>
+        public const int ChunkSize = 16 * 1024;
+
+        /// <summary>
+        /// Maximum number of bytes inside the send queue of the link before the writer waits.
+        /// </summary>
+        public const long MaxPendingBytes = 256 * 1024;
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// The link.
+        /// </summary>
+        private readonly IrcServerLink _link;
+
+        /// <summary>
+        /// Current chunk or null.
+        /// </summary>
+        private SharedBuffer _chunk;
+
+        /// <summary>
+        /// Number of bytes inside the current chunk.
+        /// </summary>
+        private int _length;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of IrcBurstWriter.
+        /// </summary>
+        /// <param name="link">Link to write to.</param>
+        /// <param name="line">Builder of the lines.</param>
+        public IrcBurstWriter(IrcServerLink link, IrcLineBuilder line)
+        {
+            if (link == null) throw new ArgumentNullException(nameof(link));
+            if (line == null) throw new ArgumentNullException(nameof(line));
+
+            _link = link;
+            Line = line;
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Builder of the next line.
+        /// </summary>
+        public IrcLineBuilder Line { get; }
+
+        /// <summary>
+        /// Number of written lines.
+        /// </summary>
+        public int LineCount { get; private set; }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Finish the line inside Line and add it to the current chunk.
+        /// </summary>
+        /// <returns>Task that completes when the line was added.</returns>
+        public async Task EndLineAsync()
+        {
+            if (_chunk != null && _length + IrcConstants.MaxMessageLength > ChunkSize)
+                await FlushAsync().ConfigureAwait(false);
+
+            if (_chunk == null)
+                _chunk = new SharedBuffer(ChunkSize);
+
+            _length += Line.WriteTo(_chunk.Data.Array, _length);
+            LineCount++;
+        }
+
+        /// <summary>
+        /// Send the current chunk and wait while the send queue of the link is full.
+        /// </summary>
+        /// <returns>Task that completes when more lines can be written.</returns>
+        public async Task FlushAsync()
+        {
+            if (_chunk == null)
+                return;
+
+            var chunk = _chunk;
+            _chunk = null;
+            try
+            {
+                chunk.SetLength(_length);
+                _link.SendDirect(chunk);
+                _link.Flush();
+            }
+            finally
+            {
+                chunk.Release();
+                _length = 0;
+            }
+
+            while (_link.PendingBytes > MaxPendingBytes && !_link.Closed)
+                await Task.Delay(1).ConfigureAwait(false);
+        }
+
+        /// <summary>
+        /// Release the buffers of the writer when the burst ended. A chunk that was not flushed is dropped.
+        /// </summary>
+        public void Release()
+        {
+            _chunk?.Release();
+            _chunk = null;
+            _length = 0;
+            Line.Release();
+        }
+
+        #endregion
+    }
+}
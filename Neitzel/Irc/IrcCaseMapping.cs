@@ -0,0 +1,149 @@
+﻿using System;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// Compares nicknames and channel names with the RFC 1459 casemapping.
+    /// </summary>
+    /// <remarks>
+    /// Because of IRC's Scandinavian origin the characters {}|^ are the lower case forms of []\~
+    /// (RFC 2812 section 2.2). Other bytes are compared as they are, so names are compared on their
+    /// encoded bytes. Nothing is allocated.
+    /// </remarks>
+    public static class IrcCaseMapping
+    {
+        #region Constants
+
+        /// <summary>
+        /// Offset basis of the FNV-1a hash.
+        /// </summary>
+        private const uint FnvOffsetBasis = 2166136261;
+
+        /// <summary>
+        /// Prime of the FNV-1a hash.
+        /// </summary>
+        private const uint FnvPrime = 16777619;
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// Lower case form of every byte.
+        /// </summary>
+        private static readonly byte[] LowerCase = CreateLowerCaseTable();
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Gets the lower case form of a byte.
+        /// </summary>
+        /// <param name="value">The byte.</param>
+        /// <returns>The lower case form.</returns>
+        public static byte ToLower(byte value)
+        {
+            return LowerCase[value];
+        }
+
+        /// <summary>
+        /// Gets the lower case form of a character.
+        /// </summary>
+        /// <param name="value">The character.</param>
+        /// <returns>The lower case form. Characters above 127 are not changed.</returns>
+        public static char ToLower(char value)
+        {
+            return value < 128 ? (char) LowerCase[value] : value;
+        }
+
+        /// <summary>
+        /// Compares two names.
+        /// </summary>
+        /// <param name="first">First name.</param>
+        /// <param name="second">Second name.</param>
+        /// <returns>True if the names are equal.</returns>
+        public static bool Equals(ArraySegment<byte> first, ArraySegment<byte> second)
+        {
+            if (first.Count != second.Count)
+                return false;
+
+            var firstArray = first.Array;
+            var secondArray = second.Array;
+            for (var index = 0; index < first.Count; index++)
+            {
+                if (LowerCase[firstArray[first.Offset + index]] != LowerCase[secondArray[second.Offset + index]])
+                    return false;
+            }
+
+            return true;
+        }
+
+        /// <summary>
+        /// Compares two names.
+        /// </summary>
+        /// <param name="first">First name.</param>
+        /// <param name="second">Second name.</param>
+        /// <returns>True if the names are equal.</returns>
+        public static bool Equals(string first, string second)
+        {
+            if (first == null || second == null)
+                return first == second;
+            if (first.Length != second.Length)
+                return false;
+
+            for (var index = 0; index < first.Length; index++)
+            {
+                if (ToLower(first[index]) != ToLower(second[index]))
+                    return false;
+            }
+
+            return true;
+        }
+
+        /// <summary>
+        /// Gets the hash code of a name. Names that are equal have the same hash code.
+        /// </summary>
+        /// <param name="name">The name.</param>
+        /// <returns>The hash code.</returns>
+        public static int GetHashCode(ArraySegment<byte> name)
+        {
+            var hash = FnvOffsetBasis;
+            var array = name.Array;
+            var end = name.Offset + name.Count;
+            for (var index = name.Offset; index < end; index++)
+            {
+                hash ^= LowerCase[array[index]];
+                hash *= FnvPrime;
+            }
+
+            return unchecked((int) hash);
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Create the lower case table.
+        /// </summary>
+        /// <returns>The lower case form of every byte.</returns>
+        private static byte[] CreateLowerCaseTable()
+        {
+            var table = new byte[256];
+            for (var index = 0; index < table.Length; index++)
+                table[index] = (byte) index;
+
+            for (var letter = 'A'; letter <= 'Z'; letter++)
+                table[letter] = (byte) (letter + ('a' - 'A'));
+
+            table['['] = (byte) '{';
+            table[']'] = (byte) '}';
+            table['\\'] = (byte) '|';
+            table['~'] = (byte) '^';
+            return table;
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,259 @@
+﻿using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Text;
+using Neitzel.Network;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// A channel of an IrcServer.
+    /// </summary>
+    /// <remarks>
+    /// The members are kept inside an array that is replaced on every join and part. Sending to the channel
+    /// reads the current array without a lock, so a message to a channel with thousands of members is
+    /// serialized once and handed to every member without an allocation or a lock per member. Joins and
+    /// parts copy the array, which is fine because they are a lot less frequent than messages.
+    ///
+    /// Members of other servers get a message through the link of their server. Each link gets the
+    /// message only once, no matter how many members are behind it.
+    /// </remarks>
+    public class IrcChannel
+    {
+        #region Fields
+
+        /// <summary>
+        /// Links a message was already sent to by the current thread.
+        /// </summary>
+        [ThreadStatic]
+        private static List<IrcServerLink> _sentLinks;
+
+        /// <summary>
+        /// Members by user, for lookups without a lock.
+        /// </summary>
+        private readonly ConcurrentDictionary<IrcUser, IrcChannelMember> _memberIndex =
+            new ConcurrentDictionary<IrcUser, IrcChannelMember>();
+
+        /// <summary>
+        /// Current members. The array is never changed, it is replaced.
+        /// </summary>
+        private volatile IrcChannelMember[] _members = new IrcChannelMember[0];
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of IrcChannel.
+        /// </summary>
+        /// <param name="name">Name of the channel.</param>
+        internal IrcChannel(string name)
+        {
+            Name = name;
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Name of the channel.
+        /// </summary>
+        public string Name { get; }
+
+        /// <summary>
+        /// Topic of the channel. Null if no topic is set.
+        /// </summary>
+        public string Topic { get; internal set; }
+
+        /// <summary>
+        /// Modes of the channel.
+        /// </summary>
+        public IrcChannelModes Modes { get; internal set; }
+
+        /// <summary>
+        /// Key of the channel if IrcChannelModes.Key is set.
+        /// </summary>
+        public string Key { get; internal set; }
+
+        /// <summary>
+        /// Maximum number of members if IrcChannelModes.Limit is set.
+        /// </summary>
+        public int UserLimit { get; internal set; }
+
+        /// <summary>
+        /// Current members of the channel.
+        /// </summary>
+        public IReadOnlyList<IrcChannelMember> Members => _members;
+
+        /// <summary>
+        /// Number of members.
+        /// </summary>
+        public int MemberCount => _members.Length;
+
+        /// <summary>
+        /// Lock for all changes of the channel.
+        /// </summary>
+        internal object SyncRoot { get; } = new object();
+
+        /// <summary>
+        /// Was the channel removed from the server because the last member left? Changed inside SyncRoot.
+        /// </summary>
+        internal bool Closed { get; set; }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Find a member.
+        /// </summary>
+        /// <param name="user">User to find.</param>
+        /// <returns>The member or null if the user is not member of the channel.</returns>
+        public IrcChannelMember FindMember(IrcUser user)
+        {
+            if (user == null) throw new ArgumentNullException(nameof(user));
+
+            IrcChannelMember member;
+            return _memberIndex.TryGetValue(user, out member) ? member : null;
+        }
+
+        /// <summary>
+        /// Gets the mode string of the channel, e.g. "+ntk key".
+        /// </summary>
+        /// <returns>The modes.</returns>
+        public string GetModeString()
+        {
+            var modes = new StringBuilder("+");
+            var parameters = new StringBuilder();
+            var current = Modes;
+            if ((current & IrcChannelModes.InviteOnly) != 0) modes.Append('i');
+            if ((current & IrcChannelModes.Moderated) != 0) modes.Append('m');
+            if ((current & IrcChannelModes.NoExternalMessages) != 0) modes.Append('n');
+            if ((current & IrcChannelModes.Private) != 0) modes.Append('p');
+            if ((current & IrcChannelModes.Secret) != 0) modes.Append('s');
+            if ((current & IrcChannelModes.TopicLock) != 0) modes.Append('t');
+            if ((current & IrcChannelModes.Key) != 0)
+            {
+                modes.Append('k');
+                parameters.Append(' ').Append(Key);
+            }
+            if ((current & IrcChannelModes.Limit) != 0)
+            {
+                modes.Append('l');
+                parameters.Append(' ').Append(UserLimit);
+            }
+
+            return modes.Append(parameters).ToString();
+        }
+
+        /// <summary>
+        /// Send a line to all members.
+        /// </summary>
+        /// <param name="line">Line to send. The caller still has to release it.</param>
+        /// <param name="except">
+        /// Member that does not get the line, e.g. the sender. Can be null. If the member belongs to another
+        /// server, the link of that server does not get the line either.
+        /// </param>
+        /// <returns>Number of members and links the line was sent or queued to.</returns>
+        public int Send(SharedBuffer line, IrcUser except)
+        {
+            if (line == null) throw new ArgumentNullException(nameof(line));
+
+            var sentLinks = _sentLinks ?? (_sentLinks = new List<IrcServerLink>());
+            sentLinks.Clear();
+            var exceptLink = except?.Link;
+
+            var count = 0;
+            var members = _members;
+            for (var index = 0; index < members.Length; index++)
+            {
+                var user = members[index].User;
+                if (user == except)
+                    continue;
+
+                var link = user.Link;
+                if (link != null)
+                {
+                    if (link == exceptLink || sentLinks.Contains(link))
+                        continue;
+                    sentLinks.Add(link);
+                }
+
+                if (user.Send(line))
+                    count++;
+            }
+
+            sentLinks.Clear();
+            return count;
+        }
+
+        /// <summary>
+        /// Send a line to all members of this server.
+        /// </summary>
+        /// <param name="line">Line to send. The caller still has to release it.</param>
+        /// <param name="except">Member that does not get the line. Can be null.</param>
+        /// <returns>Number of members the line was sent or queued to.</returns>
+        public int SendLocal(SharedBuffer line, IrcUser except)
+        {
+            if (line == null) throw new ArgumentNullException(nameof(line));
+
+            var count = 0;
+            var members = _members;
+            for (var index = 0; index < members.Length; index++)
+            {
+                var user = members[index].User;
+                if (user != except && user.IsLocal && user.Send(line))
+                    count++;
+            }
+
+            return count;
+        }
+
+        #endregion
+
+        #region Internal Methods
+
+        /// <summary>
+        /// Add a member. Must be called inside SyncRoot.
+        /// </summary>
+        /// <param name="user">User to add.</param>
+        /// <param name="modes">Modes of the member.</param>
+        /// <returns>The new member or null if the user is already member of the channel.</returns>
+        internal IrcChannelMember Add(IrcUser user, IrcMemberModes modes)
+        {
+            var member = new IrcChannelMember(user, modes);
+            if (!_memberIndex.TryAdd(user, member))
+                return null;
+
+            var members = _members;
+            var newMembers = new IrcChannelMember[members.Length + 1];
+            Array.Copy(members, newMembers, members.Length);
+            newMembers[members.Length] = member;
+            _members = newMembers;
+            return member;
+        }
+
+        /// <summary>
+        /// Remove a member. Must be called inside SyncRoot.
+        /// </summary>
+        /// <param name="user">User to remove.</param>
+        /// <returns>True if the user was removed, false if it was not member of the channel.</returns>
+        internal bool Remove(IrcUser user)
+        {
+            IrcChannelMember member;
+            if (!_memberIndex.TryRemove(user, out member))
+                return false;
+
+            var members = _members;
+            var index = Array.IndexOf(members, member);
+            var newMembers = new IrcChannelMember[members.Length - 1];
+            Array.Copy(members, 0, newMembers, 0, index);
+            Array.Copy(members, index + 1, newMembers, index, members.Length - index - 1);
+            _members = newMembers;
+            return true;
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,39 @@
+﻿namespace Neitzel.Irc
+{
+    /// <summary>
+    /// A user that is member of a channel.
+    /// </summary>
+    public class IrcChannelMember
+    {
+        /// <summary>
+        /// Creates a new instance of IrcChannelMember.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="modes">Modes of the member.</param>
+        internal IrcChannelMember(IrcUser user, IrcMemberModes modes)
+        {
+            User = user;
+            Modes = modes;
+        }
+
+        /// <summary>
+        /// The user.
+        /// </summary>
+        public IrcUser User { get; }
+
+        /// <summary>
+        /// Modes of the member.
+        /// </summary>
+        public IrcMemberModes Modes { get; internal set; }
+
+        /// <summary>
+        /// Is the member an operator of the channel?
+        /// </summary>
+        public bool IsOperator => (Modes & IrcMemberModes.Operator) != 0;
+
+        /// <summary>
+        /// Gets the prefix of the nickname inside a NAMES reply ("@" for operators, "+" for voiced members).
+        /// </summary>
+        public string NamePrefix => IsOperator ? "@" : (Modes & IrcMemberModes.Voice) != 0 ? "+" : string.Empty;
+    }
+}
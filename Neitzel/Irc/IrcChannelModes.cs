@@ -0,0 +1,56 @@
+﻿using System;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// Modes of a channel (RFC 2811 section 4).
+    /// </summary>
+    [Flags]
+    public enum IrcChannelModes
+    {
+        /// <summary>
+        /// No mode is set.
+        /// </summary>
+        None = 0,
+
+        /// <summary>
+        /// i: Only invited users may join. Invites are not supported, so nobody can join.
+        /// </summary>
+        InviteOnly = 1,
+
+        /// <summary>
+        /// m: Only operators and voiced members may send messages.
+        /// </summary>
+        Moderated = 2,
+
+        /// <summary>
+        /// n: Only members may send messages to the channel.
+        /// </summary>
+        NoExternalMessages = 4,
+
+        /// <summary>
+        /// p: The channel is private.
+        /// </summary>
+        Private = 8,
+
+        /// <summary>
+        /// s: The channel is secret.
+        /// </summary>
+        Secret = 16,
+
+        /// <summary>
+        /// t: Only operators may change the topic.
+        /// </summary>
+        TopicLock = 32,
+
+        /// <summary>
+        /// k: A key is required to join.
+        /// </summary>
+        Key = 64,
+
+        /// <summary>
+        /// l: The number of members is limited.
+        /// </summary>
+        Limit = 128
+    }
+}
@@ -0,0 +1,675 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.IO;
+using System.Linq;
+using System.Text;
+using System.Threading.Tasks;
+using Neitzel.Network;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// An IRC client with an async/await interface.
+    /// </summary>
+    /// <remarks>
+    /// The client uses a TcpIpClientConnection with a StringDecoder and an IrcMessageEvaluator, so the received
+    /// lines are parsed without copying them. Registration and PING are handled by the client itself.
+    ///
+    /// Commands are pipelined: Send only queues a line and returns. The queue is paced by a token bucket, so
+    /// the client does not run into the flood control of the server (RFC 1459 section 8.10): MaxBurstLines
+    /// lines are sent at once, afterwards one line per LineInterval. The pacing runs on the shared TimingWheel,
+    /// the client has no thread of its own.
+    ///
+    /// Requests like WhoisAsync return a task that completes with the numeric replies of the command, see
+    /// IrcRequest for the correlation. Tasks never continue on the io thread of the connection.
+    ///
+    /// MessageReceived is raised on the io thread for every message, the message is only valid while the
+    /// handler runs.
+    /// </remarks>
+    public class IrcClient : DisposableObject
+    {
+        #region Constants
+
+        /// <summary>
+        /// Default number of lines that are sent at once.
+        /// </summary>
+        public const int DefaultMaxBurstLines = 5;
+
+        /// <summary>
+        /// Numerics that refuse the registration.
+        /// </summary>
+        private static readonly IrcNumeric[] RegistrationErrors =
+        {
+            IrcNumeric.ErrNoNicknameGiven, IrcNumeric.ErrErroneousNickname, IrcNumeric.ErrNicknameInUse,
+            IrcNumeric.ErrNickCollision, IrcNumeric.ErrUnavailableResource, IrcNumeric.ErrPasswordMismatch,
+            IrcNumeric.ErrYoureBannedCreep
+        };
+
+        /// <summary>
+        /// Numerics that end a JOIN.
+        /// </summary>
+        private static readonly IrcNumeric[] JoinEnds =
+        {
+            IrcNumeric.RplEndOfNames, IrcNumeric.ErrNoSuchChannel, IrcNumeric.ErrTooManyChannels,
+            IrcNumeric.ErrChannelIsFull, IrcNumeric.ErrInviteOnlyChannel, IrcNumeric.ErrBannedFromChannel,
+            IrcNumeric.ErrBadChannelKey, IrcNumeric.ErrBadChannelMask, IrcNumeric.ErrUnavailableResource,
+            IrcNumeric.ErrNeedMoreParams
+        };
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(IrcConstants.TraceSourceName);
+
+        /// <summary>
+        /// Lock of the send queue and the pending requests.
+        /// </summary>
+        private readonly object _lock = new object();
+
+        /// <summary>
+        /// Lines that wait for the pacing.
+        /// </summary>
+        private readonly Queue<byte[]> _sendQueue = new Queue<byte[]>();
+
+        /// <summary>
+        /// Requests that wait for their replies, the oldest first.
+        /// </summary>
+        private readonly List<IrcRequest> _requests = new List<IrcRequest>();
+
+        /// <summary>
+        /// Lines that can be sent now.
+        /// </summary>
+        private double _tokens;
+
+        /// <summary>
+        /// Timestamp when _tokens was refilled.
+        /// </summary>
+        private long _lastRefill;
+
+        /// <summary>
+        /// Is the next pass of the send queue scheduled on the timing wheel?
+        /// </summary>
+        private bool _pumpScheduled;
+
+        /// <summary>
+        /// Completion of the registration. Null before ConnectAsync.
+        /// </summary>
+        private TaskCompletionSource<bool> _registration;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of IrcClient.
+        /// </summary>
+        /// <param name="hostName">Host of the server.</param>
+        /// <param name="port">Port of the server.</param>
+        public IrcClient(string hostName, int port)
+            : this(hostName, port, Encoding.UTF8)
+        {
+        }
+
+        /// <summary>
+        /// Creates a new instance of IrcClient.
+        /// </summary>
+        /// <param name="hostName">Host of the server.</param>
+        /// <param name="port">Port of the server.</param>
+        /// <param name="encoding">Encoding of the lines.</param>
+        public IrcClient(string hostName, int port, Encoding encoding)
+        {
+            if (hostName == null) throw new ArgumentNullException(nameof(hostName));
+            if (encoding == null) throw new ArgumentNullException(nameof(encoding));
+
+            Encoding = encoding;
+            Connection = new TcpIpClientConnection(hostName, port)
+            {
+                ReceiveMode = ReceiveMode.Pooled,
+                SendQueueOptions = new SendQueueOptions()
+            };
+
+            var decoder = new StringDecoder(encoding)
+            {
+                MaxLineLength = IrcConstants.MaxMessageLength - 2
+            };
+            var evaluator = new IrcMessageEvaluator();
+            evaluator.MessageEvaluated += (s, e) => HandleMessage(e);
+            decoder.LineDecoded += evaluator.LineReceiver;
+            Connection.MessageReceived += decoder.MessageReceiver;
+            Connection.Disconnected += (s, e) => OnConnectionClosed();
+        }
+
+        /// <summary>
+        /// Dispose this instance.
+        /// </summary>
+        /// <param name="disposing">Controlled dispose not from finalizer.</param>
+        protected override void Dispose(bool disposing)
+        {
+            if (Disposed)
+                return;
+
+            base.Dispose(disposing);
+
+            if (disposing)
+                Connection.Dispose();
+        }
+
+        #endregion
+
+        #region Events
+
+        /// <summary>
+        /// Event that a message was received.
+        /// </summary>
+        /// <remarks>
+        /// This is done on the IO Thread of the socket so keep it a short as possible.
+        /// </remarks>
+        public event EventHandler<IrcMessageEventArgs> MessageReceived;
+
+        /// <summary>
+        /// Event that the connection was closed.
+        /// </summary>
+        public event EventHandler Disconnected;
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// The underlying connection.
+        /// </summary>
+        public TcpIpClientConnection Connection { get; }
+
+        /// <summary>
+        /// Encoding of the lines.
+        /// </summary>
+        public Encoding Encoding { get; }
+
+        /// <summary>
+        /// Current nickname. Null before the registration.
+        /// </summary>
+        public string Nick { get; private set; }
+
+        /// <summary>
+        /// Name of the server as sent with RPL_WELCOME.
+        /// </summary>
+        public string ServerName { get; private set; }
+
+        /// <summary>
+        /// Was the registration accepted by the server?
+        /// </summary>
+        public bool Registered { get; private set; }
+
+        /// <summary>
+        /// Number of lines that are sent at once before the pacing starts.
+        /// </summary>
+        public int MaxBurstLines { get; set; } = DefaultMaxBurstLines;
+
+        /// <summary>
+        /// Time between two lines once the burst is used up. TimeSpan.Zero turns the pacing off.
+        /// </summary>
+        public TimeSpan LineInterval { get; set; } = TimeSpan.FromSeconds(2);
+
+        /// <summary>
+        /// Time the registration and each request wait for their replies.
+        /// </summary>
+        public TimeSpan RequestTimeout { get; set; } = TimeSpan.FromSeconds(30);
+
+        /// <summary>
+        /// Number of lines that wait for the pacing.
+        /// </summary>
+        public int QueuedLines
+        {
+            get
+            {
+                lock (_lock)
+                {
+                    return _sendQueue.Count;
+                }
+            }
+        }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Connect to the server and register.
+        /// </summary>
+        /// <param name="nick">The nickname.</param>
+        /// <param name="userName">The user name.</param>
+        /// <param name="realName">The real name.</param>
+        /// <returns>Task that completes when the server accepted the registration.</returns>
+        public Task ConnectAsync(string nick, string userName, string realName)
+        {
+            return ConnectAsync(nick, userName, realName, null);
+        }
+
+        /// <summary>
+        /// Connect to the server and register with a password.
+        /// </summary>
+        /// <param name="nick">The nickname.</param>
+        /// <param name="userName">The user name.</param>
+        /// <param name="realName">The real name.</param>
+        /// <param name="password">Password of the connection. Null if no password is sent.</param>
+        /// <returns>Task that completes when the server accepted the registration.</returns>
+        public async Task ConnectAsync(string nick, string userName, string realName, string password)
+        {
+            if (nick == null) throw new ArgumentNullException(nameof(nick));
+            if (userName == null) throw new ArgumentNullException(nameof(userName));
+            if (realName == null) throw new ArgumentNullException(nameof(realName));
+            if (Disposed)
+                throw new InvalidOperationException("Instance already disposed!");
+            if (_registration != null)
+                throw new InvalidOperationException("Already connected.");
+
+            var registration = new TaskCompletionSource<bool>(TaskCreationOptions.RunContinuationsAsynchronously);
+            _registration = registration;
+            try
+            {
+                await Connection.ConnectAsync().ConfigureAwait(false);
+            }
+            catch
+            {
+                // Allow another ConnectAsync.
+                _registration = null;
+                throw;
+            }
+
+            lock (_lock)
+            {
+                _tokens = MaxBurstLines;
+                _lastRefill = Stopwatch.GetTimestamp();
+            }
+
+            if (password != null)
+                Send("PASS " + password);
+            Send("NICK " + nick);
+            Send("USER " + userName + " 0 * :" + realName);
+
+            var timeout = TimingWheel.Shared.Schedule(RequestTimeout, () => registration.TrySetException(new TimeoutException("Registration timed out.")));
+            try
+            {
+                await registration.Task.ConfigureAwait(false);
+            }
+            finally
+            {
+                timeout.Cancel();
+            }
+        }
+
+        /// <summary>
+        /// Queue a line. The line is sent as soon as the pacing allows it.
+        /// </summary>
+        /// <param name="line">The line without line end.</param>
+        public void Send(string line)
+        {
+            if (line == null) throw new ArgumentNullException(nameof(line));
+            if (line.IndexOf('\r') >= 0 || line.IndexOf('\n') >= 0)
+                throw new ArgumentException("Line must not contain a line end.", nameof(line));
+            if (_registration == null)
+                throw new InvalidOperationException("Not connected.");
+
+            var bytes = Encoding.GetBytes(line + "\r\n");
+            if (bytes.Length > IrcConstants.MaxMessageLength)
+                throw new ArgumentException("Line is longer than 510 bytes.", nameof(line));
+
+            lock (_lock)
+            {
+                _sendQueue.Enqueue(bytes);
+            }
+
+            Pump();
+        }
+
+        /// <summary>
+        /// Send a message to a user or a channel.
+        /// </summary>
+        /// <param name="target">Nickname or channel.</param>
+        /// <param name="text">The text.</param>
+        public void SendMessage(string target, string text)
+        {
+            if (target == null) throw new ArgumentNullException(nameof(target));
+            if (text == null) throw new ArgumentNullException(nameof(text));
+
+            Send("PRIVMSG " + target + " :" + text);
+        }
+
+        /// <summary>
+        /// Send a notice to a user or a channel.
+        /// </summary>
+        /// <param name="target">Nickname or channel.</param>
+        /// <param name="text">The text.</param>
+        public void SendNotice(string target, string text)
+        {
+            if (target == null) throw new ArgumentNullException(nameof(target));
+            if (text == null) throw new ArgumentNullException(nameof(text));
+
+            Send("NOTICE " + target + " :" + text);
+        }
+
+        /// <summary>
+        /// Send a command and wait for its numeric replies.
+        /// </summary>
+        /// <param name="line">The command line.</param>
+        /// <param name="target">Nickname or channel the replies must contain. Null if it is not checked.</param>
+        /// <param name="replies">Numerics that belong to the command.</param>
+        /// <param name="ends">Numerics that end the command.</param>
+        /// <returns>Task with all replies including the end numeric.</returns>
+        public Task<IList<IrcReply>> RequestAsync(string line, string target, IEnumerable<IrcNumeric> replies, IEnumerable<IrcNumeric> ends)
+        {
+            if (line == null) throw new ArgumentNullException(nameof(line));
+            if (replies == null) throw new ArgumentNullException(nameof(replies));
+            if (ends == null) throw new ArgumentNullException(nameof(ends));
+            if (!Registered)
+                throw new InvalidOperationException("Client is not registered.");
+
+            var space = line.IndexOf(' ');
+            var request = new IrcRequest(space < 0 ? line : line.Substring(0, space), target, replies, ends, Encoding);
+            lock (_lock)
+            {
+                _requests.Add(request);
+            }
+
+            request.Timeout = TimingWheel.Shared.Schedule(RequestTimeout, () =>
+            {
+                lock (_lock)
+                {
+                    _requests.Remove(request);
+                }
+                request.Fail(new TimeoutException("No reply to " + line));
+            });
+
+            try
+            {
+                Send(line);
+            }
+            catch (Exception ex)
+            {
+                lock (_lock)
+                {
+                    _requests.Remove(request);
+                }
+                request.Fail(ex);
+            }
+
+            return request.Task;
+        }
+
+        /// <summary>
+        /// Query information about a user (WHOIS).
+        /// </summary>
+        /// <param name="nick">Nickname of the user.</param>
+        /// <returns>Task with the replies from RPL_WHOISUSER to RPL_ENDOFWHOIS, or ERR_NOSUCHNICK.</returns>
+        public Task<IList<IrcReply>> WhoisAsync(string nick)
+        {
+            if (nick == null) throw new ArgumentNullException(nameof(nick));
+
+            return RequestAsync("WHOIS " + nick, nick,
+                new[] { IrcNumeric.RplAway, IrcNumeric.RplWhoIsUser, IrcNumeric.RplWhoIsServer, IrcNumeric.RplWhoIsOperator,
+                    IrcNumeric.RplWhoIsIdle, IrcNumeric.RplWhoIsChannels, IrcNumeric.ErrNoSuchNick },
+                new[] { IrcNumeric.RplEndOfWhoIs });
+        }
+
+        /// <summary>
+        /// Join a channel.
+        /// </summary>
+        /// <param name="channel">Name of the channel.</param>
+        /// <returns>Task with the topic and names of the channel, or the error numeric.</returns>
+        public Task<IList<IrcReply>> JoinAsync(string channel)
+        {
+            if (channel == null) throw new ArgumentNullException(nameof(channel));
+
+            return RequestAsync("JOIN " + channel, channel, new[] { IrcNumeric.RplTopic, IrcNumeric.RplNameReply }, JoinEnds);
+        }
+
+        /// <summary>
+        /// Query the members of a channel (NAMES).
+        /// </summary>
+        /// <param name="channel">Name of the channel.</param>
+        /// <returns>Task with the RPL_NAMREPLY lines and RPL_ENDOFNAMES.</returns>
+        public Task<IList<IrcReply>> NamesAsync(string channel)
+        {
+            if (channel == null) throw new ArgumentNullException(nameof(channel));
+
+            return RequestAsync("NAMES " + channel, channel, new[] { IrcNumeric.RplNameReply }, new[] { IrcNumeric.RplEndOfNames });
+        }
+
+        /// <summary>
+        /// Leave the server. The server closes the connection.
+        /// </summary>
+        /// <param name="reason">Reason that is shown to the other users.</param>
+        public void Quit(string reason)
+        {
+            Send(reason == null ? "QUIT" : "QUIT :" + reason);
+        }
+
+        /// <summary>
+        /// Close the connection.
+        /// </summary>
+        public void Close()
+        {
+            Dispose();
+        }
+
+        #endregion
+
+        #region Protected Methods
+
+        /// <summary>
+        /// Send the MessageReceived Event
+        /// </summary>
+        /// <param name="e">The message.</param>
+        protected virtual void OnMessageReceived(IrcMessageEventArgs e)
+        {
+            var handler = MessageReceived;
+            handler?.Invoke(this, e);
+        }
+
+        /// <summary>
+        /// Send the Disconnected Event
+        /// </summary>
+        protected virtual void OnDisconnected()
+        {
+            var handler = Disconnected;
+            handler?.Invoke(this, EventArgs.Empty);
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Handle a received message.
+        /// </summary>
+        /// <param name="e">The message.</param>
+        private void HandleMessage(IrcMessageEventArgs e)
+        {
+            var message = e.Message;
+            switch (message.Command)
+            {
+                case IrcCommand.Ping:
+                    // PONG does not wait for the pacing, the server closes clients that answer too late.
+                    var pong = new IrcLineBuilder(Encoding).Append("PONG");
+                    if (message.ParameterCount > 0)
+                        pong.Append(" :").Append(message.GetParameter(message.ParameterCount - 1));
+                    SendNow(pong.ToSharedBuffer());
+                    break;
+                case IrcCommand.Nick:
+                    if (Nick != null && message.ParameterCount > 0 && IrcCaseMapping.Equals(GetString(message.PrefixName), Nick))
+                        Nick = GetString(message.GetParameter(0));
+                    break;
+                case IrcCommand.Error:
+                    _registration?.TrySetException(new IOException("Server closed the connection: " + message));
+                    break;
+                case IrcCommand.Numeric:
+                    HandleNumeric(message);
+                    break;
+            }
+
+            OnMessageReceived(e);
+        }
+
+        /// <summary>
+        /// Handle a numeric reply: complete the registration or add it to its request.
+        /// </summary>
+        /// <param name="message">The numeric reply.</param>
+        private void HandleNumeric(IrcMessage message)
+        {
+            if (!Registered)
+            {
+                if (message.Numeric == IrcNumeric.RplWelcome && message.ParameterCount > 0)
+                {
+                    Nick = GetString(message.GetParameter(0));
+                    ServerName = GetString(message.PrefixName);
+                    Registered = true;
+                    Connection.CompleteHandshake();
+                    _registration?.TrySetResult(true);
+                }
+                else if (Array.IndexOf(RegistrationErrors, message.Numeric) >= 0)
+                {
+                    _registration?.TrySetException(new InvalidOperationException("Registration refused: " + message));
+                }
+
+                return;
+            }
+
+            IrcRequest completed = null;
+            lock (_lock)
+            {
+                var request = _requests.FirstOrDefault(r => r.Matches(message));
+                if (request != null && request.Add(message, Encoding))
+                {
+                    _requests.Remove(request);
+                    completed = request;
+                }
+            }
+
+            completed?.Complete();
+        }
+
+        /// <summary>
+        /// The connection was closed: fail the registration and all requests.
+        /// </summary>
+        private void OnConnectionClosed()
+        {
+            List<IrcRequest> requests;
+            lock (_lock)
+            {
+                requests = _requests.ToList();
+                _requests.Clear();
+                _sendQueue.Clear();
+            }
+
+            _registration?.TrySetException(new IOException("Connection closed."));
+            foreach (var request in requests)
+                request.Fail(new IOException("Connection closed."));
+
+            OnDisconnected();
+        }
+
+        /// <summary>
+        /// Send the queued lines that the pacing allows and schedule the next pass for the rest.
+        /// </summary>
+        private void Pump()
+        {
+            lock (_lock)
+            {
+                if (LineInterval > TimeSpan.Zero)
+                {
+                    var now = Stopwatch.GetTimestamp();
+                    var elapsed = (now - _lastRefill) * ((double) TimeSpan.TicksPerSecond / Stopwatch.Frequency);
+                    _tokens = Math.Min(MaxBurstLines, _tokens + elapsed / LineInterval.Ticks);
+                    _lastRefill = now;
+                }
+                else
+                {
+                    _tokens = _sendQueue.Count;
+                }
+
+                // Sending inside the lock keeps the order, the send queue of the connection does not block.
+                while (_sendQueue.Count > 0 && _tokens >= 1)
+                {
+                    _tokens--;
+                    SendNow(_sendQueue.Dequeue());
+                }
+
+                if (_sendQueue.Count == 0 || _pumpScheduled || Disposed)
+                    return;
+
+                _pumpScheduled = true;
+                TimingWheel.Shared.Schedule(TimeSpan.FromTicks((long) ((1 - _tokens) * LineInterval.Ticks)), OnPumpTimer);
+            }
+        }
+
+        /// <summary>
+        /// The scheduled pass of the send queue is due.
+        /// </summary>
+        private void OnPumpTimer()
+        {
+            lock (_lock)
+            {
+                _pumpScheduled = false;
+            }
+
+            Pump();
+        }
+
+        /// <summary>
+        /// Send a line without pacing.
+        /// </summary>
+        /// <param name="line">The line with line end.</param>
+        private void SendNow(byte[] line)
+        {
+            if (Connection.Disposed)
+                return;
+
+            try
+            {
+                Connection.SendMessage(line);
+            }
+            catch (ObjectDisposedException)
+            {
+                // Connection was closed while sending.
+            }
+        }
+
+        /// <summary>
+        /// Send a shared buffer without pacing and release it.
+        /// </summary>
+        /// <param name="line">The line with line end.</param>
+        private void SendNow(SharedBuffer line)
+        {
+            try
+            {
+                if (!Connection.Disposed)
+                    Connection.SendMessage(line);
+            }
+            catch (ObjectDisposedException)
+            {
+                // Connection was closed while sending.
+            }
+            finally
+            {
+                line.Release();
+            }
+        }
+
+        /// <summary>
+        /// Copy a part of a message into a string.
+        /// </summary>
+        /// <param name="part">The part.</param>
+        /// <returns>The part as string.</returns>
+        private string GetString(ArraySegment<byte> part)
+        {
+            return IrcMessage.GetString(part, Encoding);
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,253 @@
+﻿namespace Neitzel.Irc
+{
+    /// <summary>
+    /// Commands of RFC 2812 and RFC 2813.
+    /// </summary>
+    public enum IrcCommand
+    {
+        /// <summary>
+        /// A command that is not known.
+        /// </summary>
+        Unknown = 0,
+
+        /// <summary>
+        /// A numeric reply, see IrcNumeric.
+        /// </summary>
+        Numeric,
+
+        /// <summary>
+        /// PASS: Set a connection password.
+        /// </summary>
+        Pass,
+
+        /// <summary>
+        /// NICK: Set or change the nickname.
+        /// </summary>
+        Nick,
+
+        /// <summary>
+        /// USER: Register the user name and real name.
+        /// </summary>
+        User,
+
+        /// <summary>
+        /// OPER: Become an operator.
+        /// </summary>
+        Oper,
+
+        /// <summary>
+        /// MODE: Change or query user and channel modes.
+        /// </summary>
+        Mode,
+
+        /// <summary>
+        /// SERVICE: Register a service.
+        /// </summary>
+        Service,
+
+        /// <summary>
+        /// QUIT: End the session.
+        /// </summary>
+        Quit,
+
+        /// <summary>
+        /// SQUIT: End a server link.
+        /// </summary>
+        SQuit,
+
+        /// <summary>
+        /// JOIN: Join channels.
+        /// </summary>
+        Join,
+
+        /// <summary>
+        /// PART: Leave channels.
+        /// </summary>
+        Part,
+
+        /// <summary>
+        /// TOPIC: Change or query the topic of a channel.
+        /// </summary>
+        Topic,
+
+        /// <summary>
+        /// NAMES: List the members of channels.
+        /// </summary>
+        Names,
+
+        /// <summary>
+        /// LIST: List channels.
+        /// </summary>
+        List,
+
+        /// <summary>
+        /// INVITE: Invite a user to a channel.
+        /// </summary>
+        Invite,
+
+        /// <summary>
+        /// KICK: Remove a user from a channel.
+        /// </summary>
+        Kick,
+
+        /// <summary>
+        /// PRIVMSG: Send a message.
+        /// </summary>
+        Privmsg,
+
+        /// <summary>
+        /// NOTICE: Send a notice that must not be answered automatically.
+        /// </summary>
+        Notice,
+
+        /// <summary>
+        /// MOTD: Query the message of the day.
+        /// </summary>
+        Motd,
+
+        /// <summary>
+        /// LUSERS: Query statistics about the size of the network.
+        /// </summary>
+        LUsers,
+
+        /// <summary>
+        /// VERSION: Query the version of a server.
+        /// </summary>
+        Version,
+
+        /// <summary>
+        /// STATS: Query statistics of a server.
+        /// </summary>
+        Stats,
+
+        /// <summary>
+        /// LINKS: List the known servers.
+        /// </summary>
+        Links,
+
+        /// <summary>
+        /// TIME: Query the local time of a server.
+        /// </summary>
+        Time,
+
+        /// <summary>
+        /// CONNECT: Let a server connect to another server.
+        /// </summary>
+        Connect,
+
+        /// <summary>
+        /// TRACE: Find the route to a server.
+        /// </summary>
+        Trace,
+
+        /// <summary>
+        /// ADMIN: Query the administrator of a server.
+        /// </summary>
+        Admin,
+
+        /// <summary>
+        /// INFO: Query information about a server.
+        /// </summary>
+        Info,
+
+        /// <summary>
+        /// SERVLIST: List the services.
+        /// </summary>
+        ServList,
+
+        /// <summary>
+        /// SQUERY: Send a message to a service.
+        /// </summary>
+        SQuery,
+
+        /// <summary>
+        /// WHO: Query users.
+        /// </summary>
+        Who,
+
+        /// <summary>
+        /// WHOIS: Query information about a user.
+        /// </summary>
+        WhoIs,
+
+        /// <summary>
+        /// WHOWAS: Query information about a nickname that does not exist anymore.
+        /// </summary>
+        WhoWas,
+
+        /// <summary>
+        /// KILL: Close the connection of a user.
+        /// </summary>
+        Kill,
+
+        /// <summary>
+        /// PING: Test if the peer is alive.
+        /// </summary>
+        Ping,
+
+        /// <summary>
+        /// PONG: Answer of a PING.
+        /// </summary>
+        Pong,
+
+        /// <summary>
+        /// ERROR: Report a serious error.
+        /// </summary>
+        Error,
+
+        /// <summary>
+        /// AWAY: Set or remove an away message.
+        /// </summary>
+        Away,
+
+        /// <summary>
+        /// REHASH: Reload the configuration of a server.
+        /// </summary>
+        Rehash,
+
+        /// <summary>
+        /// DIE: Shut down a server.
+        /// </summary>
+        Die,
+
+        /// <summary>
+        /// RESTART: Restart a server.
+        /// </summary>
+        Restart,
+
+        /// <summary>
+        /// SUMMON: Invite a user of a host to IRC.
+        /// </summary>
+        Summon,
+
+        /// <summary>
+        /// USERS: List the users of a host.
+        /// </summary>
+        Users,
+
+        /// <summary>
+        /// WALLOPS: Send a message to all operators.
+        /// </summary>
+        Wallops,
+
+        /// <summary>
+        /// USERHOST: Query the hosts of users.
+        /// </summary>
+        UserHost,
+
+        /// <summary>
+        /// ISON: Check if users are on IRC.
+        /// </summary>
+        IsOn,
+
+        /// <summary>
+        /// SERVER: Register a server (RFC 2813).
+        /// </summary>
+        Server,
+
+        /// <summary>
+        /// NJOIN: Send the members of a channel to another server (RFC 2813).
+        /// </summary>
+        NJoin
+    }
+}
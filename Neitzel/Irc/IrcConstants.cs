@@ -0,0 +1,18 @@
+﻿namespace Neitzel.Irc
+{
+    /// <summary>
+    /// Constants used inside Neitzel.Irc
+    /// </summary>
+    public static class IrcConstants
+    {
+        /// <summary>
+        /// Name of the TraceSource used inside this package.
+        /// </summary>
+        public static readonly string TraceSourceName = "Neitzel.Irc";
+
+        /// <summary>
+        /// Maximum length of a message including the line end (RFC 2812 section 2.3).
+        /// </summary>
+        public static readonly int MaxMessageLength = 512;
+    }
+}
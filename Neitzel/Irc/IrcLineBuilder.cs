@@ -0,0 +1,215 @@
+﻿using System;
+using System.Text;
+using Neitzel.Network;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// Builds an outgoing IRC line directly inside a pooled SharedBuffer.
+    /// </summary>
+    /// <remarks>
+    /// The line is serialized once and the buffer can then be sent to any number of connections, e.g. to
+    /// all members of a channel. Lines are cut at IrcConstants.MaxMessageLength including the line end.
+    /// Appended parts must not contain a line end.
+    /// </remarks>
+    public class IrcLineBuilder
+    {
+        #region Fields
+
+        /// <summary>
+        /// Maximum length of a line without the line end.
+        /// </summary>
+        private static readonly int MaxContentLength = IrcConstants.MaxMessageLength - 2;
+
+        /// <summary>
+        /// Encoding of strings.
+        /// </summary>
+        private readonly Encoding _encoding;
+
+        /// <summary>
+        /// Buffer of the current line.
+        /// </summary>
+        private SharedBuffer _buffer;
+
+        /// <summary>
+        /// Number of bytes of the current line.
+        /// </summary>
+        private int _length;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of IrcLineBuilder that encodes strings with UTF-8.
+        /// </summary>
+        public IrcLineBuilder()
+            : this(Encoding.UTF8)
+        { }
+
+        /// <summary>
+        /// Creates a new instance of IrcLineBuilder.
+        /// </summary>
+        /// <param name="encoding">Encoding of strings.</param>
+        public IrcLineBuilder(Encoding encoding)
+        {
+            if (encoding == null) throw new ArgumentNullException(nameof(encoding));
+
+            _encoding = encoding;
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Number of bytes of the current line without the line end.
+        /// </summary>
+        public int Length => _length;
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Append a string.
+        /// </summary>
+        /// <param name="text">Text to append.</param>
+        /// <returns>This builder.</returns>
+        public IrcLineBuilder Append(string text)
+        {
+            if (string.IsNullOrEmpty(text))
+                return this;
+
+            var array = GetArray();
+            var free = MaxContentLength - _length;
+            if (_encoding.GetMaxByteCount(text.Length) <= free)
+            {
+                _length += _encoding.GetBytes(text, 0, text.Length, array, _length);
+                return this;
+            }
+
+            var bytes = _encoding.GetBytes(text);
+            return Append(new ArraySegment<byte>(bytes));
+        }
+
+        /// <summary>
+        /// Append bytes, e.g. a part of a received message.
+        /// </summary>
+        /// <param name="bytes">Bytes to append.</param>
+        /// <returns>This builder.</returns>
+        public IrcLineBuilder Append(ArraySegment<byte> bytes)
+        {
+            var array = GetArray();
+            var count = Math.Min(bytes.Count, MaxContentLength - _length);
+            if (count > 0)
+            {
+                Buffer.BlockCopy(bytes.Array, bytes.Offset, array, _length, count);
+                _length += count;
+            }
+
+            return this;
+        }
+
+        /// <summary>
+        /// Append an ASCII character.
+        /// </summary>
+        /// <param name="value">Character to append.</param>
+        /// <returns>This builder.</returns>
+        public IrcLineBuilder Append(char value)
+        {
+            if (value > 127) throw new ArgumentOutOfRangeException(nameof(value));
+
+            var array = GetArray();
+            if (_length < MaxContentLength)
+                array[_length++] = (byte) value;
+            return this;
+        }
+
+        /// <summary>
+        /// Append a numeric reply as three digits.
+        /// </summary>
+        /// <param name="numeric">Numeric to append.</param>
+        /// <returns>This builder.</returns>
+        public IrcLineBuilder Append(IrcNumeric numeric)
+        {
+            var value = (int) numeric;
+            if (value < 0 || value > 999) throw new ArgumentOutOfRangeException(nameof(numeric));
+
+            return Append((char) ('0' + value / 100))
+                .Append((char) ('0' + value / 10 % 10))
+                .Append((char) ('0' + value % 10));
+        }
+
+        /// <summary>
+        /// Finish the line. The builder starts a new line with the next append.
+        /// </summary>
+        /// <returns>The line with line end. The caller has to release it.</returns>
+        public SharedBuffer ToSharedBuffer()
+        {
+            var array = GetArray();
+            array[_length] = (byte) '\r';
+            array[_length + 1] = (byte) '\n';
+
+            var buffer = _buffer;
+            buffer.SetLength(_length + 2);
+            _buffer = null;
+            _length = 0;
+            return buffer;
+        }
+
+        /// <summary>
+        /// Release the buffer of the current line, e.g. when a builder that used WriteTo is no longer needed.
+        /// The builder starts a new line with the next append.
+        /// </summary>
+        public void Release()
+        {
+            _buffer?.Release();
+            _buffer = null;
+            _length = 0;
+        }
+
+        #endregion
+
+        #region Internal Methods
+
+        /// <summary>
+        /// Finish the line by copying it into an array. The buffer is kept for the next line.
+        /// </summary>
+        /// <param name="destination">Array to write to, with space for IrcConstants.MaxMessageLength bytes.</param>
+        /// <param name="destinationIndex">Index inside the array.</param>
+        /// <returns>Number of written bytes including the line end.</returns>
+        internal int WriteTo(byte[] destination, int destinationIndex)
+        {
+            var array = GetArray();
+            array[_length] = (byte) '\r';
+            array[_length + 1] = (byte) '\n';
+
+            var count = _length + 2;
+            Buffer.BlockCopy(array, 0, destination, destinationIndex, count);
+            _length = 0;
+            return count;
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Get the array of the current line, renting a new buffer if required.
+        /// </summary>
+        /// <returns>The array of the current line.</returns>
+        private byte[] GetArray()
+        {
+            if (_buffer == null)
+            {
+                _buffer = new SharedBuffer(IrcConstants.MaxMessageLength);
+                _length = 0;
+            }
+
+            return _buffer.Data.Array;
+        }
+
+        #endregion
+    }
+}
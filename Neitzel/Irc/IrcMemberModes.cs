@@ -0,0 +1,26 @@
+﻿using System;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// Modes of a member of a channel (RFC 2811 section 4.1).
+    /// </summary>
+    [Flags]
+    public enum IrcMemberModes
+    {
+        /// <summary>
+        /// A normal member.
+        /// </summary>
+        None = 0,
+
+        /// <summary>
+        /// v: The member may send messages to a moderated channel.
+        /// </summary>
+        Voice = 1,
+
+        /// <summary>
+        /// o: The member is an operator of the channel.
+        /// </summary>
+        Operator = 2
+    }
+}
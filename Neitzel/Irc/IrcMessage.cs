@@ -0,0 +1,167 @@
+﻿using System;
+using System.Text;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// A parsed IRC message. All parts are segments of the received line, nothing is copied.
+    /// </summary>
+    /// <remarks>
+    /// An instance is filled by IrcMessageParser.TryParse and can be reused for every line of a connection.
+    /// The segments point into the line buffer, so they are only valid as long as the line buffer is valid,
+    /// e.g. while a LineDecoded handler runs. Use GetString to keep a part.
+    /// </remarks>
+    public class IrcMessage
+    {
+        #region Constants
+
+        /// <summary>
+        /// Maximum number of parameters of a message (14 middle parameters and the trailing parameter).
+        /// </summary>
+        public const int MaxParameters = 15;
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// Segments of the parameters.
+        /// </summary>
+        private readonly ArraySegment<byte>[] _parameters = new ArraySegment<byte>[MaxParameters];
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// The whole line without the line end.
+        /// </summary>
+        public ArraySegment<byte> Line { get; private set; }
+
+        /// <summary>
+        /// The prefix without the leading colon. Count is 0 if the message has no prefix.
+        /// </summary>
+        public ArraySegment<byte> Prefix { get; internal set; }
+
+        /// <summary>
+        /// The nickname or server name of the prefix.
+        /// </summary>
+        public ArraySegment<byte> PrefixName { get; internal set; }
+
+        /// <summary>
+        /// The user of the prefix (after the "!"). Count is 0 if the prefix has no user.
+        /// </summary>
+        public ArraySegment<byte> PrefixUser { get; internal set; }
+
+        /// <summary>
+        /// The host of the prefix (after the "@"). Count is 0 if the prefix has no host.
+        /// </summary>
+        public ArraySegment<byte> PrefixHost { get; internal set; }
+
+        /// <summary>
+        /// The command as sent by the peer.
+        /// </summary>
+        public ArraySegment<byte> CommandBytes { get; internal set; }
+
+        /// <summary>
+        /// The command. IrcCommand.Unknown if the command is not known, IrcCommand.Numeric for numeric replies.
+        /// </summary>
+        public IrcCommand Command { get; internal set; }
+
+        /// <summary>
+        /// The numeric reply if Command is IrcCommand.Numeric, otherwise IrcNumeric.None. Numerics that are
+        /// not part of the RFC keep their value, see IrcMessageParser.IsKnownNumeric.
+        /// </summary>
+        public IrcNumeric Numeric { get; internal set; }
+
+        /// <summary>
+        /// Number of parameters including the trailing parameter.
+        /// </summary>
+        public int ParameterCount { get; private set; }
+
+        /// <summary>
+        /// Is the last parameter a trailing parameter (it was sent after a colon or is the 15th parameter)?
+        /// </summary>
+        public bool HasTrailing { get; private set; }
+
+        /// <summary>
+        /// The trailing parameter. Count is 0 if the message has no trailing parameter.
+        /// </summary>
+        public ArraySegment<byte> Trailing => HasTrailing ? _parameters[ParameterCount - 1] : default(ArraySegment<byte>);
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Gets a parameter.
+        /// </summary>
+        /// <param name="index">Index of the parameter.</param>
+        /// <returns>Segment of the parameter.</returns>
+        public ArraySegment<byte> GetParameter(int index)
+        {
+            if (index < 0 || index >= ParameterCount) throw new ArgumentOutOfRangeException(nameof(index));
+
+            return _parameters[index];
+        }
+
+        /// <summary>
+        /// Copy a part of the message into a new string.
+        /// </summary>
+        /// <param name="part">Part of the message, e.g. a parameter.</param>
+        /// <param name="encoding">Encoding of the message.</param>
+        /// <returns>The part as string.</returns>
+        public static string GetString(ArraySegment<byte> part, Encoding encoding)
+        {
+            if (encoding == null) throw new ArgumentNullException(nameof(encoding));
+            if (part.Count == 0)
+                return string.Empty;
+
+            return encoding.GetString(part.Array, part.Offset, part.Count);
+        }
+
+        /// <summary>
+        /// Returns the line as UTF-8 string.
+        /// </summary>
+        /// <returns>The line.</returns>
+        public override string ToString()
+        {
+            return GetString(Line, Encoding.UTF8);
+        }
+
+        #endregion
+
+        #region Internal Methods
+
+        /// <summary>
+        /// Reuse this instance for the next line.
+        /// </summary>
+        /// <param name="line">The line without the line end.</param>
+        internal void Reset(ArraySegment<byte> line)
+        {
+            Line = line;
+            Prefix = default(ArraySegment<byte>);
+            PrefixName = default(ArraySegment<byte>);
+            PrefixUser = default(ArraySegment<byte>);
+            PrefixHost = default(ArraySegment<byte>);
+            CommandBytes = default(ArraySegment<byte>);
+            Command = IrcCommand.Unknown;
+            Numeric = IrcNumeric.None;
+            ParameterCount = 0;
+            HasTrailing = false;
+        }
+
+        /// <summary>
+        /// Add a parameter.
+        /// </summary>
+        /// <param name="parameter">Segment of the parameter.</param>
+        /// <param name="trailing">Is it the trailing parameter?</param>
+        internal void AddParameter(ArraySegment<byte> parameter, bool trailing)
+        {
+            _parameters[ParameterCount++] = parameter;
+            HasTrailing = trailing;
+        }
+
+        #endregion
+    }
+}
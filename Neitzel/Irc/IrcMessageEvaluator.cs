@@ -0,0 +1,78 @@
+﻿using System;
+using System.Diagnostics;
+using Neitzel.Network;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// Parses the lines of a connection and raises an event for each message.
+    /// </summary>
+    /// <remarks>
+    /// LineReceiver is registered with StringDecoder.LineDecoded. The message is parsed in place of the line
+    /// buffer, so evaluating a message does not allocate. The message and the event arguments are reused,
+    /// so each connection needs its own evaluator.
+    /// </remarks>
+    public class IrcMessageEvaluator
+    {
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(IrcConstants.TraceSourceName);
+
+        /// <summary>
+        /// Event arguments that are reused for all messages.
+        /// </summary>
+        private readonly IrcMessageEventArgs _eventArgs = new IrcMessageEventArgs(new IrcMessage());
+
+        #endregion
+
+        #region Events
+
+        /// <summary>
+        /// Event that a message was parsed.
+        /// </summary>
+        /// <remarks>
+        /// This is done on the IO Thread of the socket so keep it a short as possible.
+        /// </remarks>
+        public event EventHandler<IrcMessageEventArgs> MessageEvaluated;
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// LineReceiver should be registered with StringDecoder.LineDecoded.
+        /// </summary>
+        /// <param name="sender">Sender of the line.</param>
+        /// <param name="lineDecodedEvent">The line decoded event.</param>
+        public void LineReceiver(object sender, LineDecodedEventArgs lineDecodedEvent)
+        {
+            if (lineDecodedEvent == null) throw new ArgumentNullException(nameof(lineDecodedEvent));
+
+            Evaluate(sender, lineDecodedEvent.Bytes);
+        }
+
+        /// <summary>
+        /// Parse a line and raise MessageEvaluated.
+        /// </summary>
+        /// <param name="sender">Sender of the line.</param>
+        /// <param name="line">The line.</param>
+        /// <returns>True if the line was a valid message.</returns>
+        public bool Evaluate(object sender, ArraySegment<byte> line)
+        {
+            if (!IrcMessageParser.TryParse(line, _eventArgs.Message))
+            {
+                Logger.TraceEvent(TraceEventType.Verbose, 0, "Ignoring invalid message: {0}", _eventArgs.Message);
+                return false;
+            }
+
+            var handler = MessageEvaluated;
+            handler?.Invoke(sender, _eventArgs);
+            return true;
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,27 @@
+﻿using System;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// Event Argument that hands over a parsed IRC message.
+    /// </summary>
+    /// <remarks>
+    /// The same instance and message are reused for every line, see IrcMessage.
+    /// </remarks>
+    public class IrcMessageEventArgs : EventArgs
+    {
+        /// <summary>
+        /// Create a new instance of IrcMessageEventArgs.
+        /// </summary>
+        /// <param name="message">The message.</param>
+        public IrcMessageEventArgs(IrcMessage message)
+        {
+            Message = message;
+        }
+
+        /// <summary>
+        /// The message.
+        /// </summary>
+        public IrcMessage Message { get; }
+    }
+}
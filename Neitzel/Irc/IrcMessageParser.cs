@@ -0,0 +1,287 @@
+﻿using System;
+using System.Text;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// Parses IRC messages as described in RFC 2812 section 2.3.1 without copying or allocating.
+    /// </summary>
+    /// <remarks>
+    /// The parser is a bit more tolerant than the RFC: several spaces between parts are accepted and the
+    /// command is compared case insensitive. Known commands and numerics are found through lookup tables.
+    /// </remarks>
+    public static class IrcMessageParser
+    {
+        #region Constants
+
+        /// <summary>
+        /// Number of possible numerics (000 to 999).
+        /// </summary>
+        private const int NumericCount = 1000;
+
+        #endregion
+
+        #region Command Entry
+
+        /// <summary>
+        /// Entry of the command lookup table.
+        /// </summary>
+        private struct CommandEntry
+        {
+            /// <summary>
+            /// Name of the command in upper case ASCII.
+            /// </summary>
+            public byte[] Name;
+
+            /// <summary>
+            /// The command.
+            /// </summary>
+            public IrcCommand Command;
+        }
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// Known commands by their first letter (A to Z).
+        /// </summary>
+        private static readonly CommandEntry[][] Commands = CreateCommandTable();
+
+        /// <summary>
+        /// Known numerics by their value.
+        /// </summary>
+        private static readonly bool[] KnownNumerics = CreateNumericTable();
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Parse a line.
+        /// </summary>
+        /// <param name="line">The line. A line end at the end of the line is ignored.</param>
+        /// <param name="message">Message to fill. It can be reused for every line.</param>
+        /// <returns>True if the line is a valid message, false if it has no command.</returns>
+        public static bool TryParse(ArraySegment<byte> line, IrcMessage message)
+        {
+            if (line.Array == null) throw new ArgumentNullException(nameof(line));
+            if (message == null) throw new ArgumentNullException(nameof(message));
+
+            var array = line.Array;
+            var index = line.Offset;
+            var end = line.Offset + line.Count;
+            while (end > index && (array[end - 1] == '\n' || array[end - 1] == '\r'))
+                end--;
+
+            message.Reset(new ArraySegment<byte>(array, index, end - index));
+
+            // Prefix
+            if (index < end && array[index] == ':')
+            {
+                var prefixStart = ++index;
+                while (index < end && array[index] != ' ')
+                    index++;
+                if (index == prefixStart)
+                    return false;
+
+                SetPrefix(message, array, prefixStart, index);
+            }
+
+            // Command
+            index = SkipSpaces(array, index, end);
+            var commandStart = index;
+            while (index < end && array[index] != ' ')
+                index++;
+            if (index == commandStart)
+                return false;
+
+            SetCommand(message, array, commandStart, index);
+
+            // Parameters
+            while (true)
+            {
+                index = SkipSpaces(array, index, end);
+                if (index == end)
+                    break;
+
+                if (array[index] == ':' || message.ParameterCount == IrcMessage.MaxParameters - 1)
+                {
+                    if (array[index] == ':')
+                        index++;
+                    message.AddParameter(new ArraySegment<byte>(array, index, end - index), true);
+                    break;
+                }
+
+                var parameterStart = index;
+                while (index < end && array[index] != ' ')
+                    index++;
+                message.AddParameter(new ArraySegment<byte>(array, parameterStart, index - parameterStart), false);
+            }
+
+            return true;
+        }
+
+        /// <summary>
+        /// Checks if a numeric is defined in RFC 2812.
+        /// </summary>
+        /// <param name="numeric">Numeric to check.</param>
+        /// <returns>True if the numeric is known.</returns>
+        public static bool IsKnownNumeric(IrcNumeric numeric)
+        {
+            var value = (int) numeric;
+            return value >= 0 && value < NumericCount && KnownNumerics[value];
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Skip spaces.
+        /// </summary>
+        /// <param name="array">Array of the line.</param>
+        /// <param name="index">Current index.</param>
+        /// <param name="end">End of the line.</param>
+        /// <returns>Index of the next byte that is not a space.</returns>
+        private static int SkipSpaces(byte[] array, int index, int end)
+        {
+            while (index < end && array[index] == ' ')
+                index++;
+            return index;
+        }
+
+        /// <summary>
+        /// Set the prefix and split it into name, user and host.
+        /// </summary>
+        /// <param name="message">Message to fill.</param>
+        /// <param name="array">Array of the line.</param>
+        /// <param name="start">Start of the prefix.</param>
+        /// <param name="end">End of the prefix.</param>
+        private static void SetPrefix(IrcMessage message, byte[] array, int start, int end)
+        {
+            message.Prefix = new ArraySegment<byte>(array, start, end - start);
+
+            var userStart = -1;
+            var hostStart = -1;
+            for (var index = start; index < end && hostStart < 0; index++)
+            {
+                if (array[index] == '!' && userStart < 0)
+                    userStart = index + 1;
+                else if (array[index] == '@')
+                    hostStart = index + 1;
+            }
+
+            var nameEnd = userStart >= 0 ? userStart - 1 : hostStart >= 0 ? hostStart - 1 : end;
+            message.PrefixName = new ArraySegment<byte>(array, start, nameEnd - start);
+            if (userStart >= 0)
+                message.PrefixUser = new ArraySegment<byte>(array, userStart, (hostStart >= 0 ? hostStart - 1 : end) - userStart);
+            if (hostStart >= 0)
+                message.PrefixHost = new ArraySegment<byte>(array, hostStart, end - hostStart);
+        }
+
+        /// <summary>
+        /// Set the command and look it up.
+        /// </summary>
+        /// <param name="message">Message to fill.</param>
+        /// <param name="array">Array of the line.</param>
+        /// <param name="start">Start of the command.</param>
+        /// <param name="end">End of the command.</param>
+        private static void SetCommand(IrcMessage message, byte[] array, int start, int end)
+        {
+            message.CommandBytes = new ArraySegment<byte>(array, start, end - start);
+
+            var length = end - start;
+            if (length == 3 && IsDigit(array[start]) && IsDigit(array[start + 1]) && IsDigit(array[start + 2]))
+            {
+                message.Command = IrcCommand.Numeric;
+                message.Numeric = (IrcNumeric) ((array[start] - '0') * 100 + (array[start + 1] - '0') * 10 + (array[start + 2] - '0'));
+                return;
+            }
+
+            var letter = (array[start] & 0xDF) - 'A';
+            if (letter < 0 || letter >= Commands.Length || Commands[letter] == null)
+                return;
+
+            foreach (var entry in Commands[letter])
+            {
+                if (entry.Name.Length == length && EqualsIgnoreCase(entry.Name, array, start))
+                {
+                    message.Command = entry.Command;
+                    return;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Checks if a byte is an ASCII digit.
+        /// </summary>
+        /// <param name="value">Byte to check.</param>
+        /// <returns>True if it is a digit.</returns>
+        private static bool IsDigit(byte value)
+        {
+            return value >= '0' && value <= '9';
+        }
+
+        /// <summary>
+        /// Compares a command name with bytes of the line, ignoring the case.
+        /// </summary>
+        /// <param name="name">Command name in upper case letters.</param>
+        /// <param name="array">Array of the line.</param>
+        /// <param name="start">Start of the command inside the line.</param>
+        /// <returns>True if the command matches the name.</returns>
+        private static bool EqualsIgnoreCase(byte[] name, byte[] array, int start)
+        {
+            // Names only contain letters, so clearing bit 5 maps lower case letters to upper case ones
+            // and no other byte to a letter.
+            for (var index = 0; index < name.Length; index++)
+            {
+                if ((array[start + index] & 0xDF) != name[index])
+                    return false;
+            }
+
+            return true;
+        }
+
+        /// <summary>
+        /// Create the command lookup table.
+        /// </summary>
+        /// <returns>The commands by their first letter.</returns>
+        private static CommandEntry[][] CreateCommandTable()
+        {
+            var table = new CommandEntry[26][];
+            foreach (IrcCommand command in Enum.GetValues(typeof(IrcCommand)))
+            {
+                if (command == IrcCommand.Unknown || command == IrcCommand.Numeric)
+                    continue;
+
+                var name = Encoding.ASCII.GetBytes(command.ToString().ToUpperInvariant());
+                var letter = name[0] - 'A';
+                var entries = table[letter] ?? new CommandEntry[0];
+                Array.Resize(ref entries, entries.Length + 1);
+                entries[entries.Length - 1] = new CommandEntry { Name = name, Command = command };
+                table[letter] = entries;
+            }
+
+            return table;
+        }
+
+        /// <summary>
+        /// Create the numeric lookup table.
+        /// </summary>
+        /// <returns>Flags of the known numerics.</returns>
+        private static bool[] CreateNumericTable()
+        {
+            var table = new bool[NumericCount];
+            foreach (IrcNumeric numeric in Enum.GetValues(typeof(IrcNumeric)))
+            {
+                if (numeric != IrcNumeric.None)
+                    table[(int) numeric] = true;
+            }
+
+            return table;
+        }
+
+        #endregion
+    }
+}
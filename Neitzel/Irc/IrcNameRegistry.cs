@@ -0,0 +1,330 @@
+﻿using System;
+using System.Collections;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Text;
+using System.Threading;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// Thread safe index of nicknames or channel names that compares the names with the RFC 1459 casemapping.
+    /// </summary>
+    /// <remarks>
+    /// Names are stored as encoded bytes, so a name can be looked up directly with a segment of a received
+    /// line (e.g. a parameter of an IrcMessage) without creating a string. Lookups with a string encode
+    /// the name into a buffer of the thread, so no lookup allocates.
+    ///
+    /// Lookups do not take a lock. A rename adds the new name before it removes the old one, so the value is
+    /// always found under at least one of both names and no other value can take the new name in between.
+    /// </remarks>
+    /// <typeparam name="T">Type of the registered values.</typeparam>
+    public class IrcNameRegistry<T> : IEnumerable<T> where T : class
+    {
+        #region Fields
+
+        /// <summary>
+        /// Buffer of the thread to encode names of string lookups.
+        /// </summary>
+        [ThreadStatic]
+        private static byte[] _nameBuffer;
+
+        /// <summary>
+        /// The registered values by name.
+        /// </summary>
+        private readonly ConcurrentDictionary<IrcName, T> _values = new ConcurrentDictionary<IrcName, T>(IrcNameComparer.Instance);
+
+        /// <summary>
+        /// Number of registered values.
+        /// </summary>
+        private int _count;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of IrcNameRegistry that encodes names with UTF8.
+        /// </summary>
+        public IrcNameRegistry()
+            : this(Encoding.UTF8)
+        {
+        }
+
+        /// <summary>
+        /// Creates a new instance of IrcNameRegistry.
+        /// </summary>
+        /// <param name="encoding">Encoding of the names. This must be the encoding of the received lines.</param>
+        public IrcNameRegistry(Encoding encoding)
+        {
+            if (encoding == null) throw new ArgumentNullException(nameof(encoding));
+
+            Encoding = encoding;
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Encoding of the names.
+        /// </summary>
+        public Encoding Encoding { get; }
+
+        /// <summary>
+        /// Number of registered values.
+        /// </summary>
+        public int Count => Volatile.Read(ref _count);
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Gets the value of a name.
+        /// </summary>
+        /// <param name="name">Encoded name, e.g. a parameter of a received message.</param>
+        /// <param name="value">The value or null.</param>
+        /// <returns>True if the name is registered.</returns>
+        public bool TryGetValue(ArraySegment<byte> name, out T value)
+        {
+            if (name.Array == null)
+            {
+                value = null;
+                return false;
+            }
+
+            return _values.TryGetValue(new IrcName(name), out value);
+        }
+
+        /// <summary>
+        /// Gets the value of a name.
+        /// </summary>
+        /// <param name="name">The name.</param>
+        /// <param name="value">The value or null.</param>
+        /// <returns>True if the name is registered.</returns>
+        public bool TryGetValue(string name, out T value)
+        {
+            if (name == null) throw new ArgumentNullException(nameof(name));
+
+            return _values.TryGetValue(new IrcName(EncodeTemporary(name)), out value);
+        }
+
+        /// <summary>
+        /// Checks if a name is registered.
+        /// </summary>
+        /// <param name="name">Encoded name.</param>
+        /// <returns>True if the name is registered.</returns>
+        public bool Contains(ArraySegment<byte> name)
+        {
+            T value;
+            return TryGetValue(name, out value);
+        }
+
+        /// <summary>
+        /// Checks if a name is registered.
+        /// </summary>
+        /// <param name="name">The name.</param>
+        /// <returns>True if the name is registered.</returns>
+        public bool Contains(string name)
+        {
+            T value;
+            return TryGetValue(name, out value);
+        }
+
+        /// <summary>
+        /// Register a name.
+        /// </summary>
+        /// <param name="name">The name.</param>
+        /// <param name="value">Value of the name.</param>
+        /// <returns>True if the name was added, false if it is already registered.</returns>
+        public bool TryAdd(string name, T value)
+        {
+            if (name == null) throw new ArgumentNullException(nameof(name));
+            if (value == null) throw new ArgumentNullException(nameof(value));
+
+            if (!_values.TryAdd(new IrcName(Encode(name)), value))
+                return false;
+
+            Interlocked.Increment(ref _count);
+            return true;
+        }
+
+        /// <summary>
+        /// Gets the value of a name or registers a new value.
+        /// </summary>
+        /// <param name="name">The name.</param>
+        /// <param name="valueFactory">Creates the value if the name is not registered.</param>
+        /// <returns>The registered value.</returns>
+        public T GetOrAdd(string name, Func<string, T> valueFactory)
+        {
+            if (name == null) throw new ArgumentNullException(nameof(name));
+            if (valueFactory == null) throw new ArgumentNullException(nameof(valueFactory));
+
+            T value;
+            if (TryGetValue(name, out value))
+                return value;
+
+            var newValue = valueFactory(name);
+            while (!TryAdd(name, newValue))
+            {
+                if (TryGetValue(name, out value))
+                    return value;
+            }
+
+            return newValue;
+        }
+
+        /// <summary>
+        /// Remove a name if it is registered with the given value.
+        /// </summary>
+        /// <param name="name">The name.</param>
+        /// <param name="value">The value the name must have.</param>
+        /// <returns>True if the name was removed.</returns>
+        public bool TryRemove(string name, T value)
+        {
+            if (name == null) throw new ArgumentNullException(nameof(name));
+            if (value == null) throw new ArgumentNullException(nameof(value));
+
+            var entry = new KeyValuePair<IrcName, T>(new IrcName(EncodeTemporary(name)), value);
+            if (!((ICollection<KeyValuePair<IrcName, T>>) _values).Remove(entry))
+                return false;
+
+            Interlocked.Decrement(ref _count);
+            return true;
+        }
+
+        /// <summary>
+        /// Change the name of a value.
+        /// </summary>
+        /// <remarks>
+        /// Names that only differ in case are the same name, so nothing changes inside the registry.
+        /// </remarks>
+        /// <param name="oldName">Current name of the value.</param>
+        /// <param name="newName">New name of the value.</param>
+        /// <param name="value">The value.</param>
+        /// <returns>True if the value has the new name, false if the new name belongs to another value.</returns>
+        public bool TryRename(string oldName, string newName, T value)
+        {
+            if (oldName == null) throw new ArgumentNullException(nameof(oldName));
+            if (newName == null) throw new ArgumentNullException(nameof(newName));
+            if (value == null) throw new ArgumentNullException(nameof(value));
+
+            var newKey = new IrcName(Encode(newName));
+            if (IrcNameComparer.Instance.Equals(newKey, new IrcName(EncodeTemporary(oldName))))
+                return true;
+
+            if (!_values.TryAdd(newKey, value))
+                return false;
+
+            Interlocked.Increment(ref _count);
+            TryRemove(oldName, value);
+            return true;
+        }
+
+        /// <summary>
+        /// Gets an enumerator of the registered values.
+        /// </summary>
+        /// <returns>The enumerator.</returns>
+        public IEnumerator<T> GetEnumerator()
+        {
+            foreach (var entry in _values)
+                yield return entry.Value;
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Gets an enumerator of the registered values.
+        /// </summary>
+        /// <returns>The enumerator.</returns>
+        IEnumerator IEnumerable.GetEnumerator()
+        {
+            return GetEnumerator();
+        }
+
+        /// <summary>
+        /// Encode a name into a new array that is stored inside the registry.
+        /// </summary>
+        /// <param name="name">The name.</param>
+        /// <returns>The encoded name.</returns>
+        private ArraySegment<byte> Encode(string name)
+        {
+            return new ArraySegment<byte>(Encoding.GetBytes(name));
+        }
+
+        /// <summary>
+        /// Encode a name into the buffer of the thread. The result is only valid till the next call.
+        /// </summary>
+        /// <param name="name">The name.</param>
+        /// <returns>The encoded name.</returns>
+        private ArraySegment<byte> EncodeTemporary(string name)
+        {
+            var length = Encoding.GetMaxByteCount(name.Length);
+            if (_nameBuffer == null || _nameBuffer.Length < length)
+                _nameBuffer = new byte[Math.Max(length, 256)];
+
+            return new ArraySegment<byte>(_nameBuffer, 0, Encoding.GetBytes(name, 0, name.Length, _nameBuffer, 0));
+        }
+
+        #endregion
+
+        #region Nested Types
+
+        /// <summary>
+        /// Key of the dictionary: an encoded name.
+        /// </summary>
+        private struct IrcName
+        {
+            /// <summary>
+            /// Creates a new instance of IrcName.
+            /// </summary>
+            /// <param name="bytes">The encoded name.</param>
+            public IrcName(ArraySegment<byte> bytes)
+            {
+                Bytes = bytes;
+            }
+
+            /// <summary>
+            /// The encoded name.
+            /// </summary>
+            public ArraySegment<byte> Bytes { get; }
+        }
+
+        /// <summary>
+        /// Compares names with the RFC 1459 casemapping.
+        /// </summary>
+        private sealed class IrcNameComparer : IEqualityComparer<IrcName>
+        {
+            /// <summary>
+            /// The only instance.
+            /// </summary>
+            public static readonly IrcNameComparer Instance = new IrcNameComparer();
+
+            /// <summary>
+            /// Compares two names.
+            /// </summary>
+            /// <param name="x">First name.</param>
+            /// <param name="y">Second name.</param>
+            /// <returns>True if the names are equal.</returns>
+            public bool Equals(IrcName x, IrcName y)
+            {
+                return IrcCaseMapping.Equals(x.Bytes, y.Bytes);
+            }
+
+            /// <summary>
+            /// Gets the hash code of a name.
+            /// </summary>
+            /// <param name="obj">The name.</param>
+            /// <returns>The hash code.</returns>
+            public int GetHashCode(IrcName obj)
+            {
+                return IrcCaseMapping.GetHashCode(obj.Bytes);
+            }
+        }
+
+        #endregion
+    }
+}
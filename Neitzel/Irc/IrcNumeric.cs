@@ -0,0 +1,768 @@
+﻿namespace Neitzel.Irc
+{
+    /// <summary>
+    /// Numeric replies of RFC 2812. Errors start with 400, replies below that.
+    /// </summary>
+    public enum IrcNumeric
+    {
+        /// <summary>
+        /// Not a numeric reply.
+        /// </summary>
+        None = 0,
+
+        /// <summary>
+        /// RPL_WELCOME.
+        /// </summary>
+        RplWelcome = 1,
+
+        /// <summary>
+        /// RPL_YOURHOST.
+        /// </summary>
+        RplYourHost = 2,
+
+        /// <summary>
+        /// RPL_CREATED.
+        /// </summary>
+        RplCreated = 3,
+
+        /// <summary>
+        /// RPL_MYINFO.
+        /// </summary>
+        RplMyInfo = 4,
+
+        /// <summary>
+        /// RPL_BOUNCE.
+        /// </summary>
+        RplBounce = 5,
+
+        /// <summary>
+        /// RPL_TRACELINK.
+        /// </summary>
+        RplTraceLink = 200,
+
+        /// <summary>
+        /// RPL_TRACECONNECTING.
+        /// </summary>
+        RplTraceConnecting = 201,
+
+        /// <summary>
+        /// RPL_TRACEHANDSHAKE.
+        /// </summary>
+        RplTraceHandshake = 202,
+
+        /// <summary>
+        /// RPL_TRACEUNKNOWN.
+        /// </summary>
+        RplTraceUnknown = 203,
+
+        /// <summary>
+        /// RPL_TRACEOPERATOR.
+        /// </summary>
+        RplTraceOperator = 204,
+
+        /// <summary>
+        /// RPL_TRACEUSER.
+        /// </summary>
+        RplTraceUser = 205,
+
+        /// <summary>
+        /// RPL_TRACESERVER.
+        /// </summary>
+        RplTraceServer = 206,
+
+        /// <summary>
+        /// RPL_TRACESERVICE.
+        /// </summary>
+        RplTraceService = 207,
+
+        /// <summary>
+        /// RPL_TRACENEWTYPE.
+        /// </summary>
+        RplTraceNewType = 208,
+
+        /// <summary>
+        /// RPL_TRACECLASS.
+        /// </summary>
+        RplTraceClass = 209,
+
+        /// <summary>
+        /// RPL_TRACERECONNECT.
+        /// </summary>
+        RplTraceReconnect = 210,
+
+        /// <summary>
+        /// RPL_STATSLINKINFO.
+        /// </summary>
+        RplStatsLinkInfo = 211,
+
+        /// <summary>
+        /// RPL_STATSCOMMANDS.
+        /// </summary>
+        RplStatsCommands = 212,
+
+        /// <summary>
+        /// RPL_STATSCLINE.
+        /// </summary>
+        RplStatsCLine = 213,
+
+        /// <summary>
+        /// RPL_STATSILINE.
+        /// </summary>
+        RplStatsILine = 215,
+
+        /// <summary>
+        /// RPL_STATSQLINE.
+        /// </summary>
+        RplStatsQLine = 217,
+
+        /// <summary>
+        /// RPL_ENDOFSTATS.
+        /// </summary>
+        RplEndOfStats = 219,
+
+        /// <summary>
+        /// RPL_UMODEIS.
+        /// </summary>
+        RplUserModeIs = 221,
+
+        /// <summary>
+        /// RPL_SERVICEINFO.
+        /// </summary>
+        RplServiceInfo = 231,
+
+        /// <summary>
+        /// RPL_SERVICE.
+        /// </summary>
+        RplService = 233,
+
+        /// <summary>
+        /// RPL_SERVLIST.
+        /// </summary>
+        RplServiceList = 234,
+
+        /// <summary>
+        /// RPL_SERVLISTEND.
+        /// </summary>
+        RplServiceListEnd = 235,
+
+        /// <summary>
+        /// RPL_STATSVLINE.
+        /// </summary>
+        RplStatsVLine = 240,
+
+        /// <summary>
+        /// RPL_STATSUPTIME.
+        /// </summary>
+        RplStatsUptime = 242,
+
+        /// <summary>
+        /// RPL_STATSOLINE.
+        /// </summary>
+        RplStatsOLine = 243,
+
+        /// <summary>
+        /// RPL_STATSHLINE.
+        /// </summary>
+        RplStatsHLine = 244,
+
+        /// <summary>
+        /// RPL_STATSPING.
+        /// </summary>
+        RplStatsPing = 246,
+
+        /// <summary>
+        /// RPL_STATSDLINE.
+        /// </summary>
+        RplStatsDLine = 250,
+
+        /// <summary>
+        /// RPL_LUSERCLIENT.
+        /// </summary>
+        RplLUserClient = 251,
+
+        /// <summary>
+        /// RPL_LUSEROP.
+        /// </summary>
+        RplLUserOp = 252,
+
+        /// <summary>
+        /// RPL_LUSERUNKNOWN.
+        /// </summary>
+        RplLUserUnknown = 253,
+
+        /// <summary>
+        /// RPL_LUSERCHANNELS.
+        /// </summary>
+        RplLUserChannels = 254,
+
+        /// <summary>
+        /// RPL_LUSERME.
+        /// </summary>
+        RplLUserMe = 255,
+
+        /// <summary>
+        /// RPL_ADMINME.
+        /// </summary>
+        RplAdminMe = 256,
+
+        /// <summary>
+        /// RPL_ADMINLOC1.
+        /// </summary>
+        RplAdminLocation1 = 257,
+
+        /// <summary>
+        /// RPL_ADMINLOC2.
+        /// </summary>
+        RplAdminLocation2 = 258,
+
+        /// <summary>
+        /// RPL_ADMINEMAIL.
+        /// </summary>
+        RplAdminEmail = 259,
+
+        /// <summary>
+        /// RPL_TRACELOG.
+        /// </summary>
+        RplTraceLog = 261,
+
+        /// <summary>
+        /// RPL_TRACEEND.
+        /// </summary>
+        RplTraceEnd = 262,
+
+        /// <summary>
+        /// RPL_TRYAGAIN.
+        /// </summary>
+        RplTryAgain = 263,
+
+        /// <summary>
+        /// RPL_NONE.
+        /// </summary>
+        RplNone = 300,
+
+        /// <summary>
+        /// RPL_AWAY.
+        /// </summary>
+        RplAway = 301,
+
+        /// <summary>
+        /// RPL_USERHOST.
+        /// </summary>
+        RplUserHost = 302,
+
+        /// <summary>
+        /// RPL_ISON.
+        /// </summary>
+        RplIsOn = 303,
+
+        /// <summary>
+        /// RPL_UNAWAY.
+        /// </summary>
+        RplUnAway = 305,
+
+        /// <summary>
+        /// RPL_NOWAWAY.
+        /// </summary>
+        RplNowAway = 306,
+
+        /// <summary>
+        /// RPL_WHOISUSER.
+        /// </summary>
+        RplWhoIsUser = 311,
+
+        /// <summary>
+        /// RPL_WHOISSERVER.
+        /// </summary>
+        RplWhoIsServer = 312,
+
+        /// <summary>
+        /// RPL_WHOISOPERATOR.
+        /// </summary>
+        RplWhoIsOperator = 313,
+
+        /// <summary>
+        /// RPL_WHOWASUSER.
+        /// </summary>
+        RplWhoWasUser = 314,
+
+        /// <summary>
+        /// RPL_ENDOFWHO.
+        /// </summary>
+        RplEndOfWho = 315,
+
+        /// <summary>
+        /// RPL_WHOISIDLE.
+        /// </summary>
+        RplWhoIsIdle = 317,
+
+        /// <summary>
+        /// RPL_ENDOFWHOIS.
+        /// </summary>
+        RplEndOfWhoIs = 318,
+
+        /// <summary>
+        /// RPL_WHOISCHANNELS.
+        /// </summary>
+        RplWhoIsChannels = 319,
+
+        /// <summary>
+        /// RPL_LISTSTART.
+        /// </summary>
+        RplListStart = 321,
+
+        /// <summary>
+        /// RPL_LIST.
+        /// </summary>
+        RplList = 322,
+
+        /// <summary>
+        /// RPL_LISTEND.
+        /// </summary>
+        RplListEnd = 323,
+
+        /// <summary>
+        /// RPL_CHANNELMODEIS.
+        /// </summary>
+        RplChannelModeIs = 324,
+
+        /// <summary>
+        /// RPL_UNIQOPIS.
+        /// </summary>
+        RplUniqueOpIs = 325,
+
+        /// <summary>
+        /// RPL_NOTOPIC.
+        /// </summary>
+        RplNoTopic = 331,
+
+        /// <summary>
+        /// RPL_TOPIC.
+        /// </summary>
+        RplTopic = 332,
+
+        /// <summary>
+        /// RPL_INVITING.
+        /// </summary>
+        RplInviting = 341,
+
+        /// <summary>
+        /// RPL_SUMMONING.
+        /// </summary>
+        RplSummoning = 342,
+
+        /// <summary>
+        /// RPL_INVITELIST.
+        /// </summary>
+        RplInviteList = 346,
+
+        /// <summary>
+        /// RPL_ENDOFINVITELIST.
+        /// </summary>
+        RplEndOfInviteList = 347,
+
+        /// <summary>
+        /// RPL_EXCEPTLIST.
+        /// </summary>
+        RplExceptList = 348,
+
+        /// <summary>
+        /// RPL_ENDOFEXCEPTLIST.
+        /// </summary>
+        RplEndOfExceptList = 349,
+
+        /// <summary>
+        /// RPL_VERSION.
+        /// </summary>
+        RplVersion = 351,
+
+        /// <summary>
+        /// RPL_WHOREPLY.
+        /// </summary>
+        RplWhoReply = 352,
+
+        /// <summary>
+        /// RPL_NAMREPLY.
+        /// </summary>
+        RplNameReply = 353,
+
+        /// <summary>
+        /// RPL_KILLDONE.
+        /// </summary>
+        RplKillDone = 361,
+
+        /// <summary>
+        /// RPL_CLOSEEND.
+        /// </summary>
+        RplCloseEnd = 363,
+
+        /// <summary>
+        /// RPL_LINKS.
+        /// </summary>
+        RplLinks = 364,
+
+        /// <summary>
+        /// RPL_ENDOFLINKS.
+        /// </summary>
+        RplEndOfLinks = 365,
+
+        /// <summary>
+        /// RPL_ENDOFNAMES.
+        /// </summary>
+        RplEndOfNames = 366,
+
+        /// <summary>
+        /// RPL_BANLIST.
+        /// </summary>
+        RplBanList = 367,
+
+        /// <summary>
+        /// RPL_ENDOFBANLIST.
+        /// </summary>
+        RplEndOfBanList = 368,
+
+        /// <summary>
+        /// RPL_ENDOFWHOWAS.
+        /// </summary>
+        RplEndOfWhoWas = 369,
+
+        /// <summary>
+        /// RPL_INFO.
+        /// </summary>
+        RplInfo = 371,
+
+        /// <summary>
+        /// RPL_MOTD.
+        /// </summary>
+        RplMotd = 372,
+
+        /// <summary>
+        /// RPL_ENDOFINFO.
+        /// </summary>
+        RplEndOfInfo = 374,
+
+        /// <summary>
+        /// RPL_MOTDSTART.
+        /// </summary>
+        RplMotdStart = 375,
+
+        /// <summary>
+        /// RPL_ENDOFMOTD.
+        /// </summary>
+        RplEndOfMotd = 376,
+
+        /// <summary>
+        /// RPL_YOUREOPER.
+        /// </summary>
+        RplYoureOper = 381,
+
+        /// <summary>
+        /// RPL_REHASHING.
+        /// </summary>
+        RplRehashing = 382,
+
+        /// <summary>
+        /// RPL_YOURESERVICE.
+        /// </summary>
+        RplYoureService = 383,
+
+        /// <summary>
+        /// RPL_MYPORTIS.
+        /// </summary>
+        RplMyPortIs = 384,
+
+        /// <summary>
+        /// RPL_TIME.
+        /// </summary>
+        RplTime = 391,
+
+        /// <summary>
+        /// RPL_USERSSTART.
+        /// </summary>
+        RplUsersStart = 392,
+
+        /// <summary>
+        /// RPL_USERS.
+        /// </summary>
+        RplUsers = 393,
+
+        /// <summary>
+        /// RPL_ENDOFUSERS.
+        /// </summary>
+        RplEndOfUsers = 394,
+
+        /// <summary>
+        /// RPL_NOUSERS.
+        /// </summary>
+        RplNoUsers = 395,
+
+        /// <summary>
+        /// ERR_NOSUCHNICK.
+        /// </summary>
+        ErrNoSuchNick = 401,
+
+        /// <summary>
+        /// ERR_NOSUCHSERVER.
+        /// </summary>
+        ErrNoSuchServer = 402,
+
+        /// <summary>
+        /// ERR_NOSUCHCHANNEL.
+        /// </summary>
+        ErrNoSuchChannel = 403,
+
+        /// <summary>
+        /// ERR_CANNOTSENDTOCHAN.
+        /// </summary>
+        ErrCannotSendToChannel = 404,
+
+        /// <summary>
+        /// ERR_TOOMANYCHANNELS.
+        /// </summary>
+        ErrTooManyChannels = 405,
+
+        /// <summary>
+        /// ERR_WASNOSUCHNICK.
+        /// </summary>
+        ErrWasNoSuchNick = 406,
+
+        /// <summary>
+        /// ERR_TOOMANYTARGETS.
+        /// </summary>
+        ErrTooManyTargets = 407,
+
+        /// <summary>
+        /// ERR_NOSUCHSERVICE.
+        /// </summary>
+        ErrNoSuchService = 408,
+
+        /// <summary>
+        /// ERR_NOORIGIN.
+        /// </summary>
+        ErrNoOrigin = 409,
+
+        /// <summary>
+        /// ERR_NORECIPIENT.
+        /// </summary>
+        ErrNoRecipient = 411,
+
+        /// <summary>
+        /// ERR_NOTEXTTOSEND.
+        /// </summary>
+        ErrNoTextToSend = 412,
+
+        /// <summary>
+        /// ERR_NOTOPLEVEL.
+        /// </summary>
+        ErrNoTopLevel = 413,
+
+        /// <summary>
+        /// ERR_WILDTOPLEVEL.
+        /// </summary>
+        ErrWildTopLevel = 414,
+
+        /// <summary>
+        /// ERR_BADMASK.
+        /// </summary>
+        ErrBadMask = 415,
+
+        /// <summary>
+        /// ERR_UNKNOWNCOMMAND.
+        /// </summary>
+        ErrUnknownCommand = 421,
+
+        /// <summary>
+        /// ERR_NOMOTD.
+        /// </summary>
+        ErrNoMotd = 422,
+
+        /// <summary>
+        /// ERR_NOADMININFO.
+        /// </summary>
+        ErrNoAdminInfo = 423,
+
+        /// <summary>
+        /// ERR_FILEERROR.
+        /// </summary>
+        ErrFileError = 424,
+
+        /// <summary>
+        /// ERR_NONICKNAMEGIVEN.
+        /// </summary>
+        ErrNoNicknameGiven = 431,
+
+        /// <summary>
+        /// ERR_ERRONEUSNICKNAME.
+        /// </summary>
+        ErrErroneousNickname = 432,
+
+        /// <summary>
+        /// ERR_NICKNAMEINUSE.
+        /// </summary>
+        ErrNicknameInUse = 433,
+
+        /// <summary>
+        /// ERR_NICKCOLLISION.
+        /// </summary>
+        ErrNickCollision = 436,
+
+        /// <summary>
+        /// ERR_UNAVAILRESOURCE.
+        /// </summary>
+        ErrUnavailableResource = 437,
+
+        /// <summary>
+        /// ERR_USERNOTINCHANNEL.
+        /// </summary>
+        ErrUserNotInChannel = 441,
+
+        /// <summary>
+        /// ERR_NOTONCHANNEL.
+        /// </summary>
+        ErrNotOnChannel = 442,
+
+        /// <summary>
+        /// ERR_USERONCHANNEL.
+        /// </summary>
+        ErrUserOnChannel = 443,
+
+        /// <summary>
+        /// ERR_NOLOGIN.
+        /// </summary>
+        ErrNoLogin = 444,
+
+        /// <summary>
+        /// ERR_SUMMONDISABLED.
+        /// </summary>
+        ErrSummonDisabled = 445,
+
+        /// <summary>
+        /// ERR_USERSDISABLED.
+        /// </summary>
+        ErrUsersDisabled = 446,
+
+        /// <summary>
+        /// ERR_NOTREGISTERED.
+        /// </summary>
+        ErrNotRegistered = 451,
+
+        /// <summary>
+        /// ERR_NEEDMOREPARAMS.
+        /// </summary>
+        ErrNeedMoreParams = 461,
+
+        /// <summary>
+        /// ERR_ALREADYREGISTRED.
+        /// </summary>
+        ErrAlreadyRegistered = 462,
+
+        /// <summary>
+        /// ERR_NOPERMFORHOST.
+        /// </summary>
+        ErrNoPermissionForHost = 463,
+
+        /// <summary>
+        /// ERR_PASSWDMISMATCH.
+        /// </summary>
+        ErrPasswordMismatch = 464,
+
+        /// <summary>
+        /// ERR_YOUREBANNEDCREEP.
+        /// </summary>
+        ErrYoureBannedCreep = 465,
+
+        /// <summary>
+        /// ERR_YOUWILLBEBANNED.
+        /// </summary>
+        ErrYouWillBeBanned = 466,
+
+        /// <summary>
+        /// ERR_KEYSET.
+        /// </summary>
+        ErrKeySet = 467,
+
+        /// <summary>
+        /// ERR_CHANNELISFULL.
+        /// </summary>
+        ErrChannelIsFull = 471,
+
+        /// <summary>
+        /// ERR_UNKNOWNMODE.
+        /// </summary>
+        ErrUnknownMode = 472,
+
+        /// <summary>
+        /// ERR_INVITEONLYCHAN.
+        /// </summary>
+        ErrInviteOnlyChannel = 473,
+
+        /// <summary>
+        /// ERR_BANNEDFROMCHAN.
+        /// </summary>
+        ErrBannedFromChannel = 474,
+
+        /// <summary>
+        /// ERR_BADCHANNELKEY.
+        /// </summary>
+        ErrBadChannelKey = 475,
+
+        /// <summary>
+        /// ERR_BADCHANMASK.
+        /// </summary>
+        ErrBadChannelMask = 476,
+
+        /// <summary>
+        /// ERR_NOCHANMODES.
+        /// </summary>
+        ErrNoChannelModes = 477,
+
+        /// <summary>
+        /// ERR_BANLISTFULL.
+        /// </summary>
+        ErrBanListFull = 478,
+
+        /// <summary>
+        /// ERR_NOPRIVILEGES.
+        /// </summary>
+        ErrNoPrivileges = 481,
+
+        /// <summary>
+        /// ERR_CHANOPRIVSNEEDED.
+        /// </summary>
+        ErrChannelOpPrivilegesNeeded = 482,
+
+        /// <summary>
+        /// ERR_CANTKILLSERVER.
+        /// </summary>
+        ErrCantKillServer = 483,
+
+        /// <summary>
+        /// ERR_RESTRICTED.
+        /// </summary>
+        ErrRestricted = 484,
+
+        /// <summary>
+        /// ERR_UNIQOPPRIVSNEEDED.
+        /// </summary>
+        ErrUniqueOpPrivilegesNeeded = 485,
+
+        /// <summary>
+        /// ERR_NOOPERHOST.
+        /// </summary>
+        ErrNoOperHost = 491,
+
+        /// <summary>
+        /// ERR_NOSERVICEHOST.
+        /// </summary>
+        ErrNoServiceHost = 492,
+
+        /// <summary>
+        /// ERR_UMODEUNKNOWNFLAG.
+        /// </summary>
+        ErrUserModeUnknownFlag = 501,
+
+        /// <summary>
+        /// ERR_USERSDONTMATCH.
+        /// </summary>
+        ErrUsersDontMatch = 502
+    }
+}
@@ -0,0 +1,94 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Text;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// A copy of a received IRC message that can be kept, e.g. as result of an IrcClient request.
+    /// </summary>
+    /// <remarks>
+    /// IrcMessage only points into the receive buffer, so the parts are copied into strings.
+    /// </remarks>
+    public class IrcReply
+    {
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of IrcReply with a copy of a message.
+        /// </summary>
+        /// <param name="message">The message to copy.</param>
+        /// <param name="encoding">Encoding of the message.</param>
+        public IrcReply(IrcMessage message, Encoding encoding)
+        {
+            if (message == null) throw new ArgumentNullException(nameof(message));
+            if (encoding == null) throw new ArgumentNullException(nameof(encoding));
+
+            Line = IrcMessage.GetString(message.Line, encoding);
+            Prefix = IrcMessage.GetString(message.Prefix, encoding);
+            PrefixName = IrcMessage.GetString(message.PrefixName, encoding);
+            Command = message.Command;
+            CommandName = IrcMessage.GetString(message.CommandBytes, encoding);
+            Numeric = message.Numeric;
+
+            var parameters = new string[message.ParameterCount];
+            for (var index = 0; index < parameters.Length; index++)
+                parameters[index] = IrcMessage.GetString(message.GetParameter(index), encoding);
+            Parameters = parameters;
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// The whole line without the line end.
+        /// </summary>
+        public string Line { get; }
+
+        /// <summary>
+        /// The prefix without the leading colon. Empty if the message has no prefix.
+        /// </summary>
+        public string Prefix { get; }
+
+        /// <summary>
+        /// The nickname or server name of the prefix.
+        /// </summary>
+        public string PrefixName { get; }
+
+        /// <summary>
+        /// The command.
+        /// </summary>
+        public IrcCommand Command { get; }
+
+        /// <summary>
+        /// The command as sent by the peer, e.g. "PRIVMSG" or "311".
+        /// </summary>
+        public string CommandName { get; }
+
+        /// <summary>
+        /// The numeric reply if Command is IrcCommand.Numeric, otherwise IrcNumeric.None.
+        /// </summary>
+        public IrcNumeric Numeric { get; }
+
+        /// <summary>
+        /// The parameters including the trailing parameter.
+        /// </summary>
+        public IReadOnlyList<string> Parameters { get; }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Returns the line.
+        /// </summary>
+        /// <returns>The line.</returns>
+        public override string ToString()
+        {
+            return Line;
+        }
+
+        #endregion
+    }
+}
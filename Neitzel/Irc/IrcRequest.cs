@@ -0,0 +1,151 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Linq;
+using System.Text;
+using System.Threading.Tasks;
+using Neitzel.Network;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// A command of an IrcClient that waits for its numeric replies.
+    /// </summary>
+    /// <remarks>
+    /// IRC has no ids to correlate replies with commands. The server answers the commands of a client in order,
+    /// so a reply belongs to the oldest pending request that expects its numeric and whose target is one of
+    /// the parameters of the reply. The request is complete with one of its end numerics, e.g. RPL_ENDOFWHOIS.
+    /// ERR_UNKNOWNCOMMAND for the command of the request also ends it.
+    /// </remarks>
+    internal class IrcRequest
+    {
+        #region Fields
+
+        /// <summary>
+        /// Numerics that belong to the request.
+        /// </summary>
+        private readonly HashSet<IrcNumeric> _replies;
+
+        /// <summary>
+        /// Numerics that end the request.
+        /// </summary>
+        private readonly HashSet<IrcNumeric> _ends;
+
+        /// <summary>
+        /// Encoded command, e.g. "WHOIS".
+        /// </summary>
+        private readonly ArraySegment<byte> _command;
+
+        /// <summary>
+        /// Encoded target or an empty segment if the replies are not checked for a target.
+        /// </summary>
+        private readonly ArraySegment<byte> _target;
+
+        /// <summary>
+        /// Replies received so far.
+        /// </summary>
+        private readonly List<IrcReply> _received = new List<IrcReply>();
+
+        /// <summary>
+        /// Completion of the request. Continuations do not run on the io thread.
+        /// </summary>
+        private readonly TaskCompletionSource<IList<IrcReply>> _completion = new TaskCompletionSource<IList<IrcReply>>(TaskCreationOptions.RunContinuationsAsynchronously);
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of IrcRequest.
+        /// </summary>
+        /// <param name="command">The command, e.g. "WHOIS".</param>
+        /// <param name="target">Nickname or channel the replies must contain. Null if it is not checked.</param>
+        /// <param name="replies">Numerics that belong to the request.</param>
+        /// <param name="ends">Numerics that end the request.</param>
+        /// <param name="encoding">Encoding of the lines.</param>
+        public IrcRequest(string command, string target, IEnumerable<IrcNumeric> replies, IEnumerable<IrcNumeric> ends, Encoding encoding)
+        {
+            _command = new ArraySegment<byte>(encoding.GetBytes(command));
+            _target = target == null ? new ArraySegment<byte>(new byte[0]) : new ArraySegment<byte>(encoding.GetBytes(target));
+            _replies = new HashSet<IrcNumeric>(replies);
+            _ends = new HashSet<IrcNumeric>(ends);
+            if (_ends.Count == 0)
+                throw new ArgumentException("A request needs at least one end numeric.", nameof(ends));
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Task that completes with all replies when the end numeric was received.
+        /// </summary>
+        public Task<IList<IrcReply>> Task => _completion.Task;
+
+        /// <summary>
+        /// Timeout of the request. Null if the request has no timeout.
+        /// </summary>
+        public TimingWheelEntry Timeout { get; set; }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Checks if a numeric reply belongs to the request.
+        /// </summary>
+        /// <param name="message">The numeric reply.</param>
+        /// <returns>True if the reply belongs to the request.</returns>
+        public bool Matches(IrcMessage message)
+        {
+            if (message.Numeric == IrcNumeric.ErrUnknownCommand)
+                return message.ParameterCount > 1 && IrcCaseMapping.Equals(message.GetParameter(1), _command);
+
+            if (!_replies.Contains(message.Numeric) && !_ends.Contains(message.Numeric))
+                return false;
+            if (_target.Count == 0)
+                return true;
+
+            // The first parameter is the nickname of the client.
+            for (var index = 1; index < message.ParameterCount; index++)
+            {
+                if (IrcCaseMapping.Equals(message.GetParameter(index), _target))
+                    return true;
+            }
+
+            return false;
+        }
+
+        /// <summary>
+        /// Add a reply that belongs to the request.
+        /// </summary>
+        /// <param name="message">The numeric reply.</param>
+        /// <param name="encoding">Encoding of the lines.</param>
+        /// <returns>True if the reply ended the request. It has to be completed by Complete then.</returns>
+        public bool Add(IrcMessage message, Encoding encoding)
+        {
+            _received.Add(new IrcReply(message, encoding));
+            return _ends.Contains(message.Numeric) || message.Numeric == IrcNumeric.ErrUnknownCommand;
+        }
+
+        /// <summary>
+        /// Complete the request with the received replies.
+        /// </summary>
+        public void Complete()
+        {
+            Timeout?.Cancel();
+            _completion.TrySetResult(_received.ToList());
+        }
+
+        /// <summary>
+        /// Fail the request.
+        /// </summary>
+        /// <param name="exception">The reason.</param>
+        public void Fail(Exception exception)
+        {
+            Timeout?.Cancel();
+            _completion.TrySetException(exception);
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,2193 @@
+﻿using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Globalization;
+using System.Linq;
+using System.Net;
+using System.Text;
+using System.Threading.Tasks;
+using Neitzel.Network;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// An IRC server (RFC 2812) on top of a TcpIpServerConnection.
+    /// </summary>
+    /// <remarks>
+    /// The server supports the registration (NICK, USER), PING, QUIT, JOIN, PART, PRIVMSG, NOTICE, TOPIC,
+    /// NAMES and the channel modes imnpstkl and ov of RFC 2811. Invites are not supported.
+    ///
+    /// Lines are parsed in place of the receive buffer by an IrcMessageEvaluator per connection. Messages to
+    /// a channel are serialized once into a SharedBuffer that all send queues of the members share, see
+    /// IrcChannel. Nicknames and channel names are compared with the RFC 1459 casemapping by an
+    /// IrcNameRegistry, so the targets of a message are looked up without creating strings.
+    ///
+    /// Several servers form a network through server links (RFC 2813), opened with Link or accepted from
+    /// servers that register with PASS and SERVER instead of NICK and USER. Both servers must use the same
+    /// LinkPassword. A new link gets a netburst of all servers, users and channels that is streamed
+    /// through an IrcBurstWriter. Afterwards all changes are relayed to the other links, messages to a
+    /// channel only to links with members. When a link is lost, all servers and users behind it are
+    /// removed (netsplit) and the other servers get an SQUIT. Server links use the format of RFC 2813 with
+    /// two simplifications: NICK carries the server name instead of a server token and channels are merged
+    /// without timestamps.
+    ///
+    /// By default the connection uses ServerIoMode.Asynchronous, ReceiveMode.Pooled and send queues that
+    /// close the connection of a client that does not read its messages. These settings can be changed
+    /// through Connection before Open is called. Flood control (RFC 1459 section 8.10) is enabled with
+    /// Connection.RateLimitOptions, accepted server links are not limited once they are registered.
+    /// </remarks>
+    public class IrcServer : DisposableObject
+    {
+        #region Constants
+
+        /// <summary>
+        /// Default maximum length of a nickname (RFC 2812 section 1.2.1).
+        /// </summary>
+        public const int DefaultMaxNickLength = 9;
+
+        /// <summary>
+        /// Maximum length of a channel name (RFC 2812 section 1.3).
+        /// </summary>
+        public const int MaxChannelNameLength = 50;
+
+        /// <summary>
+        /// Maximum length of the names inside one RPL_NAMREPLY line.
+        /// </summary>
+        private const int MaxNamesLength = 400;
+
+        /// <summary>
+        /// Characters that are allowed inside nicknames beside letters and digits.
+        /// </summary>
+        private const string SpecialCharacters = "[]\\`_^{|}";
+
+        /// <summary>
+        /// Protocol version that is sent with PASS on server links (RFC 2813 section 4.1.1).
+        /// </summary>
+        private const string ProtocolVersion = "0210";
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(IrcConstants.TraceSourceName);
+
+        /// <summary>
+        /// Users by the id of their connection.
+        /// </summary>
+        private readonly ConcurrentDictionary<long, IrcUser> _users = new ConcurrentDictionary<long, IrcUser>();
+
+        /// <summary>
+        /// Users by nickname.
+        /// </summary>
+        private readonly IrcNameRegistry<IrcUser> _nicks;
+
+        /// <summary>
+        /// Channels by name.
+        /// </summary>
+        private readonly IrcNameRegistry<IrcChannel> _channels;
+
+        /// <summary>
+        /// Servers of the network by name, without this server.
+        /// </summary>
+        private readonly IrcNameRegistry<IrcServerInfo> _servers;
+
+        /// <summary>
+        /// Accepted server links by the id of their connection.
+        /// </summary>
+        private readonly ConcurrentDictionary<long, IrcServerLink> _linkConnections = new ConcurrentDictionary<long, IrcServerLink>();
+
+        /// <summary>
+        /// Lock for changes of _links.
+        /// </summary>
+        private readonly object _linkLock = new object();
+
+        /// <summary>
+        /// Current server links. The array is never changed, it is replaced.
+        /// </summary>
+        private volatile IrcServerLink[] _links = new IrcServerLink[0];
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of IrcServer.
+        /// </summary>
+        /// <param name="serverName">Name of the server.</param>
+        /// <param name="port">Port to listen on.</param>
+        public IrcServer(string serverName, int port)
+            : this(serverName, port, Encoding.UTF8)
+        {
+        }
+
+        /// <summary>
+        /// Creates a new instance of IrcServer.
+        /// </summary>
+        /// <param name="serverName">Name of the server.</param>
+        /// <param name="port">Port to listen on.</param>
+        /// <param name="encoding">Encoding of the lines.</param>
+        public IrcServer(string serverName, int port, Encoding encoding)
+        {
+            if (string.IsNullOrEmpty(serverName)) throw new ArgumentNullException(nameof(serverName));
+            if (encoding == null) throw new ArgumentNullException(nameof(encoding));
+
+            ServerName = serverName;
+            Encoding = encoding;
+            _nicks = new IrcNameRegistry<IrcUser>(encoding);
+            _channels = new IrcNameRegistry<IrcChannel>(encoding);
+            _servers = new IrcNameRegistry<IrcServerInfo>(encoding);
+            Connection = new TcpIpServerConnection(port)
+            {
+                IoMode = ServerIoMode.Asynchronous,
+                ReceiveMode = ReceiveMode.Pooled,
+                SendQueueOptions = new SendQueueOptions { OverflowPolicy = SendOverflowPolicy.Disconnect }
+            };
+            Connection.ClientConnected += OnClientConnected;
+            Connection.ClientDisconnected += OnClientDisconnected;
+        }
+
+        /// <summary>
+        /// Dispose this instance.
+        /// </summary>
+        /// <param name="disposing">Controlled dispose not from finalizer.</param>
+        protected override void Dispose(bool disposing)
+        {
+            if (Disposed)
+                return;
+
+            base.Dispose(disposing);
+
+            if (disposing)
+            {
+                foreach (var link in _links)
+                    link.Close();
+                Connection.Dispose();
+            }
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Name of the server.
+        /// </summary>
+        public string ServerName { get; }
+
+        /// <summary>
+        /// The underlying server connection.
+        /// </summary>
+        public TcpIpServerConnection Connection { get; }
+
+        /// <summary>
+        /// Encoding of the lines. Nicknames and channel names are compared on their encoded bytes.
+        /// </summary>
+        public Encoding Encoding { get; }
+
+        /// <summary>
+        /// Maximum length of a nickname.
+        /// </summary>
+        public int MaxNickLength { get; set; } = DefaultMaxNickLength;
+
+        /// <summary>
+        /// Description of the server that is sent to other servers.
+        /// </summary>
+        public string Description { get; set; } = "Neitzel IRC server";
+
+        /// <summary>
+        /// Password of server links. Null means that no links are accepted.
+        /// </summary>
+        public string LinkPassword { get; set; }
+
+        /// <summary>
+        /// Time the server was created.
+        /// </summary>
+        public DateTime Created { get; } = DateTime.Now;
+
+        /// <summary>
+        /// Number of connected users, including users that did not complete the registration.
+        /// </summary>
+        public int UserCount => _users.Count;
+
+        /// <summary>
+        /// Number of users with a nickname, including the users of other servers.
+        /// </summary>
+        public int NickCount => _nicks.Count;
+
+        /// <summary>
+        /// Number of channels.
+        /// </summary>
+        public int ChannelCount => _channels.Count;
+
+        /// <summary>
+        /// Number of other servers of the network.
+        /// </summary>
+        public int ServerCount => _servers.Count;
+
+        /// <summary>
+        /// Current server links, including links that are not registered yet.
+        /// </summary>
+        public IReadOnlyList<IrcServerLink> Links => _links;
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Open the server and listen for new connections.
+        /// </summary>
+        public void Open()
+        {
+            if (Disposed)
+                throw new InvalidOperationException("Instance already disposed!");
+
+            Connection.Open();
+        }
+
+        /// <summary>
+        /// Close the server and all connections, dispose this instance.
+        /// </summary>
+        public void Close()
+        {
+            Dispose();
+        }
+
+        /// <summary>
+        /// Find a user by nickname.
+        /// </summary>
+        /// <param name="nick">Nickname of the user.</param>
+        /// <param name="user">The user or null if it was not found.</param>
+        /// <returns>True if the user was found.</returns>
+        public bool TryGetUser(string nick, out IrcUser user)
+        {
+            if (nick == null) throw new ArgumentNullException(nameof(nick));
+
+            return _nicks.TryGetValue(nick, out user);
+        }
+
+        /// <summary>
+        /// Find a channel by name.
+        /// </summary>
+        /// <param name="name">Name of the channel.</param>
+        /// <param name="channel">The channel or null if it was not found.</param>
+        /// <returns>True if the channel was found.</returns>
+        public bool TryGetChannel(string name, out IrcChannel channel)
+        {
+            if (name == null) throw new ArgumentNullException(nameof(name));
+
+            return _channels.TryGetValue(name, out channel);
+        }
+
+        /// <summary>
+        /// Find another server of the network by name.
+        /// </summary>
+        /// <param name="name">Name of the server.</param>
+        /// <param name="server">The server or null if it was not found.</param>
+        /// <returns>True if the server was found.</returns>
+        public bool TryGetServer(string name, out IrcServerInfo server)
+        {
+            if (name == null) throw new ArgumentNullException(nameof(name));
+
+            return _servers.TryGetValue(name, out server);
+        }
+
+        /// <summary>
+        /// Link this server with another server.
+        /// </summary>
+        /// <remarks>
+        /// The link is registered when the other server answered with PASS and SERVER. Both servers then
+        /// send their netburst.
+        /// </remarks>
+        /// <param name="hostName">Host of the other server.</param>
+        /// <param name="port">Port of the other server.</param>
+        /// <returns>The new link.</returns>
+        public IrcServerLink Link(string hostName, int port)
+        {
+            if (hostName == null) throw new ArgumentNullException(nameof(hostName));
+            if (Disposed)
+                throw new InvalidOperationException("Instance already disposed!");
+            if (LinkPassword == null)
+                throw new InvalidOperationException("LinkPassword not set.");
+
+            var connection = new TcpIpClientConnection(hostName, port)
+            {
+                ReceiveMode = ReceiveMode.Pooled,
+                SendQueueOptions = Connection.SendQueueOptions
+            };
+            var link = new IrcServerLink(connection, Encoding);
+            link.Evaluator.MessageEvaluated += (s, args) => HandleLinkMessage(link, args.Message);
+            connection.Disconnected += (s, args) => RemoveLink(link, "Connection closed");
+
+            try
+            {
+                connection.Connect();
+            }
+            catch
+            {
+                connection.Dispose();
+                throw;
+            }
+
+            AddLink(link);
+            SendHandshake(link);
+            return link;
+        }
+
+        #endregion
+
+        #region Connection Handling
+
+        /// <summary>
+        /// A client connected.
+        /// </summary>
+        /// <param name="sender">Sender.</param>
+        /// <param name="e">ClientEventArgs with connected client.</param>
+        private void OnClientConnected(object sender, ClientEventArgs e)
+        {
+            var connection = e.Client;
+            var host = (connection.RemoteEndPoint as IPEndPoint)?.Address.ToString() ?? ServerName;
+            var user = new IrcUser(connection, host, Encoding);
+            user.Evaluator.MessageEvaluated += (s, args) =>
+            {
+                var link = user.ServerLink;
+                if (link == null)
+                    HandleMessage(user, args.Message);
+                else
+                    HandleLinkMessage(link, args.Message);
+            };
+            _users[connection.Id] = user;
+            connection.MessageReceived += user.Decoder.MessageReceiver;
+        }
+
+        /// <summary>
+        /// A client was disconnected.
+        /// </summary>
+        /// <param name="sender">Sender.</param>
+        /// <param name="e">ClientEventArgs with disconnected client.</param>
+        private void OnClientDisconnected(object sender, ClientEventArgs e)
+        {
+            IrcServerLink link;
+            if (_linkConnections.TryRemove(e.Client.Id, out link))
+            {
+                RemoveLink(link, "Connection closed");
+                return;
+            }
+
+            IrcUser user;
+            if (_users.TryGetValue(e.Client.Id, out user))
+                RemoveUser(user, "Connection closed");
+        }
+
+        /// <summary>
+        /// Remove a user that quit or was disconnected.
+        /// </summary>
+        /// <param name="user">User to remove.</param>
+        /// <param name="reason">Reason that is sent to the other users.</param>
+        private void RemoveUser(IrcUser user, string reason)
+        {
+            IrcUser removed;
+            if (!_users.TryRemove(user.Connection.Id, out removed))
+                return;
+
+            if (user.Nick != null)
+                _nicks.TryRemove(user.Nick, user);
+
+            if (user.Registered)
+            {
+                var line = new IrcLineBuilder(Encoding)
+                    .Append(':').Append(user.Prefix).Append(" QUIT :").Append(reason);
+                SendToNeighbours(user, line, false, true);
+            }
+
+            foreach (var channel in user.Channels)
+                LeaveChannel(user, channel);
+
+            Logger.TraceEvent(TraceEventType.Verbose, 0, "User {0} left: {1}", user.Prefix, reason);
+        }
+
+        #endregion
+
+        #region Command Handling
+
+        /// <summary>
+        /// Handle a message of a user.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandleMessage(IrcUser user, IrcMessage message)
+        {
+            switch (message.Command)
+            {
+                case IrcCommand.Nick:
+                    HandleNick(user, message);
+                    return;
+                case IrcCommand.User:
+                    HandleUser(user, message);
+                    return;
+                case IrcCommand.Ping:
+                    HandlePing(user, message);
+                    return;
+                case IrcCommand.Quit:
+                    HandleQuit(user, message);
+                    return;
+                case IrcCommand.Pass:
+                    HandlePass(user, message);
+                    return;
+                case IrcCommand.Server:
+                    HandleServer(user, message);
+                    return;
+                case IrcCommand.Pong:
+                    return;
+            }
+
+            if (!user.Registered)
+            {
+                SendReply(user, IrcNumeric.ErrNotRegistered, null, "You have not registered");
+                return;
+            }
+
+            switch (message.Command)
+            {
+                case IrcCommand.Join:
+                    HandleJoin(user, message);
+                    break;
+                case IrcCommand.Part:
+                    HandlePart(user, message);
+                    break;
+                case IrcCommand.Privmsg:
+                    HandlePrivateMessage(user, message, "PRIVMSG", false);
+                    break;
+                case IrcCommand.Notice:
+                    HandlePrivateMessage(user, message, "NOTICE", true);
+                    break;
+                case IrcCommand.Mode:
+                    HandleMode(user, message);
+                    break;
+                case IrcCommand.Topic:
+                    HandleTopic(user, message);
+                    break;
+                case IrcCommand.Names:
+                    HandleNames(user, message);
+                    break;
+                case IrcCommand.Numeric:
+                    break;
+                default:
+                    SendReply(user, IrcNumeric.ErrUnknownCommand, GetString(message.CommandBytes), "Unknown command");
+                    break;
+            }
+        }
+
+        /// <summary>
+        /// NICK: Set or change the nickname.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandleNick(IrcUser user, IrcMessage message)
+        {
+            if (message.ParameterCount < 1 || message.GetParameter(0).Count == 0)
+            {
+                SendReply(user, IrcNumeric.ErrNoNicknameGiven, null, "No nickname given");
+                return;
+            }
+
+            var nick = GetString(message.GetParameter(0));
+            if (!IsValidNick(nick))
+            {
+                SendReply(user, IrcNumeric.ErrErroneousNickname, nick, "Erroneous nickname");
+                return;
+            }
+
+            var oldNick = user.Nick;
+            if (nick == oldNick)
+                return;
+
+            if (oldNick == null ? !_nicks.TryAdd(nick, user) : !_nicks.TryRename(oldNick, nick, user))
+            {
+                SendReply(user, IrcNumeric.ErrNicknameInUse, nick, "Nickname is already in use");
+                return;
+            }
+
+            var oldPrefix = user.Prefix;
+            user.Nick = nick;
+            if (!user.Registered)
+            {
+                CompleteRegistration(user);
+                return;
+            }
+
+            var line = new IrcLineBuilder(Encoding).Append(':').Append(oldPrefix).Append(" NICK :").Append(nick);
+            SendToNeighbours(user, line, true, true);
+        }
+
+        /// <summary>
+        /// USER: Register the user name and real name.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandleUser(IrcUser user, IrcMessage message)
+        {
+            if (user.Registered || user.UserName != null)
+            {
+                SendReply(user, IrcNumeric.ErrAlreadyRegistered, null, "Unauthorized command (already registered)");
+                return;
+            }
+
+            if (message.ParameterCount < 4 || message.GetParameter(0).Count == 0)
+            {
+                SendReply(user, IrcNumeric.ErrNeedMoreParams, "USER", "Not enough parameters");
+                return;
+            }
+
+            user.SetUser(GetString(message.GetParameter(0)), GetString(message.GetParameter(3)));
+            CompleteRegistration(user);
+        }
+
+        /// <summary>
+        /// Complete the registration when NICK and USER were received.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        private void CompleteRegistration(IrcUser user)
+        {
+            if (user.Registered || user.Nick == null || user.UserName == null)
+                return;
+
+            user.Registered = true;
+            user.Connection.CompleteHandshake();
+
+            var version = typeof(IrcServer).Assembly.GetName().Version.ToString();
+            SendReply(user, IrcNumeric.RplWelcome, null, "Welcome to the Internet Relay Network " + user.Prefix);
+            SendReply(user, IrcNumeric.RplYourHost, null, "Your host is " + ServerName + ", running version " + version);
+            SendReply(user, IrcNumeric.RplCreated, null, "This server was created " + Created.ToString("R", CultureInfo.InvariantCulture));
+            SendReply(user, IrcNumeric.RplMyInfo, ServerName + " " + version + " o imnpstklov", null);
+            SendReply(user, IrcNumeric.ErrNoMotd, null, "MOTD File is missing");
+
+            var line = new IrcLineBuilder(Encoding);
+            AppendNick(line, user, 1);
+            SendToLinks(line, null);
+        }
+
+        /// <summary>
+        /// PASS: Remember the password for a server link.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandlePass(IrcUser user, IrcMessage message)
+        {
+            if (user.Registered)
+            {
+                SendReply(user, IrcNumeric.ErrAlreadyRegistered, null, "Unauthorized command (already registered)");
+                return;
+            }
+
+            if (message.ParameterCount > 0)
+                user.Password = GetString(message.GetParameter(0));
+        }
+
+        /// <summary>
+        /// SERVER: The connection is another server, turn it into a server link.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandleServer(IrcUser user, IrcMessage message)
+        {
+            if (user.Registered || user.Nick != null || user.UserName != null)
+            {
+                SendReply(user, IrcNumeric.ErrAlreadyRegistered, null, "Unauthorized command (already registered)");
+                return;
+            }
+
+            var id = user.Connection.Id;
+            var link = new IrcServerLink(user.Connection) { Password = user.Password };
+            _linkConnections[id] = link;
+            IrcUser removed;
+            _users.TryRemove(id, out removed);
+            user.ServerLink = link;
+            AddLink(link);
+            RegisterLink(link, message);
+        }
+
+        /// <summary>
+        /// PING: Answer with PONG.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandlePing(IrcUser user, IrcMessage message)
+        {
+            if (message.ParameterCount < 1)
+            {
+                SendReply(user, IrcNumeric.ErrNoOrigin, null, "No origin specified");
+                return;
+            }
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(ServerName).Append(" PONG ").Append(ServerName)
+                .Append(" :").Append(message.GetParameter(0));
+            Send(user, line);
+        }
+
+        /// <summary>
+        /// QUIT: End the session.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandleQuit(IrcUser user, IrcMessage message)
+        {
+            var reason = message.ParameterCount > 0 ? GetString(message.GetParameter(0)) : "Client Quit";
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append("ERROR :Closing Link: ").Append(user.Host).Append(" (").Append(reason).Append(')');
+            Send(user, line);
+            user.Connection.Flush();
+
+            RemoveUser(user, reason);
+            user.Connection.Close();
+        }
+
+        /// <summary>
+        /// JOIN: Join channels.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandleJoin(IrcUser user, IrcMessage message)
+        {
+            if (message.ParameterCount < 1)
+            {
+                SendReply(user, IrcNumeric.ErrNeedMoreParams, "JOIN", "Not enough parameters");
+                return;
+            }
+
+            var names = message.GetParameter(0);
+            if (names.Count == 1 && names.Array[names.Offset] == '0')
+            {
+                foreach (var channel in user.Channels)
+                    PartChannel(user, channel, user.Nick);
+                return;
+            }
+
+            var keys = message.ParameterCount > 1 ? message.GetParameter(1) : default(ArraySegment<byte>);
+            var keyPosition = 0;
+            for (var position = 0; position <= names.Count;)
+            {
+                var name = NextListItem(names, ref position);
+                var key = keys.Array != null && keyPosition <= keys.Count ? NextListItem(keys, ref keyPosition) : default(ArraySegment<byte>);
+                if (name.Count > 0)
+                    JoinChannel(user, GetString(name), key.Count > 0 ? GetString(key) : null);
+            }
+        }
+
+        /// <summary>
+        /// Join a channel. The channel is created if it does not exist.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="name">Name of the channel.</param>
+        /// <param name="key">Key that was given or null.</param>
+        private void JoinChannel(IrcUser user, string name, string key)
+        {
+            if (!IsValidChannelName(name))
+            {
+                SendReply(user, IrcNumeric.ErrNoSuchChannel, name, "No such channel");
+                return;
+            }
+
+            var created = false;
+            while (true)
+            {
+                var channel = _channels.GetOrAdd(name, n => new IrcChannel(n));
+                lock (channel.SyncRoot)
+                {
+                    // The last member left while we got the channel.
+                    if (channel.Closed)
+                        continue;
+                    if (channel.FindMember(user) != null)
+                        return;
+
+                    created = channel.MemberCount == 0;
+                    if (!created)
+                    {
+                        var modes = channel.Modes;
+                        if ((modes & IrcChannelModes.InviteOnly) != 0)
+                        {
+                            SendReply(user, IrcNumeric.ErrInviteOnlyChannel, channel.Name, "Cannot join channel (+i)");
+                            return;
+                        }
+                        if ((modes & IrcChannelModes.Key) != 0 && key != channel.Key)
+                        {
+                            SendReply(user, IrcNumeric.ErrBadChannelKey, channel.Name, "Cannot join channel (+k)");
+                            return;
+                        }
+                        if ((modes & IrcChannelModes.Limit) != 0 && channel.MemberCount >= channel.UserLimit)
+                        {
+                            SendReply(user, IrcNumeric.ErrChannelIsFull, channel.Name, "Cannot join channel (+l)");
+                            return;
+                        }
+                    }
+                    else
+                    {
+                        channel.Modes = IrcChannelModes.NoExternalMessages | IrcChannelModes.TopicLock;
+                    }
+
+                    channel.Add(user, created ? IrcMemberModes.Operator : IrcMemberModes.None);
+                }
+
+                user.AddChannel(channel);
+
+                var line = new IrcLineBuilder(Encoding).Append(':').Append(user.Prefix).Append(" JOIN ").Append(channel.Name);
+                SendLocal(channel, line);
+
+                // Other servers get the operator status of the creator behind ^G (RFC 2813 section 4.2.1).
+                line.Append(':').Append(user.Prefix).Append(" JOIN ").Append(channel.Name);
+                if (created)
+                    line.Append('\a').Append('o');
+                SendToLinks(line, null);
+
+                var topic = channel.Topic;
+                if (topic != null)
+                    SendReply(user, IrcNumeric.RplTopic, channel.Name, topic);
+                SendNames(user, channel);
+                return;
+            }
+        }
+
+        /// <summary>
+        /// PART: Leave channels.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandlePart(IrcUser user, IrcMessage message)
+        {
+            if (message.ParameterCount < 1)
+            {
+                SendReply(user, IrcNumeric.ErrNeedMoreParams, "PART", "Not enough parameters");
+                return;
+            }
+
+            var reason = message.ParameterCount > 1 ? GetString(message.GetParameter(1)) : user.Nick;
+            var names = message.GetParameter(0);
+            for (var position = 0; position <= names.Count;)
+            {
+                var name = NextListItem(names, ref position);
+                if (name.Count == 0)
+                    continue;
+
+                IrcChannel channel;
+                if (!_channels.TryGetValue(name, out channel))
+                {
+                    SendReply(user, IrcNumeric.ErrNoSuchChannel, GetString(name), "No such channel");
+                    continue;
+                }
+
+                if (channel.FindMember(user) == null)
+                {
+                    SendReply(user, IrcNumeric.ErrNotOnChannel, channel.Name, "You're not on that channel");
+                    continue;
+                }
+
+                PartChannel(user, channel, reason);
+            }
+        }
+
+        /// <summary>
+        /// Tell all members that a user leaves a channel and remove the user.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="channel">The channel.</param>
+        /// <param name="reason">Reason that is sent to the members.</param>
+        private void PartChannel(IrcUser user, IrcChannel channel, string reason)
+        {
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(user.Prefix).Append(" PART ").Append(channel.Name).Append(" :").Append(reason);
+            SendChange(channel, line, user.Link);
+            LeaveChannel(user, channel);
+        }
+
+        /// <summary>
+        /// Remove a user from a channel. The channel is removed when the last member left.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="channel">The channel.</param>
+        private void LeaveChannel(IrcUser user, IrcChannel channel)
+        {
+            lock (channel.SyncRoot)
+            {
+                if (!channel.Remove(user))
+                    return;
+
+                if (channel.MemberCount == 0)
+                {
+                    channel.Closed = true;
+                    _channels.TryRemove(channel.Name, channel);
+                }
+            }
+
+            user.RemoveChannel(channel);
+        }
+
+        /// <summary>
+        /// PRIVMSG and NOTICE: Send a message to users and channels.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        /// <param name="command">Name of the command.</param>
+        /// <param name="notice">Is it a notice? Notices are never answered with an error.</param>
+        private void HandlePrivateMessage(IrcUser user, IrcMessage message, string command, bool notice)
+        {
+            if (message.ParameterCount < 1)
+            {
+                if (!notice)
+                    SendReply(user, IrcNumeric.ErrNoRecipient, null, "No recipient given (" + command + ")");
+                return;
+            }
+
+            if (message.ParameterCount < 2 || message.GetParameter(1).Count == 0)
+            {
+                if (!notice)
+                    SendReply(user, IrcNumeric.ErrNoTextToSend, null, "No text to send");
+                return;
+            }
+
+            var targets = message.GetParameter(0);
+            var text = message.GetParameter(1);
+            for (var position = 0; position <= targets.Count;)
+            {
+                var target = NextListItem(targets, ref position);
+                if (target.Count == 0)
+                    continue;
+
+                if (IsChannelPrefix(target.Array[target.Offset]))
+                    SendToChannel(user, target, text, command, notice);
+                else
+                    SendToUser(user, target, text, command, notice);
+            }
+        }
+
+        /// <summary>
+        /// Send a message to all other members of a channel.
+        /// </summary>
+        /// <param name="user">The sender.</param>
+        /// <param name="name">Name of the channel.</param>
+        /// <param name="text">Text of the message.</param>
+        /// <param name="command">Name of the command.</param>
+        /// <param name="notice">Is it a notice?</param>
+        private void SendToChannel(IrcUser user, ArraySegment<byte> name, ArraySegment<byte> text, string command, bool notice)
+        {
+            IrcChannel channel;
+            if (!_channels.TryGetValue(name, out channel))
+            {
+                if (!notice)
+                    SendReply(user, IrcNumeric.ErrNoSuchNick, GetString(name), "No such nick/channel");
+                return;
+            }
+
+            var member = channel.FindMember(user);
+            var modes = channel.Modes;
+            if ((member == null && (modes & IrcChannelModes.NoExternalMessages) != 0)
+                || ((modes & IrcChannelModes.Moderated) != 0 && (member == null || member.Modes == IrcMemberModes.None)))
+            {
+                if (!notice)
+                    SendReply(user, IrcNumeric.ErrCannotSendToChannel, channel.Name, "Cannot send to channel");
+                return;
+            }
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(user.Prefix).Append(' ').Append(command).Append(' ').Append(channel.Name)
+                .Append(" :").Append(text);
+            Send(channel, line, user);
+        }
+
+        /// <summary>
+        /// Send a message to a user.
+        /// </summary>
+        /// <param name="user">The sender.</param>
+        /// <param name="nick">Nickname of the recipient.</param>
+        /// <param name="text">Text of the message.</param>
+        /// <param name="command">Name of the command.</param>
+        /// <param name="notice">Is it a notice?</param>
+        private void SendToUser(IrcUser user, ArraySegment<byte> nick, ArraySegment<byte> text, string command, bool notice)
+        {
+            IrcUser recipient;
+            if (!_nicks.TryGetValue(nick, out recipient) || !recipient.Registered)
+            {
+                if (!notice)
+                    SendReply(user, IrcNumeric.ErrNoSuchNick, GetString(nick), "No such nick/channel");
+                return;
+            }
+
+            // Never send a message back to the link it came from.
+            if (!user.IsLocal && recipient.Link == user.Link)
+                return;
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(user.Prefix).Append(' ').Append(command).Append(' ').Append(recipient.Nick)
+                .Append(" :").Append(text);
+            Send(recipient, line);
+        }
+
+        /// <summary>
+        /// MODE: Query or change the modes of a channel. User modes are not supported.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandleMode(IrcUser user, IrcMessage message)
+        {
+            if (message.ParameterCount < 1)
+            {
+                SendReply(user, IrcNumeric.ErrNeedMoreParams, "MODE", "Not enough parameters");
+                return;
+            }
+
+            var target = GetString(message.GetParameter(0));
+            if (target.Length == 0 || !IsChannelPrefix((byte) target[0]))
+            {
+                if (IrcCaseMapping.Equals(target, user.Nick))
+                    SendReply(user, IrcNumeric.RplUserModeIs, "+", null);
+                else
+                    SendReply(user, IrcNumeric.ErrUsersDontMatch, null, "Cannot change mode for other users");
+                return;
+            }
+
+            IrcChannel channel;
+            if (!_channels.TryGetValue(target, out channel))
+            {
+                SendReply(user, IrcNumeric.ErrNoSuchChannel, target, "No such channel");
+                return;
+            }
+
+            if (message.ParameterCount == 1)
+            {
+                SendReply(user, IrcNumeric.RplChannelModeIs, channel.Name + " " + channel.GetModeString(), null);
+                return;
+            }
+
+            var member = channel.FindMember(user);
+            if (member == null || !member.IsOperator)
+            {
+                SendReply(user, IrcNumeric.ErrChannelOpPrivilegesNeeded, channel.Name, "You're not channel operator");
+                return;
+            }
+
+            var changes = ChangeModes(user, channel, message);
+            if (changes == null)
+                return;
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(user.Prefix).Append(" MODE ").Append(channel.Name).Append(' ').Append(changes);
+            SendChange(channel, line, user.Link);
+        }
+
+        /// <summary>
+        /// Apply the mode changes of a MODE message to a channel.
+        /// </summary>
+        /// <param name="user">The user or null if another server changes the modes.</param>
+        /// <param name="channel">The channel.</param>
+        /// <param name="message">The message.</param>
+        /// <returns>The applied changes with their parameters or null if nothing was changed.</returns>
+        private string ChangeModes(IrcUser user, IrcChannel channel, IrcMessage message)
+        {
+            var modeString = GetString(message.GetParameter(1));
+            var argument = 2;
+            var applied = new StringBuilder();
+            var appliedArguments = new StringBuilder();
+            var adding = true;
+            var appliedSign = ' ';
+
+            lock (channel.SyncRoot)
+            {
+                foreach (var mode in modeString)
+                {
+                    string modeArgument = null;
+                    switch (mode)
+                    {
+                        case '+':
+                        case '-':
+                            adding = mode == '+';
+                            continue;
+                        case 'i':
+                            SetMode(channel, IrcChannelModes.InviteOnly, adding);
+                            break;
+                        case 'm':
+                            SetMode(channel, IrcChannelModes.Moderated, adding);
+                            break;
+                        case 'n':
+                            SetMode(channel, IrcChannelModes.NoExternalMessages, adding);
+                            break;
+                        case 'p':
+                            SetMode(channel, IrcChannelModes.Private, adding);
+                            break;
+                        case 's':
+                            SetMode(channel, IrcChannelModes.Secret, adding);
+                            break;
+                        case 't':
+                            SetMode(channel, IrcChannelModes.TopicLock, adding);
+                            break;
+                        case 'k':
+                            if (argument < message.ParameterCount)
+                                modeArgument = GetString(message.GetParameter(argument++));
+                            if (adding && string.IsNullOrEmpty(modeArgument))
+                                continue;
+                            channel.Key = adding ? modeArgument : null;
+                            SetMode(channel, IrcChannelModes.Key, adding);
+                            break;
+                        case 'l':
+                            if (adding)
+                            {
+                                int limit;
+                                if (argument >= message.ParameterCount
+                                    || !int.TryParse(GetString(message.GetParameter(argument++)), NumberStyles.None, CultureInfo.InvariantCulture, out limit)
+                                    || limit < 1)
+                                    continue;
+                                channel.UserLimit = limit;
+                                modeArgument = limit.ToString(CultureInfo.InvariantCulture);
+                            }
+                            SetMode(channel, IrcChannelModes.Limit, adding);
+                            break;
+                        case 'o':
+                        case 'v':
+                            if (argument >= message.ParameterCount)
+                                continue;
+                            modeArgument = GetString(message.GetParameter(argument++));
+                            if (!ChangeMemberMode(user, channel, modeArgument, mode == 'o' ? IrcMemberModes.Operator : IrcMemberModes.Voice, adding))
+                                continue;
+                            break;
+                        default:
+                            SendReply(user, IrcNumeric.ErrUnknownMode, mode.ToString(), "is unknown mode char to me for " + channel.Name);
+                            continue;
+                    }
+
+                    var sign = adding ? '+' : '-';
+                    if (sign != appliedSign)
+                    {
+                        applied.Append(sign);
+                        appliedSign = sign;
+                    }
+                    applied.Append(mode);
+                    if (modeArgument != null)
+                        appliedArguments.Append(' ').Append(modeArgument);
+                }
+            }
+
+            return applied.Length == 0 ? null : applied.Append(appliedArguments).ToString();
+        }
+
+        /// <summary>
+        /// Set or clear a mode of a channel. Must be called inside SyncRoot of the channel.
+        /// </summary>
+        /// <param name="channel">The channel.</param>
+        /// <param name="mode">The mode.</param>
+        /// <param name="adding">Set or clear the mode?</param>
+        private static void SetMode(IrcChannel channel, IrcChannelModes mode, bool adding)
+        {
+            channel.Modes = adding ? channel.Modes | mode : channel.Modes & ~mode;
+        }
+
+        /// <summary>
+        /// Set or clear a mode of a member. Must be called inside SyncRoot of the channel.
+        /// </summary>
+        /// <param name="user">The user that changes the mode or null.</param>
+        /// <param name="channel">The channel.</param>
+        /// <param name="nick">Nickname of the member.</param>
+        /// <param name="mode">The mode.</param>
+        /// <param name="adding">Set or clear the mode?</param>
+        /// <returns>True if the mode was changed.</returns>
+        private bool ChangeMemberMode(IrcUser user, IrcChannel channel, string nick, IrcMemberModes mode, bool adding)
+        {
+            IrcUser target;
+            var member = _nicks.TryGetValue(nick, out target) ? channel.FindMember(target) : null;
+            if (member == null)
+            {
+                SendReply(user, IrcNumeric.ErrUserNotInChannel, nick + " " + channel.Name, "They aren't on that channel");
+                return false;
+            }
+
+            member.Modes = adding ? member.Modes | mode : member.Modes & ~mode;
+            return true;
+        }
+
+        /// <summary>
+        /// TOPIC: Query or change the topic of a channel.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandleTopic(IrcUser user, IrcMessage message)
+        {
+            if (message.ParameterCount < 1)
+            {
+                SendReply(user, IrcNumeric.ErrNeedMoreParams, "TOPIC", "Not enough parameters");
+                return;
+            }
+
+            IrcChannel channel;
+            var name = GetString(message.GetParameter(0));
+            if (!_channels.TryGetValue(name, out channel))
+            {
+                SendReply(user, IrcNumeric.ErrNoSuchChannel, name, "No such channel");
+                return;
+            }
+
+            var member = channel.FindMember(user);
+            if (message.ParameterCount == 1)
+            {
+                var current = channel.Topic;
+                if (current == null)
+                    SendReply(user, IrcNumeric.RplNoTopic, channel.Name, "No topic is set");
+                else
+                    SendReply(user, IrcNumeric.RplTopic, channel.Name, current);
+                return;
+            }
+
+            if (member == null)
+            {
+                SendReply(user, IrcNumeric.ErrNotOnChannel, channel.Name, "You're not on that channel");
+                return;
+            }
+
+            if ((channel.Modes & IrcChannelModes.TopicLock) != 0 && !member.IsOperator)
+            {
+                SendReply(user, IrcNumeric.ErrChannelOpPrivilegesNeeded, channel.Name, "You're not channel operator");
+                return;
+            }
+
+            var topic = GetString(message.GetParameter(1));
+            channel.Topic = topic.Length == 0 ? null : topic;
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(user.Prefix).Append(" TOPIC ").Append(channel.Name).Append(" :").Append(topic);
+            SendChange(channel, line, user.Link);
+        }
+
+        /// <summary>
+        /// NAMES: List the members of channels.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandleNames(IrcUser user, IrcMessage message)
+        {
+            if (message.ParameterCount < 1)
+            {
+                SendReply(user, IrcNumeric.RplEndOfNames, "*", "End of NAMES list");
+                return;
+            }
+
+            var names = message.GetParameter(0);
+            for (var position = 0; position <= names.Count;)
+            {
+                var name = NextListItem(names, ref position);
+                if (name.Count == 0)
+                    continue;
+
+                IrcChannel channel;
+                if (_channels.TryGetValue(name, out channel))
+                    SendNames(user, channel);
+                else
+                    SendReply(user, IrcNumeric.RplEndOfNames, GetString(name), "End of NAMES list");
+            }
+        }
+
+        /// <summary>
+        /// Send the members of a channel.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="channel">The channel.</param>
+        private void SendNames(IrcUser user, IrcChannel channel)
+        {
+            var modes = channel.Modes;
+            var type = (modes & IrcChannelModes.Secret) != 0 ? "@ " : (modes & IrcChannelModes.Private) != 0 ? "* " : "= ";
+            var names = new StringBuilder();
+            foreach (var member in channel.Members)
+            {
+                if (names.Length > MaxNamesLength)
+                {
+                    SendReply(user, IrcNumeric.RplNameReply, type + channel.Name, names.ToString());
+                    names.Clear();
+                }
+
+                if (names.Length > 0)
+                    names.Append(' ');
+                names.Append(member.NamePrefix).Append(member.User.Nick);
+            }
+
+            if (names.Length > 0)
+                SendReply(user, IrcNumeric.RplNameReply, type + channel.Name, names.ToString());
+            SendReply(user, IrcNumeric.RplEndOfNames, channel.Name, "End of NAMES list");
+        }
+
+        #endregion
+
+        #region Server Links
+
+        /// <summary>
+        /// Add a link to _links.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        private void AddLink(IrcServerLink link)
+        {
+            lock (_linkLock)
+            {
+                var links = _links;
+                var newLinks = new IrcServerLink[links.Length + 1];
+                Array.Copy(links, newLinks, links.Length);
+                newLinks[links.Length] = link;
+                _links = newLinks;
+            }
+        }
+
+        /// <summary>
+        /// Remove a link that was closed. All servers and users behind the link are removed (netsplit).
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="reason">Reason that is sent to the other servers.</param>
+        private void RemoveLink(IrcServerLink link, string reason)
+        {
+            lock (_linkLock)
+            {
+                var links = _links;
+                if (Array.IndexOf(links, link) < 0)
+                    return;
+
+                _links = links.Where(l => l != link).ToArray();
+            }
+
+            link.Close();
+            if (!link.Registered)
+                return;
+
+            Logger.TraceEvent(TraceEventType.Information, 0, "Server link to {0} lost: {1}", link.Name, reason);
+            RemoveServers(new HashSet<IrcServerInfo>(_servers.Where(s => s.Link == link)), ServerName + " " + link.Name);
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(ServerName).Append(" SQUIT ").Append(link.Name).Append(" :").Append(reason);
+            SendToLinks(line, link);
+        }
+
+        /// <summary>
+        /// Remove servers and their users.
+        /// </summary>
+        /// <param name="servers">Servers to remove.</param>
+        /// <param name="reason">Reason of the QUIT that the users of this server get, e.g. "hub leaf".</param>
+        private void RemoveServers(HashSet<IrcServerInfo> servers, string reason)
+        {
+            foreach (var server in servers)
+                _servers.TryRemove(server.Name, server);
+
+            foreach (var user in _nicks)
+            {
+                if (user.Server != null && servers.Contains(user.Server))
+                    RemoveRemoteUser(user, reason, false);
+            }
+        }
+
+        /// <summary>
+        /// Remove a user of another server.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="reason">Reason of the QUIT.</param>
+        /// <param name="relay">Send the QUIT to the other servers?</param>
+        private void RemoveRemoteUser(IrcUser user, string reason, bool relay)
+        {
+            if (!_nicks.TryRemove(user.Nick, user))
+                return;
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(user.Prefix).Append(" QUIT :").Append(reason);
+            SendToNeighbours(user, line, false, relay);
+
+            foreach (var channel in user.Channels)
+                LeaveChannel(user, channel);
+        }
+
+        /// <summary>
+        /// Send PASS and SERVER to register this server with the other server.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        private void SendHandshake(IrcServerLink link)
+        {
+            var line = new IrcLineBuilder(Encoding)
+                .Append("PASS ").Append(LinkPassword).Append(' ').Append(ProtocolVersion).Append(" IRC|");
+            SendDirect(link, line);
+            line.Append("SERVER ").Append(ServerName).Append(" 1 :").Append(Description);
+            SendDirect(link, line);
+            link.Flush();
+        }
+
+        /// <summary>
+        /// Refuse a link with ERROR and close it.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="reason">The reason.</param>
+        private void CloseLink(IrcServerLink link, string reason)
+        {
+            Logger.TraceEvent(TraceEventType.Warning, 0, "Closing server link {0}: {1}", link.Name, reason);
+            SendDirect(link, new IrcLineBuilder(Encoding).Append("ERROR :").Append(reason));
+            link.Flush();
+            link.Close();
+        }
+
+        /// <summary>
+        /// SERVER of a link that is not registered yet: Check the password and start the netburst.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="message">The message.</param>
+        private void RegisterLink(IrcServerLink link, IrcMessage message)
+        {
+            if (message.ParameterCount < 1)
+            {
+                CloseLink(link, "Not enough parameters");
+                return;
+            }
+
+            if (LinkPassword == null || link.Password != LinkPassword)
+            {
+                CloseLink(link, "Bad password");
+                return;
+            }
+
+            var name = GetString(message.GetParameter(0));
+            var info = message.ParameterCount > 1 ? GetString(message.GetParameter(message.ParameterCount - 1)) : string.Empty;
+            if (IrcCaseMapping.Equals(name, ServerName) || !_servers.TryAdd(name, new IrcServerInfo(name, 1, info, ServerName, link)))
+            {
+                CloseLink(link, "ID \"" + name + "\" already registered");
+                return;
+            }
+
+            link.Name = name;
+            link.Info = info;
+
+            // Everything that is sent to the link from now on waits for the end of the burst.
+            link.BeginBurst();
+            link.Registered = true;
+            link.CompleteHandshake();
+            if (!link.Outgoing)
+                SendHandshake(link);
+            Logger.TraceEvent(TraceEventType.Information, 0, "Server {0} linked", name);
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(ServerName).Append(" SERVER ").Append(name).Append(" 2 :").Append(info);
+            SendToLinks(line, link);
+
+            Task.Run(() => SendBurstAsync(link));
+        }
+
+        /// <summary>
+        /// Stream the netburst to a new link: all servers, users and channels.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <returns>Task that completes when the burst was sent.</returns>
+        private async Task SendBurstAsync(IrcServerLink link)
+        {
+            var stopwatch = Stopwatch.StartNew();
+            var writer = new IrcBurstWriter(link, new IrcLineBuilder(Encoding));
+            try
+            {
+                // Ordered by hops, so every server is known before the servers behind it.
+                foreach (var server in _servers.Where(s => s.Link != link).OrderBy(s => s.Hops))
+                {
+                    writer.Line.Append(':').Append(server.Uplink).Append(" SERVER ").Append(server.Name).Append(' ')
+                        .Append((server.Hops + 1).ToString(CultureInfo.InvariantCulture)).Append(" :").Append(server.Info);
+                    await writer.EndLineAsync().ConfigureAwait(false);
+                }
+
+                foreach (var user in _nicks)
+                {
+                    if (!user.Registered || user.Link == link)
+                        continue;
+
+                    AppendNick(writer.Line, user, user.IsLocal ? 1 : user.Server.Hops + 1);
+                    await writer.EndLineAsync().ConfigureAwait(false);
+                }
+
+                foreach (var channel in _channels)
+                    await WriteChannelAsync(writer, channel, link).ConfigureAwait(false);
+
+                await writer.FlushAsync().ConfigureAwait(false);
+                Logger.TraceEvent(TraceEventType.Information, 0, "Sent burst of {0} lines to {1} in {2} ms",
+                    writer.LineCount, link.Name, stopwatch.ElapsedMilliseconds);
+            }
+            catch (Exception ex)
+            {
+                Logger.TraceEvent(TraceEventType.Error, 0, "Burst to {0} failed: {1}", link.Name, ex.Message);
+                link.Close();
+            }
+            finally
+            {
+                writer.Release();
+                link.EndBurst();
+            }
+        }
+
+        /// <summary>
+        /// Write the members, modes and topic of a channel to a burst.
+        /// </summary>
+        /// <param name="writer">The writer.</param>
+        /// <param name="channel">The channel.</param>
+        /// <param name="link">The link of the burst. Its users are not written.</param>
+        /// <returns>Task that completes when the channel was written.</returns>
+        private async Task WriteChannelAsync(IrcBurstWriter writer, IrcChannel channel, IrcServerLink link)
+        {
+            var line = writer.Line;
+            var names = 0;
+            var written = false;
+            foreach (var member in channel.Members)
+            {
+                if (member.User.Link == link)
+                    continue;
+
+                if (names > 0 && line.Length > MaxNamesLength)
+                {
+                    await writer.EndLineAsync().ConfigureAwait(false);
+                    names = 0;
+                }
+
+                if (names == 0)
+                    line.Append(':').Append(ServerName).Append(" NJOIN ").Append(channel.Name).Append(" :");
+                else
+                    line.Append(',');
+
+                if (member.IsOperator)
+                    line.Append('@');
+                if ((member.Modes & IrcMemberModes.Voice) != 0)
+                    line.Append('+');
+                line.Append(member.User.Nick);
+                names++;
+                written = true;
+            }
+
+            if (!written)
+                return;
+            if (names > 0)
+                await writer.EndLineAsync().ConfigureAwait(false);
+
+            line.Append(':').Append(ServerName).Append(" MODE ").Append(channel.Name).Append(' ').Append(channel.GetModeString());
+            await writer.EndLineAsync().ConfigureAwait(false);
+
+            var topic = channel.Topic;
+            if (topic != null)
+            {
+                line.Append(':').Append(ServerName).Append(" TOPIC ").Append(channel.Name).Append(" :").Append(topic);
+                await writer.EndLineAsync().ConfigureAwait(false);
+            }
+        }
+
+        /// <summary>
+        /// Handle a message of another server.
+        /// </summary>
+        /// <param name="link">Link of the server.</param>
+        /// <param name="message">The message.</param>
+        private void HandleLinkMessage(IrcServerLink link, IrcMessage message)
+        {
+            if (!link.Registered)
+            {
+                switch (message.Command)
+                {
+                    case IrcCommand.Pass:
+                        if (message.ParameterCount > 0)
+                            link.Password = GetString(message.GetParameter(0));
+                        break;
+                    case IrcCommand.Server:
+                        RegisterLink(link, message);
+                        break;
+                    case IrcCommand.Error:
+                        Logger.TraceEvent(TraceEventType.Warning, 0, "Server link was refused: {0}", message);
+                        link.Close();
+                        break;
+                }
+                return;
+            }
+
+            switch (message.Command)
+            {
+                case IrcCommand.Ping:
+                    var pong = new IrcLineBuilder(Encoding).Append(':').Append(ServerName).Append(" PONG ").Append(ServerName);
+                    if (message.ParameterCount > 0)
+                        pong.Append(" :").Append(message.GetParameter(0));
+                    Send(link, pong);
+                    return;
+                case IrcCommand.Pong:
+                    return;
+                case IrcCommand.Error:
+                    Logger.TraceEvent(TraceEventType.Warning, 0, "Server {0} sent {1}", link.Name, message);
+                    link.Close();
+                    return;
+                case IrcCommand.Server:
+                    HandleRemoteServer(link, message);
+                    return;
+                case IrcCommand.SQuit:
+                    HandleRemoteSquit(link, message);
+                    return;
+                case IrcCommand.Nick:
+                    HandleRemoteNick(link, message);
+                    return;
+                case IrcCommand.NJoin:
+                    HandleRemoteNJoin(link, message);
+                    return;
+                case IrcCommand.Mode:
+                    HandleRemoteMode(link, message);
+                    return;
+                case IrcCommand.Topic:
+                    HandleRemoteTopic(link, message);
+                    return;
+                case IrcCommand.Kill:
+                    HandleRemoteKill(link, message);
+                    return;
+            }
+
+            // All other messages come from users behind the link.
+            var user = FindRemoteUser(link, message);
+            if (user == null)
+                return;
+
+            switch (message.Command)
+            {
+                case IrcCommand.Quit:
+                    RemoveRemoteUser(user, message.ParameterCount > 0 ? GetString(message.GetParameter(0)) : user.Nick, true);
+                    break;
+                case IrcCommand.Join:
+                    HandleRemoteJoin(link, user, message);
+                    break;
+                case IrcCommand.Part:
+                    HandlePart(user, message);
+                    break;
+                case IrcCommand.Privmsg:
+                    HandlePrivateMessage(user, message, "PRIVMSG", false);
+                    break;
+                case IrcCommand.Notice:
+                    HandlePrivateMessage(user, message, "NOTICE", true);
+                    break;
+            }
+        }
+
+        /// <summary>
+        /// SERVER: A server behind the link joined the network.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="message">The message.</param>
+        private void HandleRemoteServer(IrcServerLink link, IrcMessage message)
+        {
+            if (message.ParameterCount < 2)
+                return;
+
+            int hops;
+            var name = GetString(message.GetParameter(0));
+            var uplink = message.PrefixName.Count > 0 ? GetString(message.PrefixName) : link.Name;
+            var info = message.ParameterCount > 2 ? GetString(message.GetParameter(message.ParameterCount - 1)) : string.Empty;
+            if (!int.TryParse(GetString(message.GetParameter(1)), NumberStyles.None, CultureInfo.InvariantCulture, out hops))
+                hops = 2;
+
+            // A server that is known already means a cycle, the link that introduced it is closed (RFC 2813 section 5.3.1).
+            if (IrcCaseMapping.Equals(name, ServerName) || !_servers.TryAdd(name, new IrcServerInfo(name, hops, info, uplink, link)))
+            {
+                CloseLink(link, "ID \"" + name + "\" already registered");
+                return;
+            }
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(uplink).Append(" SERVER ").Append(name).Append(' ')
+                .Append((hops + 1).ToString(CultureInfo.InvariantCulture)).Append(" :").Append(info);
+            SendToLinks(line, link);
+        }
+
+        /// <summary>
+        /// SQUIT: A server behind the link left the network with all servers behind it.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="message">The message.</param>
+        private void HandleRemoteSquit(IrcServerLink link, IrcMessage message)
+        {
+            IrcServerInfo server;
+            if (message.ParameterCount < 1 || !_servers.TryGetValue(message.GetParameter(0), out server) || server.Link != link)
+                return;
+
+            if (server.Hops == 1)
+            {
+                link.Close();
+                return;
+            }
+
+            // The server and every server whose uplink is removed.
+            var removed = new HashSet<IrcServerInfo> { server };
+            bool added;
+            do
+            {
+                added = false;
+                foreach (var candidate in _servers)
+                {
+                    if (!removed.Contains(candidate) && removed.Any(r => IrcCaseMapping.Equals(r.Name, candidate.Uplink)))
+                        added |= removed.Add(candidate);
+                }
+            } while (added);
+
+            RemoveServers(removed, server.Uplink + " " + server.Name);
+
+            var source = message.PrefixName.Count > 0 ? GetString(message.PrefixName) : link.Name;
+            var comment = message.ParameterCount > 1 ? GetString(message.GetParameter(1)) : server.Name;
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(source).Append(" SQUIT ").Append(server.Name).Append(" :").Append(comment);
+            SendToLinks(line, link);
+        }
+
+        /// <summary>
+        /// NICK: A new user behind the link or a user behind the link changed the nickname.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="message">The message.</param>
+        private void HandleRemoteNick(IrcServerLink link, IrcMessage message)
+        {
+            if (message.ParameterCount < 1)
+                return;
+
+            var nick = GetString(message.GetParameter(0));
+            var user = FindRemoteUser(link, message);
+            if (user == null)
+            {
+                // NICK nickname hopcount username host server umode :realname
+                IrcServerInfo server;
+                if (message.ParameterCount < 7 || !_servers.TryGetValue(message.GetParameter(4), out server) || server.Link != link)
+                    return;
+
+                // A user that registered during the burst is introduced by the burst and by the queued NICK.
+                IrcUser existing;
+                if (_nicks.TryGetValue(nick, out existing) && existing.Link == link)
+                    return;
+
+                user = new IrcUser(server, nick, GetString(message.GetParameter(2)), GetString(message.GetParameter(3)), GetString(message.GetParameter(6)));
+                if (!_nicks.TryAdd(nick, user))
+                {
+                    // Nick collision (RFC 2813 section 5.4.2): the other server removes its user.
+                    Send(link, new IrcLineBuilder(Encoding).Append(':').Append(ServerName).Append(" KILL ").Append(nick).Append(" :Nick collision"));
+                    return;
+                }
+
+                var line = new IrcLineBuilder(Encoding);
+                AppendNick(line, user, server.Hops + 1);
+                SendToLinks(line, link);
+                return;
+            }
+
+            var oldPrefix = user.Prefix;
+            var oldNick = user.Nick;
+            if (!_nicks.TryRename(oldNick, nick, user))
+            {
+                Send(link, new IrcLineBuilder(Encoding).Append(':').Append(ServerName).Append(" KILL ").Append(oldNick).Append(" :Nick collision"));
+                RemoveRemoteUser(user, "Nick collision", true);
+                return;
+            }
+
+            user.Nick = nick;
+            var change = new IrcLineBuilder(Encoding).Append(':').Append(oldPrefix).Append(" NICK :").Append(nick);
+            SendToNeighbours(user, change, false, true);
+        }
+
+        /// <summary>
+        /// KILL: Remove a user from the network.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="message">The message.</param>
+        private void HandleRemoteKill(IrcServerLink link, IrcMessage message)
+        {
+            IrcUser user;
+            if (message.ParameterCount < 1 || !_nicks.TryGetValue(message.GetParameter(0), out user))
+                return;
+
+            var comment = message.ParameterCount > 1 ? GetString(message.GetParameter(1)) : link.Name;
+            var reason = "Killed (" + comment + ")";
+            if (user.IsLocal)
+            {
+                Send(user, new IrcLineBuilder(Encoding).Append("ERROR :Closing Link: ").Append(user.Host).Append(" (").Append(reason).Append(')'));
+                user.Connection.Flush();
+                RemoveUser(user, reason);
+                user.Connection.Close();
+                return;
+            }
+
+            RemoveRemoteUser(user, reason, false);
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(ServerName).Append(" KILL ").Append(user.Nick).Append(" :").Append(comment);
+            SendToLinks(line, link);
+        }
+
+        /// <summary>
+        /// JOIN: A user behind the link joined channels.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="user">The user.</param>
+        /// <param name="message">The message.</param>
+        private void HandleRemoteJoin(IrcServerLink link, IrcUser user, IrcMessage message)
+        {
+            if (message.ParameterCount < 1)
+                return;
+
+            var items = message.GetParameter(0);
+            for (var position = 0; position <= items.Count;)
+            {
+                // #channel or #channel^Gmodes
+                var item = NextListItem(items, ref position);
+                var separator = item.Count > 0 ? Array.IndexOf(item.Array, (byte) '\a', item.Offset, item.Count) : -1;
+                var nameLength = separator < 0 ? item.Count : separator - item.Offset;
+                var name = GetString(new ArraySegment<byte>(item.Array, item.Offset, nameLength));
+                var modes = IrcMemberModes.None;
+                for (var index = item.Offset + nameLength + 1; index < item.Offset + item.Count; index++)
+                {
+                    if (item.Array[index] == 'o')
+                        modes |= IrcMemberModes.Operator;
+                    else if (item.Array[index] == 'v')
+                        modes |= IrcMemberModes.Voice;
+                }
+
+                IrcChannel channel;
+                if (!IsValidChannelName(name) || !AddRemoteMember(user, name, modes, out channel))
+                    continue;
+
+                var line = new IrcLineBuilder(Encoding).Append(':').Append(user.Prefix).Append(" JOIN ").Append(item);
+                SendToLinks(line, link);
+            }
+        }
+
+        /// <summary>
+        /// NJOIN: Users behind the link are members of a channel (RFC 2813 section 4.2.2).
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="message">The message.</param>
+        private void HandleRemoteNJoin(IrcServerLink link, IrcMessage message)
+        {
+            if (message.ParameterCount < 2)
+                return;
+
+            var name = GetString(message.GetParameter(0));
+            if (!IsValidChannelName(name))
+                return;
+
+            var members = message.GetParameter(1);
+            for (var position = 0; position <= members.Count;)
+            {
+                // [@][+]nickname
+                var item = NextListItem(members, ref position);
+                var modes = IrcMemberModes.None;
+                var start = item.Offset;
+                var end = item.Offset + item.Count;
+                for (; start < end && (item.Array[start] == '@' || item.Array[start] == '+'); start++)
+                    modes |= item.Array[start] == '@' ? IrcMemberModes.Operator : IrcMemberModes.Voice;
+
+                IrcUser user;
+                IrcChannel channel;
+                if (_nicks.TryGetValue(new ArraySegment<byte>(item.Array, start, end - start), out user) && user.Link == link)
+                    AddRemoteMember(user, name, modes, out channel);
+            }
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(link.Name).Append(" NJOIN ").Append(name).Append(" :").Append(members);
+            SendToLinks(line, link);
+        }
+
+        /// <summary>
+        /// MODE: A user or server behind the link changed the modes of a channel.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="message">The message.</param>
+        private void HandleRemoteMode(IrcServerLink link, IrcMessage message)
+        {
+            IrcUser user;
+            IrcChannel channel;
+            var source = FindSource(link, message, out user);
+            if (source == null || message.ParameterCount < 2 || !_channels.TryGetValue(message.GetParameter(0), out channel))
+                return;
+
+            // The other server checked the privileges already.
+            var changes = ChangeModes(user, channel, message);
+            if (changes == null)
+                return;
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(source).Append(" MODE ").Append(channel.Name).Append(' ').Append(changes);
+            SendChange(channel, line, link);
+        }
+
+        /// <summary>
+        /// TOPIC: A user or server behind the link changed the topic of a channel.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="message">The message.</param>
+        private void HandleRemoteTopic(IrcServerLink link, IrcMessage message)
+        {
+            IrcUser user;
+            IrcChannel channel;
+            var source = FindSource(link, message, out user);
+            if (source == null || message.ParameterCount < 2 || !_channels.TryGetValue(message.GetParameter(0), out channel))
+                return;
+
+            var topic = GetString(message.GetParameter(1));
+            channel.Topic = topic.Length == 0 ? null : topic;
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(source).Append(" TOPIC ").Append(channel.Name).Append(" :").Append(topic);
+            SendChange(channel, line, link);
+        }
+
+        /// <summary>
+        /// Add a user of another server to a channel. The channel is created if it does not exist.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="name">Name of the channel.</param>
+        /// <param name="modes">Modes of the member.</param>
+        /// <param name="channel">The channel.</param>
+        /// <returns>True if the user was added, false if the user is member already.</returns>
+        private bool AddRemoteMember(IrcUser user, string name, IrcMemberModes modes, out IrcChannel channel)
+        {
+            while (true)
+            {
+                channel = _channels.GetOrAdd(name, n => new IrcChannel(n));
+                lock (channel.SyncRoot)
+                {
+                    // The last member left while we got the channel.
+                    if (channel.Closed)
+                        continue;
+
+                    // Same defaults as a channel that is created by a user of this server.
+                    if (channel.MemberCount == 0)
+                        channel.Modes = IrcChannelModes.NoExternalMessages | IrcChannelModes.TopicLock;
+                    if (channel.Add(user, modes) == null)
+                        return false;
+                }
+
+                user.AddChannel(channel);
+
+                var line = new IrcLineBuilder(Encoding).Append(':').Append(user.Prefix).Append(" JOIN ").Append(channel.Name);
+                SendLocal(channel, line);
+                if (modes != IrcMemberModes.None)
+                {
+                    line.Append(':').Append(ServerName).Append(" MODE ").Append(channel.Name).Append(" +");
+                    if ((modes & IrcMemberModes.Operator) != 0)
+                        line.Append('o');
+                    if ((modes & IrcMemberModes.Voice) != 0)
+                        line.Append('v');
+                    line.Append(' ').Append(user.Nick);
+                    if (modes == (IrcMemberModes.Operator | IrcMemberModes.Voice))
+                        line.Append(' ').Append(user.Nick);
+                    SendLocal(channel, line);
+                }
+
+                return true;
+            }
+        }
+
+        /// <summary>
+        /// Find the user behind the link that sent a message.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="message">The message.</param>
+        /// <returns>The user or null if the prefix is no user behind the link.</returns>
+        private IrcUser FindRemoteUser(IrcServerLink link, IrcMessage message)
+        {
+            IrcUser user;
+            return _nicks.TryGetValue(message.PrefixName, out user) && user.Link == link ? user : null;
+        }
+
+        /// <summary>
+        /// Find the user or server behind the link that sent a message.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="message">The message.</param>
+        /// <param name="user">The user or null if a server sent the message.</param>
+        /// <returns>Prefix of the user or name of the server. Null if the sender is not behind the link.</returns>
+        private string FindSource(IrcServerLink link, IrcMessage message, out IrcUser user)
+        {
+            user = FindRemoteUser(link, message);
+            if (user != null)
+                return user.Prefix;
+
+            IrcServerInfo server;
+            return _servers.TryGetValue(message.PrefixName, out server) && server.Link == link ? server.Name : null;
+        }
+
+        /// <summary>
+        /// Append the NICK message that introduces a user to other servers.
+        /// </summary>
+        /// <param name="line">The line.</param>
+        /// <param name="user">The user.</param>
+        /// <param name="hops">Number of links between the receiving server and the server of the user.</param>
+        private void AppendNick(IrcLineBuilder line, IrcUser user, int hops)
+        {
+            line.Append("NICK ").Append(user.Nick).Append(' ').Append(hops.ToString(CultureInfo.InvariantCulture))
+                .Append(' ').Append(user.UserName).Append(' ').Append(user.Host).Append(' ').Append(user.Server?.Name ?? ServerName)
+                .Append(" + :").Append(user.RealName);
+        }
+
+        /// <summary>
+        /// Send a line to all registered links.
+        /// </summary>
+        /// <param name="line">The line.</param>
+        /// <param name="origin">Link the line came from. It does not get the line. Can be null.</param>
+        private void SendToLinks(IrcLineBuilder line, IrcServerLink origin)
+        {
+            var buffer = line.ToSharedBuffer();
+            try
+            {
+                SendToLinks(buffer, origin);
+            }
+            finally
+            {
+                buffer.Release();
+            }
+        }
+
+        /// <summary>
+        /// Send a line to all registered links.
+        /// </summary>
+        /// <param name="buffer">The line.</param>
+        /// <param name="origin">Link the line came from. It does not get the line. Can be null.</param>
+        private void SendToLinks(SharedBuffer buffer, IrcServerLink origin)
+        {
+            foreach (var link in _links)
+            {
+                if (link != origin && link.Registered)
+                    link.Send(buffer);
+            }
+        }
+
+        /// <summary>
+        /// Send a line to a link.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="line">The line.</param>
+        private static void Send(IrcServerLink link, IrcLineBuilder line)
+        {
+            var buffer = line.ToSharedBuffer();
+            try
+            {
+                link.Send(buffer);
+            }
+            finally
+            {
+                buffer.Release();
+            }
+        }
+
+        /// <summary>
+        /// Send a line to a link without waiting for the end of the burst.
+        /// </summary>
+        /// <param name="link">The link.</param>
+        /// <param name="line">The line.</param>
+        private static void SendDirect(IrcServerLink link, IrcLineBuilder line)
+        {
+            var buffer = line.ToSharedBuffer();
+            try
+            {
+                link.SendDirect(buffer);
+            }
+            finally
+            {
+                buffer.Release();
+            }
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Send a numeric reply to a user. Replies to users of other servers are dropped, their server
+        /// already answered.
+        /// </summary>
+        /// <param name="user">The user or null.</param>
+        /// <param name="numeric">The numeric.</param>
+        /// <param name="parameters">Parameters after the nickname or null.</param>
+        /// <param name="text">Trailing text or null.</param>
+        private void SendReply(IrcUser user, IrcNumeric numeric, string parameters, string text)
+        {
+            if (user == null || !user.IsLocal)
+                return;
+
+            var line = new IrcLineBuilder(Encoding)
+                .Append(':').Append(ServerName).Append(' ').Append(numeric).Append(' ').Append(user.Nick ?? "*");
+            if (parameters != null)
+                line.Append(' ').Append(parameters);
+            if (text != null)
+                line.Append(" :").Append(text);
+            Send(user, line);
+        }
+
+        /// <summary>
+        /// Send a line to a user.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="line">The line.</param>
+        private static void Send(IrcUser user, IrcLineBuilder line)
+        {
+            var buffer = line.ToSharedBuffer();
+            try
+            {
+                user.Send(buffer);
+            }
+            finally
+            {
+                buffer.Release();
+            }
+        }
+
+        /// <summary>
+        /// Send a line to all members of a channel.
+        /// </summary>
+        /// <param name="channel">The channel.</param>
+        /// <param name="line">The line.</param>
+        /// <param name="except">Member that does not get the line or null.</param>
+        private static void Send(IrcChannel channel, IrcLineBuilder line, IrcUser except)
+        {
+            var buffer = line.ToSharedBuffer();
+            try
+            {
+                channel.Send(buffer, except);
+            }
+            finally
+            {
+                buffer.Release();
+            }
+        }
+
+        /// <summary>
+        /// Send a line to all members of a channel on this server.
+        /// </summary>
+        /// <param name="channel">The channel.</param>
+        /// <param name="line">The line.</param>
+        private static void SendLocal(IrcChannel channel, IrcLineBuilder line)
+        {
+            var buffer = line.ToSharedBuffer();
+            try
+            {
+                channel.SendLocal(buffer, null);
+            }
+            finally
+            {
+                buffer.Release();
+            }
+        }
+
+        /// <summary>
+        /// Send a change of a channel to all members on this server and to all other servers.
+        /// </summary>
+        /// <param name="channel">The channel.</param>
+        /// <param name="line">The line.</param>
+        /// <param name="origin">Link the change came from or null.</param>
+        private void SendChange(IrcChannel channel, IrcLineBuilder line, IrcServerLink origin)
+        {
+            var buffer = line.ToSharedBuffer();
+            try
+            {
+                channel.SendLocal(buffer, null);
+                SendToLinks(buffer, origin);
+            }
+            finally
+            {
+                buffer.Release();
+            }
+        }
+
+        /// <summary>
+        /// Send a line once to every user of this server that shares a channel with a user.
+        /// </summary>
+        /// <param name="user">The user.</param>
+        /// <param name="line">The line.</param>
+        /// <param name="includeUser">Does the user get the line, too?</param>
+        /// <param name="relay">Send the line to the other servers, too?</param>
+        private void SendToNeighbours(IrcUser user, IrcLineBuilder line, bool includeUser, bool relay)
+        {
+            var buffer = line.ToSharedBuffer();
+            try
+            {
+                var sent = new HashSet<IrcUser> { user };
+                if (includeUser && user.IsLocal)
+                    user.Send(buffer);
+
+                foreach (var channel in user.Channels)
+                {
+                    foreach (var member in channel.Members)
+                    {
+                        if (member.User.IsLocal && sent.Add(member.User))
+                            member.User.Send(buffer);
+                    }
+                }
+
+                if (relay)
+                    SendToLinks(buffer, user.Link);
+            }
+            finally
+            {
+                buffer.Release();
+            }
+        }
+
+        /// <summary>
+        /// Decode a part of a message.
+        /// </summary>
+        /// <param name="part">Part of the message.</param>
+        /// <returns>The part as string.</returns>
+        private string GetString(ArraySegment<byte> part)
+        {
+            return IrcMessage.GetString(part, Encoding);
+        }
+
+        /// <summary>
+        /// Checks if a nickname is valid (RFC 2812 section 2.3.1).
+        /// </summary>
+        /// <param name="nick">Nickname to check.</param>
+        /// <returns>True if the nickname is valid.</returns>
+        private bool IsValidNick(string nick)
+        {
+            if (nick.Length == 0 || nick.Length > MaxNickLength)
+                return false;
+
+            for (var index = 0; index < nick.Length; index++)
+            {
+                var character = nick[index];
+                var valid = (character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z')
+                    || SpecialCharacters.IndexOf(character) >= 0
+                    || (index > 0 && ((character >= '0' && character <= '9') || character == '-'));
+                if (!valid)
+                    return false;
+            }
+
+            return true;
+        }
+
+        /// <summary>
+        /// Checks if a channel name is valid (RFC 2812 section 1.3).
+        /// </summary>
+        /// <param name="name">Name to check.</param>
+        /// <returns>True if the name is valid.</returns>
+        private static bool IsValidChannelName(string name)
+        {
+            if (name.Length < 2 || name.Length > MaxChannelNameLength || !IsChannelPrefix((byte) name[0]))
+                return false;
+
+            return name.IndexOfAny(new[] { ' ', ',', '\a', ':' }) < 0;
+        }
+
+        /// <summary>
+        /// Checks if a character starts a channel name.
+        /// </summary>
+        /// <param name="value">First byte of the name.</param>
+        /// <returns>True for the channel prefixes #, &amp;, + and !.</returns>
+        private static bool IsChannelPrefix(byte value)
+        {
+            return value == '#' || value == '&' || value == '+' || value == '!';
+        }
+
+        /// <summary>
+        /// Gets the next item of a comma separated list.
+        /// </summary>
+        /// <param name="list">The list.</param>
+        /// <param name="position">Position of the item inside the list. Moved behind the comma after the item.</param>
+        /// <returns>The item.</returns>
+        private static ArraySegment<byte> NextListItem(ArraySegment<byte> list, ref int position)
+        {
+            var start = list.Offset + position;
+            var end = list.Offset + list.Count;
+            var comma = start < end ? Array.IndexOf(list.Array, (byte) ',', start, end - start) : -1;
+            var itemEnd = comma < 0 ? end : comma;
+            position = itemEnd - list.Offset + 1;
+            return new ArraySegment<byte>(list.Array, start, itemEnd - start);
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,67 @@
+﻿using System;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// A server of the IRC network that is known through a server link (RFC 2813).
+    /// </summary>
+    /// <remarks>
+    /// The servers form a spanning tree. Every server is reached through exactly one link of this server,
+    /// the link to the server itself or to a server in front of it.
+    /// </remarks>
+    public class IrcServerInfo
+    {
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of IrcServerInfo.
+        /// </summary>
+        /// <param name="name">Name of the server.</param>
+        /// <param name="hops">Number of links between this server and the server.</param>
+        /// <param name="info">Description of the server.</param>
+        /// <param name="uplink">Name of the server the server is connected to.</param>
+        /// <param name="link">Link the server is reached through.</param>
+        internal IrcServerInfo(string name, int hops, string info, string uplink, IrcServerLink link)
+        {
+            if (name == null) throw new ArgumentNullException(nameof(name));
+            if (link == null) throw new ArgumentNullException(nameof(link));
+
+            Name = name;
+            Hops = hops;
+            Info = info;
+            Uplink = uplink;
+            Link = link;
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Name of the server.
+        /// </summary>
+        public string Name { get; }
+
+        /// <summary>
+        /// Number of links between this server and the server, 1 for a direct link.
+        /// </summary>
+        public int Hops { get; }
+
+        /// <summary>
+        /// Description of the server.
+        /// </summary>
+        public string Info { get; }
+
+        /// <summary>
+        /// Name of the server the server is connected to.
+        /// </summary>
+        public string Uplink { get; }
+
+        /// <summary>
+        /// Link the server is reached through.
+        /// </summary>
+        public IrcServerLink Link { get; }
+
+        #endregion
+    }
+}
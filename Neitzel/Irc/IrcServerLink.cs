@@ -0,0 +1,292 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Net.Sockets;
+using System.Text;
+using Neitzel.Network;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// A direct link between two IrcServers (RFC 2813).
+    /// </summary>
+    /// <remarks>
+    /// A link is either a connection that was accepted by the server and registered with PASS and SERVER,
+    /// or a connection the server opened with IrcServer.Link.
+    ///
+    /// While the netburst of the server is streamed to the link, all other lines are queued and sent when
+    /// the burst is complete. So the other server never gets a change of a user or channel before it
+    /// got the user or channel itself.
+    /// </remarks>
+    public class IrcServerLink
+    {
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(IrcConstants.TraceSourceName);
+
+        /// <summary>
+        /// Lock of the burst state.
+        /// </summary>
+        private readonly object _burstLock = new object();
+
+        /// <summary>
+        /// Accepted connection or null.
+        /// </summary>
+        private readonly TcpIpServerConnection.ClientConnection _incoming;
+
+        /// <summary>
+        /// Opened connection or null.
+        /// </summary>
+        private readonly TcpIpClientConnection _outgoing;
+
+        /// <summary>
+        /// Lines that wait for the end of the burst. Null while no burst is running.
+        /// </summary>
+        private List<SharedBuffer> _queued;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of IrcServerLink for an accepted connection.
+        /// </summary>
+        /// <remarks>
+        /// The lines are still decoded by the IrcUser that was created for the connection.
+        /// </remarks>
+        /// <param name="connection">The connection.</param>
+        internal IrcServerLink(TcpIpServerConnection.ClientConnection connection)
+        {
+            if (connection == null) throw new ArgumentNullException(nameof(connection));
+
+            _incoming = connection;
+        }
+
+        /// <summary>
+        /// Creates a new instance of IrcServerLink for an opened connection.
+        /// </summary>
+        /// <param name="connection">The connection. It is connected by the caller.</param>
+        /// <param name="encoding">Encoding of the lines.</param>
+        internal IrcServerLink(TcpIpClientConnection connection, Encoding encoding)
+        {
+            if (connection == null) throw new ArgumentNullException(nameof(connection));
+
+            _outgoing = connection;
+            Decoder = new StringDecoder(encoding)
+            {
+                MaxLineLength = IrcConstants.MaxMessageLength - 2
+            };
+            Evaluator = new IrcMessageEvaluator();
+            Decoder.LineDecoded += Evaluator.LineReceiver;
+            connection.MessageReceived += Decoder.MessageReceiver;
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Name of the other server. Null till the link is registered.
+        /// </summary>
+        public string Name { get; internal set; }
+
+        /// <summary>
+        /// Description of the other server.
+        /// </summary>
+        public string Info { get; internal set; }
+
+        /// <summary>
+        /// Was the link opened by this server?
+        /// </summary>
+        public bool Outgoing => _outgoing != null;
+
+        /// <summary>
+        /// Did the other server register with PASS and SERVER?
+        /// </summary>
+        public bool Registered { get; internal set; }
+
+        /// <summary>
+        /// Is the connection closed?
+        /// </summary>
+        public bool Closed => _incoming?.Disposed ?? _outgoing.Disposed;
+
+        /// <summary>
+        /// Number of bytes that wait inside the send queue of the connection.
+        /// </summary>
+        public long PendingBytes => (_incoming?.SendQueue ?? _outgoing.SendQueue)?.PendingBytes ?? 0;
+
+        /// <summary>
+        /// Password of PASS.
+        /// </summary>
+        internal string Password { get; set; }
+
+        /// <summary>
+        /// Decoder of the lines of an opened connection. Null for accepted connections.
+        /// </summary>
+        internal StringDecoder Decoder { get; }
+
+        /// <summary>
+        /// Parser of the lines of an opened connection. Null for accepted connections.
+        /// </summary>
+        internal IrcMessageEvaluator Evaluator { get; }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Send a line to the other server. The line is queued while the burst is running.
+        /// </summary>
+        /// <param name="line">Line to send. The caller still has to release it.</param>
+        /// <returns>True if the line was sent or queued.</returns>
+        public bool Send(SharedBuffer line)
+        {
+            if (line == null) throw new ArgumentNullException(nameof(line));
+
+            lock (_burstLock)
+            {
+                if (_queued != null)
+                {
+                    line.AddReference();
+                    _queued.Add(line);
+                    return true;
+                }
+            }
+
+            return SendDirect(line);
+        }
+
+        /// <summary>
+        /// Send all lines that wait inside the send queue.
+        /// </summary>
+        public void Flush()
+        {
+            if (_incoming != null)
+                _incoming.Flush();
+            else
+                _outgoing.Flush();
+        }
+
+        /// <summary>
+        /// Close the connection.
+        /// </summary>
+        public void Close()
+        {
+            if (_incoming != null)
+                _incoming.Close();
+            else
+                _outgoing.Close();
+
+            lock (_burstLock)
+            {
+                ReleaseQueued();
+            }
+        }
+
+        #endregion
+
+        #region Internal Methods
+
+        /// <summary>
+        /// Signal that the link was registered so the handshake timeout ends.
+        /// </summary>
+        /// <remarks>
+        /// An accepted link also leaves the rate limit of the clients, it carries the input of many users.
+        /// </remarks>
+        internal void CompleteHandshake()
+        {
+            if (_incoming != null)
+            {
+                _incoming.CompleteHandshake();
+                _incoming.UseRateLimit(null);
+            }
+            else
+            {
+                _outgoing.CompleteHandshake();
+            }
+        }
+
+        /// <summary>
+        /// Send a line without waiting for the end of the burst.
+        /// </summary>
+        /// <param name="line">Line to send. The caller still has to release it.</param>
+        /// <returns>True if the line was sent or queued.</returns>
+        internal bool SendDirect(SharedBuffer line)
+        {
+            if (Closed)
+                return false;
+
+            try
+            {
+                if (_incoming != null)
+                    _incoming.Send(line);
+                else
+                    _outgoing.SendMessage(line);
+                return true;
+            }
+            catch (SocketException ex)
+            {
+                Logger.TraceEvent(TraceEventType.Warning, 0, "Unable to send to server {0}: {1}", Name, ex.Message);
+            }
+            catch (ObjectDisposedException)
+            {
+                // Connection was closed while sending.
+            }
+
+            return false;
+        }
+
+        /// <summary>
+        /// Start the burst: Send queues all lines from now on.
+        /// </summary>
+        internal void BeginBurst()
+        {
+            lock (_burstLock)
+            {
+                if (_queued == null)
+                    _queued = new List<SharedBuffer>();
+            }
+        }
+
+        /// <summary>
+        /// End the burst and send the queued lines.
+        /// </summary>
+        internal void EndBurst()
+        {
+            lock (_burstLock)
+            {
+                if (_queued == null)
+                    return;
+
+                // Sending inside the lock keeps the order with lines that are sent at the same time.
+                foreach (var line in _queued)
+                    SendDirect(line);
+                ReleaseQueued();
+            }
+
+            Flush();
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Release the queued lines. Must be called inside _burstLock.
+        /// </summary>
+        private void ReleaseQueued()
+        {
+            if (_queued == null)
+                return;
+
+            foreach (var line in _queued)
+                line.Release();
+            _queued = null;
+        }
+
+        #endregion
+    }
+}
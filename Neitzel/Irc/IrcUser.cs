@@ -0,0 +1,264 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Net.Sockets;
+using System.Text;
+using Neitzel.Network;
+
+namespace Neitzel.Irc
+{
+    /// <summary>
+    /// A user that is connected to an IrcServer or to another server of the network.
+    /// </summary>
+    /// <remarks>
+    /// Users of other servers have no connection. Lines to them are sent through the link of their server.
+    /// </remarks>
+    public class IrcUser
+    {
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(IrcConstants.TraceSourceName);
+
+        /// <summary>
+        /// Channels the user is member of.
+        /// </summary>
+        private readonly List<IrcChannel> _channels = new List<IrcChannel>();
+
+        /// <summary>
+        /// The nickname.
+        /// </summary>
+        private volatile string _nick;
+
+        /// <summary>
+        /// The prefix of messages of this user (nick!user@host).
+        /// </summary>
+        private volatile string _prefix;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of IrcUser.
+        /// </summary>
+        /// <param name="connection">Connection of the user.</param>
+        /// <param name="host">Host of the user.</param>
+        /// <param name="encoding">Encoding of the lines.</param>
+        internal IrcUser(TcpIpServerConnection.ClientConnection connection, string host, Encoding encoding)
+        {
+            Connection = connection;
+            Host = host;
+            Decoder = new StringDecoder(encoding)
+            {
+                MaxLineLength = IrcConstants.MaxMessageLength - 2
+            };
+            Evaluator = new IrcMessageEvaluator();
+            Decoder.LineDecoded += Evaluator.LineReceiver;
+        }
+
+        /// <summary>
+        /// Creates a new instance of IrcUser for a user of another server.
+        /// </summary>
+        /// <param name="server">Server of the user.</param>
+        /// <param name="nick">The nickname.</param>
+        /// <param name="userName">The user name.</param>
+        /// <param name="host">Host of the user.</param>
+        /// <param name="realName">The real name.</param>
+        internal IrcUser(IrcServerInfo server, string nick, string userName, string host, string realName)
+        {
+            Server = server;
+            Host = host;
+            UserName = userName;
+            RealName = realName;
+            Nick = nick;
+            Registered = true;
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Connection of the user. Null for users of other servers.
+        /// </summary>
+        public TcpIpServerConnection.ClientConnection Connection { get; }
+
+        /// <summary>
+        /// Server of the user. Null for users of this server.
+        /// </summary>
+        public IrcServerInfo Server { get; }
+
+        /// <summary>
+        /// Link the user is reached through. Null for users of this server.
+        /// </summary>
+        public IrcServerLink Link => Server?.Link;
+
+        /// <summary>
+        /// Is the user connected to this server?
+        /// </summary>
+        public bool IsLocal => Server == null;
+
+        /// <summary>
+        /// The nickname. Null till the user sent NICK.
+        /// </summary>
+        public string Nick
+        {
+            get { return _nick; }
+            internal set
+            {
+                _nick = value;
+                UpdatePrefix();
+            }
+        }
+
+        /// <summary>
+        /// The user name of USER.
+        /// </summary>
+        public string UserName { get; private set; }
+
+        /// <summary>
+        /// The real name of USER.
+        /// </summary>
+        public string RealName { get; private set; }
+
+        /// <summary>
+        /// Host of the user.
+        /// </summary>
+        public string Host { get; }
+
+        /// <summary>
+        /// Did the user complete the registration?
+        /// </summary>
+        public bool Registered { get; internal set; }
+
+        /// <summary>
+        /// The prefix of messages of this user (nick!user@host).
+        /// </summary>
+        public string Prefix => _prefix;
+
+        /// <summary>
+        /// Channels the user is member of.
+        /// </summary>
+        public IReadOnlyList<IrcChannel> Channels
+        {
+            get
+            {
+                lock (_channels)
+                {
+                    return _channels.ToArray();
+                }
+            }
+        }
+
+        /// <summary>
+        /// Password of PASS.
+        /// </summary>
+        internal string Password { get; set; }
+
+        /// <summary>
+        /// Link of the connection if it registered as server instead of as user.
+        /// </summary>
+        internal IrcServerLink ServerLink { get; set; }
+
+        /// <summary>
+        /// Decoder of the lines of the user.
+        /// </summary>
+        internal StringDecoder Decoder { get; }
+
+        /// <summary>
+        /// Parser of the lines of the user.
+        /// </summary>
+        internal IrcMessageEvaluator Evaluator { get; }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Send a line to the user. Lines to users of other servers are sent to their link.
+        /// </summary>
+        /// <param name="line">Line to send. The caller still has to release it.</param>
+        /// <returns>True if the line was sent or queued.</returns>
+        public bool Send(SharedBuffer line)
+        {
+            if (line == null) throw new ArgumentNullException(nameof(line));
+            if (Server != null)
+                return Server.Link.Send(line);
+            if (Connection.Disposed)
+                return false;
+
+            try
+            {
+                Connection.Send(line);
+                return true;
+            }
+            catch (SocketException ex)
+            {
+                Logger.TraceEvent(TraceEventType.Warning, 0, "Unable to send to {0}: {1}", Nick, ex.Message);
+            }
+            catch (ObjectDisposedException)
+            {
+                // Connection was closed while sending.
+            }
+
+            return false;
+        }
+
+        #endregion
+
+        #region Internal Methods
+
+        /// <summary>
+        /// Set the values of USER.
+        /// </summary>
+        /// <param name="userName">The user name.</param>
+        /// <param name="realName">The real name.</param>
+        internal void SetUser(string userName, string realName)
+        {
+            UserName = userName;
+            RealName = realName;
+            UpdatePrefix();
+        }
+
+        /// <summary>
+        /// Add a channel the user joined.
+        /// </summary>
+        /// <param name="channel">The channel.</param>
+        internal void AddChannel(IrcChannel channel)
+        {
+            lock (_channels)
+            {
+                _channels.Add(channel);
+            }
+        }
+
+        /// <summary>
+        /// Remove a channel the user left.
+        /// </summary>
+        /// <param name="channel">The channel.</param>
+        internal void RemoveChannel(IrcChannel channel)
+        {
+            lock (_channels)
+            {
+                _channels.Remove(channel);
+            }
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Update the prefix after the nick or user changed.
+        /// </summary>
+        private void UpdatePrefix()
+        {
+            _prefix = _nick + "!" + (UserName ?? "*") + "@" + Host;
+        }
+
+        #endregion
+    }
+}
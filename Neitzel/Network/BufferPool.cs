@@ -0,0 +1,156 @@
+﻿using System;
+using System.Collections.Concurrent;
+using System.Threading;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// A thread safe pool of byte arrays.
+    /// </summary>
+    /// <remarks>
+    /// The arrays are kept in buckets with sizes of powers of 2 so a rented array can be larger than
+    /// requested. Arrays that are larger than MaximumBufferSize are not pooled.
+    /// </remarks>
+    public class BufferPool
+    {
+        #region Constants
+
+        /// <summary>
+        /// Size of the smallest bucket.
+        /// </summary>
+        public const int MinimumBufferSize = 256;
+
+        /// <summary>
+        /// Size of the largest bucket.
+        /// </summary>
+        public const int MaximumBufferSize = 1024 * 1024;
+
+        /// <summary>
+        /// Default number of arrays kept per bucket.
+        /// </summary>
+        public const int DefaultBuffersPerBucket = 1024;
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// Buckets of free arrays. Index 0 holds arrays with MinimumBufferSize bytes.
+        /// </summary>
+        private readonly ConcurrentStack<byte[]>[] _buckets;
+
+        /// <summary>
+        /// Number of arrays that are inside each bucket.
+        /// </summary>
+        private readonly int[] _bucketCounts;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of BufferPool.
+        /// </summary>
+        /// <param name="buffersPerBucket">Maximum number of free arrays kept per bucket.</param>
+        public BufferPool(int buffersPerBucket)
+        {
+            if (buffersPerBucket < 0) throw new ArgumentOutOfRangeException(nameof(buffersPerBucket));
+
+            BuffersPerBucket = buffersPerBucket;
+            var bucketCount = GetBucketIndex(MaximumBufferSize) + 1;
+            _buckets = new ConcurrentStack<byte[]>[bucketCount];
+            _bucketCounts = new int[bucketCount];
+            for (var index = 0; index < bucketCount; index++)
+                _buckets[index] = new ConcurrentStack<byte[]>();
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Pool shared by all connections of this library.
+        /// </summary>
+        public static BufferPool Shared { get; } = new BufferPool(DefaultBuffersPerBucket);
+
+        /// <summary>
+        /// Maximum number of free arrays kept per bucket.
+        /// </summary>
+        public int BuffersPerBucket { get; }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Rent an array from the pool.
+        /// </summary>
+        /// <param name="minimumLength">Minimum length of the array.</param>
+        /// <returns>An array with at least minimumLength bytes. The content is undefined.</returns>
+        public byte[] Rent(int minimumLength)
+        {
+            if (minimumLength < 0) throw new ArgumentOutOfRangeException(nameof(minimumLength));
+            if (minimumLength > MaximumBufferSize)
+                return new byte[minimumLength];
+
+            var bucket = GetBucketIndex(minimumLength);
+            byte[] buffer;
+            if (_buckets[bucket].TryPop(out buffer))
+            {
+                Interlocked.Decrement(ref _bucketCounts[bucket]);
+                return buffer;
+            }
+
+            return new byte[MinimumBufferSize << bucket];
+        }
+
+        /// <summary>
+        /// Return an array to the pool. The array must not be used after it was returned.
+        /// </summary>
+        /// <param name="buffer">Array that was rented from this pool.</param>
+        public void Return(byte[] buffer)
+        {
+            if (buffer == null) throw new ArgumentNullException(nameof(buffer));
+
+            // Arrays with a size that is not a bucket size are not from this pool.
+            if (buffer.Length < MinimumBufferSize || buffer.Length > MaximumBufferSize)
+                return;
+            var bucket = GetBucketIndex(buffer.Length);
+            if (MinimumBufferSize << bucket != buffer.Length)
+                return;
+
+            // Keep the array only if the bucket is not full.
+            if (Interlocked.Increment(ref _bucketCounts[bucket]) > BuffersPerBucket)
+            {
+                Interlocked.Decrement(ref _bucketCounts[bucket]);
+                return;
+            }
+
+            _buckets[bucket].Push(buffer);
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Get the index of the smallest bucket that holds arrays of the given length.
+        /// </summary>
+        /// <param name="length">Required length.</param>
+        /// <returns>Index of the bucket.</returns>
+        private static int GetBucketIndex(int length)
+        {
+            var index = 0;
+            var size = MinimumBufferSize;
+            while (size < length)
+            {
+                size <<= 1;
+                index++;
+            }
+
+            return index;
+        }
+
+        #endregion
+    }
+}
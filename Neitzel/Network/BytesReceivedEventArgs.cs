@@ -5,13 +5,49 @@ namespace Neitzel.Network
     /// <summary>
     /// Event Argument that hands over receibed bytes.
     /// </summary>
+    /// <remarks>
+    /// With ReceiveMode.Pooled the same instance is reused for every message of a connection and Data points
+    /// into a pooled receive buffer. Data is then only valid while the event handler runs.
+    /// </remarks>
     public class BytesReceivedEventArgs : EventArgs
     {
+        /// <summary>
+        /// Copy of the received bytes, created on first access if only Data was set.
+        /// </summary>
+        private byte[] _receivedBytes;
+
         /// <summary>
         /// The bytes we received
         /// </summary>
-        public byte[] ReceivedBytes { get; set; }
-        
+        /// <remarks>
+        /// If the instance was created from a segment, the first access copies the segment into a new array.
+        /// Use Data to access the bytes without a copy.
+        /// </remarks>
+        public byte[] ReceivedBytes
+        {
+            get
+            {
+                if (_receivedBytes == null && Data.Array != null)
+                    _receivedBytes = ToArray();
+                return _receivedBytes;
+            }
+            set
+            {
+                _receivedBytes = value;
+                Data = value == null ? default(ArraySegment<byte>) : new ArraySegment<byte>(value);
+            }
+        }
+
+        /// <summary>
+        /// The bytes we received as segment of a (possibly pooled) buffer.
+        /// </summary>
+        public ArraySegment<byte> Data { get; private set; }
+
+        /// <summary>
+        /// Number of received bytes.
+        /// </summary>
+        public int Count => Data.Count;
+
         /// <summary>
         /// Create a new instance of ByteReceivedEventArgs.
         /// </summary>
@@ -25,6 +61,49 @@ namespace Neitzel.Network
         {
             ReceivedBytes = receivedBytes;
         }
-         
+
+        /// <summary>
+        /// Create a new instance of ByteReceivedEventArgs.
+        /// </summary>
+        /// <param name="data">Segment with the received bytes.</param>
+        public BytesReceivedEventArgs(ArraySegment<byte> data)
+        {
+            Data = data;
+        }
+
+        /// <summary>
+        /// Copy the received bytes into a new array.
+        /// </summary>
+        /// <returns>New array with the received bytes.</returns>
+        public byte[] ToArray()
+        {
+            var result = new byte[Data.Count];
+            CopyTo(result, 0);
+            return result;
+        }
+
+        /// <summary>
+        /// Copy the received bytes into an existing array.
+        /// </summary>
+        /// <param name="destination">Array to copy the bytes into.</param>
+        /// <param name="destinationIndex">Index inside destination where the first byte is stored.</param>
+        public void CopyTo(byte[] destination, int destinationIndex)
+        {
+            if (destination == null) throw new ArgumentNullException(nameof(destination));
+            if (Data.Count == 0)
+                return;
+
+            Buffer.BlockCopy(Data.Array, Data.Offset, destination, destinationIndex, Data.Count);
+        }
+
+        /// <summary>
+        /// Reuse this instance for the next received bytes.
+        /// </summary>
+        /// <param name="data">Segment with the received bytes.</param>
+        internal void Reset(ArraySegment<byte> data)
+        {
+            _receivedBytes = null;
+            Data = data;
+        }
     }
 }
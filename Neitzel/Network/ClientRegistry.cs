@@ -0,0 +1,137 @@
+﻿using System.Collections;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Threading;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Thread safe registry of the client connections of a TcpIpServerConnection, keyed by ClientConnection.Id.
+    /// </summary>
+    /// <remarks>
+    /// Add, remove and lookup are O(1) and lookups do not lock. Enumerating does not copy the registry and can
+    /// be done while connections are added or removed; it may or may not see these changes.
+    /// </remarks>
+    public class ClientRegistry : IEnumerable<TcpIpServerConnection.ClientConnection>
+    {
+        #region Fields
+
+        /// <summary>
+        /// The client connections by id.
+        /// </summary>
+        private readonly ConcurrentDictionary<long, TcpIpServerConnection.ClientConnection> _clients =
+            new ConcurrentDictionary<long, TcpIpServerConnection.ClientConnection>();
+
+        /// <summary>
+        /// Number of client connections.
+        /// </summary>
+        /// <remarks>
+        /// Counted separately because ConcurrentDictionary.Count takes all locks.
+        /// </remarks>
+        private int _count;
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Number of registered client connections.
+        /// </summary>
+        public int Count => Volatile.Read(ref _count);
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Find a client connection.
+        /// </summary>
+        /// <param name="id">Id of the client connection.</param>
+        /// <param name="client">The client connection or null if it is not registered.</param>
+        /// <returns>True if the client connection was found.</returns>
+        public bool TryGetClient(long id, out TcpIpServerConnection.ClientConnection client)
+        {
+            return _clients.TryGetValue(id, out client);
+        }
+
+        /// <summary>
+        /// Checks if a client connection is registered.
+        /// </summary>
+        /// <param name="id">Id of the client connection.</param>
+        /// <returns>True if the client connection is registered.</returns>
+        public bool Contains(long id)
+        {
+            return _clients.ContainsKey(id);
+        }
+
+        /// <summary>
+        /// Get an enumerator over all registered client connections.
+        /// </summary>
+        /// <returns>The enumerator.</returns>
+        public IEnumerator<TcpIpServerConnection.ClientConnection> GetEnumerator()
+        {
+            foreach (var pair in _clients)
+                yield return pair.Value;
+        }
+
+        /// <summary>
+        /// Get an enumerator over all registered client connections.
+        /// </summary>
+        /// <returns>The enumerator.</returns>
+        IEnumerator IEnumerable.GetEnumerator()
+        {
+            return GetEnumerator();
+        }
+
+        #endregion
+
+        #region Internal Methods
+
+        /// <summary>
+        /// Register a client connection.
+        /// </summary>
+        /// <param name="client">Client connection to add.</param>
+        /// <returns>True if the client connection was added, false if it was already registered.</returns>
+        internal bool Add(TcpIpServerConnection.ClientConnection client)
+        {
+            if (!_clients.TryAdd(client.Id, client))
+                return false;
+
+            Interlocked.Increment(ref _count);
+            return true;
+        }
+
+        /// <summary>
+        /// Remove a client connection.
+        /// </summary>
+        /// <param name="client">Client connection to remove.</param>
+        /// <returns>True if the client connection was removed, false if it was not registered.</returns>
+        internal bool Remove(TcpIpServerConnection.ClientConnection client)
+        {
+            TcpIpServerConnection.ClientConnection removed;
+            if (!_clients.TryRemove(client.Id, out removed))
+                return false;
+
+            Interlocked.Decrement(ref _count);
+            return true;
+        }
+
+        /// <summary>
+        /// Remove all client connections.
+        /// </summary>
+        /// <returns>The removed client connections.</returns>
+        internal List<TcpIpServerConnection.ClientConnection> RemoveAll()
+        {
+            var removed = new List<TcpIpServerConnection.ClientConnection>();
+            foreach (var client in this)
+            {
+                if (Remove(client))
+                    removed.Add(client);
+            }
+
+            return removed;
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,71 @@
+﻿using System;
+using System.Threading;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// A connection that was leased from a ConnectionPool. Dispose returns it to the pool.
+    /// </summary>
+    public class ConnectionLease : IDisposable
+    {
+        #region Fields
+
+        /// <summary>
+        /// Pool of the connection.
+        /// </summary>
+        private readonly EndpointPool _pool;
+
+        /// <summary>
+        /// The leased connection inside the pool.
+        /// </summary>
+        private readonly EndpointPool.PooledConnection _entry;
+
+        /// <summary>
+        /// 1 once the lease was returned.
+        /// </summary>
+        private int _returned;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of ConnectionLease.
+        /// </summary>
+        /// <param name="pool">Pool of the connection.</param>
+        /// <param name="entry">The leased connection.</param>
+        internal ConnectionLease(EndpointPool pool, EndpointPool.PooledConnection entry)
+        {
+            _pool = pool;
+            _entry = entry;
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// The leased connection.
+        /// </summary>
+        /// <remarks>
+        /// Other leases can use the same connection at the same time if MaxLeasesPerConnection is above 1.
+        /// Do not close it, a broken connection is removed from the pool when the lease is returned.
+        /// </remarks>
+        public MultiplexedConnection Connection => _entry.Connection;
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Return the connection to the pool.
+        /// </summary>
+        public void Dispose()
+        {
+            if (Interlocked.Exchange(ref _returned, 1) == 0)
+                _pool.Return(_entry);
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,38 @@
+﻿using System;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Duplex pipe of a connection in ReceiveMode.Pipe.
+    /// </summary>
+    /// <remarks>
+    /// Protocol code reads the received bytes from Input and writes its messages into Output. Both sides work
+    /// on pooled buffers so no byte arrays are copied between the socket and the protocol code.
+    /// </remarks>
+    public class ConnectionPipe
+    {
+        /// <summary>
+        /// Creates a new instance of ConnectionPipe.
+        /// </summary>
+        /// <param name="options">Options of the pipe.</param>
+        /// <param name="send">Sends a buffer through the connection.</param>
+        /// <param name="flush">Flushes the connection.</param>
+        /// <param name="resume">Called when a paused connection can receive again.</param>
+        /// <param name="readerCompleted">Called when the reader completed, the connection should be closed.</param>
+        internal ConnectionPipe(ConnectionPipeOptions options, Action<SharedBuffer> send, Action flush, Action resume, Action readerCompleted)
+        {
+            Input = new ReceivePipe(options, resume, readerCompleted);
+            Output = new SendPipe(options, send, flush);
+        }
+
+        /// <summary>
+        /// Received bytes.
+        /// </summary>
+        public ReceivePipe Input { get; }
+
+        /// <summary>
+        /// Bytes to send.
+        /// </summary>
+        public SendPipe Output { get; }
+    }
+}
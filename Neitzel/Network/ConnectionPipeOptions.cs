@@ -0,0 +1,38 @@
+﻿namespace Neitzel.Network
+{
+    /// <summary>
+    /// Options of the pipe of a connection in ReceiveMode.Pipe.
+    /// </summary>
+    public class ConnectionPipeOptions
+    {
+        /// <summary>
+        /// Default size of the buffers of the pipe.
+        /// </summary>
+        public const int DefaultSegmentSize = 4096;
+
+        /// <summary>
+        /// Default number of unread bytes at which the connection stops receiving.
+        /// </summary>
+        public const long DefaultPauseThreshold = 64 * 1024;
+
+        /// <summary>
+        /// Default number of unread bytes at which the connection receives again.
+        /// </summary>
+        public const long DefaultResumeThreshold = 32 * 1024;
+
+        /// <summary>
+        /// Size of the buffers that are rented from BufferPool.Shared for received and written bytes.
+        /// </summary>
+        public int SegmentSize { get; set; } = DefaultSegmentSize;
+
+        /// <summary>
+        /// Number of unread bytes at which the connection stops receiving till the reader catches up.
+        /// </summary>
+        public long PauseThreshold { get; set; } = DefaultPauseThreshold;
+
+        /// <summary>
+        /// Number of unread bytes at which a paused connection receives again.
+        /// </summary>
+        public long ResumeThreshold { get; set; } = DefaultResumeThreshold;
+    }
+}
@@ -0,0 +1,187 @@
+﻿using System;
+using System.Collections.Concurrent;
+using System.Globalization;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// A pool of MultiplexedConnections by host and port.
+    /// </summary>
+    /// <remarks>
+    /// Callers lease a connection and dispose the lease when they are done, or use RequestAsync that does
+    /// both. Up to MaxLeasesPerConnection leases share a connection, their requests are told apart by the
+    /// correlation id of the frames. So the throughput grows with the requests in flight and not with the
+    /// number of sockets. See ConnectionPoolOptions for the limits, the health checks and the idle eviction.
+    /// </remarks>
+    public class ConnectionPool : DisposableObject
+    {
+        #region Fields
+
+        /// <summary>
+        /// Pools by "host:port". Lazy because GetOrAdd can create a value that is not added, and a pool
+        /// starts its health check when it is created.
+        /// </summary>
+        private readonly ConcurrentDictionary<string, Lazy<EndpointPool>> _pools = new ConcurrentDictionary<string, Lazy<EndpointPool>>(StringComparer.OrdinalIgnoreCase);
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of ConnectionPool with the default options.
+        /// </summary>
+        public ConnectionPool()
+            : this(new ConnectionPoolOptions())
+        {
+        }
+
+        /// <summary>
+        /// Creates a new instance of ConnectionPool.
+        /// </summary>
+        /// <param name="options">Options of the pool.</param>
+        public ConnectionPool(ConnectionPoolOptions options)
+        {
+            if (options == null) throw new ArgumentNullException(nameof(options));
+            if (options.MaxConnections < 1) throw new ArgumentException("MaxConnections must be at least 1.", nameof(options));
+            if (options.MaxLeasesPerConnection < 1) throw new ArgumentException("MaxLeasesPerConnection must be at least 1.", nameof(options));
+
+            Options = options;
+        }
+
+        /// <summary>
+        /// Dispose this instance.
+        /// </summary>
+        /// <param name="disposing">Controlled dispose not from finalizer.</param>
+        protected override void Dispose(bool disposing)
+        {
+            if (Disposed)
+                return;
+
+            base.Dispose(disposing);
+            if (disposing)
+            {
+                foreach (var pool in _pools.Values)
+                {
+                    if (pool.IsValueCreated)
+                        pool.Value.Close();
+                }
+                _pools.Clear();
+            }
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Options of the pool.
+        /// </summary>
+        public ConnectionPoolOptions Options { get; }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Lease a connection to a host.
+        /// </summary>
+        /// <param name="hostName">Host of the server.</param>
+        /// <param name="port">Port of the server.</param>
+        /// <returns>The lease. Dispose it to return the connection.</returns>
+        public Task<ConnectionLease> LeaseAsync(string hostName, int port)
+        {
+            return LeaseAsync(hostName, port, CancellationToken.None);
+        }
+
+        /// <summary>
+        /// Lease a connection to a host.
+        /// </summary>
+        /// <param name="hostName">Host of the server.</param>
+        /// <param name="port">Port of the server.</param>
+        /// <param name="cancellationToken">Token to stop waiting for a connection.</param>
+        /// <returns>The lease. Dispose it to return the connection.</returns>
+        /// <exception cref="TimeoutException">The task fails if no connection was free within LeaseTimeout.</exception>
+        public Task<ConnectionLease> LeaseAsync(string hostName, int port, CancellationToken cancellationToken)
+        {
+            return GetPool(hostName, port).LeaseAsync(cancellationToken);
+        }
+
+        /// <summary>
+        /// Send a request over a pooled connection and wait for its response.
+        /// </summary>
+        /// <param name="hostName">Host of the server.</param>
+        /// <param name="port">Port of the server.</param>
+        /// <param name="request">Body of the request.</param>
+        /// <returns>Task that completes with the body of the response.</returns>
+        public Task<byte[]> RequestAsync(string hostName, int port, byte[] request)
+        {
+            if (request == null) throw new ArgumentNullException(nameof(request));
+
+            return RequestAsync(hostName, port, new ArraySegment<byte>(request), CancellationToken.None);
+        }
+
+        /// <summary>
+        /// Send a request over a pooled connection and wait for its response.
+        /// </summary>
+        /// <param name="hostName">Host of the server.</param>
+        /// <param name="port">Port of the server.</param>
+        /// <param name="request">Body of the request.</param>
+        /// <param name="cancellationToken">Token to stop waiting.</param>
+        /// <returns>Task that completes with the body of the response.</returns>
+        public async Task<byte[]> RequestAsync(string hostName, int port, ArraySegment<byte> request, CancellationToken cancellationToken)
+        {
+            using (var lease = await LeaseAsync(hostName, port, cancellationToken).ConfigureAwait(false))
+            {
+                return await lease.Connection.RequestAsync(request, cancellationToken).ConfigureAwait(false);
+            }
+        }
+
+        /// <summary>
+        /// Gets the number of open connections to a host.
+        /// </summary>
+        /// <param name="hostName">Host of the server.</param>
+        /// <param name="port">Port of the server.</param>
+        /// <returns>Number of open connections.</returns>
+        public int GetConnectionCount(string hostName, int port)
+        {
+            if (hostName == null) throw new ArgumentNullException(nameof(hostName));
+
+            Lazy<EndpointPool> pool;
+            return _pools.TryGetValue(GetKey(hostName, port), out pool) && pool.IsValueCreated ? pool.Value.Count : 0;
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Gets the pool of a host.
+        /// </summary>
+        /// <param name="hostName">Host of the server.</param>
+        /// <param name="port">Port of the server.</param>
+        /// <returns>The pool.</returns>
+        private EndpointPool GetPool(string hostName, int port)
+        {
+            if (hostName == null) throw new ArgumentNullException(nameof(hostName));
+            if (Disposed)
+                throw new InvalidOperationException("Instance already disposed!");
+
+            return _pools.GetOrAdd(GetKey(hostName, port), key => new Lazy<EndpointPool>(() => new EndpointPool(hostName, port, Options))).Value;
+        }
+
+        /// <summary>
+        /// Gets the key of a host.
+        /// </summary>
+        /// <param name="hostName">Host of the server.</param>
+        /// <param name="port">Port of the server.</param>
+        /// <returns>The key.</returns>
+        private static string GetKey(string hostName, int port)
+        {
+            return hostName + ":" + port.ToString(CultureInfo.InvariantCulture);
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,57 @@
+﻿using System;
+using System.Threading.Tasks;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Options of a ConnectionPool. They are used for each host and port of the pool.
+    /// </summary>
+    public class ConnectionPoolOptions
+    {
+        /// <summary>
+        /// Minimum number of connections that are kept open once the host was used.
+        /// </summary>
+        public int MinConnections { get; set; }
+
+        /// <summary>
+        /// Maximum number of connections to one host and port.
+        /// </summary>
+        public int MaxConnections { get; set; } = 10;
+
+        /// <summary>
+        /// Maximum number of leases of one connection at the same time.
+        /// </summary>
+        /// <remarks>
+        /// 1 gives each caller a connection of its own. Higher values let the callers share a connection with
+        /// requests that are multiplexed by their correlation id. A new connection is only opened when all
+        /// connections, including the ones that are opened right now, have this number of leases.
+        /// </remarks>
+        public int MaxLeasesPerConnection { get; set; } = 100;
+
+        /// <summary>
+        /// Time a lease waits for a free connection before it fails with a TimeoutException.
+        /// </summary>
+        public TimeSpan LeaseTimeout { get; set; } = TimeSpan.FromSeconds(30);
+
+        /// <summary>
+        /// Time a connection without leases is kept, as long as there are more than MinConnections.
+        /// </summary>
+        public TimeSpan IdleTimeout { get; set; } = TimeSpan.FromSeconds(60);
+
+        /// <summary>
+        /// Time between the health checks of the connections.
+        /// </summary>
+        public TimeSpan HealthCheckInterval { get; set; } = TimeSpan.FromSeconds(10);
+
+        /// <summary>
+        /// Additional check of connections without leases, e.g. a ping request. Null only checks if the
+        /// connection is still connected.
+        /// </summary>
+        public Func<MultiplexedConnection, Task<bool>> HealthCheck { get; set; }
+
+        /// <summary>
+        /// Creates the connections of the pool. Null creates a MultiplexedConnection with a 4 byte length prefix.
+        /// </summary>
+        public Func<string, int, MultiplexedConnection> ConnectionFactory { get; set; }
+    }
+}
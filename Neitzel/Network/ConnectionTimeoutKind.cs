@@ -0,0 +1,29 @@
+﻿namespace Neitzel.Network
+{
+    /// <summary>
+    /// Kind of a timeout that closed a connection.
+    /// </summary>
+    public enum ConnectionTimeoutKind
+    {
+        /// <summary>
+        /// Nothing was received or sent within ConnectionTimeouts.IdleTimeout.
+        /// </summary>
+        Idle,
+
+        /// <summary>
+        /// Nothing was received within ConnectionTimeouts.ReadTimeout.
+        /// </summary>
+        Read,
+
+        /// <summary>
+        /// The handshake was not completed within ConnectionTimeouts.HandshakeTimeout.
+        /// </summary>
+        Handshake,
+
+        /// <summary>
+        /// A send of the SendQueue did not complete within ConnectionTimeouts.WriteTimeout, e.g. because the
+        /// peer stopped reading.
+        /// </summary>
+        Write
+    }
+}
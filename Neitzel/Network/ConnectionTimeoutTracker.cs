@@ -0,0 +1,291 @@
+﻿using System;
+using System.Diagnostics;
+using System.Threading;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Tracks the activity of a connection and reports when one of its timeouts expired.
+    /// </summary>
+    /// <remarks>
+    /// Activity only stores a Stopwatch timestamp. A connection has at most one entry on the TimingWheel which
+    /// is scheduled for the earliest possible deadline. When the entry fires, the deadlines are checked against
+    /// the stored timestamps and the entry is scheduled again if there was activity in the meantime.
+    /// </remarks>
+    internal class ConnectionTimeoutTracker
+    {
+        #region Fields
+
+        /// <summary>
+        /// Wheel used to schedule the checks.
+        /// </summary>
+        private readonly TimingWheel _wheel;
+
+        /// <summary>
+        /// Called once when a timeout expired.
+        /// </summary>
+        private readonly Action<ConnectionTimeoutKind> _expired;
+
+        /// <summary>
+        /// Lock for the scheduled entry.
+        /// </summary>
+        private readonly object _lock = new object();
+
+        /// <summary>
+        /// Timestamp when the tracking started.
+        /// </summary>
+        private readonly long _started;
+
+        /// <summary>
+        /// Timestamp of the last receive.
+        /// </summary>
+        private long _lastRead;
+
+        /// <summary>
+        /// Timestamp of the last send.
+        /// </summary>
+        private long _lastWrite;
+
+        /// <summary>
+        /// Was the handshake completed?
+        /// </summary>
+        private volatile bool _handshakeCompleted;
+
+        /// <summary>
+        /// The timeouts that are checked.
+        /// </summary>
+        private ConnectionTimeouts _timeouts = ConnectionTimeouts.None;
+
+        /// <summary>
+        /// Gets the timestamp since which the current send waits. Null without SendQueue.
+        /// </summary>
+        private Func<long> _pendingWriteSince;
+
+        /// <summary>
+        /// The scheduled entry. Null if nothing is scheduled.
+        /// </summary>
+        private TimingWheelEntry _entry;
+
+        /// <summary>
+        /// True if the tracking was stopped or a timeout expired.
+        /// </summary>
+        private bool _stopped;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of ConnectionTimeoutTracker.
+        /// </summary>
+        /// <param name="wheel">Wheel used to schedule the checks.</param>
+        /// <param name="expired">Called once when a timeout expired.</param>
+        public ConnectionTimeoutTracker(TimingWheel wheel, Action<ConnectionTimeoutKind> expired)
+        {
+            _wheel = wheel;
+            _expired = expired;
+            _started = Stopwatch.GetTimestamp();
+            _lastRead = _started;
+            _lastWrite = _started;
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// The timeouts that are checked.
+        /// </summary>
+        public ConnectionTimeouts Timeouts
+        {
+            get { return _timeouts; }
+            set
+            {
+                if (value == null) throw new ArgumentNullException(nameof(value));
+
+                lock (_lock)
+                {
+                    _timeouts = value;
+                    Reschedule(Stopwatch.GetTimestamp());
+                }
+            }
+        }
+
+        /// <summary>
+        /// Gets the Stopwatch timestamp since which the current send waits, 0 if no send is in progress.
+        /// Used for the write timeout of connections with a SendQueue. Null means no write timeout.
+        /// </summary>
+        public Func<long> PendingWriteSince
+        {
+            get { return _pendingWriteSince; }
+            set
+            {
+                lock (_lock)
+                {
+                    _pendingWriteSince = value;
+                    Reschedule(Stopwatch.GetTimestamp());
+                }
+            }
+        }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Data was received.
+        /// </summary>
+        public void ReadActivity()
+        {
+            Volatile.Write(ref _lastRead, Stopwatch.GetTimestamp());
+        }
+
+        /// <summary>
+        /// Data was sent.
+        /// </summary>
+        public void WriteActivity()
+        {
+            Volatile.Write(ref _lastWrite, Stopwatch.GetTimestamp());
+        }
+
+        /// <summary>
+        /// The handshake was completed.
+        /// </summary>
+        public void CompleteHandshake()
+        {
+            _handshakeCompleted = true;
+        }
+
+        /// <summary>
+        /// Stop the tracking.
+        /// </summary>
+        public void Stop()
+        {
+            lock (_lock)
+            {
+                _stopped = true;
+                _entry?.Cancel();
+                _entry = null;
+            }
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Convert a TimeSpan into Stopwatch ticks.
+        /// </summary>
+        /// <param name="timeSpan">TimeSpan to convert.</param>
+        /// <returns>Stopwatch ticks.</returns>
+        private static long ToStopwatchTicks(TimeSpan timeSpan)
+        {
+            return (long) (timeSpan.Ticks * ((double) Stopwatch.Frequency / TimeSpan.TicksPerSecond));
+        }
+
+        /// <summary>
+        /// Convert Stopwatch ticks into a TimeSpan.
+        /// </summary>
+        /// <param name="stopwatchTicks">Stopwatch ticks to convert.</param>
+        /// <returns>The TimeSpan.</returns>
+        private static TimeSpan ToTimeSpan(long stopwatchTicks)
+        {
+            return TimeSpan.FromTicks((long) (stopwatchTicks * ((double) TimeSpan.TicksPerSecond / Stopwatch.Frequency)));
+        }
+
+        /// <summary>
+        /// Get the deadline of a timeout.
+        /// </summary>
+        /// <param name="start">Timestamp the timeout starts from.</param>
+        /// <param name="timeout">The timeout. TimeSpan.Zero means not used.</param>
+        /// <returns>Timestamp of the deadline or long.MaxValue if the timeout is not used.</returns>
+        private static long GetDeadline(long start, TimeSpan timeout)
+        {
+            return timeout > TimeSpan.Zero ? start + ToStopwatchTicks(timeout) : long.MaxValue;
+        }
+
+        /// <summary>
+        /// The scheduled entry fired.
+        /// </summary>
+        private void OnTimer()
+        {
+            ConnectionTimeoutKind? kind;
+            lock (_lock)
+            {
+                if (_stopped)
+                    return;
+
+                _entry = null;
+                var now = Stopwatch.GetTimestamp();
+                kind = GetExpiredTimeout(now);
+                if (kind == null)
+                {
+                    // There was activity in the meantime.
+                    Reschedule(now);
+                    return;
+                }
+
+                _stopped = true;
+            }
+
+            _expired(kind.Value);
+        }
+
+        /// <summary>
+        /// Get the timeout that expired.
+        /// </summary>
+        /// <param name="now">Current timestamp.</param>
+        /// <returns>The expired timeout or null if no timeout expired.</returns>
+        private ConnectionTimeoutKind? GetExpiredTimeout(long now)
+        {
+            var lastRead = Volatile.Read(ref _lastRead);
+            var lastWrite = Volatile.Read(ref _lastWrite);
+
+            if (now >= GetDeadline(Math.Max(lastRead, lastWrite), _timeouts.IdleTimeout))
+                return ConnectionTimeoutKind.Idle;
+            if (now >= GetDeadline(lastRead, _timeouts.ReadTimeout))
+                return ConnectionTimeoutKind.Read;
+            if (!_handshakeCompleted && now >= GetDeadline(_started, _timeouts.HandshakeTimeout))
+                return ConnectionTimeoutKind.Handshake;
+
+            var pendingWriteSince = _pendingWriteSince?.Invoke() ?? 0;
+            if (pendingWriteSince != 0 && now >= GetDeadline(pendingWriteSince, _timeouts.WriteTimeout))
+                return ConnectionTimeoutKind.Write;
+
+            return null;
+        }
+
+        /// <summary>
+        /// Schedule the entry for the earliest deadline. Must be called inside the lock.
+        /// </summary>
+        /// <param name="now">Current timestamp.</param>
+        private void Reschedule(long now)
+        {
+            _entry?.Cancel();
+            _entry = null;
+            if (_stopped)
+                return;
+
+            var lastRead = Volatile.Read(ref _lastRead);
+            var lastWrite = Volatile.Read(ref _lastWrite);
+            var deadline = Math.Min(GetDeadline(Math.Max(lastRead, lastWrite), _timeouts.IdleTimeout),
+                GetDeadline(lastRead, _timeouts.ReadTimeout));
+            if (!_handshakeCompleted)
+                deadline = Math.Min(deadline, GetDeadline(_started, _timeouts.HandshakeTimeout));
+
+            // A send can start at any time, so without a pending send the next check is one write timeout away.
+            if (_pendingWriteSince != null)
+            {
+                var pendingWriteSince = _pendingWriteSince();
+                deadline = Math.Min(deadline, GetDeadline(pendingWriteSince != 0 ? pendingWriteSince : now, _timeouts.WriteTimeout));
+            }
+
+            if (deadline == long.MaxValue)
+                return;
+
+            _entry = _wheel.Schedule(ToTimeSpan(Math.Max(0, deadline - now)), OnTimer);
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,76 @@
+﻿using System;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// The timeouts of a connection. TimeSpan.Zero means that the timeout is not used.
+    /// </summary>
+    /// <remarks>
+    /// Instances are immutable so the same instance can be shared by many connections.
+    /// </remarks>
+    public class ConnectionTimeouts
+    {
+        /// <summary>
+        /// No timeouts at all.
+        /// </summary>
+        public static readonly ConnectionTimeouts None = new ConnectionTimeouts(TimeSpan.Zero, TimeSpan.Zero, TimeSpan.Zero, TimeSpan.Zero);
+
+        /// <summary>
+        /// Creates a new instance of ConnectionTimeouts.
+        /// </summary>
+        /// <param name="idleTimeout">Maximum time without receiving or sending data.</param>
+        /// <param name="readTimeout">Maximum time without receiving data.</param>
+        /// <param name="writeTimeout">Maximum time a send may take.</param>
+        /// <param name="handshakeTimeout">Maximum time till the handshake of a new connection must be completed.</param>
+        public ConnectionTimeouts(TimeSpan idleTimeout, TimeSpan readTimeout, TimeSpan writeTimeout, TimeSpan handshakeTimeout)
+        {
+            if (idleTimeout < TimeSpan.Zero) throw new ArgumentOutOfRangeException(nameof(idleTimeout));
+            if (readTimeout < TimeSpan.Zero) throw new ArgumentOutOfRangeException(nameof(readTimeout));
+            if (writeTimeout < TimeSpan.Zero) throw new ArgumentOutOfRangeException(nameof(writeTimeout));
+            if (handshakeTimeout < TimeSpan.Zero) throw new ArgumentOutOfRangeException(nameof(handshakeTimeout));
+
+            IdleTimeout = idleTimeout;
+            ReadTimeout = readTimeout;
+            WriteTimeout = writeTimeout;
+            HandshakeTimeout = handshakeTimeout;
+        }
+
+        /// <summary>
+        /// Maximum time without receiving or sending data.
+        /// </summary>
+        public TimeSpan IdleTimeout { get; }
+
+        /// <summary>
+        /// Maximum time without receiving data.
+        /// </summary>
+        public TimeSpan ReadTimeout { get; }
+
+        /// <summary>
+        /// Maximum time a send may take. A send that takes longer fails and closes the connection.
+        /// </summary>
+        /// <remarks>
+        /// Synchronous sends use Socket.SendTimeout. Sends of a SendQueue are checked by the timeout tracking
+        /// of the connection and close it with ConnectionTimeoutKind.Write.
+        /// </remarks>
+        public TimeSpan WriteTimeout { get; }
+
+        /// <summary>
+        /// Maximum time till the handshake of a new connection must be completed.
+        /// </summary>
+        /// <remarks>
+        /// The handshake is completed by calling CompleteHandshake on the connection, e.g. when a protocol
+        /// finished its registration.
+        /// </remarks>
+        public TimeSpan HandshakeTimeout { get; }
+
+        /// <summary>
+        /// Creates a copy with another read timeout.
+        /// </summary>
+        /// <param name="readTimeout">The new read timeout.</param>
+        /// <returns>The copy.</returns>
+        public ConnectionTimeouts WithReadTimeout(TimeSpan readTimeout)
+        {
+            return new ConnectionTimeouts(IdleTimeout, readTimeout, WriteTimeout, HandshakeTimeout);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+﻿using System;
+using System.IO;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// A stream that counts the bytes read from and written to another stream.
+    /// </summary>
+    /// <remarks>
+    /// Used below an SslStream to see how large the handshake was. The asynchronous methods are passed on,
+    /// so no thread waits for the inner stream.
+    /// </remarks>
+    internal class CountingStream : Stream
+    {
+        #region Fields
+
+        /// <summary>
+        /// The inner stream.
+        /// </summary>
+        private readonly Stream _inner;
+
+        /// <summary>
+        /// Number of read bytes.
+        /// </summary>
+        private long _bytesRead;
+
+        /// <summary>
+        /// Number of written bytes.
+        /// </summary>
+        private long _bytesWritten;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of CountingStream.
+        /// </summary>
+        /// <param name="inner">The inner stream. It is closed with this stream.</param>
+        public CountingStream(Stream inner)
+        {
+            if (inner == null) throw new ArgumentNullException(nameof(inner));
+
+            _inner = inner;
+        }
+
+        /// <summary>
+        /// Dispose this instance and the inner stream.
+        /// </summary>
+        /// <param name="disposing">Controlled dispose not from finalizer.</param>
+        protected override void Dispose(bool disposing)
+        {
+            if (disposing)
+                _inner.Dispose();
+            base.Dispose(disposing);
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Number of read bytes.
+        /// </summary>
+        public long BytesRead => Interlocked.Read(ref _bytesRead);
+
+        /// <summary>
+        /// Number of written bytes.
+        /// </summary>
+        public long BytesWritten => Interlocked.Read(ref _bytesWritten);
+
+        /// <summary>
+        /// Gets a value indicating whether the inner stream can be read.
+        /// </summary>
+        public override bool CanRead => _inner.CanRead;
+
+        /// <summary>
+        /// Always false, the stream cannot seek.
+        /// </summary>
+        public override bool CanSeek => false;
+
+        /// <summary>
+        /// Gets a value indicating whether the inner stream can be written.
+        /// </summary>
+        public override bool CanWrite => _inner.CanWrite;
+
+        /// <summary>
+        /// Not supported.
+        /// </summary>
+        public override long Length
+        {
+            get { throw new NotSupportedException(); }
+        }
+
+        /// <summary>
+        /// Not supported.
+        /// </summary>
+        public override long Position
+        {
+            get { throw new NotSupportedException(); }
+            set { throw new NotSupportedException(); }
+        }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Read from the inner stream.
+        /// </summary>
+        public override int Read(byte[] buffer, int offset, int count)
+        {
+            var read = _inner.Read(buffer, offset, count);
+            Interlocked.Add(ref _bytesRead, read);
+            return read;
+        }
+
+        /// <summary>
+        /// Start to read from the inner stream.
+        /// </summary>
+        public override IAsyncResult BeginRead(byte[] buffer, int offset, int count, AsyncCallback callback, object state)
+        {
+            return _inner.BeginRead(buffer, offset, count, callback, state);
+        }
+
+        /// <summary>
+        /// End a read from the inner stream.
+        /// </summary>
+        public override int EndRead(IAsyncResult asyncResult)
+        {
+            var read = _inner.EndRead(asyncResult);
+            Interlocked.Add(ref _bytesRead, read);
+            return read;
+        }
+
+        /// <summary>
+        /// Read from the inner stream asynchronously.
+        /// </summary>
+        public override async Task<int> ReadAsync(byte[] buffer, int offset, int count, CancellationToken cancellationToken)
+        {
+            var read = await _inner.ReadAsync(buffer, offset, count, cancellationToken).ConfigureAwait(false);
+            Interlocked.Add(ref _bytesRead, read);
+            return read;
+        }
+
+        /// <summary>
+        /// Write to the inner stream.
+        /// </summary>
+        public override void Write(byte[] buffer, int offset, int count)
+        {
+            _inner.Write(buffer, offset, count);
+            Interlocked.Add(ref _bytesWritten, count);
+        }
+
+        /// <summary>
+        /// Start to write to the inner stream.
+        /// </summary>
+        public override IAsyncResult BeginWrite(byte[] buffer, int offset, int count, AsyncCallback callback, object state)
+        {
+            Interlocked.Add(ref _bytesWritten, count);
+            return _inner.BeginWrite(buffer, offset, count, callback, state);
+        }
+
+        /// <summary>
+        /// End a write to the inner stream.
+        /// </summary>
+        public override void EndWrite(IAsyncResult asyncResult)
+        {
+            _inner.EndWrite(asyncResult);
+        }
+
+        /// <summary>
+        /// Write to the inner stream asynchronously.
+        /// </summary>
+        public override Task WriteAsync(byte[] buffer, int offset, int count, CancellationToken cancellationToken)
+        {
+            Interlocked.Add(ref _bytesWritten, count);
+            return _inner.WriteAsync(buffer, offset, count, cancellationToken);
+        }
+
+        /// <summary>
+        /// Flush the inner stream.
+        /// </summary>
+        public override void Flush()
+        {
+            _inner.Flush();
+        }
+
+        /// <summary>
+        /// Flush the inner stream asynchronously.
+        /// </summary>
+        public override Task FlushAsync(CancellationToken cancellationToken)
+        {
+            return _inner.FlushAsync(cancellationToken);
+        }
+
+        /// <summary>
+        /// Not supported.
+        /// </summary>
+        public override long Seek(long offset, SeekOrigin origin)
+        {
+            throw new NotSupportedException();
+        }
+
+        /// <summary>
+        /// Not supported.
+        /// </summary>
+        public override void SetLength(long value)
+        {
+            throw new NotSupportedException();
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,150 @@
+﻿using System;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Frames that end with a delimiter of one or more bytes.
+    /// </summary>
+    /// <remarks>
+    /// The payload must not contain the delimiter. Every received byte is only searched once, also when a
+    /// frame arrives in a lot of small parts.
+    /// </remarks>
+    public class DelimiterFrameCodec : FrameCodec
+    {
+        #region Fields
+
+        /// <summary>
+        /// The delimiter.
+        /// </summary>
+        private readonly byte[] _delimiter;
+
+        /// <summary>
+        /// Number of bytes of the current frame that were already searched.
+        /// </summary>
+        private int _scanned;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of DelimiterFrameCodec.
+        /// </summary>
+        /// <param name="delimiter">Bytes that end a frame.</param>
+        public DelimiterFrameCodec(params byte[] delimiter)
+        {
+            if (delimiter == null) throw new ArgumentNullException(nameof(delimiter));
+            if (delimiter.Length == 0) throw new ArgumentException("Delimiter must not be empty.", nameof(delimiter));
+
+            _delimiter = (byte[]) delimiter.Clone();
+        }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Gets the maximum number of bytes Encode writes for a payload.
+        /// </summary>
+        /// <param name="payloadLength">Length of the payload.</param>
+        /// <returns>Maximum length of the encoded frame.</returns>
+        public override int GetMaxEncodedLength(int payloadLength)
+        {
+            return payloadLength + _delimiter.Length;
+        }
+
+        /// <summary>
+        /// Encode a frame into an array.
+        /// </summary>
+        /// <param name="payload">Payload of the frame.</param>
+        /// <param name="destination">Array to write to.</param>
+        /// <param name="destinationIndex">Index inside the array.</param>
+        /// <returns>Number of written bytes.</returns>
+        public override int Encode(ArraySegment<byte> payload, byte[] destination, int destinationIndex)
+        {
+            CheckEncodeArguments(payload, destination, destinationIndex);
+
+            Buffer.BlockCopy(payload.Array, payload.Offset, destination, destinationIndex, payload.Count);
+            Buffer.BlockCopy(_delimiter, 0, destination, destinationIndex + payload.Count, _delimiter.Length);
+            return payload.Count + _delimiter.Length;
+        }
+
+        #endregion
+
+        #region Protected Methods
+
+        /// <summary>
+        /// Find the first frame inside the data.
+        /// </summary>
+        /// <param name="data">Received bytes, starting with a frame.</param>
+        /// <param name="payloadOffset">Offset of the payload relative to the start of data.</param>
+        /// <param name="payloadLength">Length of the payload.</param>
+        /// <param name="frameLength">Length of the whole frame.</param>
+        /// <returns>True if the frame is complete, false if more bytes are required.</returns>
+        protected override bool TryFindFrame(ArraySegment<byte> data, out int payloadOffset, out int payloadLength, out int frameLength)
+        {
+            payloadOffset = 0;
+            payloadLength = 0;
+            frameLength = 0;
+
+            // Search for the first byte of the delimiter, starting behind what was searched before.
+            var last = _delimiter.Length - 1;
+            var position = _scanned;
+            while (position + last < data.Count)
+            {
+                var index = Array.IndexOf(data.Array, _delimiter[0], data.Offset + position, data.Count - last - position);
+                if (index < 0)
+                {
+                    position = data.Count - last;
+                    break;
+                }
+
+                position = index - data.Offset;
+                if (IsDelimiter(data, position))
+                {
+                    CheckFrameLength(position);
+                    _scanned = 0;
+                    payloadLength = position;
+                    frameLength = position + _delimiter.Length;
+                    return true;
+                }
+                position++;
+            }
+
+            _scanned = Math.Max(0, position);
+            CheckFrameLength(_scanned);
+            return false;
+        }
+
+        /// <summary>
+        /// Forget the state of an incomplete frame.
+        /// </summary>
+        protected override void Reset()
+        {
+            _scanned = 0;
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Checks if the delimiter starts at a position.
+        /// </summary>
+        /// <param name="data">Received bytes.</param>
+        /// <param name="position">Position relative to the start of data.</param>
+        /// <returns>True if the delimiter starts at the position.</returns>
+        private bool IsDelimiter(ArraySegment<byte> data, int position)
+        {
+            for (var index = 1; index < _delimiter.Length; index++)
+            {
+                if (data.Array[data.Offset + position + index] != _delimiter[index])
+                    return false;
+            }
+
+            return true;
+        }
+
+        #endregion
+    }
+}
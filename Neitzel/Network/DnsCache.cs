@@ -0,0 +1,180 @@
+﻿using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Net;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// A small cache of DNS results, used by TcpIpClientConnection so reconnects do not resolve the host again.
+    /// </summary>
+    /// <remarks>
+    /// System.Net.Dns does not report the TTL of the records, so each result is kept for TimeToLive. Keep it
+    /// at or below the TTL of the records of your servers. Failed lookups are not cached. Concurrent lookups of
+    /// the same host share one query, so a lot of clients that connect at the same time resolve the host once.
+    /// </remarks>
+    public class DnsCache
+    {
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(NetworkConstants.TraceSourceName);
+
+        /// <summary>
+        /// The shared instance.
+        /// </summary>
+        private static readonly Lazy<DnsCache> SharedCache = new Lazy<DnsCache>(() => new DnsCache());
+
+        /// <summary>
+        /// Cached lookups by host name.
+        /// </summary>
+        private readonly ConcurrentDictionary<string, CacheEntry> _entries = new ConcurrentDictionary<string, CacheEntry>(StringComparer.OrdinalIgnoreCase);
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Cache that is shared by all connections.
+        /// </summary>
+        public static DnsCache Shared => SharedCache.Value;
+
+        /// <summary>
+        /// Time a result is kept.
+        /// </summary>
+        public TimeSpan TimeToLive { get; set; } = TimeSpan.FromSeconds(60);
+
+        /// <summary>
+        /// Number of cached host names.
+        /// </summary>
+        public int Count => _entries.Count;
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Gets the addresses of a host, from the cache if possible.
+        /// </summary>
+        /// <param name="hostName">Host name or address.</param>
+        /// <param name="cancellationToken">Token to stop waiting for the lookup.</param>
+        /// <returns>The addresses of the host.</returns>
+        public async Task<IPAddress[]> GetHostAddressesAsync(string hostName, CancellationToken cancellationToken)
+        {
+            if (hostName == null) throw new ArgumentNullException(nameof(hostName));
+
+            IPAddress address;
+            if (IPAddress.TryParse(hostName, out address))
+                return new[] { address };
+
+            var now = Stopwatch.GetTimestamp();
+            CacheEntry entry;
+            if (!_entries.TryGetValue(hostName, out entry) || entry.Expires < now)
+            {
+                // A lookup that another caller started in the meantime is shared.
+                var expires = now + (long) (TimeToLive.TotalSeconds * Stopwatch.Frequency);
+                entry = _entries.AddOrUpdate(hostName,
+                    key => new CacheEntry(Dns.GetHostAddressesAsync(key), expires),
+                    (key, existing) => existing.Expires < now ? new CacheEntry(Dns.GetHostAddressesAsync(key), expires) : existing);
+            }
+
+            try
+            {
+                var addresses = await WithCancellation(entry.Addresses, cancellationToken).ConfigureAwait(false);
+                if (addresses.Length == 0)
+                    throw new ArgumentException("No address found for " + hostName + ".", nameof(hostName));
+                return addresses;
+            }
+            catch (Exception ex) when (!(ex is OperationCanceledException))
+            {
+                // Forget the failed lookup, the next connect resolves again.
+                Logger.TraceEvent(TraceEventType.Warning, 0, "Unable to resolve {0}: {1}", hostName, ex.Message);
+                ((ICollection<KeyValuePair<string, CacheEntry>>) _entries).Remove(new KeyValuePair<string, CacheEntry>(hostName, entry));
+                throw;
+            }
+        }
+
+        /// <summary>
+        /// Forget the addresses of a host.
+        /// </summary>
+        /// <param name="hostName">The host name.</param>
+        public void Invalidate(string hostName)
+        {
+            if (hostName == null) throw new ArgumentNullException(nameof(hostName));
+
+            CacheEntry entry;
+            _entries.TryRemove(hostName, out entry);
+        }
+
+        /// <summary>
+        /// Forget all addresses.
+        /// </summary>
+        public void Clear()
+        {
+            _entries.Clear();
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Wait for a shared lookup but stop waiting when the token is cancelled.
+        /// </summary>
+        /// <param name="lookup">The lookup.</param>
+        /// <param name="cancellationToken">Token to stop waiting.</param>
+        /// <returns>The addresses.</returns>
+        private static async Task<IPAddress[]> WithCancellation(Task<IPAddress[]> lookup, CancellationToken cancellationToken)
+        {
+            if (!cancellationToken.CanBeCanceled || lookup.IsCompleted)
+                return await lookup.ConfigureAwait(false);
+
+            var cancelled = new TaskCompletionSource<bool>();
+            using (cancellationToken.Register(() => cancelled.TrySetResult(true)))
+            {
+                if (await Task.WhenAny(lookup, cancelled.Task).ConfigureAwait(false) != lookup)
+                    throw new OperationCanceledException(cancellationToken);
+            }
+
+            return await lookup.ConfigureAwait(false);
+        }
+
+        #endregion
+
+        #region Nested Types
+
+        /// <summary>
+        /// A lookup and the time it expires.
+        /// </summary>
+        private class CacheEntry
+        {
+            /// <summary>
+            /// Creates a new instance of CacheEntry.
+            /// </summary>
+            /// <param name="addresses">The lookup.</param>
+            /// <param name="expires">Timestamp when the entry expires.</param>
+            public CacheEntry(Task<IPAddress[]> addresses, long expires)
+            {
+                Addresses = addresses;
+                Expires = expires;
+            }
+
+            /// <summary>
+            /// The lookup.
+            /// </summary>
+            public Task<IPAddress[]> Addresses { get; }
+
+            /// <summary>
+            /// Stopwatch timestamp when the entry expires.
+            /// </summary>
+            public long Expires { get; }
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,491 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// The connections of a ConnectionPool to one host and port.
+    /// </summary>
+    /// <remarks>
+    /// Leases that find no free connection wait in a FIFO queue. A connection that is opened right now counts
+    /// as MaxLeasesPerConnection leases for the waiters, so another connection is only opened when the
+    /// waiters do not fit on the connections that are already opening. A returned lease is handed to the
+    /// oldest waiter before a new caller can take it, so no caller waits forever while others get the
+    /// connections. If the last opening connection fails, the waiters fail with its error.
+    /// The health check runs every HealthCheckInterval: it removes broken connections and connections that
+    /// were idle for IdleTimeout, and it opens connections up to MinConnections.
+    /// </remarks>
+    internal class EndpointPool
+    {
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(NetworkConstants.TraceSourceName);
+
+        /// <summary>
+        /// Host of the connections.
+        /// </summary>
+        private readonly string _hostName;
+
+        /// <summary>
+        /// Port of the connections.
+        /// </summary>
+        private readonly int _port;
+
+        /// <summary>
+        /// Options of the pool.
+        /// </summary>
+        private readonly ConnectionPoolOptions _options;
+
+        /// <summary>
+        /// Lock for all state of the pool.
+        /// </summary>
+        private readonly object _lock = new object();
+
+        /// <summary>
+        /// Open connections.
+        /// </summary>
+        private readonly List<PooledConnection> _connections = new List<PooledConnection>();
+
+        /// <summary>
+        /// Leases that wait for a connection.
+        /// </summary>
+        private readonly Queue<TaskCompletionSource<PooledConnection>> _waiters = new Queue<TaskCompletionSource<PooledConnection>>();
+
+        /// <summary>
+        /// Number of connections that are opened right now.
+        /// </summary>
+        private int _opening;
+
+        /// <summary>
+        /// Next health check.
+        /// </summary>
+        private TimingWheelEntry _healthCheck;
+
+        /// <summary>
+        /// Was the pool closed?
+        /// </summary>
+        private bool _closed;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of EndpointPool.
+        /// </summary>
+        /// <param name="hostName">Host of the connections.</param>
+        /// <param name="port">Port of the connections.</param>
+        /// <param name="options">Options of the pool.</param>
+        public EndpointPool(string hostName, int port, ConnectionPoolOptions options)
+        {
+            _hostName = hostName;
+            _port = port;
+            _options = options;
+            _healthCheck = TimingWheel.Shared.Schedule(options.HealthCheckInterval, CheckHealth);
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Number of open connections.
+        /// </summary>
+        public int Count
+        {
+            get
+            {
+                lock (_lock)
+                {
+                    return _connections.Count;
+                }
+            }
+        }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Lease a connection.
+        /// </summary>
+        /// <param name="cancellationToken">Token to stop waiting.</param>
+        /// <returns>The lease.</returns>
+        public async Task<ConnectionLease> LeaseAsync(CancellationToken cancellationToken)
+        {
+            PooledConnection entry = null;
+            TaskCompletionSource<PooledConnection> waiter = null;
+            var open = 0;
+            lock (_lock)
+            {
+                if (_closed)
+                    throw new InvalidOperationException("Instance already disposed!");
+
+                // Waiting leases are served first.
+                if (_waiters.Count == 0)
+                    entry = FindFree();
+
+                if (entry != null)
+                {
+                    entry.Leases++;
+                }
+                else
+                {
+                    waiter = new TaskCompletionSource<PooledConnection>(TaskCreationOptions.RunContinuationsAsynchronously);
+                    _waiters.Enqueue(waiter);
+                    open = StartOpensForWaiters();
+                }
+            }
+
+            for (var index = 0; index < open; index++)
+                OpenInBackground();
+            if (waiter != null)
+                entry = await WaitAsync(waiter, cancellationToken).ConfigureAwait(false);
+
+            return new ConnectionLease(this, entry);
+        }
+
+        /// <summary>
+        /// A lease was returned.
+        /// </summary>
+        /// <param name="entry">The leased connection.</param>
+        public void Return(PooledConnection entry)
+        {
+            var remove = false;
+            var open = 0;
+            lock (_lock)
+            {
+                entry.Leases--;
+                if (entry.Leases == 0)
+                    entry.IdleSince = Stopwatch.GetTimestamp();
+
+                if (_closed || !entry.Connection.IsHealthy)
+                {
+                    // A broken connection is closed when the last lease was returned.
+                    remove = entry.Leases == 0 && _connections.Remove(entry);
+                    if (remove)
+                        open = StartOpensForWaiters();
+                }
+                else
+                {
+                    ServeWaiters();
+                }
+            }
+
+            if (remove)
+                entry.Connection.Dispose();
+            for (var index = 0; index < open; index++)
+                OpenInBackground();
+        }
+
+        /// <summary>
+        /// Close the pool and all connections. Waiting leases fail.
+        /// </summary>
+        public void Close()
+        {
+            List<PooledConnection> connections;
+            List<TaskCompletionSource<PooledConnection>> waiters;
+            lock (_lock)
+            {
+                _closed = true;
+                _healthCheck?.Cancel();
+                connections = _connections.ToList();
+                _connections.Clear();
+                waiters = _waiters.ToList();
+                _waiters.Clear();
+            }
+
+            foreach (var waiter in waiters)
+                waiter.TrySetException(new InvalidOperationException("Instance already disposed!"));
+            foreach (var entry in connections)
+                entry.Connection.Dispose();
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Find the healthy connection with the fewest leases that can take another lease. Must be called inside the lock.
+        /// </summary>
+        /// <returns>The connection or null.</returns>
+        private PooledConnection FindFree()
+        {
+            PooledConnection free = null;
+            foreach (var entry in _connections)
+            {
+                if (entry.Leases < _options.MaxLeasesPerConnection && entry.Connection.IsHealthy && (free == null || entry.Leases < free.Leases))
+                    free = entry;
+            }
+
+            return free;
+        }
+
+        /// <summary>
+        /// Hand free connections to the waiting leases. Must be called inside the lock.
+        /// </summary>
+        private void ServeWaiters()
+        {
+            while (_waiters.Count > 0)
+            {
+                // Waiters that timed out or were cancelled are skipped.
+                if (_waiters.Peek().Task.IsCompleted)
+                {
+                    _waiters.Dequeue();
+                    continue;
+                }
+
+                var entry = FindFree();
+                if (entry == null)
+                    return;
+
+                entry.Leases++;
+                if (!_waiters.Dequeue().TrySetResult(entry))
+                    entry.Leases--;
+            }
+        }
+
+        /// <summary>
+        /// Count the connections that have to be opened for the waiting leases. Each connection that is
+        /// opened right now takes MaxLeasesPerConnection waiters. Must be called inside the lock.
+        /// </summary>
+        /// <returns>Number of times OpenInBackground has to be called outside the lock.</returns>
+        private int StartOpensForWaiters()
+        {
+            var waiting = _waiters.Count(w => !w.Task.IsCompleted);
+            var open = 0;
+            while (waiting > (long) _opening * _options.MaxLeasesPerConnection && StartOpen())
+                open++;
+            return open;
+        }
+
+        /// <summary>
+        /// Count a connection that is opened if there is room for it. Must be called inside the lock.
+        /// </summary>
+        /// <returns>True if OpenInBackground has to be called outside the lock.</returns>
+        private bool StartOpen()
+        {
+            if (_closed || _connections.Count + _opening >= _options.MaxConnections)
+                return false;
+
+            _opening++;
+            return true;
+        }
+
+        /// <summary>
+        /// Open a connection that was counted by StartOpen, e.g. for MinConnections or for waiting leases.
+        /// </summary>
+        private void OpenInBackground()
+        {
+            OpenAsync().ContinueWith(
+                t => Logger.TraceEvent(TraceEventType.Warning, 0, "Unable to open a pooled connection to {0}:{1}: {2}", _hostName, _port, t.Exception?.InnerException?.Message),
+                TaskContinuationOptions.OnlyOnFaulted);
+        }
+
+        /// <summary>
+        /// Open a connection that was counted in _opening, add it to the pool and serve the waiting leases.
+        /// </summary>
+        /// <returns>Task that ends when the connection was added.</returns>
+        private async Task OpenAsync()
+        {
+            MultiplexedConnection connection = null;
+            try
+            {
+                connection = _options.ConnectionFactory?.Invoke(_hostName, _port) ?? new MultiplexedConnection(_hostName, _port);
+                await connection.ConnectAsync(CancellationToken.None).ConfigureAwait(false);
+            }
+            catch (Exception ex)
+            {
+                connection?.Dispose();
+                OnOpenFailed(ex);
+                throw;
+            }
+
+            var entry = new PooledConnection(connection) { IdleSince = Stopwatch.GetTimestamp() };
+            var added = false;
+            var open = 0;
+            lock (_lock)
+            {
+                _opening--;
+                if (!_closed)
+                {
+                    _connections.Add(entry);
+                    added = true;
+                    ServeWaiters();
+                    open = StartOpensForWaiters();
+                }
+            }
+
+            if (!added)
+            {
+                connection.Dispose();
+                throw new InvalidOperationException("Instance already disposed!");
+            }
+
+            for (var index = 0; index < open; index++)
+                OpenInBackground();
+        }
+
+        /// <summary>
+        /// Opening a connection failed. If no other connection is opening, the waiting leases fail with the
+        /// error, else a replacement is opened if the waiters do not fit on the remaining connections.
+        /// </summary>
+        /// <param name="exception">The error of the connect.</param>
+        private void OnOpenFailed(Exception exception)
+        {
+            var failed = new List<TaskCompletionSource<PooledConnection>>();
+            var open = 0;
+            lock (_lock)
+            {
+                _opening--;
+                if (_opening == 0)
+                {
+                    failed.AddRange(_waiters);
+                    _waiters.Clear();
+                }
+                else
+                {
+                    open = StartOpensForWaiters();
+                }
+            }
+
+            foreach (var waiter in failed)
+                waiter.TrySetException(exception);
+            for (var index = 0; index < open; index++)
+                OpenInBackground();
+        }
+
+        /// <summary>
+        /// Wait for a connection that a returned lease hands over.
+        /// </summary>
+        /// <param name="waiter">The queued waiter.</param>
+        /// <param name="cancellationToken">Token to stop waiting.</param>
+        /// <returns>The connection.</returns>
+        private async Task<PooledConnection> WaitAsync(TaskCompletionSource<PooledConnection> waiter, CancellationToken cancellationToken)
+        {
+            var timeout = _options.LeaseTimeout == Timeout.InfiniteTimeSpan
+                ? null
+                : TimingWheel.Shared.Schedule(_options.LeaseTimeout, () => waiter.TrySetException(new TimeoutException("No connection to " + _hostName + ":" + _port + " within " + _options.LeaseTimeout + ".")));
+            try
+            {
+                using (cancellationToken.Register(() => waiter.TrySetCanceled()))
+                {
+                    return await waiter.Task.ConfigureAwait(false);
+                }
+            }
+            finally
+            {
+                timeout?.Cancel();
+            }
+        }
+
+        /// <summary>
+        /// Remove broken and idle connections and open connections up to MinConnections.
+        /// </summary>
+        private void CheckHealth()
+        {
+            var removed = new List<PooledConnection>();
+            var check = new List<PooledConnection>();
+            var open = 0;
+            lock (_lock)
+            {
+                if (_closed)
+                    return;
+
+                var idleLimit = Stopwatch.GetTimestamp() - (long) (_options.IdleTimeout.TotalSeconds * Stopwatch.Frequency);
+                foreach (var entry in _connections.Where(c => c.Leases == 0).OrderBy(c => c.IdleSince).ToList())
+                {
+                    if (!entry.Connection.IsHealthy || (entry.IdleSince < idleLimit && _connections.Count > _options.MinConnections))
+                    {
+                        _connections.Remove(entry);
+                        removed.Add(entry);
+                    }
+                    else if (_options.HealthCheck != null)
+                    {
+                        // The check holds a lease, so the connection is not used meanwhile.
+                        entry.Leases++;
+                        check.Add(entry);
+                    }
+                }
+
+                while (_connections.Count + _opening < _options.MinConnections && StartOpen())
+                    open++;
+
+                _healthCheck = TimingWheel.Shared.Schedule(_options.HealthCheckInterval, CheckHealth);
+            }
+
+            foreach (var entry in removed)
+                entry.Connection.Dispose();
+            for (var index = 0; index < open; index++)
+                OpenInBackground();
+            foreach (var entry in check)
+                RunHealthCheck(entry);
+        }
+
+        /// <summary>
+        /// Run the HealthCheck of the options for a connection that holds a lease for the check.
+        /// </summary>
+        /// <param name="entry">The connection.</param>
+        /// <returns>Task that ends with the check.</returns>
+        private async Task RunHealthCheck(PooledConnection entry)
+        {
+            bool healthy;
+            try
+            {
+                healthy = await _options.HealthCheck(entry.Connection).ConfigureAwait(false);
+            }
+            catch (Exception ex)
+            {
+                Logger.TraceEvent(TraceEventType.Warning, 0, "Health check of a pooled connection to {0}:{1} failed: {2}", _hostName, _port, ex.Message);
+                healthy = false;
+            }
+
+            if (!healthy)
+                entry.Connection.Close();
+            Return(entry);
+        }
+
+        #endregion
+
+        #region Nested Types
+
+        /// <summary>
+        /// A connection of the pool.
+        /// </summary>
+        internal class PooledConnection
+        {
+            /// <summary>
+            /// Creates a new instance of PooledConnection.
+            /// </summary>
+            /// <param name="connection">The connection.</param>
+            public PooledConnection(MultiplexedConnection connection)
+            {
+                Connection = connection;
+            }
+
+            /// <summary>
+            /// The connection.
+            /// </summary>
+            public MultiplexedConnection Connection { get; }
+
+            /// <summary>
+            /// Number of leases.
+            /// </summary>
+            public int Leases { get; set; }
+
+            /// <summary>
+            /// Stopwatch timestamp when the last lease was returned.
+            /// </summary>
+            public long IdleSince { get; set; }
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,70 @@
+﻿using System;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Frames that all have the same size and no header.
+    /// </summary>
+    public class FixedSizeFrameCodec : FrameCodec
+    {
+        /// <summary>
+        /// Creates a new instance of FixedSizeFrameCodec.
+        /// </summary>
+        /// <param name="frameSize">Size of each frame in bytes.</param>
+        public FixedSizeFrameCodec(int frameSize)
+        {
+            if (frameSize < 1) throw new ArgumentOutOfRangeException(nameof(frameSize));
+
+            FrameSize = frameSize;
+        }
+
+        /// <summary>
+        /// Size of each frame in bytes.
+        /// </summary>
+        public int FrameSize { get; }
+
+        /// <summary>
+        /// Gets the maximum number of bytes Encode writes for a payload.
+        /// </summary>
+        /// <param name="payloadLength">Length of the payload.</param>
+        /// <returns>Maximum length of the encoded frame.</returns>
+        public override int GetMaxEncodedLength(int payloadLength)
+        {
+            return FrameSize;
+        }
+
+        /// <summary>
+        /// Encode a frame into an array.
+        /// </summary>
+        /// <param name="payload">Payload of the frame. It must have FrameSize bytes.</param>
+        /// <param name="destination">Array to write to.</param>
+        /// <param name="destinationIndex">Index inside the array.</param>
+        /// <returns>Number of written bytes.</returns>
+        public override int Encode(ArraySegment<byte> payload, byte[] destination, int destinationIndex)
+        {
+            if (payload.Count != FrameSize) throw new ArgumentException("Payload must have FrameSize bytes.", nameof(payload));
+            CheckEncodeArguments(payload, destination, destinationIndex);
+
+            Buffer.BlockCopy(payload.Array, payload.Offset, destination, destinationIndex, FrameSize);
+            return FrameSize;
+        }
+
+        /// <summary>
+        /// Find the first frame inside the data.
+        /// </summary>
+        /// <param name="data">Received bytes, starting with a frame.</param>
+        /// <param name="payloadOffset">Offset of the payload relative to the start of data.</param>
+        /// <param name="payloadLength">Length of the payload.</param>
+        /// <param name="frameLength">Length of the whole frame.</param>
+        /// <returns>True if the frame is complete, false if more bytes are required.</returns>
+        protected override bool TryFindFrame(ArraySegment<byte> data, out int payloadOffset, out int payloadLength, out int frameLength)
+        {
+            CheckFrameLength(FrameSize);
+
+            payloadOffset = 0;
+            payloadLength = FrameSize;
+            frameLength = FrameSize;
+            return data.Count >= FrameSize;
+        }
+    }
+}
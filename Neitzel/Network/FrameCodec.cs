@@ -0,0 +1,270 @@
+﻿using System;
+using System.Diagnostics;
+using System.Globalization;
+using System.IO;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Base class of the codecs that split received bytes into frames and encode frames for sending.
+    /// </summary>
+    /// <remarks>
+    /// A codec is used like the StringDecoder: MessageReceiver is registered with a MessageReceived event and
+    /// FrameDecoded is raised for every complete frame. Frames that are complete inside one receive are handed
+    /// over as segment of the receive buffer without copying them. Only the bytes of an incomplete frame are
+    /// kept inside the codec till the rest arrived.
+    ///
+    /// The event arguments of FrameDecoded are reused, Data is only valid while the handler runs.
+    ///
+    /// Invalid frames (a malformed header or a frame longer than MaxFrameLength) close the connection by
+    /// disposing the sender. The codec keeps the bytes of an incomplete frame, so each connection needs its
+    /// own codec for decoding. Encoding has no state.
+    /// </remarks>
+    public abstract class FrameCodec
+    {
+        #region Constants
+
+        /// <summary>
+        /// Default maximum length of a frame in bytes.
+        /// </summary>
+        public const int DefaultMaxFrameLength = 1024 * 1024;
+
+        /// <summary>
+        /// Initial size of the buffer for an incomplete frame.
+        /// </summary>
+        private const int InitialBufferSize = 256;
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(NetworkConstants.TraceSourceName);
+
+        /// <summary>
+        /// Event arguments that are reused for all FrameDecoded events.
+        /// </summary>
+        private readonly BytesReceivedEventArgs _frameEventArgs = new BytesReceivedEventArgs();
+
+        /// <summary>
+        /// Bytes of an incomplete frame.
+        /// </summary>
+        private byte[] _buffer = new byte[InitialBufferSize];
+
+        /// <summary>
+        /// Number of bytes inside _buffer.
+        /// </summary>
+        private int _count;
+
+        #endregion
+
+        #region Events
+
+        /// <summary>
+        /// Event that a frame was decoded.
+        /// </summary>
+        /// <remarks>
+        /// This is done on the IO Thread of the socket so keep it a short as possible. BytesReceivedEventArgs.Data
+        /// is the payload of the frame without header or delimiter.
+        /// </remarks>
+        public event EventHandler<BytesReceivedEventArgs> FrameDecoded;
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Maximum length of the payload of a frame in bytes.
+        /// </summary>
+        public int MaxFrameLength { get; set; } = DefaultMaxFrameLength;
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// MessageReceiver should receive the BytesReceivedEventArgs and should be registered with such an event.
+        /// </summary>
+        /// <param name="sender">Sender of that message.</param>
+        /// <param name="bytesReceivedEvent">The bytes received event</param>
+        public void MessageReceiver(object sender, BytesReceivedEventArgs bytesReceivedEvent)
+        {
+            // validate arguments
+            if (sender == null) throw new ArgumentNullException(nameof(sender));
+            if (bytesReceivedEvent == null) throw new ArgumentNullException(nameof(bytesReceivedEvent));
+
+            try
+            {
+                var data = bytesReceivedEvent.Data;
+                if (_count == 0)
+                {
+                    // Frames that are complete inside the received bytes are handed over without a copy.
+                    var consumed = DecodeFrames(sender, data);
+                    Append(new ArraySegment<byte>(data.Array, data.Offset + consumed, data.Count - consumed));
+                    return;
+                }
+
+                Append(data);
+                var decoded = DecodeFrames(sender, new ArraySegment<byte>(_buffer, 0, _count));
+                _count -= decoded;
+                Buffer.BlockCopy(_buffer, decoded, _buffer, 0, _count);
+            }
+            catch (InvalidDataException ex)
+            {
+                Logger.TraceEvent(TraceEventType.Warning, 0, "Closing the connection because of an invalid frame: {0}", ex.Message);
+                _count = 0;
+                Reset();
+                (sender as IDisposable)?.Dispose();
+            }
+        }
+
+        /// <summary>
+        /// Gets the maximum number of bytes Encode writes for a payload.
+        /// </summary>
+        /// <param name="payloadLength">Length of the payload.</param>
+        /// <returns>Maximum length of the encoded frame.</returns>
+        public abstract int GetMaxEncodedLength(int payloadLength);
+
+        /// <summary>
+        /// Encode a frame into an array, e.g. into the buffer of a SendPipe.
+        /// </summary>
+        /// <param name="payload">Payload of the frame.</param>
+        /// <param name="destination">Array to write to.</param>
+        /// <param name="destinationIndex">Index inside the array.</param>
+        /// <returns>Number of written bytes.</returns>
+        public abstract int Encode(ArraySegment<byte> payload, byte[] destination, int destinationIndex);
+
+        /// <summary>
+        /// Encode a frame into a new SharedBuffer, that can be sent to one or many connections.
+        /// </summary>
+        /// <param name="payload">Payload of the frame.</param>
+        /// <returns>The encoded frame. The caller has to release it.</returns>
+        public SharedBuffer Encode(ArraySegment<byte> payload)
+        {
+            var buffer = new SharedBuffer(GetMaxEncodedLength(payload.Count));
+            try
+            {
+                buffer.SetLength(Encode(payload, buffer.Data.Array, 0));
+                return buffer;
+            }
+            catch
+            {
+                buffer.Release();
+                throw;
+            }
+        }
+
+        /// <summary>
+        /// Encode a frame directly into the buffer of a SendPipe.
+        /// </summary>
+        /// <param name="payload">Payload of the frame.</param>
+        /// <param name="output">Pipe to write to.</param>
+        public void Encode(ArraySegment<byte> payload, SendPipe output)
+        {
+            if (output == null) throw new ArgumentNullException(nameof(output));
+
+            var buffer = output.GetBuffer(GetMaxEncodedLength(payload.Count));
+            output.Advance(Encode(payload, buffer.Array, buffer.Offset));
+        }
+
+        #endregion
+
+        #region Protected Methods
+
+        /// <summary>
+        /// Find the first frame inside the data.
+        /// </summary>
+        /// <param name="data">Received bytes, starting with a frame.</param>
+        /// <param name="payloadOffset">Offset of the payload relative to the start of data.</param>
+        /// <param name="payloadLength">Length of the payload.</param>
+        /// <param name="frameLength">Length of the whole frame.</param>
+        /// <returns>True if the frame is complete, false if more bytes are required.</returns>
+        /// <exception cref="InvalidDataException">The frame is invalid or too long.</exception>
+        protected abstract bool TryFindFrame(ArraySegment<byte> data, out int payloadOffset, out int payloadLength, out int frameLength);
+
+        /// <summary>
+        /// Forget the state of an incomplete frame.
+        /// </summary>
+        protected virtual void Reset()
+        {
+        }
+
+        /// <summary>
+        /// Checks the length of a payload.
+        /// </summary>
+        /// <param name="payloadLength">Length of the payload.</param>
+        /// <exception cref="InvalidDataException">The payload is longer than MaxFrameLength.</exception>
+        protected void CheckFrameLength(long payloadLength)
+        {
+            if (payloadLength > MaxFrameLength)
+                throw new InvalidDataException(string.Format(CultureInfo.InvariantCulture, "Frame with {0} bytes is longer than {1} bytes.", payloadLength, MaxFrameLength));
+        }
+
+        /// <summary>
+        /// Checks the destination of an encode.
+        /// </summary>
+        /// <param name="payload">Payload of the frame.</param>
+        /// <param name="destination">Array to write to.</param>
+        /// <param name="destinationIndex">Index inside the array.</param>
+        protected void CheckEncodeArguments(ArraySegment<byte> payload, byte[] destination, int destinationIndex)
+        {
+            if (payload.Array == null) throw new ArgumentNullException(nameof(payload));
+            if (destination == null) throw new ArgumentNullException(nameof(destination));
+            if (payload.Count > MaxFrameLength) throw new ArgumentException("Payload is longer than MaxFrameLength.", nameof(payload));
+            if (destinationIndex < 0 || destinationIndex + GetMaxEncodedLength(payload.Count) > destination.Length)
+                throw new ArgumentOutOfRangeException(nameof(destinationIndex));
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Decode all complete frames and raise FrameDecoded for each.
+        /// </summary>
+        /// <param name="sender">Sender of the bytes.</param>
+        /// <param name="data">Received bytes, starting with a frame.</param>
+        /// <returns>Number of bytes of the decoded frames.</returns>
+        private int DecodeFrames(object sender, ArraySegment<byte> data)
+        {
+            var consumed = 0;
+            int payloadOffset, payloadLength, frameLength;
+            while (consumed < data.Count
+                && TryFindFrame(new ArraySegment<byte>(data.Array, data.Offset + consumed, data.Count - consumed), out payloadOffset, out payloadLength, out frameLength))
+            {
+                _frameEventArgs.Reset(new ArraySegment<byte>(data.Array, data.Offset + consumed + payloadOffset, payloadLength));
+                consumed += frameLength;
+
+                var handler = FrameDecoded;
+                handler?.Invoke(sender, _frameEventArgs);
+            }
+
+            return consumed;
+        }
+
+        /// <summary>
+        /// Append bytes of an incomplete frame to the buffer.
+        /// </summary>
+        /// <param name="data">Bytes to append.</param>
+        private void Append(ArraySegment<byte> data)
+        {
+            if (data.Count == 0)
+                return;
+
+            if (_count + data.Count > _buffer.Length)
+            {
+                var size = _buffer.Length;
+                while (size < _count + data.Count)
+                    size *= 2;
+                Array.Resize(ref _buffer, size);
+            }
+
+            Buffer.BlockCopy(data.Array, data.Offset, _buffer, _count, data.Count);
+            _count += data.Count;
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,156 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Linq;
+using System.Net;
+using System.Net.Sockets;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Connects to the first reachable address of a host (Happy Eyeballs, RFC 8305).
+    /// </summary>
+    /// <remarks>
+    /// The addresses are tried in the order of SortAddresses. The next attempt starts when the previous attempt
+    /// failed or after the connection attempt delay, without cancelling the attempts that are still running.
+    /// The first connected socket wins and all other attempts are closed. So an unreachable IPv6 address only
+    /// costs the attempt delay instead of the connect timeout of the operating system.
+    /// </remarks>
+    internal static class HappyEyeballsConnector
+    {
+        #region Public Methods
+
+        /// <summary>
+        /// Sort addresses for the connection attempts (RFC 8305 section 4): the address families alternate,
+        /// starting with the family of the first address.
+        /// </summary>
+        /// <param name="addresses">Addresses in the order of the resolver.</param>
+        /// <returns>The sorted addresses.</returns>
+        public static IList<IPAddress> SortAddresses(IEnumerable<IPAddress> addresses)
+        {
+            var usable = addresses
+                .Where(a => a.AddressFamily == AddressFamily.InterNetwork || (a.AddressFamily == AddressFamily.InterNetworkV6 && Socket.OSSupportsIPv6))
+                .Distinct()
+                .ToList();
+            if (usable.Count == 0)
+                return usable;
+
+            var first = usable.Where(a => a.AddressFamily == usable[0].AddressFamily).ToList();
+            var second = usable.Where(a => a.AddressFamily != usable[0].AddressFamily).ToList();
+            var sorted = new List<IPAddress>(usable.Count);
+            for (var index = 0; index < Math.Max(first.Count, second.Count); index++)
+            {
+                if (index < first.Count)
+                    sorted.Add(first[index]);
+                if (index < second.Count)
+                    sorted.Add(second[index]);
+            }
+
+            return sorted;
+        }
+
+        /// <summary>
+        /// Connect to the first reachable address.
+        /// </summary>
+        /// <param name="addresses">Addresses in the order of the attempts.</param>
+        /// <param name="port">Port to connect to.</param>
+        /// <param name="attemptDelay">Time to wait before the next attempt starts.</param>
+        /// <param name="cancellationToken">Token to cancel all attempts.</param>
+        /// <returns>The connected socket.</returns>
+        /// <exception cref="SocketException">No address was reachable. The error of the last attempt is thrown.</exception>
+        /// <exception cref="OperationCanceledException">The token was cancelled.</exception>
+        public static async Task<Socket> ConnectAsync(IList<IPAddress> addresses, int port, TimeSpan attemptDelay, CancellationToken cancellationToken)
+        {
+            if (addresses == null) throw new ArgumentNullException(nameof(addresses));
+            if (addresses.Count == 0) throw new ArgumentException("No address to connect to.", nameof(addresses));
+
+            var attempts = new List<Task<Socket>>();
+            Exception lastError = null;
+            using (var cancelAttempts = CancellationTokenSource.CreateLinkedTokenSource(cancellationToken))
+            {
+                try
+                {
+                    var next = 0;
+                    while (next < addresses.Count || attempts.Count > 0)
+                    {
+                        if (next < addresses.Count)
+                            attempts.Add(ConnectOneAsync(addresses[next++], port, cancelAttempts.Token));
+
+                        // Wait for the end of an attempt, or for the attempt delay if there is another address.
+                        var waitFor = new List<Task>(attempts);
+                        if (next < addresses.Count)
+                            waitFor.Add(Task.Delay(attemptDelay, cancellationToken));
+                        var finished = await Task.WhenAny(waitFor).ConfigureAwait(false);
+                        cancellationToken.ThrowIfCancellationRequested();
+
+                        var attempt = finished as Task<Socket>;
+                        if (attempt == null)
+                            continue;
+
+                        attempts.Remove(attempt);
+                        if (attempt.Status == TaskStatus.RanToCompletion)
+                            return attempt.Result;
+
+                        lastError = attempt.Exception?.InnerException ?? lastError;
+                    }
+                }
+                finally
+                {
+                    // Close the attempts that lost, also the ones that connect after the winner.
+                    cancelAttempts.Cancel();
+                    foreach (var attempt in attempts)
+                    {
+                        attempt.ContinueWith(t =>
+                        {
+                            if (t.Status == TaskStatus.RanToCompletion)
+                                t.Result.Dispose();
+                            else
+                                t.Exception?.Handle(ex => true);
+                        }, TaskContinuationOptions.ExecuteSynchronously);
+                    }
+                }
+            }
+
+            throw lastError ?? new SocketException((int) SocketError.HostUnreachable);
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Connect to one address.
+        /// </summary>
+        /// <param name="address">The address.</param>
+        /// <param name="port">The port.</param>
+        /// <param name="cancellationToken">Token that closes the socket.</param>
+        /// <returns>The connected socket.</returns>
+        private static async Task<Socket> ConnectOneAsync(IPAddress address, int port, CancellationToken cancellationToken)
+        {
+            var socket = new Socket(address.AddressFamily, SocketType.Stream, ProtocolType.Tcp);
+            try
+            {
+                using (cancellationToken.Register(() => socket.Dispose()))
+                {
+                    await Task.Factory.FromAsync<EndPoint>(socket.BeginConnect, socket.EndConnect, new IPEndPoint(address, port), null).ConfigureAwait(false);
+                }
+
+                cancellationToken.ThrowIfCancellationRequested();
+                return socket;
+            }
+            catch (Exception) when (cancellationToken.IsCancellationRequested)
+            {
+                socket.Dispose();
+                throw new OperationCanceledException(cancellationToken);
+            }
+            catch
+            {
+                socket.Dispose();
+                throw;
+            }
+        }
+
+        #endregion
+    }
+}
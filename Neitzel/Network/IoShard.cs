@@ -0,0 +1,208 @@
+﻿using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Threading;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// An io shard handles the input of a subset of the client connections of a TcpIpServerConnection
+    /// in ServerIoMode.Polling.
+    /// </summary>
+    /// <remarks>
+    /// A client connection belongs to exactly one shard and its input is only handled by the thread of
+    /// this shard, so the events of a client keep their order.
+    /// </remarks>
+    internal class IoShard
+    {
+        #region Fields
+
+        /// <summary>
+        /// Client connections of this shard. Only used by the thread of the shard.
+        /// </summary>
+        private readonly List<TcpIpServerConnection.ClientConnection> _clients = new List<TcpIpServerConnection.ClientConnection>();
+
+        /// <summary>
+        /// Client connections that were assigned to this shard but are not yet in _clients.
+        /// </summary>
+        private readonly ConcurrentQueue<TcpIpServerConnection.ClientConnection> _newClients = new ConcurrentQueue<TcpIpServerConnection.ClientConnection>();
+
+        /// <summary>
+        /// Called when a client connection should be closed.
+        /// </summary>
+        private readonly Action<TcpIpServerConnection.ClientConnection> _clientDisconnected;
+
+        /// <summary>
+        /// Own thread of the shard. Null if the shard is driven by the io thread of the server.
+        /// </summary>
+        private Thread _thread;
+
+        /// <summary>
+        /// Signals if the own thread should stop or not.
+        /// </summary>
+        private volatile bool _shouldStop;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of IoShard.
+        /// </summary>
+        /// <param name="index">Index of the shard.</param>
+        /// <param name="clientDisconnected">Called when a client connection should be closed.</param>
+        public IoShard(int index, Action<TcpIpServerConnection.ClientConnection> clientDisconnected)
+        {
+            _clientDisconnected = clientDisconnected;
+            Statistics = new IoShardStatistics(index);
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Statistics of this shard.
+        /// </summary>
+        public IoShardStatistics Statistics { get; }
+
+        /// <summary>
+        /// Accepts new client connections at the start of each loop pass. Null if the shard has no listener.
+        /// </summary>
+        /// <remarks>
+        /// Must be set before Start. The shard that is driven by the io thread of the server is called by that thread.
+        /// </remarks>
+        public Action Accept { get; set; }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Pause between two loop passes depending on the load (duration of the pass).
+        /// </summary>
+        /// <param name="duration">Duration of the last loop pass.</param>
+        public static void Pause(TimeSpan duration)
+        {
+            if (duration.TotalMilliseconds < 20)
+                Thread.Sleep(20);
+            else if (duration.TotalMilliseconds < 100)
+                Thread.Sleep(10);
+        }
+
+        /// <summary>
+        /// Assign a client connection to this shard.
+        /// </summary>
+        /// <param name="connection">The client connection.</param>
+        public void Add(TcpIpServerConnection.ClientConnection connection)
+        {
+            connection.StartPolling();
+            Statistics.AddConnections(1);
+            _newClients.Enqueue(connection);
+        }
+
+        /// <summary>
+        /// Handle the input of all client connections of this shard once.
+        /// </summary>
+        public void HandleInput()
+        {
+            // Take over new client connections.
+            TcpIpServerConnection.ClientConnection connection;
+            while (_newClients.TryDequeue(out connection))
+            {
+                connection.MessageReceived += CountMessage;
+                _clients.Add(connection);
+            }
+
+            // Go through all client connections and handle possible input.
+            for (int index = _clients.Count - 1; index >= 0; index--)
+            {
+                var clientConnection = _clients[index];
+                // Handle input of client connection
+                if (clientConnection.Disposed || clientConnection.HandleInput())
+                {
+                    // If the client was disconnected: Remove connection and inform the server.
+                    _clients.RemoveAt(index);
+                    clientConnection.MessageReceived -= CountMessage;
+                    clientConnection.EndPolling();
+                    Statistics.AddConnections(-1);
+                    _clientDisconnected(clientConnection);
+                }
+            }
+
+            // Send what the handlers queued during this pass.
+            foreach (var clientConnection in _clients)
+            {
+                clientConnection.Flush();
+            }
+        }
+
+        /// <summary>
+        /// Start an own thread for this shard.
+        /// </summary>
+        public void Start()
+        {
+            _shouldStop = false;
+            _thread = new Thread(Run)
+            {
+                Name = "Neitzel.Network io shard " + Statistics.Index,
+                IsBackground = true
+            };
+            _thread.Start();
+        }
+
+        /// <summary>
+        /// Stop the own thread of this shard.
+        /// </summary>
+        public void Stop()
+        {
+            _shouldStop = true;
+
+            var thread = _thread;
+            if (thread == null || thread == Thread.CurrentThread)
+                return;
+
+            // Small wait for thread to end, abort it if required.
+            if (!thread.Join(100))
+                thread.Abort();
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Loop of the own thread.
+        /// </summary>
+        private void Run()
+        {
+            var stopwatch = new Stopwatch();
+            while (!_shouldStop)
+            {
+                stopwatch.Restart();
+
+                Accept?.Invoke();
+                HandleInput();
+
+                stopwatch.Stop();
+                Statistics.AddLoopPass(stopwatch.Elapsed);
+                Pause(stopwatch.Elapsed);
+            }
+
+            _thread = null;
+        }
+
+        /// <summary>
+        /// Count a received message in the statistics.
+        /// </summary>
+        /// <param name="sender">Sender of the event.</param>
+        /// <param name="e">Received bytes.</param>
+        private void CountMessage(object sender, BytesReceivedEventArgs e)
+        {
+            Statistics.AddMessage(e.Count);
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,107 @@
+﻿using System;
+using System.Threading;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Statistics of one io shard of a TcpIpServerConnection.
+    /// </summary>
+    /// <remarks>
+    /// The values are updated by the io shard and can be read from any thread.
+    /// </remarks>
+    public class IoShardStatistics
+    {
+        /// <summary>
+        /// Number of client connections handled by the shard.
+        /// </summary>
+        private int _connections;
+
+        /// <summary>
+        /// Number of received messages.
+        /// </summary>
+        private long _messagesReceived;
+
+        /// <summary>
+        /// Number of received bytes.
+        /// </summary>
+        private long _bytesReceived;
+
+        /// <summary>
+        /// Number of loop passes.
+        /// </summary>
+        private long _loopPasses;
+
+        /// <summary>
+        /// Ticks the shard spent inside loop passes (without the sleeps).
+        /// </summary>
+        private long _busyTicks;
+
+        /// <summary>
+        /// Creates a new instance of IoShardStatistics.
+        /// </summary>
+        /// <param name="index">Index of the shard.</param>
+        public IoShardStatistics(int index)
+        {
+            Index = index;
+        }
+
+        /// <summary>
+        /// Index of the shard.
+        /// </summary>
+        public int Index { get; }
+
+        /// <summary>
+        /// Number of client connections handled by the shard.
+        /// </summary>
+        public int Connections => Volatile.Read(ref _connections);
+
+        /// <summary>
+        /// Number of received messages.
+        /// </summary>
+        public long MessagesReceived => Interlocked.Read(ref _messagesReceived);
+
+        /// <summary>
+        /// Number of received bytes.
+        /// </summary>
+        public long BytesReceived => Interlocked.Read(ref _bytesReceived);
+
+        /// <summary>
+        /// Number of loop passes.
+        /// </summary>
+        public long LoopPasses => Interlocked.Read(ref _loopPasses);
+
+        /// <summary>
+        /// Time the shard spent inside loop passes (without the sleeps).
+        /// </summary>
+        public TimeSpan BusyTime => TimeSpan.FromTicks(Interlocked.Read(ref _busyTicks));
+
+        /// <summary>
+        /// Count a connection that was added or removed.
+        /// </summary>
+        /// <param name="delta">+1 for an added connection, -1 for a removed connection.</param>
+        internal void AddConnections(int delta)
+        {
+            Interlocked.Add(ref _connections, delta);
+        }
+
+        /// <summary>
+        /// Count a received message.
+        /// </summary>
+        /// <param name="bytes">Number of bytes of the message.</param>
+        internal void AddMessage(int bytes)
+        {
+            Interlocked.Increment(ref _messagesReceived);
+            Interlocked.Add(ref _bytesReceived, bytes);
+        }
+
+        /// <summary>
+        /// Count a loop pass.
+        /// </summary>
+        /// <param name="duration">Duration of the loop pass.</param>
+        internal void AddLoopPass(TimeSpan duration)
+        {
+            Interlocked.Increment(ref _loopPasses);
+            Interlocked.Add(ref _busyTicks, duration.Ticks);
+        }
+    }
+}
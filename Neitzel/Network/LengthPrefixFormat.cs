@@ -0,0 +1,29 @@
+﻿namespace Neitzel.Network
+{
+    /// <summary>
+    /// Format of the length prefix of a LengthPrefixFrameCodec.
+    /// </summary>
+    public enum LengthPrefixFormat
+    {
+        /// <summary>
+        /// Variable length: 7 bits per byte, least significant group first, the highest bit marks that
+        /// another byte follows (like the varints of Protocol Buffers).
+        /// </summary>
+        VarInt,
+
+        /// <summary>
+        /// Unsigned 16 bit integer.
+        /// </summary>
+        Int16,
+
+        /// <summary>
+        /// Unsigned 32 bit integer.
+        /// </summary>
+        Int32,
+
+        /// <summary>
+        /// Unsigned 64 bit integer.
+        /// </summary>
+        Int64
+    }
+}
@@ -0,0 +1,211 @@
+﻿using System;
+using System.IO;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Frames that start with the length of their payload.
+    /// </summary>
+    /// <remarks>
+    /// The prefix holds the length of the payload only, not the length of the prefix itself.
+    /// </remarks>
+    public class LengthPrefixFrameCodec : FrameCodec
+    {
+        #region Constants
+
+        /// <summary>
+        /// Maximum number of bytes of a varint prefix (enough for 64 bit values).
+        /// </summary>
+        private const int MaxVarIntLength = 10;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of LengthPrefixFrameCodec with a 4 byte prefix in network byte order.
+        /// </summary>
+        public LengthPrefixFrameCodec()
+            : this(LengthPrefixFormat.Int32, true)
+        { }
+
+        /// <summary>
+        /// Creates a new instance of LengthPrefixFrameCodec.
+        /// </summary>
+        /// <param name="format">Format of the prefix.</param>
+        /// <param name="bigEndian">Byte order of the fixed size prefixes. True is the network byte order.</param>
+        public LengthPrefixFrameCodec(LengthPrefixFormat format, bool bigEndian)
+        {
+            Format = format;
+            BigEndian = bigEndian;
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Format of the prefix.
+        /// </summary>
+        public LengthPrefixFormat Format { get; }
+
+        /// <summary>
+        /// Byte order of the fixed size prefixes. Not used with LengthPrefixFormat.VarInt.
+        /// </summary>
+        public bool BigEndian { get; }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Gets the maximum number of bytes Encode writes for a payload.
+        /// </summary>
+        /// <param name="payloadLength">Length of the payload.</param>
+        /// <returns>Maximum length of the encoded frame.</returns>
+        public override int GetMaxEncodedLength(int payloadLength)
+        {
+            return GetPrefixLength(payloadLength) + payloadLength;
+        }
+
+        /// <summary>
+        /// Encode a frame into an array.
+        /// </summary>
+        /// <param name="payload">Payload of the frame.</param>
+        /// <param name="destination">Array to write to.</param>
+        /// <param name="destinationIndex">Index inside the array.</param>
+        /// <returns>Number of written bytes.</returns>
+        public override int Encode(ArraySegment<byte> payload, byte[] destination, int destinationIndex)
+        {
+            CheckEncodeArguments(payload, destination, destinationIndex);
+
+            var prefixLength = GetPrefixLength(payload.Count);
+            if (Format == LengthPrefixFormat.VarInt)
+            {
+                var value = (ulong) payload.Count;
+                for (var index = 0; index < prefixLength; index++)
+                {
+                    destination[destinationIndex + index] = (byte) ((value & 0x7F) | (index < prefixLength - 1 ? 0x80UL : 0UL));
+                    value >>= 7;
+                }
+            }
+            else
+            {
+                for (var index = 0; index < prefixLength; index++)
+                {
+                    var shift = 8 * (BigEndian ? prefixLength - 1 - index : index);
+                    destination[destinationIndex + index] = (byte) ((ulong) payload.Count >> shift);
+                }
+            }
+
+            Buffer.BlockCopy(payload.Array, payload.Offset, destination, destinationIndex + prefixLength, payload.Count);
+            return prefixLength + payload.Count;
+        }
+
+        #endregion
+
+        #region Protected Methods
+
+        /// <summary>
+        /// Find the first frame inside the data.
+        /// </summary>
+        /// <param name="data">Received bytes, starting with a frame.</param>
+        /// <param name="payloadOffset">Offset of the payload relative to the start of data.</param>
+        /// <param name="payloadLength">Length of the payload.</param>
+        /// <param name="frameLength">Length of the whole frame.</param>
+        /// <returns>True if the frame is complete, false if more bytes are required.</returns>
+        protected override bool TryFindFrame(ArraySegment<byte> data, out int payloadOffset, out int payloadLength, out int frameLength)
+        {
+            payloadOffset = 0;
+            payloadLength = 0;
+            frameLength = 0;
+
+            ulong length;
+            int prefixLength;
+            if (!TryReadPrefix(data, out length, out prefixLength))
+                return false;
+
+            // The length is checked before the payload arrived, so a peer cannot make us buffer more.
+            CheckFrameLength(length > long.MaxValue ? long.MaxValue : (long) length);
+            if (data.Count - prefixLength < (long) length)
+                return false;
+
+            payloadOffset = prefixLength;
+            payloadLength = (int) length;
+            frameLength = prefixLength + payloadLength;
+            return true;
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Gets the length of the prefix for a payload.
+        /// </summary>
+        /// <param name="payloadLength">Length of the payload.</param>
+        /// <returns>Length of the prefix.</returns>
+        private int GetPrefixLength(int payloadLength)
+        {
+            switch (Format)
+            {
+                case LengthPrefixFormat.VarInt:
+                    var prefixLength = 1;
+                    for (var value = (uint) payloadLength >> 7; value != 0; value >>= 7)
+                        prefixLength++;
+                    return prefixLength;
+
+                case LengthPrefixFormat.Int16:
+                    if (payloadLength > ushort.MaxValue)
+                        throw new ArgumentOutOfRangeException(nameof(payloadLength), "Payload is too long for a 2 byte prefix.");
+                    return 2;
+
+                case LengthPrefixFormat.Int32:
+                    return 4;
+
+                default:
+                    return 8;
+            }
+        }
+
+        /// <summary>
+        /// Read the prefix of a frame.
+        /// </summary>
+        /// <param name="data">Received bytes, starting with a frame.</param>
+        /// <param name="length">Length of the payload.</param>
+        /// <param name="prefixLength">Length of the prefix.</param>
+        /// <returns>True if the prefix is complete.</returns>
+        private bool TryReadPrefix(ArraySegment<byte> data, out ulong length, out int prefixLength)
+        {
+            length = 0;
+            if (Format == LengthPrefixFormat.VarInt)
+            {
+                for (prefixLength = 1; prefixLength <= Math.Min(data.Count, MaxVarIntLength); prefixLength++)
+                {
+                    var value = data.Array[data.Offset + prefixLength - 1];
+                    length |= (ulong) (value & 0x7F) << (7 * (prefixLength - 1));
+                    if ((value & 0x80) == 0)
+                        return true;
+                }
+
+                if (data.Count >= MaxVarIntLength)
+                    throw new InvalidDataException("Length prefix is longer than 10 bytes.");
+                return false;
+            }
+
+            prefixLength = GetPrefixLength(0);
+            if (data.Count < prefixLength)
+                return false;
+
+            for (var index = 0; index < prefixLength; index++)
+            {
+                var shift = 8 * (BigEndian ? prefixLength - 1 - index : index);
+                length |= (ulong) data.Array[data.Offset + index] << shift;
+            }
+
+            return true;
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,82 @@
+﻿using System;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Event Argument that hands over a decoded line without allocations.
+    /// </summary>
+    /// <remarks>
+    /// The same instance is reused for every line of a StringDecoder and Bytes and Chars point into the
+    /// buffers of the decoder. They are only valid while the event handler runs, handlers that need to keep
+    /// the line must copy it, e.g. with GetString.
+    /// </remarks>
+    public class LineDecodedEventArgs : EventArgs
+    {
+        /// <summary>
+        /// Decoder that decodes the characters.
+        /// </summary>
+        private readonly StringDecoder _decoder;
+
+        /// <summary>
+        /// The decoded characters, if they were decoded already.
+        /// </summary>
+        private ArraySegment<char> _chars;
+
+        /// <summary>
+        /// Were the characters of the current line decoded already?
+        /// </summary>
+        private bool _charsDecoded;
+
+        /// <summary>
+        /// Create a new instance of LineDecodedEventArgs.
+        /// </summary>
+        /// <param name="decoder">Decoder that decodes the characters.</param>
+        internal LineDecodedEventArgs(StringDecoder decoder)
+        {
+            _decoder = decoder;
+        }
+
+        /// <summary>
+        /// The bytes of the line without the line end.
+        /// </summary>
+        public ArraySegment<byte> Bytes { get; private set; }
+
+        /// <summary>
+        /// The characters of the line. They are decoded on first access, so handlers that only parse the
+        /// bytes do not pay for the decoding.
+        /// </summary>
+        public ArraySegment<char> Chars
+        {
+            get
+            {
+                if (!_charsDecoded)
+                {
+                    _chars = _decoder.DecodeChars(Bytes);
+                    _charsDecoded = true;
+                }
+                return _chars;
+            }
+        }
+
+        /// <summary>
+        /// Copy the line into a new string.
+        /// </summary>
+        /// <returns>The line.</returns>
+        public string GetString()
+        {
+            var chars = Chars;
+            return new string(chars.Array, chars.Offset, chars.Count);
+        }
+
+        /// <summary>
+        /// Reuse this instance for the next line.
+        /// </summary>
+        /// <param name="bytes">Bytes of the line.</param>
+        internal void Reset(ArraySegment<byte> bytes)
+        {
+            Bytes = bytes;
+            _chars = default(ArraySegment<char>);
+            _charsDecoded = false;
+        }
+    }
+}
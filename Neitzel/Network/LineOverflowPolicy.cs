@@ -0,0 +1,18 @@
+﻿namespace Neitzel.Network
+{
+    /// <summary>
+    /// What a StringDecoder does with a line that is longer than StringDecoder.MaxLineLength.
+    /// </summary>
+    public enum LineOverflowPolicy
+    {
+        /// <summary>
+        /// The line is dropped, decoding continues with the next line.
+        /// </summary>
+        Discard,
+
+        /// <summary>
+        /// The connection that sent the line is closed.
+        /// </summary>
+        Disconnect
+    }
+}
@@ -0,0 +1,345 @@
+﻿using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.IO;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// A client connection for request/response traffic where many requests are in flight at the same time.
+    /// </summary>
+    /// <remarks>
+    /// Each frame starts with a 4 byte correlation id in network byte order, followed by the body. The server
+    /// sends the response with the id of the request, in any order. So the number of requests in flight does
+    /// not depend on the number of connections. Servers can use GetCorrelationId and EncodeFrame.
+    /// </remarks>
+    public class MultiplexedConnection : DisposableObject
+    {
+        #region Constants
+
+        /// <summary>
+        /// Length of the correlation id at the start of each frame.
+        /// </summary>
+        public const int CorrelationIdLength = 4;
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(NetworkConstants.TraceSourceName);
+
+        /// <summary>
+        /// Codec of the frames.
+        /// </summary>
+        private readonly FrameCodec _codec;
+
+        /// <summary>
+        /// Requests that wait for their response by correlation id.
+        /// </summary>
+        private readonly ConcurrentDictionary<int, PendingRequest> _pending = new ConcurrentDictionary<int, PendingRequest>();
+
+        /// <summary>
+        /// Last used correlation id.
+        /// </summary>
+        private int _lastId;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of MultiplexedConnection with frames that have a 4 byte length prefix.
+        /// </summary>
+        /// <param name="hostName">Host of the server.</param>
+        /// <param name="port">Port of the server.</param>
+        public MultiplexedConnection(string hostName, int port)
+            : this(hostName, port, new LengthPrefixFrameCodec())
+        {
+        }
+
+        /// <summary>
+        /// Creates a new instance of MultiplexedConnection.
+        /// </summary>
+        /// <param name="hostName">Host of the server.</param>
+        /// <param name="port">Port of the server.</param>
+        /// <param name="codec">Codec of the frames. Used for this connection only.</param>
+        public MultiplexedConnection(string hostName, int port, FrameCodec codec)
+        {
+            if (hostName == null) throw new ArgumentNullException(nameof(hostName));
+            if (codec == null) throw new ArgumentNullException(nameof(codec));
+
+            _codec = codec;
+            Connection = new TcpIpClientConnection(hostName, port)
+            {
+                ReceiveMode = ReceiveMode.Pooled,
+                SendQueueOptions = new SendQueueOptions()
+            };
+
+            _codec.FrameDecoded += OnFrameDecoded;
+            Connection.MessageReceived += _codec.MessageReceiver;
+            Connection.Disconnected += (s, e) => OnConnectionClosed();
+        }
+
+        /// <summary>
+        /// Dispose this instance.
+        /// </summary>
+        /// <param name="disposing">Controlled dispose not from finalizer.</param>
+        protected override void Dispose(bool disposing)
+        {
+            if (Disposed)
+                return;
+
+            base.Dispose(disposing);
+            if (disposing)
+                Connection.Dispose();
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// The underlying connection.
+        /// </summary>
+        public TcpIpClientConnection Connection { get; }
+
+        /// <summary>
+        /// Time to wait for a response. System.Threading.Timeout.InfiniteTimeSpan means no timeout.
+        /// </summary>
+        public TimeSpan RequestTimeout { get; set; } = TimeSpan.FromSeconds(30);
+
+        /// <summary>
+        /// Number of requests that wait for their response.
+        /// </summary>
+        public int InFlight => _pending.Count;
+
+        /// <summary>
+        /// Gets a value indicating whether the connection can be used for requests.
+        /// </summary>
+        public bool IsHealthy => !Disposed && Connection.Connected;
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Connect to the server.
+        /// </summary>
+        /// <param name="cancellationToken">Token to cancel the connect.</param>
+        /// <returns>Task that completes when the connection is established.</returns>
+        public Task ConnectAsync(CancellationToken cancellationToken)
+        {
+            if (Disposed)
+                throw new InvalidOperationException("Instance already disposed!");
+
+            return Connection.ConnectAsync(cancellationToken);
+        }
+
+        /// <summary>
+        /// Send a request and wait for its response.
+        /// </summary>
+        /// <param name="request">Body of the request.</param>
+        /// <returns>Task that completes with the body of the response.</returns>
+        public Task<byte[]> RequestAsync(byte[] request)
+        {
+            if (request == null) throw new ArgumentNullException(nameof(request));
+
+            return RequestAsync(new ArraySegment<byte>(request), CancellationToken.None);
+        }
+
+        /// <summary>
+        /// Send a request and wait for its response.
+        /// </summary>
+        /// <param name="request">Body of the request. It is copied, so it can be changed after the call.</param>
+        /// <param name="cancellationToken">Token to stop waiting for the response.</param>
+        /// <returns>Task that completes with the body of the response.</returns>
+        /// <exception cref="TimeoutException">The task fails if no response arrived within RequestTimeout.</exception>
+        /// <exception cref="IOException">The task fails if the connection was closed.</exception>
+        public Task<byte[]> RequestAsync(ArraySegment<byte> request, CancellationToken cancellationToken)
+        {
+            if (request.Array == null) throw new ArgumentNullException(nameof(request));
+            if (Disposed)
+                throw new InvalidOperationException("Instance already disposed!");
+
+            var id = Interlocked.Increment(ref _lastId);
+            var pending = new PendingRequest();
+            _pending[id] = pending;
+            if (RequestTimeout != Timeout.InfiniteTimeSpan)
+                pending.Timeout = TimingWheel.Shared.Schedule(RequestTimeout, () => Fail(id, new TimeoutException("No response within " + RequestTimeout + ".")));
+            if (cancellationToken.CanBeCanceled)
+                pending.Cancellation = cancellationToken.Register(() => Cancel(id));
+
+            SharedBuffer frame = null;
+            try
+            {
+                frame = EncodeFrame(_codec, id, request);
+                Connection.SendMessage(frame);
+            }
+            catch (Exception ex)
+            {
+                Fail(id, ex);
+            }
+            finally
+            {
+                frame?.Release();
+            }
+
+            return pending.Completion.Task;
+        }
+
+        /// <summary>
+        /// Gets the correlation id of a frame.
+        /// </summary>
+        /// <param name="payload">Payload of the frame as decoded by the codec.</param>
+        /// <returns>The correlation id.</returns>
+        /// <exception cref="InvalidDataException">The frame is shorter than the correlation id.</exception>
+        public static int GetCorrelationId(ArraySegment<byte> payload)
+        {
+            if (payload.Count < CorrelationIdLength)
+                throw new InvalidDataException("Frame without correlation id.");
+
+            var bytes = payload.Array;
+            var offset = payload.Offset;
+            return (bytes[offset] << 24) | (bytes[offset + 1] << 16) | (bytes[offset + 2] << 8) | bytes[offset + 3];
+        }
+
+        /// <summary>
+        /// Encode a frame with a correlation id, e.g. the response of a server.
+        /// </summary>
+        /// <param name="codec">Codec of the frames.</param>
+        /// <param name="correlationId">Correlation id of the request.</param>
+        /// <param name="body">Body of the frame.</param>
+        /// <returns>The encoded frame. The caller has to release it.</returns>
+        public static SharedBuffer EncodeFrame(FrameCodec codec, int correlationId, ArraySegment<byte> body)
+        {
+            if (codec == null) throw new ArgumentNullException(nameof(codec));
+            if (body.Array == null) throw new ArgumentNullException(nameof(body));
+
+            var payload = new byte[CorrelationIdLength + body.Count];
+            payload[0] = (byte) (correlationId >> 24);
+            payload[1] = (byte) (correlationId >> 16);
+            payload[2] = (byte) (correlationId >> 8);
+            payload[3] = (byte) correlationId;
+            Buffer.BlockCopy(body.Array, body.Offset, payload, CorrelationIdLength, body.Count);
+            return codec.Encode(new ArraySegment<byte>(payload));
+        }
+
+        /// <summary>
+        /// Close the connection / Dispose this instance.
+        /// </summary>
+        public void Close()
+        {
+            Dispose();
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// A frame was received: complete the request with its correlation id.
+        /// </summary>
+        /// <param name="sender">The connection.</param>
+        /// <param name="e">The payload of the frame.</param>
+        private void OnFrameDecoded(object sender, BytesReceivedEventArgs e)
+        {
+            if (e.Data.Count < CorrelationIdLength)
+            {
+                Logger.TraceEvent(TraceEventType.Warning, 0, "Ignoring a frame without correlation id.");
+                return;
+            }
+
+            PendingRequest pending;
+            if (!_pending.TryRemove(GetCorrelationId(e.Data), out pending))
+            {
+                // The request timed out or was cancelled.
+                return;
+            }
+
+            var body = new byte[e.Data.Count - CorrelationIdLength];
+            Buffer.BlockCopy(e.Data.Array, e.Data.Offset + CorrelationIdLength, body, 0, body.Length);
+            pending.Dispose();
+            pending.Completion.TrySetResult(body);
+        }
+
+        /// <summary>
+        /// Fail a request.
+        /// </summary>
+        /// <param name="id">Correlation id of the request.</param>
+        /// <param name="exception">The reason.</param>
+        private void Fail(int id, Exception exception)
+        {
+            PendingRequest pending;
+            if (!_pending.TryRemove(id, out pending))
+                return;
+
+            pending.Dispose();
+            pending.Completion.TrySetException(exception);
+        }
+
+        /// <summary>
+        /// Cancel a request.
+        /// </summary>
+        /// <param name="id">Correlation id of the request.</param>
+        private void Cancel(int id)
+        {
+            PendingRequest pending;
+            if (!_pending.TryRemove(id, out pending))
+                return;
+
+            pending.Dispose();
+            pending.Completion.TrySetCanceled();
+        }
+
+        /// <summary>
+        /// The connection was closed: fail all requests.
+        /// </summary>
+        private void OnConnectionClosed()
+        {
+            foreach (var id in new List<int>(_pending.Keys))
+                Fail(id, new IOException("Connection closed."));
+        }
+
+        #endregion
+
+        #region Nested Types
+
+        /// <summary>
+        /// A request that waits for its response.
+        /// </summary>
+        private class PendingRequest : IDisposable
+        {
+            /// <summary>
+            /// Completion of the request. Continuations do not run on the io thread.
+            /// </summary>
+            public TaskCompletionSource<byte[]> Completion { get; } = new TaskCompletionSource<byte[]>(TaskCreationOptions.RunContinuationsAsynchronously);
+
+            /// <summary>
+            /// Timeout of the request. Null if the request has no timeout.
+            /// </summary>
+            public TimingWheelEntry Timeout { get; set; }
+
+            /// <summary>
+            /// Registration of the cancellation token.
+            /// </summary>
+            public CancellationTokenRegistration Cancellation { get; set; }
+
+            /// <summary>
+            /// Stop the timeout and the cancellation.
+            /// </summary>
+            public void Dispose()
+            {
+                Timeout?.Cancel();
+                Cancellation.Dispose();
+            }
+        }
+
+        #endregion
+    }
+}
@@ -14,5 +14,20 @@ namespace Neitzel.Network
         /// The default timeout used inside TcpIpServerConnection and TcpIpClientConnection.
         /// </summary>
         public static readonly int DefaultTimeout = 0;
+
+        /// <summary>
+        /// The default length of the queue of pending connections of TcpIpServerConnection.
+        /// </summary>
+        public static readonly int DefaultBacklog = 1000;
+
+        /// <summary>
+        /// The default number of outstanding accepts of TcpIpServerConnection in ServerIoMode.Asynchronous.
+        /// </summary>
+        public static readonly int DefaultAcceptConcurrency = 4;
+
+        /// <summary>
+        /// The default maximum number of connections TcpIpServerConnection accepts per loop pass in ServerIoMode.Polling.
+        /// </summary>
+        public static readonly int DefaultMaxAcceptsPerPass = 256;
     }
 }
\ No newline at end of file
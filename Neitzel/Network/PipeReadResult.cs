@@ -0,0 +1,111 @@
+﻿using System;
+using System.Collections.Generic;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Result of a read from a ReceivePipe.
+    /// </summary>
+    /// <remarks>
+    /// The buffers are only valid till ReceivePipe.AdvanceTo is called. Positions are counted in bytes from
+    /// the start of the first buffer.
+    /// </remarks>
+    public struct PipeReadResult
+    {
+        /// <summary>
+        /// Creates a new instance of PipeReadResult.
+        /// </summary>
+        /// <param name="buffers">Buffers with the unread bytes.</param>
+        /// <param name="length">Number of unread bytes.</param>
+        /// <param name="isCompleted">Did the connection end?</param>
+        internal PipeReadResult(IReadOnlyList<ArraySegment<byte>> buffers, long length, bool isCompleted)
+        {
+            Buffers = buffers;
+            Length = length;
+            IsCompleted = isCompleted;
+        }
+
+        /// <summary>
+        /// Buffers with the unread bytes in the order they were received.
+        /// </summary>
+        public IReadOnlyList<ArraySegment<byte>> Buffers { get; }
+
+        /// <summary>
+        /// Number of unread bytes.
+        /// </summary>
+        public long Length { get; }
+
+        /// <summary>
+        /// True if the connection ended and no more bytes follow.
+        /// </summary>
+        public bool IsCompleted { get; }
+
+        /// <summary>
+        /// Find the first position of a byte.
+        /// </summary>
+        /// <param name="value">Byte to find.</param>
+        /// <returns>Position of the byte or -1 if it is not found.</returns>
+        public long PositionOf(byte value)
+        {
+            return PositionOf(value, 0);
+        }
+
+        /// <summary>
+        /// Find the first position of a byte at or after a start position.
+        /// </summary>
+        /// <param name="value">Byte to find.</param>
+        /// <param name="start">Position to start the search at.</param>
+        /// <returns>Position of the byte or -1 if it is not found.</returns>
+        public long PositionOf(byte value, long start)
+        {
+            if (start < 0 || start > Length) throw new ArgumentOutOfRangeException(nameof(start));
+
+            long position = 0;
+            foreach (var buffer in Buffers)
+            {
+                if (start < position + buffer.Count)
+                {
+                    var offset = (int) Math.Max(0, start - position);
+                    var index = Array.IndexOf(buffer.Array, value, buffer.Offset + offset, buffer.Count - offset);
+                    if (index >= 0)
+                        return position + index - buffer.Offset;
+                }
+                position += buffer.Count;
+            }
+
+            return -1;
+        }
+
+        /// <summary>
+        /// Copy bytes into an array.
+        /// </summary>
+        /// <param name="start">Position of the first byte to copy.</param>
+        /// <param name="destination">Array to copy to.</param>
+        /// <param name="destinationIndex">Index inside the array.</param>
+        /// <param name="count">Number of bytes to copy.</param>
+        public void CopyTo(long start, byte[] destination, int destinationIndex, int count)
+        {
+            if (destination == null) throw new ArgumentNullException(nameof(destination));
+            if (start < 0 || count < 0 || start + count > Length) throw new ArgumentOutOfRangeException(nameof(count));
+            if (destinationIndex < 0 || destinationIndex + count > destination.Length) throw new ArgumentOutOfRangeException(nameof(destinationIndex));
+
+            long position = 0;
+            foreach (var buffer in Buffers)
+            {
+                if (count == 0)
+                    break;
+
+                if (start < position + buffer.Count)
+                {
+                    var offset = (int) Math.Max(0, start - position);
+                    var length = Math.Min(count, buffer.Count - offset);
+                    Buffer.BlockCopy(buffer.Array, buffer.Offset + offset, destination, destinationIndex, length);
+                    destinationIndex += length;
+                    count -= length;
+                    start += length;
+                }
+                position += buffer.Count;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+﻿using System;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Options of the rate limit of the input of a connection.
+    /// </summary>
+    /// <remarks>
+    /// Bytes and messages are limited by two token buckets. Each bucket is refilled with its rate per second and
+    /// holds at most its burst. A receive takes its bytes and messages from the buckets. When a bucket runs empty,
+    /// the connection is not read till the bucket is refilled and the PenaltyDelay passed (flood control like
+    /// RFC 1459 section 8.10). The client is slowed down by TCP flow control, nothing is dropped.
+    /// </remarks>
+    public class RateLimitOptions
+    {
+        /// <summary>
+        /// Default delay that is added when a connection is throttled.
+        /// </summary>
+        public static readonly TimeSpan DefaultPenaltyDelay = TimeSpan.FromSeconds(1);
+
+        /// <summary>
+        /// Maximum number of received bytes per second. 0 means no limit.
+        /// </summary>
+        public long BytesPerSecond { get; set; }
+
+        /// <summary>
+        /// Maximum number of received messages per second. 0 means no limit.
+        /// </summary>
+        public double MessagesPerSecond { get; set; }
+
+        /// <summary>
+        /// Number of bytes that can be received at once after a pause. 0 means BytesPerSecond.
+        /// </summary>
+        public long BurstBytes { get; set; }
+
+        /// <summary>
+        /// Number of messages that can be received at once after a pause. 0 means MessagesPerSecond, but at least 1.
+        /// </summary>
+        public int BurstMessages { get; set; }
+
+        /// <summary>
+        /// Delay that is added when a connection is throttled.
+        /// </summary>
+        public TimeSpan PenaltyDelay { get; set; } = DefaultPenaltyDelay;
+
+        /// <summary>
+        /// Byte that ends a message, e.g. the line feed of a line based protocol.
+        /// </summary>
+        public byte MessageDelimiter { get; set; } = (byte) '\n';
+    }
+}
@@ -0,0 +1,75 @@
+﻿using System;
+using System.Threading;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Statistics of the rate limit of one connection.
+    /// </summary>
+    /// <remarks>
+    /// The values are updated by the io handling of the connection and can be read from any thread.
+    /// </remarks>
+    public class RateLimitStatistics
+    {
+        /// <summary>
+        /// Number of received bytes.
+        /// </summary>
+        private long _bytesReceived;
+
+        /// <summary>
+        /// Number of received messages.
+        /// </summary>
+        private long _messagesReceived;
+
+        /// <summary>
+        /// Number of times the connection was throttled.
+        /// </summary>
+        private long _throttles;
+
+        /// <summary>
+        /// Ticks the connection was throttled.
+        /// </summary>
+        private long _throttledTicks;
+
+        /// <summary>
+        /// Number of received bytes.
+        /// </summary>
+        public long BytesReceived => Interlocked.Read(ref _bytesReceived);
+
+        /// <summary>
+        /// Number of received messages.
+        /// </summary>
+        public long MessagesReceived => Interlocked.Read(ref _messagesReceived);
+
+        /// <summary>
+        /// Number of times the connection was throttled.
+        /// </summary>
+        public long Throttles => Interlocked.Read(ref _throttles);
+
+        /// <summary>
+        /// Total time the connection was not read because of the rate limit.
+        /// </summary>
+        public TimeSpan ThrottledTime => TimeSpan.FromTicks(Interlocked.Read(ref _throttledTicks));
+
+        /// <summary>
+        /// Count a receive.
+        /// </summary>
+        /// <param name="bytes">Number of received bytes.</param>
+        /// <param name="messages">Number of received messages.</param>
+        internal void AddReceive(int bytes, int messages)
+        {
+            Interlocked.Add(ref _bytesReceived, bytes);
+            Interlocked.Add(ref _messagesReceived, messages);
+        }
+
+        /// <summary>
+        /// Count a throttle.
+        /// </summary>
+        /// <param name="delay">Time the connection is not read.</param>
+        internal void AddThrottle(TimeSpan delay)
+        {
+            Interlocked.Increment(ref _throttles);
+            Interlocked.Add(ref _throttledTicks, delay.Ticks);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+﻿using System;
+using System.Diagnostics;
+using System.Threading;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Token buckets that limit the bytes and messages received by one connection.
+    /// </summary>
+    /// <remarks>
+    /// Consume is only called by the io handling of the connection, which never runs in parallel for one
+    /// connection. The buckets may go below zero: a receive is never split, its bytes are taken as debt and the
+    /// connection is throttled till the debt is paid.
+    /// </remarks>
+    internal class RateLimiter
+    {
+        #region Fields
+
+        /// <summary>
+        /// Refill rate of the byte bucket per second. 0 means no limit.
+        /// </summary>
+        private readonly double _bytesPerSecond;
+
+        /// <summary>
+        /// Refill rate of the message bucket per second. 0 means no limit.
+        /// </summary>
+        private readonly double _messagesPerSecond;
+
+        /// <summary>
+        /// Capacity of the byte bucket.
+        /// </summary>
+        private readonly double _burstBytes;
+
+        /// <summary>
+        /// Capacity of the message bucket.
+        /// </summary>
+        private readonly double _burstMessages;
+
+        /// <summary>
+        /// Delay that is added when the connection is throttled.
+        /// </summary>
+        private readonly TimeSpan _penaltyDelay;
+
+        /// <summary>
+        /// Byte that ends a message.
+        /// </summary>
+        private readonly byte _messageDelimiter;
+
+        /// <summary>
+        /// Tokens inside the byte bucket.
+        /// </summary>
+        private double _byteTokens;
+
+        /// <summary>
+        /// Tokens inside the message bucket.
+        /// </summary>
+        private double _messageTokens;
+
+        /// <summary>
+        /// Timestamp of the last refill.
+        /// </summary>
+        private long _lastRefill;
+
+        /// <summary>
+        /// Timestamp when the connection can be read again.
+        /// </summary>
+        private long _resume;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of RateLimiter.
+        /// </summary>
+        /// <param name="options">Options of the rate limit. They are copied.</param>
+        public RateLimiter(RateLimitOptions options)
+        {
+            if (options == null) throw new ArgumentNullException(nameof(options));
+            if (options.BytesPerSecond < 0 || options.MessagesPerSecond < 0 || options.PenaltyDelay < TimeSpan.Zero)
+                throw new ArgumentOutOfRangeException(nameof(options));
+
+            _bytesPerSecond = options.BytesPerSecond;
+            _messagesPerSecond = options.MessagesPerSecond;
+            _burstBytes = options.BurstBytes > 0 ? options.BurstBytes : _bytesPerSecond;
+            _burstMessages = options.BurstMessages > 0 ? options.BurstMessages : Math.Max(1, _messagesPerSecond);
+            _penaltyDelay = options.PenaltyDelay;
+            _messageDelimiter = options.MessageDelimiter;
+            _byteTokens = _burstBytes;
+            _messageTokens = _burstMessages;
+            _lastRefill = Stopwatch.GetTimestamp();
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Statistics of the rate limit.
+        /// </summary>
+        public RateLimitStatistics Statistics { get; } = new RateLimitStatistics();
+
+        /// <summary>
+        /// Time till the connection can be read again. TimeSpan.Zero or less if it is not throttled.
+        /// </summary>
+        public TimeSpan RemainingDelay => ToTimeSpan(Volatile.Read(ref _resume) - Stopwatch.GetTimestamp());
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Take received bytes from the buckets.
+        /// </summary>
+        /// <param name="received">The received bytes.</param>
+        /// <returns>Time the connection must not be read. TimeSpan.Zero if it is not throttled.</returns>
+        public TimeSpan Consume(ArraySegment<byte> received)
+        {
+            var now = Stopwatch.GetTimestamp();
+            var messages = CountMessages(received);
+            Statistics.AddReceive(received.Count, messages);
+
+            // Refill for the time since the last receive, but never above the burst.
+            var elapsed = ToTimeSpan(now - _lastRefill).TotalSeconds;
+            _lastRefill = now;
+            _byteTokens = Math.Min(_burstBytes, _byteTokens + elapsed * _bytesPerSecond) - received.Count;
+            _messageTokens = Math.Min(_burstMessages, _messageTokens + elapsed * _messagesPerSecond) - messages;
+
+            // The time till both buckets are back at zero.
+            var seconds = Math.Max(GetDebtSeconds(_byteTokens, _bytesPerSecond), GetDebtSeconds(_messageTokens, _messagesPerSecond));
+            if (seconds <= 0)
+                return TimeSpan.Zero;
+
+            var delay = TimeSpan.FromSeconds(seconds) + _penaltyDelay;
+            Volatile.Write(ref _resume, now + (long) (delay.TotalSeconds * Stopwatch.Frequency));
+            Statistics.AddThrottle(delay);
+            return delay;
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Count the messages inside received bytes.
+        /// </summary>
+        /// <param name="received">The received bytes.</param>
+        /// <returns>Number of message delimiters.</returns>
+        private int CountMessages(ArraySegment<byte> received)
+        {
+            var count = 0;
+            var end = received.Offset + received.Count;
+            var index = received.Offset;
+            while ((index = Array.IndexOf(received.Array, _messageDelimiter, index, end - index)) >= 0)
+            {
+                count++;
+                index++;
+            }
+
+            return count;
+        }
+
+        /// <summary>
+        /// Gets the time till a bucket is refilled to zero.
+        /// </summary>
+        /// <param name="tokens">Tokens inside the bucket.</param>
+        /// <param name="rate">Refill rate per second. 0 means no limit.</param>
+        /// <returns>Time in seconds, 0 if the bucket is not empty.</returns>
+        private static double GetDebtSeconds(double tokens, double rate)
+        {
+            return rate > 0 && tokens < 0 ? -tokens / rate : 0;
+        }
+
+        /// <summary>
+        /// Convert stopwatch ticks to a TimeSpan.
+        /// </summary>
+        /// <param name="ticks">Stopwatch ticks.</param>
+        /// <returns>The TimeSpan.</returns>
+        private static TimeSpan ToTimeSpan(long ticks)
+        {
+            return TimeSpan.FromTicks((long) (ticks * ((double) TimeSpan.TicksPerSecond / Stopwatch.Frequency)));
+        }
+
+        #endregion
+    }
+}
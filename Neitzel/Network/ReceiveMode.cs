@@ -0,0 +1,26 @@
+﻿namespace Neitzel.Network
+{
+    /// <summary>
+    /// The way received bytes are handed over to the protocol code.
+    /// </summary>
+    public enum ReceiveMode
+    {
+        /// <summary>
+        /// Every message gets its own BytesReceivedEventArgs with its own array that the handlers can keep.
+        /// </summary>
+        Copy,
+
+        /// <summary>
+        /// The BytesReceivedEventArgs instance and the receive buffer are reused. BytesReceivedEventArgs.Data
+        /// is only valid while the handler runs, handlers that need to keep the data must copy it with
+        /// BytesReceivedEventArgs.ToArray or BytesReceivedEventArgs.CopyTo.
+        /// </summary>
+        Pooled,
+
+        /// <summary>
+        /// The bytes are received directly into the Input of the ConnectionPipe of the connection and
+        /// MessageReceived is not raised. The protocol code reads from the pipe.
+        /// </summary>
+        Pipe
+    }
+}
@@ -0,0 +1,444 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Threading.Tasks;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// The receiving side of a ConnectionPipe. The connection receives directly into the buffers of the pipe
+    /// and the reader parses the unread bytes in place.
+    /// </summary>
+    /// <remarks>
+    /// A reader calls ReadAsync, parses what it can and calls AdvanceTo with the consumed and examined
+    /// positions. Bytes that were examined but not consumed stay inside the pipe and the next ReadAsync
+    /// waits till more bytes arrived, so a message that is split over several receives can be parsed without
+    /// copying it first.
+    ///
+    /// When more than ConnectionPipeOptions.PauseThreshold bytes are unread the connection stops receiving
+    /// till the reader consumed enough bytes to get below ConnectionPipeOptions.ResumeThreshold.
+    ///
+    /// Only one reader may read at a time.
+    /// </remarks>
+    public class ReceivePipe
+    {
+        #region Segment
+
+        /// <summary>
+        /// A buffer of the pipe.
+        /// </summary>
+        private class Segment
+        {
+            /// <summary>
+            /// The rented array.
+            /// </summary>
+            public byte[] Array;
+
+            /// <summary>
+            /// Index of the first unread byte.
+            /// </summary>
+            public int Start;
+
+            /// <summary>
+            /// Index after the last received byte.
+            /// </summary>
+            public int End;
+        }
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// Options of the pipe.
+        /// </summary>
+        private readonly ConnectionPipeOptions _options;
+
+        /// <summary>
+        /// Called when a paused writer can continue.
+        /// </summary>
+        private readonly Action _resume;
+
+        /// <summary>
+        /// Called when the reader completed.
+        /// </summary>
+        private readonly Action _readerCompleted;
+
+        /// <summary>
+        /// Lock for all state of the pipe.
+        /// </summary>
+        private readonly object _lock = new object();
+
+        /// <summary>
+        /// Buffers with unread bytes. The last segment receives the next bytes.
+        /// </summary>
+        private readonly List<Segment> _segments = new List<Segment>();
+
+        /// <summary>
+        /// Buffers handed out with the last read. Reused for all reads.
+        /// </summary>
+        private readonly List<ArraySegment<byte>> _readBuffers = new List<ArraySegment<byte>>();
+
+        /// <summary>
+        /// Number of unread bytes.
+        /// </summary>
+        private long _unread;
+
+        /// <summary>
+        /// Number of unread bytes the reader already examined.
+        /// </summary>
+        private long _examined;
+
+        /// <summary>
+        /// Length of the last read result. -1 if no read is in progress.
+        /// </summary>
+        private long _readLength = -1;
+
+        /// <summary>
+        /// Pending ReadAsync call.
+        /// </summary>
+        private TaskCompletionSource<PipeReadResult> _pendingRead;
+
+        /// <summary>
+        /// Is the writer paused?
+        /// </summary>
+        private bool _writerPaused;
+
+        /// <summary>
+        /// Did the connection end?
+        /// </summary>
+        private bool _writerCompleted;
+
+        /// <summary>
+        /// Did the reader complete?
+        /// </summary>
+        private bool _readerCompletedFlag;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of ReceivePipe.
+        /// </summary>
+        /// <param name="options">Options of the pipe.</param>
+        /// <param name="resume">Called when a paused writer can continue.</param>
+        /// <param name="readerCompleted">Called when the reader completed.</param>
+        internal ReceivePipe(ConnectionPipeOptions options, Action resume, Action readerCompleted)
+        {
+            if (options == null) throw new ArgumentNullException(nameof(options));
+            if (options.SegmentSize < 1) throw new ArgumentOutOfRangeException(nameof(options), "SegmentSize must be at least 1.");
+            if (options.ResumeThreshold > options.PauseThreshold) throw new ArgumentOutOfRangeException(nameof(options), "ResumeThreshold must not be larger than PauseThreshold.");
+
+            _options = options;
+            _resume = resume;
+            _readerCompleted = readerCompleted;
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Number of unread bytes.
+        /// </summary>
+        public long UnreadBytes
+        {
+            get
+            {
+                lock (_lock)
+                {
+                    return _unread;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Is the connection paused because the reader is behind?
+        /// </summary>
+        public bool IsWriterPaused
+        {
+            get
+            {
+                lock (_lock)
+                {
+                    return _writerPaused;
+                }
+            }
+        }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Read the unread bytes. The task completes when bytes that were not examined yet are available or
+        /// the connection ended.
+        /// </summary>
+        /// <returns>The read result. AdvanceTo must be called before the next read.</returns>
+        public Task<PipeReadResult> ReadAsync()
+        {
+            lock (_lock)
+            {
+                if (_readerCompletedFlag)
+                    throw new InvalidOperationException("Reader already completed.");
+                if (_readLength >= 0 || _pendingRead != null)
+                    throw new InvalidOperationException("A read is already in progress.");
+
+                if (_unread > _examined || _writerCompleted)
+                    return Task.FromResult(CreateResult());
+
+                _pendingRead = new TaskCompletionSource<PipeReadResult>(TaskCreationOptions.RunContinuationsAsynchronously);
+                return _pendingRead.Task;
+            }
+        }
+
+        /// <summary>
+        /// Read the unread bytes if bytes that were not examined yet are available or the connection ended.
+        /// </summary>
+        /// <param name="result">The read result. AdvanceTo must be called before the next read.</param>
+        /// <returns>True if there was something to read.</returns>
+        public bool TryRead(out PipeReadResult result)
+        {
+            lock (_lock)
+            {
+                if (_readerCompletedFlag)
+                    throw new InvalidOperationException("Reader already completed.");
+                if (_readLength >= 0 || _pendingRead != null)
+                    throw new InvalidOperationException("A read is already in progress.");
+
+                if (_unread > _examined || _writerCompleted)
+                {
+                    result = CreateResult();
+                    return true;
+                }
+
+                result = default(PipeReadResult);
+                return false;
+            }
+        }
+
+        /// <summary>
+        /// Mark the bytes of the last read as consumed and examined.
+        /// </summary>
+        /// <param name="consumed">Number of bytes that were consumed. They are removed from the pipe.</param>
+        public void AdvanceTo(long consumed)
+        {
+            AdvanceTo(consumed, consumed);
+        }
+
+        /// <summary>
+        /// Mark the bytes of the last read as consumed and examined.
+        /// </summary>
+        /// <param name="consumed">Number of bytes that were consumed. They are removed from the pipe.</param>
+        /// <param name="examined">
+        /// Number of bytes that were examined. The next read waits for more bytes if all bytes were examined.
+        /// </param>
+        public void AdvanceTo(long consumed, long examined)
+        {
+            var resume = false;
+            lock (_lock)
+            {
+                if (_readLength < 0)
+                    throw new InvalidOperationException("No read in progress.");
+                if (consumed < 0 || consumed > _readLength) throw new ArgumentOutOfRangeException(nameof(consumed));
+                if (examined < consumed || examined > _readLength) throw new ArgumentOutOfRangeException(nameof(examined));
+
+                _readLength = -1;
+                _readBuffers.Clear();
+                Consume(consumed);
+                _examined = examined - consumed;
+
+                if (_writerPaused && _unread <= _options.ResumeThreshold)
+                {
+                    _writerPaused = false;
+                    resume = true;
+                }
+            }
+
+            if (resume)
+                _resume?.Invoke();
+        }
+
+        /// <summary>
+        /// Stop reading. All unread bytes are discarded and the connection is closed.
+        /// </summary>
+        public void Complete()
+        {
+            TaskCompletionSource<PipeReadResult> pendingRead;
+            lock (_lock)
+            {
+                if (_readerCompletedFlag)
+                    return;
+
+                _readerCompletedFlag = true;
+                _readLength = -1;
+                _readBuffers.Clear();
+                Consume(_unread);
+                ReturnSegments();
+                pendingRead = _pendingRead;
+                _pendingRead = null;
+            }
+
+            pendingRead?.TrySetCanceled();
+            _readerCompleted?.Invoke();
+        }
+
+        #endregion
+
+        #region Internal Methods
+
+        /// <summary>
+        /// Get the buffer the connection receives the next bytes into.
+        /// </summary>
+        /// <returns>Free space at the end of the pipe.</returns>
+        internal ArraySegment<byte> GetWriteBuffer()
+        {
+            lock (_lock)
+            {
+                var tail = _segments.Count > 0 ? _segments[_segments.Count - 1] : null;
+                if (tail == null || tail.End == tail.Array.Length)
+                {
+                    tail = new Segment { Array = BufferPool.Shared.Rent(_options.SegmentSize) };
+                    _segments.Add(tail);
+                }
+
+                return new ArraySegment<byte>(tail.Array, tail.End, tail.Array.Length - tail.End);
+            }
+        }
+
+        /// <summary>
+        /// The connection received bytes into the buffer of GetWriteBuffer.
+        /// </summary>
+        /// <param name="count">Number of received bytes.</param>
+        internal void Commit(int count)
+        {
+            TaskCompletionSource<PipeReadResult> pendingRead = null;
+            var result = default(PipeReadResult);
+            lock (_lock)
+            {
+                // Bytes are discarded when nobody reads them anymore.
+                if (_readerCompletedFlag || count == 0)
+                    return;
+
+                var tail = _segments[_segments.Count - 1];
+                if (count < 0 || tail.End + count > tail.Array.Length) throw new ArgumentOutOfRangeException(nameof(count));
+
+                tail.End += count;
+                _unread += count;
+                if (_pendingRead != null)
+                {
+                    pendingRead = _pendingRead;
+                    _pendingRead = null;
+                    result = CreateResult();
+                }
+            }
+
+            pendingRead?.TrySetResult(result);
+        }
+
+        /// <summary>
+        /// Checks if the connection may receive more bytes. If not the writer is paused and the resume
+        /// callback is called when the reader caught up.
+        /// </summary>
+        /// <returns>True if the connection may receive.</returns>
+        internal bool TryContinueWriting()
+        {
+            lock (_lock)
+            {
+                if (_readerCompletedFlag || _writerCompleted || _unread < _options.PauseThreshold)
+                    return true;
+
+                _writerPaused = true;
+                return false;
+            }
+        }
+
+        /// <summary>
+        /// The connection ended. The reader still gets the unread bytes, then a completed result.
+        /// </summary>
+        internal void CompleteWriter()
+        {
+            TaskCompletionSource<PipeReadResult> pendingRead = null;
+            var result = default(PipeReadResult);
+            var resume = false;
+            lock (_lock)
+            {
+                if (_writerCompleted)
+                    return;
+
+                _writerCompleted = true;
+                resume = _writerPaused;
+                _writerPaused = false;
+                if (_pendingRead != null)
+                {
+                    pendingRead = _pendingRead;
+                    _pendingRead = null;
+                    result = CreateResult();
+                }
+            }
+
+            pendingRead?.TrySetResult(result);
+
+            // A paused writer must see that the connection ended.
+            if (resume)
+                _resume?.Invoke();
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Create the result of a read. Must be called inside the lock.
+        /// </summary>
+        /// <returns>The read result.</returns>
+        private PipeReadResult CreateResult()
+        {
+            _readBuffers.Clear();
+            foreach (var segment in _segments)
+            {
+                if (segment.End > segment.Start)
+                    _readBuffers.Add(new ArraySegment<byte>(segment.Array, segment.Start, segment.End - segment.Start));
+            }
+
+            _readLength = _unread;
+            return new PipeReadResult(_readBuffers, _unread, _writerCompleted);
+        }
+
+        /// <summary>
+        /// Remove consumed bytes and return the buffers that are done. Must be called inside the lock.
+        /// </summary>
+        /// <param name="count">Number of consumed bytes.</param>
+        private void Consume(long count)
+        {
+            _unread -= count;
+            while (_segments.Count > 0)
+            {
+                var segment = _segments[0];
+                var taken = (int) Math.Min(count, segment.End - segment.Start);
+                segment.Start += taken;
+                count -= taken;
+
+                // The last segment is kept while it has space for the next receive.
+                if (segment.Start < segment.End || segment.End < segment.Array.Length)
+                    break;
+
+                _segments.RemoveAt(0);
+                BufferPool.Shared.Return(segment.Array);
+            }
+        }
+
+        /// <summary>
+        /// Return all buffers to the pool. Must be called inside the lock.
+        /// </summary>
+        private void ReturnSegments()
+        {
+            // A receive may still write into the last segment, so it is left to the garbage collector.
+            for (var index = 0; index < _segments.Count - 1; index++)
+                BufferPool.Shared.Return(_segments[index].Array);
+            _segments.Clear();
+        }
+
+        #endregion
+    }
+}
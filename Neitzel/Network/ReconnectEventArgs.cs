@@ -0,0 +1,31 @@
+﻿using System;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// A reconnect attempt of a TcpIpClientConnection.
+    /// </summary>
+    public class ReconnectEventArgs : EventArgs
+    {
+        /// <summary>
+        /// Creates a new instance of ReconnectEventArgs
+        /// </summary>
+        /// <param name="attempt">Number of the attempt, starting with 1.</param>
+        /// <param name="delay">Delay before the attempt.</param>
+        public ReconnectEventArgs(int attempt, TimeSpan delay)
+        {
+            Attempt = attempt;
+            Delay = delay;
+        }
+
+        /// <summary>
+        /// Number of the attempt, starting with 1.
+        /// </summary>
+        public int Attempt { get; }
+
+        /// <summary>
+        /// Delay before the attempt.
+        /// </summary>
+        public TimeSpan Delay { get; }
+    }
+}
@@ -0,0 +1,78 @@
+﻿using System;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Options for the automatic reconnect of a TcpIpClientConnection.
+    /// </summary>
+    /// <remarks>
+    /// The delay before an attempt grows exponentially from InitialDelay up to MaxDelay. The real delay is a
+    /// random value between zero and that limit ("full jitter"), so a lot of clients that lost the same server
+    /// do not come back at the same moment. All instances share one random generator, because generators that
+    /// are created at the same time get the same seed on the .NET Framework.
+    /// </remarks>
+    public class ReconnectPolicy
+    {
+        #region Fields
+
+        /// <summary>
+        /// Random generator of all policies.
+        /// </summary>
+        private static readonly Random Jitter = new Random();
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Maximum number of attempts after the connection was lost. 0 means no limit.
+        /// </summary>
+        public int MaxAttempts { get; set; } = 10;
+
+        /// <summary>
+        /// Upper limit of the delay before the first attempt.
+        /// </summary>
+        public TimeSpan InitialDelay { get; set; } = TimeSpan.FromSeconds(1);
+
+        /// <summary>
+        /// Upper limit of the delay before an attempt.
+        /// </summary>
+        public TimeSpan MaxDelay { get; set; } = TimeSpan.FromSeconds(60);
+
+        /// <summary>
+        /// Factor the upper limit of the delay grows with each attempt.
+        /// </summary>
+        public double Multiplier { get; set; } = 2.0;
+
+        /// <summary>
+        /// Maximum number of messages that are kept while the connection is down. The oldest messages are
+        /// dropped when more messages are sent.
+        /// </summary>
+        public int MaxReplayMessages { get; set; } = 1024;
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Gets the delay before an attempt.
+        /// </summary>
+        /// <param name="attempt">Number of the attempt, starting with 1.</param>
+        /// <returns>A random delay between zero and the limit of the attempt.</returns>
+        public TimeSpan GetDelay(int attempt)
+        {
+            if (attempt < 1) throw new ArgumentOutOfRangeException(nameof(attempt));
+
+            var limit = Math.Min(MaxDelay.TotalMilliseconds, InitialDelay.TotalMilliseconds * Math.Pow(Multiplier, attempt - 1));
+            double factor;
+            lock (Jitter)
+            {
+                factor = Jitter.NextDouble();
+            }
+
+            return TimeSpan.FromMilliseconds(limit * factor);
+        }
+
+        #endregion
+    }
+}
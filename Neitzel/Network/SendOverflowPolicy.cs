@@ -0,0 +1,23 @@
+﻿namespace Neitzel.Network
+{
+    /// <summary>
+    /// What a SendQueue does with a new message when it is full.
+    /// </summary>
+    public enum SendOverflowPolicy
+    {
+        /// <summary>
+        /// The sender is blocked till there is space inside the queue.
+        /// </summary>
+        Block,
+
+        /// <summary>
+        /// The oldest queued messages are dropped till the new message fits.
+        /// </summary>
+        DropOldest,
+
+        /// <summary>
+        /// The new message is not queued and the connection is closed.
+        /// </summary>
+        Disconnect
+    }
+}
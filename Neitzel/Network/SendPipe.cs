@@ -0,0 +1,163 @@
+﻿using System;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// The sending side of a ConnectionPipe. Messages are encoded directly into pooled buffers that are
+    /// handed over to the connection without copying them.
+    /// </summary>
+    /// <remarks>
+    /// A writer calls GetBuffer, writes into the returned buffer and calls Advance with the number of
+    /// written bytes. Full buffers are sent at once, Flush sends the rest. With a SendQueue the queue gives
+    /// the backpressure: SendOverflowPolicy.Block blocks the writer while the peer is behind.
+    ///
+    /// A SendPipe is not thread safe, only one writer may use it at a time.
+    /// </remarks>
+    public class SendPipe
+    {
+        #region Fields
+
+        /// <summary>
+        /// Options of the pipe.
+        /// </summary>
+        private readonly ConnectionPipeOptions _options;
+
+        /// <summary>
+        /// Sends a buffer through the connection.
+        /// </summary>
+        private readonly Action<SharedBuffer> _send;
+
+        /// <summary>
+        /// Flushes the connection.
+        /// </summary>
+        private readonly Action _flush;
+
+        /// <summary>
+        /// Buffer that is currently written.
+        /// </summary>
+        private SharedBuffer _current;
+
+        /// <summary>
+        /// Number of bytes written into the current buffer.
+        /// </summary>
+        private int _written;
+
+        /// <summary>
+        /// Did the writer complete?
+        /// </summary>
+        private bool _completed;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of SendPipe.
+        /// </summary>
+        /// <param name="options">Options of the pipe.</param>
+        /// <param name="send">Sends a buffer through the connection.</param>
+        /// <param name="flush">Flushes the connection.</param>
+        internal SendPipe(ConnectionPipeOptions options, Action<SharedBuffer> send, Action flush)
+        {
+            if (options == null) throw new ArgumentNullException(nameof(options));
+            if (send == null) throw new ArgumentNullException(nameof(send));
+
+            _options = options;
+            _send = send;
+            _flush = flush;
+        }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Get a buffer to write into.
+        /// </summary>
+        /// <param name="sizeHint">Minimum number of bytes the buffer must have.</param>
+        /// <returns>The free space of the current buffer.</returns>
+        public ArraySegment<byte> GetBuffer(int sizeHint)
+        {
+            if (sizeHint < 0) throw new ArgumentOutOfRangeException(nameof(sizeHint));
+            if (_completed)
+                throw new InvalidOperationException("Writer already completed.");
+
+            var size = Math.Max(sizeHint, 1);
+            if (_current != null && _current.Data.Count - _written < size)
+                SendCurrent();
+
+            if (_current == null)
+            {
+                _current = new SharedBuffer(Math.Max(size, _options.SegmentSize));
+                _written = 0;
+            }
+
+            return new ArraySegment<byte>(_current.Data.Array, _written, _current.Data.Count - _written);
+        }
+
+        /// <summary>
+        /// Mark bytes of the buffer of GetBuffer as written.
+        /// </summary>
+        /// <param name="count">Number of written bytes.</param>
+        public void Advance(int count)
+        {
+            if (_current == null)
+                throw new InvalidOperationException("GetBuffer must be called before Advance.");
+            if (count < 0 || _written + count > _current.Data.Count) throw new ArgumentOutOfRangeException(nameof(count));
+
+            _written += count;
+        }
+
+        /// <summary>
+        /// Send all written bytes.
+        /// </summary>
+        public void Flush()
+        {
+            SendCurrent();
+            _flush?.Invoke();
+        }
+
+        /// <summary>
+        /// Send all written bytes and stop writing.
+        /// </summary>
+        public void Complete()
+        {
+            if (_completed)
+                return;
+
+            Flush();
+            _completed = true;
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Send the written bytes of the current buffer and release it.
+        /// </summary>
+        private void SendCurrent()
+        {
+            var current = _current;
+            if (current == null)
+                return;
+
+            _current = null;
+            try
+            {
+                if (_written > 0)
+                {
+                    current.SetLength(_written);
+                    _send(current);
+                }
+            }
+            finally
+            {
+                _written = 0;
+                current.Release();
+            }
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,921 @@
+﻿using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.IO;
+using System.Net.Sockets;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Bounded queue of outgoing messages of a connection that are sent asynchronously.
+    /// </summary>
+    /// <remarks>
+    /// The caller only queues the message, the send itself is done with SocketAsyncEventArgs so a slow
+    /// reader does not block the thread that sends. What happens when the queue is full is defined by
+    /// SendQueueOptions.OverflowPolicy.
+    ///
+    /// While the queue has space Enqueue takes no lock: the space is reserved with Interlocked, the message
+    /// goes into a ConcurrentQueue and the first caller that finds no send in progress starts the sending.
+    /// So a fan-out to many connections from many threads does not contend on the queues. Only a full queue,
+    /// the sending side and Close use the lock.
+    ///
+    /// A queue of a Stream (e.g. the SslStream of a TLS connection) copies each batch into one buffer and
+    /// writes it with one WriteAsync. Only one write is in progress at any time, so the stream never sees
+    /// concurrent writes and no sender waits for another one.
+    ///
+    /// All messages that are queued while a send is in progress are written with one gather send. With
+    /// SendQueueOptions.FlushDelay the messages also wait for more messages till the delay passed or Flush
+    /// is called.
+    ///
+    /// Queued arrays are not copied, so they must not be changed after they were queued. A SharedBuffer
+    /// keeps a reference till it was sent, dropped or the queue was closed.
+    ///
+    /// When a send fails the messages that were not handed to the socket yet are kept till Close or
+    /// CloseAndTakeUnsent is called, so a reconnecting connection can send them again.
+    /// </remarks>
+    public class SendQueue
+    {
+        #region QueuedMessage
+
+        /// <summary>
+        /// A queued message together with the shared buffer it belongs to.
+        /// </summary>
+        private struct QueuedMessage
+        {
+            /// <summary>
+            /// Creates a new instance of QueuedMessage.
+            /// </summary>
+            /// <param name="data">Message to send.</param>
+            /// <param name="owner">Shared buffer of the message or null.</param>
+            public QueuedMessage(ArraySegment<byte> data, SharedBuffer owner)
+            {
+                Data = data;
+                Owner = owner;
+            }
+
+            /// <summary>
+            /// Message to send.
+            /// </summary>
+            public ArraySegment<byte> Data { get; }
+
+            /// <summary>
+            /// Shared buffer that is released when the message was sent. Null for plain arrays.
+            /// </summary>
+            public SharedBuffer Owner { get; }
+        }
+
+        #endregion
+
+        #region Constants
+
+        /// <summary>
+        /// Maximum number of messages written with one gather send.
+        /// </summary>
+        public const int MaxBatchMessages = 64;
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(NetworkConstants.TraceSourceName);
+
+        /// <summary>
+        /// Socket to send the messages to. Null if the messages are written to a stream.
+        /// </summary>
+        private readonly Socket _socket;
+
+        /// <summary>
+        /// Stream to write the messages to. Null if the messages are sent to a socket.
+        /// </summary>
+        private readonly Stream _stream;
+
+        /// <summary>
+        /// Maximum number of queued messages.
+        /// </summary>
+        private readonly int _maxQueueLength;
+
+        /// <summary>
+        /// Maximum number of pending bytes.
+        /// </summary>
+        private readonly long _maxPendingBytes;
+
+        /// <summary>
+        /// What to do when the queue is full.
+        /// </summary>
+        private readonly SendOverflowPolicy _overflowPolicy;
+
+        /// <summary>
+        /// Time queued messages wait for more messages.
+        /// </summary>
+        private readonly TimeSpan _flushDelay;
+
+        /// <summary>
+        /// Maximum number of bytes written with one gather send.
+        /// </summary>
+        private readonly int _maxBatchBytes;
+
+        /// <summary>
+        /// Timer that flushes the queue after the flush delay. Null without flush delay.
+        /// </summary>
+        private readonly Timer _flushTimer;
+
+        /// <summary>
+        /// Called once when the queue failed (send error or overflow with SendOverflowPolicy.Disconnect).
+        /// </summary>
+        private readonly Action _failed;
+
+        /// <summary>
+        /// Called after bytes were sent.
+        /// </summary>
+        private readonly Action _sent;
+
+        /// <summary>
+        /// Messages that wait to be sent. Messages are added without lock, they are only taken inside the lock.
+        /// </summary>
+        private readonly ConcurrentQueue<QueuedMessage> _queue = new ConcurrentQueue<QueuedMessage>();
+
+        /// <summary>
+        /// Lock for the sending side, for full queues and for closing.
+        /// </summary>
+        private readonly object _lock = new object();
+
+        /// <summary>
+        /// Event arguments used for the sends.
+        /// </summary>
+        private readonly SocketAsyncEventArgs _sendArgs = new SocketAsyncEventArgs();
+
+        /// <summary>
+        /// Messages (or the rest of messages) that are currently sent.
+        /// </summary>
+        /// <remarks>
+        /// _batch and _spare are swapped after each send so SocketAsyncEventArgs.BufferList always
+        /// gets another list than the last time.
+        /// </remarks>
+        private List<ArraySegment<byte>> _batch = new List<ArraySegment<byte>>();
+
+        /// <summary>
+        /// Second list for the batches.
+        /// </summary>
+        private List<ArraySegment<byte>> _spare = new List<ArraySegment<byte>>();
+
+        /// <summary>
+        /// Shared buffers of the messages inside _batch (null for plain arrays).
+        /// </summary>
+        private List<SharedBuffer> _batchOwners = new List<SharedBuffer>();
+
+        /// <summary>
+        /// Second list for the shared buffers of the batches.
+        /// </summary>
+        private List<SharedBuffer> _spareOwners = new List<SharedBuffer>();
+
+        /// <summary>
+        /// Was a flush requested?
+        /// </summary>
+        private volatile bool _flushRequested;
+
+        /// <summary>
+        /// 1 if the flush timer is running, else 0.
+        /// </summary>
+        private int _flushTimerArmed;
+
+        /// <summary>
+        /// 1 if a send is in progress, else 0. The caller that sets it owns the batch till it is reset.
+        /// </summary>
+        private int _sending;
+
+        /// <summary>
+        /// Was the queue closed?
+        /// </summary>
+        private volatile bool _closed;
+
+        /// <summary>
+        /// Are messages that are queued after the close discarded? False while they are kept for
+        /// CloseAndTakeUnsent.
+        /// </summary>
+        private bool _discardQueued;
+
+        /// <summary>
+        /// Number of queued messages including the space that callers of Enqueue reserved.
+        /// </summary>
+        private int _queueLength;
+
+        /// <summary>
+        /// Stopwatch timestamp when the send in progress started, 0 if no send is in progress.
+        /// </summary>
+        private long _sendStarted;
+
+        /// <summary>
+        /// Number of bytes that are not sent yet.
+        /// </summary>
+        private long _pendingBytes;
+
+        /// <summary>
+        /// Number of sent messages.
+        /// </summary>
+        private long _messagesSent;
+
+        /// <summary>
+        /// Number of sent bytes.
+        /// </summary>
+        private long _bytesSent;
+
+        /// <summary>
+        /// Number of dropped messages.
+        /// </summary>
+        private long _messagesDropped;
+
+        /// <summary>
+        /// Number of gather sends.
+        /// </summary>
+        private long _batchesSent;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of SendQueue.
+        /// </summary>
+        /// <param name="socket">Socket to send the messages to.</param>
+        /// <param name="options">Options of the queue.</param>
+        /// <param name="failed">Called once when the queue failed and the connection should be closed.</param>
+        /// <param name="sent">Called after bytes were sent. Can be null.</param>
+        public SendQueue(Socket socket, SendQueueOptions options, Action failed, Action sent)
+            : this(options, failed, sent)
+        {
+            if (socket == null) throw new ArgumentNullException(nameof(socket));
+
+            _socket = socket;
+        }
+
+        /// <summary>
+        /// Creates a new instance of SendQueue that writes to a stream.
+        /// </summary>
+        /// <param name="stream">Stream to write the messages to, e.g. an SslStream.</param>
+        /// <param name="options">Options of the queue.</param>
+        /// <param name="failed">Called once when the queue failed and the connection should be closed.</param>
+        /// <param name="sent">Called after bytes were sent. Can be null.</param>
+        public SendQueue(Stream stream, SendQueueOptions options, Action failed, Action sent)
+            : this(options, failed, sent)
+        {
+            if (stream == null) throw new ArgumentNullException(nameof(stream));
+
+            _stream = stream;
+        }
+
+        /// <summary>
+        /// Creates a new instance of SendQueue.
+        /// </summary>
+        /// <param name="options">Options of the queue.</param>
+        /// <param name="failed">Called once when the queue failed and the connection should be closed.</param>
+        /// <param name="sent">Called after bytes were sent. Can be null.</param>
+        private SendQueue(SendQueueOptions options, Action failed, Action sent)
+        {
+            if (options == null) throw new ArgumentNullException(nameof(options));
+            if (failed == null) throw new ArgumentNullException(nameof(failed));
+
+            _maxQueueLength = options.MaxQueueLength;
+            _maxPendingBytes = options.MaxPendingBytes;
+            _overflowPolicy = options.OverflowPolicy;
+            _flushDelay = options.FlushDelay;
+            _maxBatchBytes = options.MaxBatchBytes;
+            _failed = failed;
+            _sent = sent;
+            _sendArgs.Completed += OnSendCompleted;
+            if (_flushDelay > TimeSpan.Zero)
+                _flushTimer = new Timer(OnFlushTimer);
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Number of messages that wait to be sent (not counting the message that is currently sent).
+        /// </summary>
+        public int QueueLength => Volatile.Read(ref _queueLength);
+
+        /// <summary>
+        /// Number of bytes that are not sent yet.
+        /// </summary>
+        public long PendingBytes => Interlocked.Read(ref _pendingBytes);
+
+        /// <summary>
+        /// Stopwatch timestamp when the send in progress started, 0 if no send is in progress.
+        /// </summary>
+        /// <remarks>
+        /// A send that does not complete for a long time means that the peer stopped reading.
+        /// </remarks>
+        public long PendingSendSince => Volatile.Read(ref _sendStarted);
+
+        /// <summary>
+        /// Number of sent messages.
+        /// </summary>
+        public long MessagesSent => Interlocked.Read(ref _messagesSent);
+
+        /// <summary>
+        /// Number of sent bytes.
+        /// </summary>
+        public long BytesSent => Interlocked.Read(ref _bytesSent);
+
+        /// <summary>
+        /// Number of messages that were dropped because of SendOverflowPolicy.DropOldest.
+        /// </summary>
+        public long MessagesDropped => Interlocked.Read(ref _messagesDropped);
+
+        /// <summary>
+        /// Number of gather sends. Together with MessagesSent this shows how well the messages are batched.
+        /// </summary>
+        public long BatchesSent => Interlocked.Read(ref _batchesSent);
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Queue a message.
+        /// </summary>
+        /// <param name="message">Message to send.</param>
+        /// <returns>True if the message was queued, false if the queue is closed or overflowed.</returns>
+        public bool Enqueue(ArraySegment<byte> message)
+        {
+            return Enqueue(message, null);
+        }
+
+        /// <summary>
+        /// Queue a shared buffer. The queue adds its own reference and releases it when the message was
+        /// sent or discarded, so the caller still has to release its reference.
+        /// </summary>
+        /// <param name="buffer">Shared buffer to send.</param>
+        /// <returns>True if the message was queued, false if the queue is closed or overflowed.</returns>
+        public bool Enqueue(SharedBuffer buffer)
+        {
+            if (buffer == null) throw new ArgumentNullException(nameof(buffer));
+
+            buffer.AddReference();
+            return Enqueue(buffer.Data, buffer);
+        }
+
+        /// <summary>
+        /// Send all queued messages without waiting for the flush delay.
+        /// </summary>
+        public void Flush()
+        {
+            if (_closed)
+                return;
+
+            _flushRequested = true;
+            if (!_queue.IsEmpty && TryStartSending())
+                SendNext();
+        }
+
+        /// <summary>
+        /// Close the queue. Queued messages are discarded and blocked senders are released.
+        /// </summary>
+        public void Close()
+        {
+            lock (_lock)
+            {
+                CloseInsideLock(false);
+            }
+        }
+
+        /// <summary>
+        /// Close the queue and take the messages that were not handed to the socket yet.
+        /// </summary>
+        /// <remarks>
+        /// The message that was sent when the connection failed is not included, it is not known how much of
+        /// it arrived. Plain arrays are copied into shared buffers. The caller owns one reference of each buffer.
+        /// </remarks>
+        /// <returns>The messages in the order they were queued.</returns>
+        public IList<SharedBuffer> CloseAndTakeUnsent()
+        {
+            lock (_lock)
+            {
+                var unsent = new List<SharedBuffer>();
+                QueuedMessage message;
+                while (_queue.TryDequeue(out message))
+                {
+                    Interlocked.Decrement(ref _queueLength);
+                    Interlocked.Add(ref _pendingBytes, -message.Data.Count);
+                    unsent.Add(message.Owner ?? new SharedBuffer(message.Data));
+                }
+                CloseInsideLock(false);
+                return unsent;
+            }
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Queue a message without lock while the queue has space.
+        /// </summary>
+        /// <param name="message">Message to send.</param>
+        /// <param name="owner">Shared buffer of the message. The queue owns one reference of it.</param>
+        /// <returns>True if the message was queued, false if the queue is closed or overflowed.</returns>
+        private bool Enqueue(ArraySegment<byte> message, SharedBuffer owner)
+        {
+            if (_closed)
+            {
+                owner?.Release();
+                return false;
+            }
+
+            if (!TryReserve(message.Count))
+                return EnqueueFull(message, owner);
+
+            _queue.Enqueue(new QueuedMessage(message, owner));
+
+            // Close could have missed the message.
+            if (_closed && DiscardQueuedAfterClose())
+                return false;
+
+            StartSending();
+            return true;
+        }
+
+        /// <summary>
+        /// Queue a message when the queue is full, following the SendOverflowPolicy.
+        /// </summary>
+        /// <param name="message">Message to send.</param>
+        /// <param name="owner">Shared buffer of the message. The queue owns one reference of it.</param>
+        /// <returns>True if the message was queued, false if the queue is closed or overflowed.</returns>
+        private bool EnqueueFull(ArraySegment<byte> message, SharedBuffer owner)
+        {
+            var reserved = false;
+            lock (_lock)
+            {
+                while (!_closed)
+                {
+                    reserved = TryReserve(message.Count);
+                    if (reserved || _overflowPolicy == SendOverflowPolicy.Disconnect)
+                        break;
+
+                    if (_overflowPolicy == SendOverflowPolicy.Block)
+                    {
+                        // Only a send makes space. Without a send in progress the messages would wait for the
+                        // flush delay, which never passes with Timeout.InfiniteTimeSpan, so flush now. The send
+                        // must not start inside the lock.
+                        _flushRequested = true;
+                        if (TryStartSending())
+                            ThreadPool.QueueUserWorkItem(state => SendNext());
+                        Monitor.Wait(_lock);
+                    }
+                    else
+                    {
+                        // SendOverflowPolicy.DropOldest. The queue can be empty for a moment when other callers
+                        // reserved space but did not add their messages yet.
+                        QueuedMessage dropped;
+                        if (_queue.TryDequeue(out dropped))
+                        {
+                            dropped.Owner?.Release();
+                            Interlocked.Decrement(ref _queueLength);
+                            Interlocked.Add(ref _pendingBytes, -dropped.Data.Count);
+                            Interlocked.Increment(ref _messagesDropped);
+                        }
+                        else
+                        {
+                            Thread.Yield();
+                        }
+                    }
+                }
+
+                if (_closed)
+                {
+                    owner?.Release();
+                    return false;
+                }
+
+                if (reserved)
+                {
+                    _queue.Enqueue(new QueuedMessage(message, owner));
+                }
+                else
+                {
+                    // SendOverflowPolicy.Disconnect
+                    Logger.TraceEvent(TraceEventType.Warning, 0, "Send queue overflowed with {0} messages and {1} bytes, closing the connection.", QueueLength, PendingBytes);
+                    CloseInsideLock(false);
+                    owner?.Release();
+                }
+            }
+
+            if (!reserved)
+            {
+                _failed();
+                return false;
+            }
+
+            StartSending();
+            return true;
+        }
+
+        /// <summary>
+        /// Reserve the space of a message.
+        /// </summary>
+        /// <param name="count">Size of the message.</param>
+        /// <returns>True if the message fits.</returns>
+        private bool TryReserve(int count)
+        {
+            var length = Interlocked.Increment(ref _queueLength);
+            var bytes = Interlocked.Add(ref _pendingBytes, count);
+
+            // A message always fits into an empty queue, else a large message could never be sent.
+            if (length == 1 || length <= _maxQueueLength && bytes <= _maxPendingBytes)
+                return true;
+
+            Interlocked.Decrement(ref _queueLength);
+            Interlocked.Add(ref _pendingBytes, -count);
+            return false;
+        }
+
+        /// <summary>
+        /// Start the sending after a message was queued, or the flush timer if the message should wait.
+        /// </summary>
+        private void StartSending()
+        {
+            if (!ShouldSend())
+                ArmFlushTimer();
+            else if (TryStartSending())
+                SendNext();
+        }
+
+        /// <summary>
+        /// Take the ownership of the sending.
+        /// </summary>
+        /// <returns>True if no send was in progress and the caller has to call SendNext.</returns>
+        private bool TryStartSending()
+        {
+            return Interlocked.CompareExchange(ref _sending, 1, 0) == 0;
+        }
+
+        /// <summary>
+        /// Checks if the queued messages should be sent now.
+        /// </summary>
+        /// <returns>True if the messages should be sent.</returns>
+        private bool ShouldSend()
+        {
+            if (_queue.IsEmpty)
+                return false;
+
+            return _flushDelay == TimeSpan.Zero || _flushRequested || PendingBytes >= _maxBatchBytes;
+        }
+
+        /// <summary>
+        /// Start the flush timer if it is not running.
+        /// </summary>
+        private void ArmFlushTimer()
+        {
+            if (_flushTimer == null || Interlocked.CompareExchange(ref _flushTimerArmed, 1, 0) != 0)
+                return;
+
+            try
+            {
+                _flushTimer.Change(_flushDelay, Timeout.InfiniteTimeSpan);
+            }
+            catch (ObjectDisposedException)
+            {
+                // The queue was closed in the meantime.
+            }
+        }
+
+        /// <summary>
+        /// The flush delay passed.
+        /// </summary>
+        /// <param name="state">Not used.</param>
+        private void OnFlushTimer(object state)
+        {
+            Interlocked.Exchange(ref _flushTimerArmed, 0);
+            Flush();
+        }
+
+        /// <summary>
+        /// Move queued messages into the empty batch. Must be called inside the lock.
+        /// </summary>
+        private void FillBatch()
+        {
+            var batchBytes = 0;
+            QueuedMessage next;
+            while (_batch.Count < MaxBatchMessages && _queue.TryPeek(out next))
+            {
+                if (_batch.Count > 0 && batchBytes + next.Data.Count > _maxBatchBytes)
+                    break;
+
+                // Only the lock takes messages, so this is the peeked message.
+                _queue.TryDequeue(out next);
+                Interlocked.Decrement(ref _queueLength);
+                _batch.Add(next.Data);
+                _batchOwners.Add(next.Owner);
+                batchBytes += next.Data.Count;
+            }
+        }
+
+        /// <summary>
+        /// Close the queue. Must be called inside the lock.
+        /// </summary>
+        /// <param name="keepQueued">Keep the queued messages for CloseAndTakeUnsent?</param>
+        private void CloseInsideLock(bool keepQueued)
+        {
+            if (!_closed)
+            {
+                _closed = true;
+                Monitor.PulseAll(_lock);
+                _flushTimer?.Dispose();
+
+                // A pending send still uses the batch, it is released when the send completed.
+                if (Volatile.Read(ref _sending) == 0)
+                {
+                    ReleaseBatch();
+                    _sendArgs.Dispose();
+                }
+            }
+
+            if (!keepQueued)
+            {
+                _discardQueued = true;
+                DiscardQueued();
+            }
+        }
+
+        /// <summary>
+        /// A message was queued without lock but the queue was closed. Must not be called inside the lock.
+        /// </summary>
+        /// <returns>True if the queued messages were discarded, false if they are kept for CloseAndTakeUnsent.</returns>
+        private bool DiscardQueuedAfterClose()
+        {
+            lock (_lock)
+            {
+                if (!_discardQueued)
+                    return false;
+
+                DiscardQueued();
+                return true;
+            }
+        }
+
+        /// <summary>
+        /// Release all queued messages. Must be called inside the lock.
+        /// </summary>
+        private void DiscardQueued()
+        {
+            // Pairs with the full fence of ConcurrentQueue.Enqueue: either Enqueue sees _closed afterwards or
+            // the message is taken here.
+            Thread.MemoryBarrier();
+
+            QueuedMessage message;
+            while (_queue.TryDequeue(out message))
+            {
+                message.Owner?.Release();
+                Interlocked.Decrement(ref _queueLength);
+                Interlocked.Add(ref _pendingBytes, -message.Data.Count);
+            }
+        }
+
+        /// <summary>
+        /// Release the shared buffers of the batch and clear it. Must be called inside the lock.
+        /// </summary>
+        private void ReleaseBatch()
+        {
+            foreach (var message in _batch)
+                Interlocked.Add(ref _pendingBytes, -message.Count);
+            foreach (var owner in _batchOwners)
+                owner?.Release();
+            _batchOwners.Clear();
+            _batch.Clear();
+        }
+
+        /// <summary>
+        /// Send the queued messages till a send is pending or the queue is empty. Only called by the owner
+        /// of the sending.
+        /// </summary>
+        private void SendNext()
+        {
+            if (_stream != null)
+            {
+                WriteBatchesAsync();
+                return;
+            }
+
+            while (PrepareBatch())
+            {
+                _sendArgs.BufferList = _batch;
+                Volatile.Write(ref _sendStarted, Stopwatch.GetTimestamp());
+                try
+                {
+                    // Pending sends are continued inside OnSendCompleted.
+                    if (_socket.SendAsync(_sendArgs))
+                        return;
+                }
+                catch (ObjectDisposedException)
+                {
+                    Fail(SocketError.Shutdown.ToString());
+                    return;
+                }
+
+                if (!ProcessSend(_sendArgs))
+                    return;
+            }
+        }
+
+        /// <summary>
+        /// Fill the batch with the next messages if it is empty. Gives up the ownership of the sending when
+        /// there is nothing to send.
+        /// </summary>
+        /// <returns>True if the batch should be sent, false if the sending ended.</returns>
+        private bool PrepareBatch()
+        {
+            lock (_lock)
+            {
+                while (true)
+                {
+                    if (_closed)
+                    {
+                        Interlocked.Exchange(ref _sending, 0);
+                        ReleaseBatch();
+                        _sendArgs.Dispose();
+                        return false;
+                    }
+
+                    if (_batch.Count > 0)
+                        return true;
+
+                    if (ShouldSend())
+                    {
+                        // There is space in the queue now.
+                        FillBatch();
+                        Monitor.PulseAll(_lock);
+                        if (_batch.Count > 0)
+                            return true;
+                    }
+
+                    if (_queue.IsEmpty)
+                        _flushRequested = false;
+                    else
+                        ArmFlushTimer();
+
+                    // A message that was queued after the check above could not start the sending, so check
+                    // again after the ownership was given up.
+                    Interlocked.Exchange(ref _sending, 0);
+                    if (!ShouldSend() || !TryStartSending())
+                        return false;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Write the queued messages to the stream till the queue is empty.
+        /// </summary>
+        /// <remarks>
+        /// The batch is copied into one buffer, so an SslStream encrypts it into as few records as possible.
+        /// </remarks>
+        /// <returns>Task that completes when the sending ended.</returns>
+        private async Task WriteBatchesAsync()
+        {
+            while (PrepareBatch())
+            {
+                var bytes = 0;
+                foreach (var message in _batch)
+                    bytes += message.Count;
+
+                var buffer = BufferPool.Shared.Rent(bytes);
+                try
+                {
+                    var offset = 0;
+                    foreach (var message in _batch)
+                    {
+                        Buffer.BlockCopy(message.Array, message.Offset, buffer, offset, message.Count);
+                        offset += message.Count;
+                    }
+
+                    Volatile.Write(ref _sendStarted, Stopwatch.GetTimestamp());
+                    await _stream.WriteAsync(buffer, 0, bytes).ConfigureAwait(false);
+                }
+                catch (Exception ex)
+                {
+                    // Nobody awaits this task, every failure of the stream ends the connection.
+                    Fail(ex.Message);
+                    return;
+                }
+                finally
+                {
+                    BufferPool.Shared.Return(buffer);
+                }
+
+                Volatile.Write(ref _sendStarted, 0);
+                CompleteSend(bytes);
+            }
+        }
+
+        /// <summary>
+        /// An asynchronous send completed.
+        /// </summary>
+        /// <param name="sender">Sender of the event.</param>
+        /// <param name="e">Event arguments of the send.</param>
+        private void OnSendCompleted(object sender, SocketAsyncEventArgs e)
+        {
+            if (ProcessSend(e))
+                SendNext();
+        }
+
+        /// <summary>
+        /// Process a completed send.
+        /// </summary>
+        /// <param name="e">Event arguments of the send.</param>
+        /// <returns>True if the sending should continue.</returns>
+        private bool ProcessSend(SocketAsyncEventArgs e)
+        {
+            Volatile.Write(ref _sendStarted, 0);
+            if (e.SocketError != SocketError.Success)
+            {
+                Fail(e.SocketError.ToString());
+                return false;
+            }
+
+            CompleteSend(e.BytesTransferred);
+            return true;
+        }
+
+        /// <summary>
+        /// Remove the sent bytes from the batch.
+        /// </summary>
+        /// <param name="bytesSent">Number of sent bytes.</param>
+        private void CompleteSend(int bytesSent)
+        {
+            lock (_lock)
+            {
+                Interlocked.Add(ref _pendingBytes, -bytesSent);
+                Interlocked.Add(ref _bytesSent, bytesSent);
+                Interlocked.Increment(ref _batchesSent);
+
+                // Keep what was not sent inside the batch.
+                var remaining = bytesSent;
+                _spare.Clear();
+                _spareOwners.Clear();
+                for (var index = 0; index < _batch.Count; index++)
+                {
+                    var message = _batch[index];
+                    var owner = _batchOwners[index];
+                    if (remaining >= message.Count)
+                    {
+                        remaining -= message.Count;
+                        owner?.Release();
+                        Interlocked.Increment(ref _messagesSent);
+                        continue;
+                    }
+
+                    if (remaining > 0)
+                    {
+                        message = new ArraySegment<byte>(message.Array, message.Offset + remaining, message.Count - remaining);
+                        remaining = 0;
+                    }
+                    _spare.Add(message);
+                    _spareOwners.Add(owner);
+                }
+                _batch.Clear();
+                _batchOwners.Clear();
+
+                var sent = _batch;
+                _batch = _spare;
+                _spare = sent;
+                var sentOwners = _batchOwners;
+                _batchOwners = _spareOwners;
+                _spareOwners = sentOwners;
+                Monitor.PulseAll(_lock);
+            }
+
+            _sent?.Invoke();
+        }
+
+        /// <summary>
+        /// A send failed: close the queue and inform the connection.
+        /// </summary>
+        /// <param name="error">Description of the error.</param>
+        private void Fail(string error)
+        {
+            Volatile.Write(ref _sendStarted, 0);
+            lock (_lock)
+            {
+                Interlocked.Exchange(ref _sending, 0);
+                if (_closed)
+                {
+                    ReleaseBatch();
+                    _sendArgs.Dispose();
+                    return;
+                }
+                CloseInsideLock(true);
+            }
+
+            Logger.TraceEvent(TraceEventType.Error, 0, "Sending failed: {0}", error);
+            _failed();
+        }
+
+        #endregion
+    }
+}
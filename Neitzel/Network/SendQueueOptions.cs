@@ -0,0 +1,56 @@
+﻿using System;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Options of the send queue of a connection.
+    /// </summary>
+    public class SendQueueOptions
+    {
+        /// <summary>
+        /// Default maximum number of queued messages.
+        /// </summary>
+        public const int DefaultMaxQueueLength = 1024;
+
+        /// <summary>
+        /// Default maximum number of bytes that are not sent yet.
+        /// </summary>
+        public const long DefaultMaxPendingBytes = 1024 * 1024;
+
+        /// <summary>
+        /// Default maximum number of bytes written with one gather send.
+        /// </summary>
+        public const int DefaultMaxBatchBytes = 64 * 1024;
+
+        /// <summary>
+        /// Maximum number of queued messages (not counting the message that is currently sent).
+        /// </summary>
+        public int MaxQueueLength { get; set; } = DefaultMaxQueueLength;
+
+        /// <summary>
+        /// Maximum number of bytes that are not sent yet.
+        /// </summary>
+        public long MaxPendingBytes { get; set; } = DefaultMaxPendingBytes;
+
+        /// <summary>
+        /// What the queue does with a new message when it is full.
+        /// </summary>
+        public SendOverflowPolicy OverflowPolicy { get; set; } = SendOverflowPolicy.Block;
+
+        /// <summary>
+        /// Time queued messages wait for more messages before they are sent together.
+        /// </summary>
+        /// <remarks>
+        /// TimeSpan.Zero sends at once (messages queued during a send are still sent together).
+        /// Timeout.InfiniteTimeSpan only sends on Flush, which the connections call after each receive.
+        /// A full queue with SendOverflowPolicy.Block is always flushed, so a blocked sender does not wait
+        /// for the flush delay.
+        /// </remarks>
+        public TimeSpan FlushDelay { get; set; } = TimeSpan.Zero;
+
+        /// <summary>
+        /// Maximum number of bytes written with one gather send.
+        /// </summary>
+        public int MaxBatchBytes { get; set; } = DefaultMaxBatchBytes;
+    }
+}
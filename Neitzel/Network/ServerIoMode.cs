@@ -0,0 +1,24 @@
+﻿namespace Neitzel.Network
+{
+    /// <summary>
+    /// The way a TcpIpServerConnection handles the io of the server and its client connections.
+    /// </summary>
+    public enum ServerIoMode
+    {
+        /// <summary>
+        /// A dedicated io thread polls the listen socket and all client connections and sleeps
+        /// between the loop passes.
+        /// </summary>
+        Polling,
+
+        /// <summary>
+        /// Accepts and receives are done through SocketAsyncEventArgs. Nothing is polled, the
+        /// completions are handled on the thread pool once a socket is ready.
+        /// </summary>
+        /// <remarks>
+        /// The events of one client connection are never raised in parallel and keep their order
+        /// but events of different client connections can be raised in parallel.
+        /// </remarks>
+        Asynchronous
+    }
+}
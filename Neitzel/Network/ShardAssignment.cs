@@ -0,0 +1,18 @@
+﻿namespace Neitzel.Network
+{
+    /// <summary>
+    /// The way new client connections are assigned to the io shards of a TcpIpServerConnection.
+    /// </summary>
+    public enum ShardAssignment
+    {
+        /// <summary>
+        /// The shards get the new connections in turn.
+        /// </summary>
+        RoundRobin,
+
+        /// <summary>
+        /// The shard with the fewest connections gets the new connection.
+        /// </summary>
+        LeastConnections
+    }
+}
@@ -0,0 +1,120 @@
+﻿using System;
+using System.Threading;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// A pooled message that is shared by reference counting, e.g. by the send queues of many connections.
+    /// </summary>
+    /// <remarks>
+    /// The creator holds the first reference. Every user that keeps the buffer calls AddReference and
+    /// Release when it is done. The array goes back to the BufferPool when the last reference is released,
+    /// so the data must not be used after Release.
+    /// </remarks>
+    public class SharedBuffer
+    {
+        #region Fields
+
+        /// <summary>
+        /// Pool the array was rented from.
+        /// </summary>
+        private readonly BufferPool _pool;
+
+        /// <summary>
+        /// Number of references.
+        /// </summary>
+        private int _references = 1;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of SharedBuffer with an array from BufferPool.Shared.
+        /// </summary>
+        /// <remarks>
+        /// The content of the array is undefined and must be written through Data before the buffer is sent.
+        /// </remarks>
+        /// <param name="length">Length of the message.</param>
+        public SharedBuffer(int length)
+            : this(BufferPool.Shared, length)
+        {
+        }
+
+        /// <summary>
+        /// Creates a new instance of SharedBuffer with an array from the given pool.
+        /// </summary>
+        /// <param name="pool">Pool to rent the array from.</param>
+        /// <param name="length">Length of the message.</param>
+        public SharedBuffer(BufferPool pool, int length)
+        {
+            if (pool == null) throw new ArgumentNullException(nameof(pool));
+            if (length < 0) throw new ArgumentOutOfRangeException(nameof(length));
+
+            _pool = pool;
+            Data = new ArraySegment<byte>(pool.Rent(length), 0, length);
+        }
+
+        /// <summary>
+        /// Creates a new instance of SharedBuffer with a copy of the message.
+        /// </summary>
+        /// <param name="message">Message to copy.</param>
+        public SharedBuffer(ArraySegment<byte> message)
+            : this(BufferPool.Shared, message.Count)
+        {
+            Buffer.BlockCopy(message.Array, message.Offset, Data.Array, 0, message.Count);
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// The message.
+        /// </summary>
+        public ArraySegment<byte> Data { get; private set; }
+
+        /// <summary>
+        /// Number of references that were not released yet.
+        /// </summary>
+        public int References => Volatile.Read(ref _references);
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Set the length of the message, e.g. after a message was encoded into a buffer with its maximum length.
+        /// </summary>
+        /// <param name="length">New length of the message.</param>
+        public void SetLength(int length)
+        {
+            if (length < 0 || length > Data.Array.Length) throw new ArgumentOutOfRangeException(nameof(length));
+
+            Data = new ArraySegment<byte>(Data.Array, 0, length);
+        }
+
+        /// <summary>
+        /// Add a reference.
+        /// </summary>
+        public void AddReference()
+        {
+            if (Interlocked.Increment(ref _references) <= 1)
+                throw new InvalidOperationException("Buffer already released!");
+        }
+
+        /// <summary>
+        /// Release a reference. The array is returned to the pool when the last reference is released.
+        /// </summary>
+        public void Release()
+        {
+            var references = Interlocked.Decrement(ref _references);
+            if (references == 0)
+                _pool.Return(Data.Array);
+            else if (references < 0)
+                throw new InvalidOperationException("Buffer already released!");
+        }
+
+        #endregion
+    }
+}
@@ -1,4 +1,5 @@
 ﻿using System;
+using System.Diagnostics;
 using System.Text;
 
 namespace Neitzel.Network
@@ -10,9 +11,108 @@ namespace Neitzel.Network
     /// Such a decode class which subscribes to an MessageReceived event is possible as shown here
     /// and it makes it possible to have a chain of decoder who checks the messages for different things,
     /// but this design is not required. 
+    ///
+    /// Messages end with "\r\n". The line ends are searched on the received bytes and every byte is only
+    /// searched once, so the work is linear in the received bytes also when a line arrives in a lot of
+    /// small parts. Each line is decoded once when it is complete, so characters that are split over two
+    /// receives are decoded correctly. Empty lines are skipped.
+    ///
+    /// The decoder keeps the bytes of an incomplete line, so each connection needs its own StringDecoder.
+    ///
+    /// MessageDecoded creates a string and event arguments for every line. Handlers of LineDecoded get the
+    /// line inside reused event arguments instead, so parsing and dropping lines does not allocate.
     /// </remarks>
     public class StringDecoder
     {
+        #region Constants
+
+        /// <summary>
+        /// Default maximum length of a line in bytes.
+        /// </summary>
+        public const int DefaultMaxLineLength = 64 * 1024;
+
+        /// <summary>
+        /// Initial size of the buffer for an incomplete line.
+        /// </summary>
+        private const int InitialBufferSize = 256;
+
+        /// <summary>
+        /// Carriage return.
+        /// </summary>
+        private const byte Cr = (byte) '\r';
+
+        /// <summary>
+        /// Line feed.
+        /// </summary>
+        private const byte Lf = (byte) '\n';
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(NetworkConstants.TraceSourceName);
+
+        /// <summary>
+        /// Encoding used to encode and decode strings.
+        /// </summary>
+        private Encoding _internalEncoder;
+
+        /// <summary>
+        /// Decoder of the encoding.
+        /// </summary>
+        private Decoder _decoder;
+
+        /// <summary>
+        /// Bytes we received so far that are not decoded yet.
+        /// </summary>
+        private byte[] _buffer = new byte[InitialBufferSize];
+
+        /// <summary>
+        /// Number of bytes inside _buffer.
+        /// </summary>
+        private int _count;
+
+        /// <summary>
+        /// Number of bytes inside _buffer that were already searched for a line end.
+        /// </summary>
+        private int _scanned;
+
+        /// <summary>
+        /// Set while the rest of a too long line is dropped.
+        /// </summary>
+        private bool _discarding;
+
+        /// <summary>
+        /// Buffer for the decoded characters of a line.
+        /// </summary>
+        private char[] _chars = new char[0];
+
+        /// <summary>
+        /// Event arguments that are reused for all LineDecoded events.
+        /// </summary>
+        private readonly LineDecodedEventArgs _lineEventArgs;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Create a new instance of StringDecoder.
+        /// </summary>
+        /// <param name="internalEncoder">Encoding of the messages.</param>
+        public StringDecoder(Encoding internalEncoder)
+        {
+            InternalEncoder = internalEncoder;
+            _lineEventArgs = new LineDecodedEventArgs(this);
+        }
+
+        #endregion
+
+        #region Events
+
         /// <summary>
         /// Event that a Message was Received
         /// </summary>
@@ -22,29 +122,61 @@ namespace Neitzel.Network
         /// </remarks>
         public event EventHandler<TextMessageEventArgs> MessageDecoded;
 
+        /// <summary>
+        /// Event that a line was decoded, raised before MessageDecoded.
+        /// </summary>
+        /// <remarks>
+        /// The event arguments are reused and only valid while the handler runs, see LineDecodedEventArgs.
+        /// This is done on the IO Thread of the socket like MessageDecoded.
+        /// </remarks>
+        public event EventHandler<LineDecodedEventArgs> LineDecoded;
+
+        #endregion
+
+        #region Properties
 
         /// <summary>
         /// Encoder used to encode strings.
         /// </summary>
-        public Encoding InternalEncoder { get; set; }
+        /// <remarks>
+        /// The line ends are searched on the bytes, so the encoding must encode "\r\n" as the two bytes 13 and 10
+        /// like UTF-8, ASCII or the ANSI code pages do.
+        /// </remarks>
+        public Encoding InternalEncoder
+        {
+            get { return _internalEncoder; }
+            set
+            {
+                if (value == null) throw new ArgumentNullException(nameof(value));
+                var lineEnd = value.GetBytes("\r\n");
+                if (lineEnd.Length != 2 || lineEnd[0] != Cr || lineEnd[1] != Lf)
+                    throw new ArgumentException("The encoding must encode \"\\r\\n\" as the bytes 13 and 10.", nameof(value));
+
+                _internalEncoder = value;
+                _decoder = value.GetDecoder();
+            }
+        }
 
         /// <summary>
-        /// Text we received so far.
+        /// Maximum length of a line in bytes without the line end. 0 means no limit.
         /// </summary>
-        private string _receivedText = string.Empty;
+        public int MaxLineLength { get; set; } = DefaultMaxLineLength;
 
         /// <summary>
-        /// Create a new instance of StringDecoder.
+        /// What to do with a line that is longer than MaxLineLength.
         /// </summary>
-        /// <param name="internalEncoder"></param>
-        public StringDecoder(Encoding internalEncoder)
-        {
-            InternalEncoder = internalEncoder;
-        }
+        public LineOverflowPolicy LineOverflowPolicy { get; set; } = LineOverflowPolicy.Discard;
+
+        #endregion
+
+        #region Public Methods
 
         /// <summary>
         /// MessageReceiver should receive the BytesReceivedEventArgs and should be registered with such an event.
         /// </summary>
+        /// <remarks>
+        /// With LineOverflowPolicy.Disconnect the sender is disposed when a line is too long.
+        /// </remarks>
         /// <param name="sender">Sender of that message.</param>
         /// <param name="bytesReceivedEvent">The bytes received event</param>
         public void MessageReceiver(object sender, BytesReceivedEventArgs bytesReceivedEvent)
@@ -53,19 +185,54 @@ namespace Neitzel.Network
             if (sender == null) throw new ArgumentNullException(nameof(sender));
             if (bytesReceivedEvent == null) throw new ArgumentNullException(nameof(bytesReceivedEvent));
 
-            _receivedText += InternalEncoder.GetString(bytesReceivedEvent.ReceivedBytes);
-            // As long as there is a "\r\n" in the Buffer
-            int locationCrlf;
-            while ((locationCrlf = _receivedText.IndexOf("\r\n", StringComparison.OrdinalIgnoreCase)) > 0)
+            Append(bytesReceivedEvent.Data);
+
+            // Search the new bytes for line ends.
+            var lineStart = 0;
+            while (_scanned < _count)
             {
-                // The received Message is start of buffer till \r\n
-                string message = _receivedText.Substring(0, locationCrlf);
+                var lf = Array.IndexOf(_buffer, Lf, _scanned, _count - _scanned);
+                if (lf < 0)
+                {
+                    _scanned = _count;
+                    break;
+                }
+
+                _scanned = lf + 1;
 
-                // The Buffer is now starting behind the \r\n combination
-                _receivedText = _receivedText.Substring(locationCrlf + 2);
+                // A LF without CR is part of the line.
+                if (lf == lineStart || _buffer[lf - 1] != Cr)
+                    continue;
 
-                // Trigger the event that we got a new IrcMessage
-                OnMessageDecoded(sender, new TextMessageEventArgs(message));
+                var length = lf - 1 - lineStart;
+                if (_discarding)
+                {
+                    // End of a line that was too long.
+                    _discarding = false;
+                }
+                else if (MaxLineLength > 0 && length > MaxLineLength)
+                {
+                    if (!HandleOversizedLine(sender))
+                        return;
+                }
+                else if (length > 0)
+                {
+                    DecodeLine(sender, lineStart, length);
+                }
+                lineStart = lf + 1;
+            }
+
+            RemoveDecodedBytes(lineStart);
+
+            // An incomplete line that is already too long (a CR at the end may belong to the line end).
+            if (MaxLineLength > 0 && _count > MaxLineLength + 1)
+            {
+                if (!_discarding && !HandleOversizedLine(sender))
+                    return;
+
+                // Drop the bytes but keep a CR at the end.
+                _discarding = true;
+                RemoveDecodedBytes(_buffer[_count - 1] == Cr ? _count - 1 : _count);
             }
         }
 
@@ -90,5 +257,101 @@ namespace Neitzel.Network
         {
             return InternalEncoder.GetBytes(message);
         }
+
+        #endregion
+
+        #region Internal Methods
+
+        /// <summary>
+        /// Decode bytes into the character buffer of this decoder.
+        /// </summary>
+        /// <param name="bytes">Bytes to decode.</param>
+        /// <returns>The characters. They are valid till the next call.</returns>
+        internal ArraySegment<char> DecodeChars(ArraySegment<byte> bytes)
+        {
+            var maxChars = _internalEncoder.GetMaxCharCount(bytes.Count);
+            if (_chars.Length < maxChars)
+                _chars = new char[maxChars];
+
+            var charCount = _decoder.GetChars(bytes.Array, bytes.Offset, bytes.Count, _chars, 0, true);
+            return new ArraySegment<char>(_chars, 0, charCount);
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Append received bytes to the buffer.
+        /// </summary>
+        /// <param name="data">Received bytes.</param>
+        private void Append(ArraySegment<byte> data)
+        {
+            if (_count + data.Count > _buffer.Length)
+            {
+                var size = _buffer.Length;
+                while (size < _count + data.Count)
+                    size *= 2;
+                Array.Resize(ref _buffer, size);
+            }
+
+            Buffer.BlockCopy(data.Array, data.Offset, _buffer, _count, data.Count);
+            _count += data.Count;
+        }
+
+        /// <summary>
+        /// Remove bytes from the start of the buffer.
+        /// </summary>
+        /// <param name="count">Number of bytes to remove.</param>
+        private void RemoveDecodedBytes(int count)
+        {
+            if (count == 0)
+                return;
+
+            _count -= count;
+            _scanned -= count;
+            Buffer.BlockCopy(_buffer, count, _buffer, 0, _count);
+        }
+
+        /// <summary>
+        /// Raise the LineDecoded and MessageDecoded events for a complete line.
+        /// </summary>
+        /// <param name="sender">Sender of the bytes.</param>
+        /// <param name="start">Index of the line inside the buffer.</param>
+        /// <param name="length">Length of the line without the line end.</param>
+        private void DecodeLine(object sender, int start, int length)
+        {
+            // The characters are decoded once, by the first handler that needs them.
+            _lineEventArgs.Reset(new ArraySegment<byte>(_buffer, start, length));
+
+            var lineHandler = LineDecoded;
+            lineHandler?.Invoke(sender, _lineEventArgs);
+
+            if (MessageDecoded != null)
+                OnMessageDecoded(sender, new TextMessageEventArgs(_lineEventArgs.GetString()));
+        }
+
+        /// <summary>
+        /// Handle a line that is longer than MaxLineLength.
+        /// </summary>
+        /// <param name="sender">Sender of the bytes.</param>
+        /// <returns>True if decoding should continue, false if the connection was closed.</returns>
+        private bool HandleOversizedLine(object sender)
+        {
+            if (LineOverflowPolicy == LineOverflowPolicy.Discard)
+            {
+                Logger.TraceEvent(TraceEventType.Warning, 0, "Discarding a line that is longer than {0} bytes.", MaxLineLength);
+                return true;
+            }
+
+            Logger.TraceEvent(TraceEventType.Warning, 0, "Closing the connection because a line is longer than {0} bytes.", MaxLineLength);
+            _count = 0;
+            _scanned = 0;
+            _discarding = false;
+            (sender as IDisposable)?.Dispose();
+            return false;
+        }
+
+        #endregion
     }
 }
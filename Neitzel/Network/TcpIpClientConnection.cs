@@ -1,17 +1,29 @@
 ﻿using System;
+using System.Collections.Generic;
 using System.Diagnostics;
 using System.IO;
-using System.Linq;
 using System.Net;
+using System.Net.Security;
 using System.Net.Sockets;
+using System.Security.Cryptography.X509Certificates;
 using System.Threading;
+using System.Threading.Tasks;
 
 namespace Neitzel.Network
 {
 
     /// <summary>
-    /// A tcp/ip client connection which reads the data with its own thread.
+    /// A tcp/ip client connection which reads the data asynchronously.
     /// </summary>
+    /// <remarks>
+    /// The connection has no thread of its own. Data is read with ReadAsync into a pooled buffer, so a
+    /// lot of connections share the threads of the I/O completion ports. The events are raised on these
+    /// threads, so handlers should not block.
+    ///
+    /// With a ReconnectPolicy the instance is not closed when the connection is lost. It connects again
+    /// in the background, keeps its event handlers and sends the messages that were not sent yet once it is
+    /// connected again.
+    /// </remarks>
     public class TcpIpClientConnection : DisposableObject
     {
         #region Fields
@@ -22,24 +34,49 @@ namespace Neitzel.Network
         private static readonly TraceSource Logger = new TraceSource(NetworkConstants.TraceSourceName);
 
         /// <summary>
-        /// A Flag to indicate, that the Thread should end.
+        /// A Flag to indicate, that the receiving should end.
         /// </summary>
-        private bool _endThread;
+        private volatile bool _endReceive;
 
         /// <summary>
-        /// TcpClient used.
+        /// Socket used once we are connected.
         /// </summary>
-        private TcpClient _client;
+        private Socket _socket;
 
         /// <summary>
-        /// Listener thread.
+        /// Stream used for sending and receiving of data once we are connected. An SslStream with TLS.
         /// </summary>
-        private Thread _listenerThread;
+        private Stream _ioStream;
 
         /// <summary>
-        /// Stream used for sending and receiving of data once we are connected.
+        /// Tracks the activity and the timeouts of the connection once we are connected.
         /// </summary>
-        private NetworkStream _ioStream;
+        private ConnectionTimeoutTracker _timeoutTracker;
+
+        /// <summary>
+        /// Kind of the timeout that expired. Null as long as no timeout expired.
+        /// </summary>
+        private ConnectionTimeoutKind? _expiredTimeout;
+
+        /// <summary>
+        /// Completed when the reader of the pipe caught up. Null as long as receiving is not paused.
+        /// </summary>
+        private volatile TaskCompletionSource<bool> _pipeResume;
+
+        /// <summary>
+        /// Lock for the reconnect state.
+        /// </summary>
+        private readonly object _reconnectLock = new object();
+
+        /// <summary>
+        /// Messages that wait for the reconnect.
+        /// </summary>
+        private readonly Queue<SharedBuffer> _unsent = new Queue<SharedBuffer>();
+
+        /// <summary>
+        /// Is the connection lost and a reconnect in progress?
+        /// </summary>
+        private volatile bool _reconnecting;
 
         #endregion
 
@@ -90,20 +127,35 @@ namespace Neitzel.Network
             // Dispose the instance.
             if (disposing)
             {
+                // Tell the owner before the handlers are removed.
+                OnDisconnected();
+
                 // Make sure, that we do not send any more events
                 RemoveAllHandlers();
 
-                // Indicate that the thread should end.
-                _endThread = true;
+                // Indicate that the receiving should end.
+                _endReceive = true;
+
+                // Stop the timeouts and the sending
+                _timeoutTracker?.Stop();
+                SendQueue?.Close();
+                Pipe?.Input.CompleteWriter();
 
                 // Handle the IOStream
                 _ioStream?.Close();
 
-                // Handle the _client
-                _client?.Close();
+                // Handle the socket
+                _socket?.Close();
+
+                // Messages that waited for a reconnect
+                lock (_reconnectLock)
+                {
+                    while (_unsent.Count > 0)
+                        _unsent.Dequeue().Release();
+                }
 
-                // Abort the Thread
-                _listenerThread?.Abort();
+                // Release a paused receive, it ends because the stream was closed.
+                _pipeResume?.TrySetResult(true);
             }
         }
 
@@ -116,6 +168,24 @@ namespace Neitzel.Network
         /// </summary>
         public event EventHandler<BytesReceivedEventArgs> MessageReceived;
 
+        /// <summary>
+        /// Event that the connection was closed, by Close or because the connection ended.
+        /// </summary>
+        /// <remarks>
+        /// With a ReconnectPolicy this is only raised when the reconnect gave up.
+        /// </remarks>
+        public event EventHandler Disconnected;
+
+        /// <summary>
+        /// Event that the connection was lost and will be connected again after a delay.
+        /// </summary>
+        public event EventHandler<ReconnectEventArgs> Reconnecting;
+
+        /// <summary>
+        /// Event that the connection was connected again.
+        /// </summary>
+        public event EventHandler Reconnected;
+
         #endregion
 
         #region Properties
@@ -138,17 +208,117 @@ namespace Neitzel.Network
         /// <summary>
         /// Gets a value indicating whether we an connection is established or not.
         /// </summary>
-        public bool Connected => _client?.Connected ?? false;
+        public bool Connected => _socket?.Connected ?? false;
 
         /// <summary>
         /// Size of buffer used when receiving data.
         /// </summary>
-        public int BufferSize { get; set; } = 40960;
+        public int BufferSize { get; set; } = 32768;
 
         /// <summary>
         /// Timeout of the connection in seconds. 0 means no timeout.
         /// </summary>
-        public int Timeout { get; set; } = NetworkConstants.DefaultTimeout;
+        /// <remarks>
+        /// This is the read timeout of Timeouts.
+        /// </remarks>
+        public int Timeout
+        {
+            get { return (int) Timeouts.ReadTimeout.TotalSeconds; }
+            set { Timeouts = Timeouts.WithReadTimeout(TimeSpan.FromSeconds(value)); }
+        }
+
+        /// <summary>
+        /// All timeouts of the connection.
+        /// </summary>
+        /// <remarks>
+        /// Changeing this property does not have any effect on a connection.
+        /// </remarks>
+        public ConnectionTimeouts Timeouts { get; set; } = ConnectionTimeouts.None.WithReadTimeout(TimeSpan.FromSeconds(NetworkConstants.DefaultTimeout));
+
+        /// <summary>
+        /// The way received bytes are handed over to the protocol code.
+        /// </summary>
+        /// <remarks>
+        /// Changeing this property does not have any effect on a connection.
+        /// </remarks>
+        public ReceiveMode ReceiveMode { get; set; } = ReceiveMode.Copy;
+
+        /// <summary>
+        /// Options of the pipe in ReceiveMode.Pipe.
+        /// </summary>
+        /// <remarks>
+        /// Changeing this property does not have any effect on a connection.
+        /// </remarks>
+        public ConnectionPipeOptions PipeOptions { get; set; } = new ConnectionPipeOptions();
+
+        /// <summary>
+        /// Duplex pipe once we are connected. Null if the ReceiveMode is not ReceiveMode.Pipe.
+        /// </summary>
+        public ConnectionPipe Pipe { get; private set; }
+
+        /// <summary>
+        /// Options of the send queue. Null means that SendMessage sends synchronously on the thread of the caller.
+        /// </summary>
+        /// <remarks>
+        /// Changeing this property does not have any effect on a connection.
+        /// </remarks>
+        public SendQueueOptions SendQueueOptions { get; set; }
+
+        /// <summary>
+        /// Queue of outgoing messages once we are connected. Null if messages are sent synchronously.
+        /// </summary>
+        public SendQueue SendQueue { get; private set; }
+
+        /// <summary>
+        /// Time to resolve the host and to connect. System.Threading.Timeout.InfiniteTimeSpan means no timeout.
+        /// </summary>
+        public TimeSpan ConnectTimeout { get; set; } = TimeSpan.FromSeconds(30);
+
+        /// <summary>
+        /// Time to wait for a connection attempt before the next address of the host is tried in parallel.
+        /// </summary>
+        /// <remarks>
+        /// RFC 8305 recommends 250 ms.
+        /// </remarks>
+        public TimeSpan ConnectionAttemptDelay { get; set; } = TimeSpan.FromMilliseconds(250);
+
+        /// <summary>
+        /// Cache for the addresses of the host. Null resolves the host on each connect.
+        /// </summary>
+        public DnsCache DnsCache { get; set; } = DnsCache.Shared;
+
+        /// <summary>
+        /// How to connect again when the connection is lost. Null closes the instance instead.
+        /// </summary>
+        /// <remarks>
+        /// Not used in ReceiveMode.Pipe, the pipe ends with the connection.
+        /// </remarks>
+        public ReconnectPolicy ReconnectPolicy { get; set; }
+
+        /// <summary>
+        /// Gets a value indicating whether the connection was lost and is connected again in the background.
+        /// </summary>
+        public bool IsReconnecting => _reconnecting;
+
+        /// <summary>
+        /// Options of TLS. Null means that the connection is not encrypted.
+        /// </summary>
+        /// <remarks>
+        /// Changeing this property does not have any effect on a connection. With TLS the messages are always
+        /// sent through a SendQueue that is written with WriteAsync, with default options if SendQueueOptions
+        /// is null.
+        /// </remarks>
+        public TlsClientOptions TlsOptions { get; set; }
+
+        /// <summary>
+        /// Gets a value indicating whether the connection is encrypted with TLS.
+        /// </summary>
+        public bool IsEncrypted => _ioStream is SslStream;
+
+        /// <summary>
+        /// Certificate of the server. Null if the connection is not encrypted.
+        /// </summary>
+        public X509Certificate RemoteCertificate => (_ioStream as SslStream)?.RemoteCertificate;
 
         #endregion
 
@@ -158,6 +328,31 @@ namespace Neitzel.Network
         /// Connect to the server.
         /// </summary>
         public void Connect()
+        {
+            ConnectAsync(CancellationToken.None).GetAwaiter().GetResult();
+        }
+
+        /// <summary>
+        /// Connect to the server without blocking the calling thread.
+        /// </summary>
+        /// <returns>Task that completes when the connection is established.</returns>
+        public Task ConnectAsync()
+        {
+            return ConnectAsync(CancellationToken.None);
+        }
+
+        /// <summary>
+        /// Connect to the server without blocking the calling thread.
+        /// </summary>
+        /// <remarks>
+        /// All addresses of the host are tried with Happy Eyeballs (RFC 8305): the next address is tried after
+        /// ConnectionAttemptDelay and the first connection wins. The addresses are taken from DnsCache.
+        /// With TlsOptions the task completes after the TLS handshake.
+        /// </remarks>
+        /// <param name="cancellationToken">Token to cancel the connect.</param>
+        /// <returns>Task that completes when the connection is established.</returns>
+        /// <exception cref="TimeoutException">The connect took longer than ConnectTimeout or the TLS handshake took longer than its HandshakeTimeout.</exception>
+        public async Task ConnectAsync(CancellationToken cancellationToken)
         {
             // Validate state
             if (string.IsNullOrEmpty(HostName))
@@ -168,17 +363,7 @@ namespace Neitzel.Network
             // connect
             try
             {
-                // Get the connection up
-                var serverEndpoint = new IPEndPoint(Dns.GetHostAddresses(HostName).First(), Port);
-
-                _client = new TcpClient();
-                _client.Connect(serverEndpoint);
-
-                // Get the Stream 
-                _ioStream = _client.GetStream();
-
-                _listenerThread = new Thread(ListenForMessages);
-                _listenerThread.Start();
+                await ConnectAndStartAsync(cancellationToken).ConfigureAwait(false);
             }
             catch (Exception ex)
             {
@@ -191,15 +376,33 @@ namespace Neitzel.Network
         /// <summary>
         /// Send a Message to the server
         /// </summary>
+        /// <remarks>
+        /// With a SendQueue the message is only queued and must not be changed afterwards.
+        /// </remarks>
         /// <param name="message">An message to send</param>
         public void SendMessage(byte[] message)
         {
             // validate
             if (message == null) throw new ArgumentNullException(nameof(message));
 
+            if (_reconnecting && KeepForReconnect(new SharedBuffer(new ArraySegment<byte>(message))))
+                return;
+
+            var queue = SendQueue;
+            if (queue != null)
+            {
+                if (!queue.Enqueue(new ArraySegment<byte>(message)))
+                {
+                    var buffer = new SharedBuffer(new ArraySegment<byte>(message));
+                    KeepRefusedMessage(queue, buffer);
+                    buffer.Release();
+                }
+                return;
+            }
+
             try
             {
-                _ioStream.Write(message, 0, message.Length);
+                Write(new ArraySegment<byte>(message));
             }
             catch (Exception ex)
             {
@@ -209,6 +412,55 @@ namespace Neitzel.Network
             }
         }
 
+        /// <summary>
+        /// Send a shared buffer to the server.
+        /// </summary>
+        /// <remarks>
+        /// With a SendQueue the queue keeps its own reference till the message was sent, so the caller
+        /// can release its reference directly after this call.
+        /// </remarks>
+        /// <param name="buffer">Shared buffer to send.</param>
+        public void SendMessage(SharedBuffer buffer)
+        {
+            if (buffer == null) throw new ArgumentNullException(nameof(buffer));
+
+            if (_reconnecting)
+            {
+                buffer.AddReference();
+                if (KeepForReconnect(buffer))
+                    return;
+            }
+
+            var queue = SendQueue;
+            if (queue != null)
+            {
+                if (!queue.Enqueue(buffer))
+                    KeepRefusedMessage(queue, buffer);
+                return;
+            }
+
+            Write(buffer.Data);
+        }
+
+        /// <summary>
+        /// Send all messages that wait inside the SendQueue.
+        /// </summary>
+        /// <remarks>
+        /// The connection flushes after each receive.
+        /// </remarks>
+        public void Flush()
+        {
+            SendQueue?.Flush();
+        }
+
+        /// <summary>
+        /// Signal that the handshake of the connection was completed so the handshake timeout ends.
+        /// </summary>
+        public void CompleteHandshake()
+        {
+            _timeoutTracker?.CompleteHandshake();
+        }
+
         /// <summary>
         /// Close the connection / Dispose this instance.
         /// </summary>
@@ -234,76 +486,424 @@ namespace Neitzel.Network
             handler?.Invoke(this, e);
         }
 
+        /// <summary>
+        /// Send the Disconnected Event
+        /// </summary>
+        protected virtual void OnDisconnected()
+        {
+            // Local copy to prevent race conditions
+            var handler = Disconnected;
+
+            // raise the event
+            handler?.Invoke(this, EventArgs.Empty);
+        }
+
+        /// <summary>
+        /// Send the Reconnecting Event
+        /// </summary>
+        /// <param name="e">ReconnectEventArgs to send.</param>
+        protected virtual void OnReconnecting(ReconnectEventArgs e)
+        {
+            // Local copy to prevent race conditions
+            var handler = Reconnecting;
+
+            // raise the event
+            handler?.Invoke(this, e);
+        }
+
+        /// <summary>
+        /// Send the Reconnected Event
+        /// </summary>
+        protected virtual void OnReconnected()
+        {
+            // Local copy to prevent race conditions
+            var handler = Reconnected;
+
+            // raise the event
+            handler?.Invoke(this, EventArgs.Empty);
+        }
+
         #endregion
 
         #region Private Methods
 
+        /// <summary>
+        /// Resolve the host and connect a socket.
+        /// </summary>
+        /// <param name="cancellationToken">Token to cancel the connect.</param>
+        /// <returns>The connected socket.</returns>
+        private async Task<Socket> ConnectSocketAsync(CancellationToken cancellationToken)
+        {
+            using (var connectCancellation = CancellationTokenSource.CreateLinkedTokenSource(cancellationToken))
+            {
+                if (ConnectTimeout != System.Threading.Timeout.InfiniteTimeSpan)
+                    connectCancellation.CancelAfter(ConnectTimeout);
+
+                try
+                {
+                    // Get the connection up
+                    var addresses = DnsCache != null
+                        ? await DnsCache.GetHostAddressesAsync(HostName, connectCancellation.Token).ConfigureAwait(false)
+                        : await Dns.GetHostAddressesAsync(HostName).ConfigureAwait(false);
+                    return await HappyEyeballsConnector.ConnectAsync(HappyEyeballsConnector.SortAddresses(addresses), Port,
+                        ConnectionAttemptDelay, connectCancellation.Token).ConfigureAwait(false);
+                }
+                catch (OperationCanceledException) when (!cancellationToken.IsCancellationRequested)
+                {
+                    throw new TimeoutException("Unable to connect to " + HostName + " within " + ConnectTimeout + ".");
+                }
+                catch (SocketException)
+                {
+                    // The addresses could be outdated.
+                    DnsCache?.Invalidate(HostName);
+                    throw;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Connect the socket, run the TLS handshake if there are TlsOptions and start the connection.
+        /// </summary>
+        /// <param name="cancellationToken">Token to cancel the connect.</param>
+        /// <returns>Task that completes when the connection is established.</returns>
+        private async Task ConnectAndStartAsync(CancellationToken cancellationToken)
+        {
+            var socket = await ConnectSocketAsync(cancellationToken).ConfigureAwait(false);
+            var tlsOptions = TlsOptions;
+            SslStream tlsStream = null;
+            if (tlsOptions != null)
+                tlsStream = await TlsHandshake.AuthenticateAsClientAsync(socket, tlsOptions.TargetHost ?? HostName, tlsOptions).ConfigureAwait(false);
+            Start(socket, tlsStream);
+        }
+
+        /// <summary>
+        /// Set up sending and receiving on a connected socket.
+        /// </summary>
+        /// <param name="socket">The connected socket.</param>
+        /// <param name="tlsStream">The authenticated TLS stream of the socket. Null without TLS.</param>
+        private void Start(Socket socket, SslStream tlsStream)
+        {
+            if (Disposed)
+            {
+                tlsStream?.Dispose();
+                socket.Dispose();
+                throw new InvalidOperationException("Connection was closed while connecting.");
+            }
+
+            _socket = socket;
+            _endReceive = false;
+            _expiredTimeout = null;
+            _socket.SendTimeout = (int) Timeouts.WriteTimeout.TotalMilliseconds;
+            _timeoutTracker = new ConnectionTimeoutTracker(TimingWheel.Shared, OnTimeout);
+            _timeoutTracker.Timeouts = Timeouts;
+            if (SendQueueOptions != null || tlsStream != null)
+            {
+                var options = SendQueueOptions ?? new SendQueueOptions();
+                var queue = tlsStream != null
+                    ? new SendQueue(tlsStream, options, OnSendFailed, _timeoutTracker.WriteActivity)
+                    : new SendQueue(_socket, options, OnSendFailed, _timeoutTracker.WriteActivity);
+                SendQueue = queue;
+                _timeoutTracker.PendingWriteSince = () => queue.PendingSendSince;
+            }
+            if (ReceiveMode == ReceiveMode.Pipe)
+                Pipe = new ConnectionPipe(PipeOptions, SendMessage, Flush, ResumeReceive, EndReceive);
+
+            // Get the Stream 
+            _ioStream = (Stream) tlsStream ?? new NetworkStream(_socket, true);
+
+            // Send what waited for the reconnect, before any new message.
+            lock (_reconnectLock)
+            {
+                while (_unsent.Count > 0)
+                {
+                    var buffer = _unsent.Dequeue();
+                    try
+                    {
+                        if (SendQueue != null)
+                            SendQueue.Enqueue(buffer);
+                        else
+                            Write(buffer.Data);
+                    }
+                    finally
+                    {
+                        buffer.Release();
+                    }
+                }
+                _reconnecting = false;
+            }
+
+            // The first receive must not raise events on the thread of the caller.
+            var stream = _ioStream;
+            Task.Run(() => ReceiveAsync(stream));
+        }
+
+        /// <summary>
+        /// Write a message synchronously.
+        /// </summary>
+        /// <param name="data">The message.</param>
+        private void Write(ArraySegment<byte> data)
+        {
+            _ioStream.Write(data.Array, data.Offset, data.Count);
+            _timeoutTracker.WriteActivity();
+        }
+
+        /// <summary>
+        /// Keep a message till the connection is connected again.
+        /// </summary>
+        /// <param name="buffer">The message. The reference is owned by the connection afterwards.</param>
+        /// <returns>True if the message was kept, false if the reconnect already ended and the message should be sent.</returns>
+        private bool KeepForReconnect(SharedBuffer buffer)
+        {
+            lock (_reconnectLock)
+            {
+                if (!_reconnecting)
+                {
+                    buffer.Release();
+                    return false;
+                }
+
+                if (_unsent.Count >= Math.Max(1, ReconnectPolicy?.MaxReplayMessages ?? 1))
+                {
+                    Logger.TraceEvent(TraceEventType.Warning, 0, "Too many messages wait for the reconnect, dropping the oldest message.");
+                    _unsent.Dequeue().Release();
+                }
+
+                _unsent.Enqueue(buffer);
+                return true;
+            }
+        }
+
+        /// <summary>
+        /// The SendQueue refused a message. If a reconnect closed the queue after SendMessage checked for it,
+        /// the message is kept for the replay. If the reconnect already finished, the message goes into the
+        /// new queue. Else the connection is closed and the message is dropped.
+        /// </summary>
+        /// <param name="queue">The queue that refused the message.</param>
+        /// <param name="buffer">The message. The caller keeps its reference.</param>
+        private void KeepRefusedMessage(SendQueue queue, SharedBuffer buffer)
+        {
+            while (true)
+            {
+                buffer.AddReference();
+                if (KeepForReconnect(buffer))
+                    return;
+
+                var current = SendQueue;
+                if (current == null || current == queue || current.Enqueue(buffer))
+                    return;
+                queue = current;
+            }
+        }
+
+        /// <summary>
+        /// The connection was lost: keep the unsent messages and start to connect again if there is a
+        /// ReconnectPolicy.
+        /// </summary>
+        /// <returns>True if the connection is connected again in the background, false if it should be closed.</returns>
+        private bool TryStartReconnect()
+        {
+            var policy = ReconnectPolicy;
+            if (policy == null || Pipe != null || Disposed)
+                return false;
+
+            lock (_reconnectLock)
+            {
+                _reconnecting = true;
+                if (SendQueue != null)
+                {
+                    foreach (var buffer in SendQueue.CloseAndTakeUnsent())
+                        _unsent.Enqueue(buffer);
+                }
+                while (_unsent.Count > Math.Max(1, policy.MaxReplayMessages))
+                    _unsent.Dequeue().Release();
+            }
+
+            // Release the lost connection.
+            _timeoutTracker?.Stop();
+            _ioStream?.Close();
+            _socket?.Close();
+
+            Logger.TraceEvent(TraceEventType.Information, 0, "Connection to {0}:{1} lost, reconnecting.", HostName, Port);
+            Task.Run(() => ReconnectAsync(policy));
+            return true;
+        }
+
+        /// <summary>
+        /// Connect again with the delays of the policy.
+        /// </summary>
+        /// <param name="policy">The reconnect policy.</param>
+        /// <returns>Task that ends when the connection is connected again or closed.</returns>
+        private async Task ReconnectAsync(ReconnectPolicy policy)
+        {
+            for (var attempt = 1; policy.MaxAttempts == 0 || attempt <= policy.MaxAttempts; attempt++)
+            {
+                var delay = policy.GetDelay(attempt);
+                OnReconnecting(new ReconnectEventArgs(attempt, delay));
+                await Task.Delay(delay).ConfigureAwait(false);
+                if (Disposed)
+                    return;
+
+                try
+                {
+                    await ConnectAndStartAsync(CancellationToken.None).ConfigureAwait(false);
+                    Logger.TraceEvent(TraceEventType.Information, 0, "Reconnected to {0}:{1} after {2} attempts.", HostName, Port, attempt);
+                    OnReconnected();
+                    return;
+                }
+                catch (Exception ex) when (!Disposed)
+                {
+                    Logger.TraceEvent(TraceEventType.Warning, 0, "Reconnect attempt {0} to {1}:{2} failed: {3}", attempt, HostName, Port, ex.Message);
+                }
+                catch (Exception)
+                {
+                    // Closed while connecting.
+                    return;
+                }
+            }
+
+            Logger.TraceEvent(TraceEventType.Error, 0, "Unable to reconnect to {0}:{1}, closing the connection.", HostName, Port);
+            Close();
+        }
+
+        /// <summary>
+        /// Sending through the SendQueue failed, the receive loop closes the connection.
+        /// </summary>
+        private void OnSendFailed()
+        {
+            Logger.TraceEvent(TraceEventType.Information, 0, "Sending failed, closing the connection.");
+            EndReceive();
+        }
+
+        /// <summary>
+        /// A timeout of the connection expired.
+        /// </summary>
+        /// <param name="kind">Kind of the timeout.</param>
+        private void OnTimeout(ConnectionTimeoutKind kind)
+        {
+            _expiredTimeout = kind;
+            EndReceive();
+        }
+
+        /// <summary>
+        /// End the receiving. The stream is closed so a pending read ends, too.
+        /// </summary>
+        private void EndReceive()
+        {
+            _endReceive = true;
+            _ioStream?.Close();
+            _pipeResume?.TrySetResult(true);
+        }
+
+        /// <summary>
+        /// The reader of the pipe caught up, continue to receive.
+        /// </summary>
+        private void ResumeReceive()
+        {
+            _pipeResume?.TrySetResult(true);
+        }
+
+        /// <summary>
+        /// Wait till the reader of the pipe caught up.
+        /// </summary>
+        /// <returns>Task that completes when the connection may receive again.</returns>
+        private Task WaitForPipeReader()
+        {
+            var resume = new TaskCompletionSource<bool>(TaskCreationOptions.RunContinuationsAsynchronously);
+            _pipeResume = resume;
+
+            // The reader could have caught up before the task was set.
+            if (_endReceive || Pipe.Input.TryContinueWriting())
+                resume.TrySetResult(true);
+            return resume.Task;
+        }
+
         /// <summary>
         /// Remove all event handlers from all events. This makes sure, that we do not try to send any events while we Close / Dispose.
         /// </summary>
         private void RemoveAllHandlers()
         {
             MessageReceived = null;
+            Disconnected = null;
+            Reconnecting = null;
+            Reconnected = null;
         }
 
         /// <summary>
-        /// Thread routine, that will permanently waits for new messages and once
-        /// a message is received completly, it will fire an event!
-        /// private, so that it cannot be called from outside.
+        /// Receive loop of the connection: reads the data and raises the events till the connection ends.
         /// </summary>
-        private void ListenForMessages()
+        /// <param name="stream">Stream of the connection.</param>
+        /// <returns>Task that ends with the connection.</returns>
+        private async Task ReceiveAsync(Stream stream)
         {
-            var rawMessage = new byte[BufferSize];
-            var lastActivity = DateTime.Now;
+            var pooled = ReceiveMode == ReceiveMode.Pooled;
+            var rawMessage = Pipe != null ? null : BufferPool.Shared.Rent(BufferSize);
+            var pooledEventArgs = pooled ? new BytesReceivedEventArgs() : null;
 
             try
             {
-                // As long as we are connexted
-                while (!_endThread)
+                while (!_endReceive)
                 {
-                    // End thread if we are no longer connected
-                    if (!_client.Connected)
-                        _endThread = true;
+                    // In ReceiveMode.Pipe nothing is read while the reader of the pipe is behind.
+                    if (Pipe != null && !Pipe.Input.TryContinueWriting())
+                    {
+                        await WaitForPipeReader().ConfigureAwait(false);
+                        _pipeResume = null;
+                        continue;
+                    }
+
+                    // Read from the IOStream
+                    var buffer = Pipe?.Input.GetWriteBuffer() ?? new ArraySegment<byte>(rawMessage, 0, BufferSize);
+                    var bytesReceived = await stream.ReadAsync(buffer.Array, buffer.Offset, buffer.Count).ConfigureAwait(false);
+                    if (bytesReceived == 0)
+                    {
+                        Logger.TraceEvent(TraceEventType.Information, 0, "The connection was closed by the peer.");
+                        return;
+                    }
+
+                    // We got activity.
+                    _timeoutTracker.ReadActivity();
 
-                    if (_ioStream.DataAvailable)
+                    if (Pipe != null)
                     {
-                        // We got activity.
-                        lastActivity = DateTime.Now;
-
-                        // Read from the IOStream
-                        int bytesReceived = _ioStream.Read(rawMessage, 0, rawMessage.Length);
-                        if (bytesReceived > 0)
-                        {
-                            var received = rawMessage.Take(bytesReceived).ToArray();
-                            OnMessageReceived(new BytesReceivedEventArgs(received));
-                        }
+                        Pipe.Input.Commit(bytesReceived);
+                    }
+                    else if (pooled)
+                    {
+                        pooledEventArgs.Reset(new ArraySegment<byte>(rawMessage, 0, bytesReceived));
+                        OnMessageReceived(pooledEventArgs);
                     }
                     else
                     {
-                        // Check for timeout
-                        if (Timeout > 0 && DateTime.Now.Subtract(lastActivity).TotalSeconds > Timeout)
-                        {
-                            // Timeout, log message and return - Close call is inside finally clause.
-                            Logger.TraceEvent(TraceEventType.Information, 0,
-                                "A timeout occured, closing the connection.");
-                            return;
-                        }
-
-                        // Sleep a moment.
-                        Thread.Sleep(10);
+                        var received = new byte[bytesReceived];
+                        Buffer.BlockCopy(rawMessage, 0, received, 0, bytesReceived);
+                        OnMessageReceived(new BytesReceivedEventArgs(received));
                     }
+
+                    // Send what the handlers queued.
+                    Flush();
                 }
             }
-            catch (IOException ex)
+            catch (Exception ex) when (ex is IOException || ex is ObjectDisposedException)
             {
-                // Exception while reading from socket!
-                Logger.TraceEvent(TraceEventType.Error, 0, "Exception in ListenForMessages {0} / {1}", ex.Message,
-                    ex.StackTrace);
+                // Closing the stream ends a pending read with an exception, too.
+                if (_expiredTimeout != null)
+                    Logger.TraceEvent(TraceEventType.Information, 0, "A {0} timeout occured, closing the connection.", _expiredTimeout);
+                else if (!_endReceive)
+                    Logger.TraceEvent(TraceEventType.Error, 0, "Exception in ReceiveAsync {0} / {1}", ex.Message, ex.StackTrace);
+            }
+            catch (Exception ex)
+            {
+                // Same as in the server: Exceptions of the handlers close the connection.
+                Logger.TraceEvent(TraceEventType.Error, 0, "Exception when handling input: {0} / {1}", ex.Message, ex.StackTrace);
             }
             finally
             {
-                // Close the connection / Dispose the instance.
-                Close();
+                if (rawMessage != null)
+                    BufferPool.Shared.Return(rawMessage);
+
+                // Connect again or close the connection / dispose the instance.
+                if (!TryStartReconnect())
+                    Close();
             }
         }
 
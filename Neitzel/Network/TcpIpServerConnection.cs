@@ -1,10 +1,14 @@
 ﻿using System;
-using System.Collections.ObjectModel;
+using System.Collections.Generic;
 using System.Diagnostics;
+using System.IO;
 using System.Linq;
 using System.Net;
+using System.Net.Security;
 using System.Net.Sockets;
+using System.Security.Cryptography.X509Certificates;
 using System.Threading;
+using System.Threading.Tasks;
 
 namespace Neitzel.Network
 {
@@ -14,8 +18,17 @@ namespace Neitzel.Network
     /// This opens a socket on the server and listens for new connections. All connections
     /// are handled inside.
     /// </summary>
+    /// <remarks>
+    /// The server can listen on several endpoints (e.g. IPv4 and IPv6 or some interfaces only). The clients
+    /// of all endpoints share one ClientRegistry and the same events.
+    /// </remarks>
     public class TcpIpServerConnection : DisposableObject
     {
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(NetworkConstants.TraceSourceName);
+
         #region ClientConnection
 
         /// <summary>
@@ -39,20 +52,85 @@ namespace Neitzel.Network
             /// </summary>
             private static readonly TraceSource Logger = new TraceSource(NetworkConstants.TraceSourceName);
 
+            /// <summary>
+            /// Last id given to a client connection.
+            /// </summary>
+            private static long _lastId;
+
             /// <summary>
             /// Socket of this connection.
             /// </summary>
             private readonly Socket _socket;
 
             /// <summary>
-            /// Buffer to read data.
+            /// Buffer to read data. Rented from BufferPool.Shared in ReceiveMode.Pooled, null in ReceiveMode.Pipe.
+            /// </summary>
+            private byte[] _buffer;
+
+            /// <summary>
+            /// Event arguments that are reused in ReceiveMode.Pooled.
+            /// </summary>
+            private readonly BytesReceivedEventArgs _pooledEventArgs;
+
+            /// <summary>
+            /// Tracks the activity and the timeouts of the connection.
+            /// </summary>
+            private readonly ConnectionTimeoutTracker _timeoutTracker;
+
+            /// <summary>
+            /// Set when a timeout expired.
+            /// </summary>
+            private volatile bool _timedOut;
+
+            /// <summary>
+            /// Set when the connection should be closed by the io handling.
+            /// </summary>
+            private volatile bool _closeRequested;
+
+            /// <summary>
+            /// Event arguments used for asynchronous receives.
+            /// </summary>
+            private SocketAsyncEventArgs _receiveArgs;
+
+            /// <summary>
+            /// Callback that is called once when the asynchronous receiving ended.
+            /// </summary>
+            private Action<ClientConnection> _receiveEnded;
+
+            /// <summary>
+            /// 1 if the asynchronous receiving ended, else 0.
+            /// </summary>
+            private int _receiveEndedFlag;
+
+            /// <summary>
+            /// Rate limit of the input. Null if the input is not limited.
+            /// </summary>
+            private volatile RateLimiter _rateLimiter;
+
+            /// <summary>
+            /// 1 while a throttled receive waits on the timing wheel, else 0.
+            /// </summary>
+            private int _receiveDelayed;
+
+            /// <summary>
+            /// Entry of the throttled receive on the timing wheel.
+            /// </summary>
+            private TimingWheelEntry _delayedReceive;
+
+            /// <summary>
+            /// Is the connection polled by an io shard? Then the shard owns the buffer.
+            /// </summary>
+            private volatile bool _polled;
+
+            /// <summary>
+            /// The authenticated TLS stream. Null if the connection is not encrypted.
             /// </summary>
-            private readonly byte[] _buffer = new byte[BufferSize];
+            private SslStream _tlsStream;
 
             /// <summary>
-            /// Timestamp of last Activity of the connection.
+            /// Completed when the reader of the pipe caught up. Only used by the receive loop of TLS connections.
             /// </summary>
-            private DateTime _lastActivity;
+            private volatile TaskCompletionSource<bool> _pipeResume;
 
             #endregion
 
@@ -61,12 +139,80 @@ namespace Neitzel.Network
             /// <summary>
             /// Timeout in seconds. 0 means no timeout.
             /// </summary>
-            public int Timeout { get; set; }
+            /// <remarks>
+            /// This is the read timeout of Timeouts.
+            /// </remarks>
+            public int Timeout
+            {
+                get { return (int) Timeouts.ReadTimeout.TotalSeconds; }
+                set { Timeouts = Timeouts.WithReadTimeout(TimeSpan.FromSeconds(value)); }
+            }
+
+            /// <summary>
+            /// All timeouts of this connection.
+            /// </summary>
+            public ConnectionTimeouts Timeouts
+            {
+                get { return _timeoutTracker.Timeouts; }
+                set
+                {
+                    _timeoutTracker.Timeouts = value;
+                    _socket.SendTimeout = (int) value.WriteTimeout.TotalMilliseconds;
+                }
+            }
 
             /// <summary>
             /// Id of the client connection - used to identify this client connection.
             /// </summary>
-            public Guid Id { get; set; } = new Guid();
+            /// <remarks>
+            /// Ids are unique inside the process, they are taken from a counter.
+            /// </remarks>
+            public long Id { get; } = Interlocked.Increment(ref _lastId);
+
+            /// <summary>
+            /// The way received bytes are handed over to the protocol code.
+            /// </summary>
+            public ReceiveMode ReceiveMode { get; }
+
+            /// <summary>
+            /// Duplex pipe of the connection. Null if the ReceiveMode is not ReceiveMode.Pipe.
+            /// </summary>
+            public ConnectionPipe Pipe { get; }
+
+            /// <summary>
+            /// Queue of outgoing messages. Null if messages are sent synchronously.
+            /// </summary>
+            public SendQueue SendQueue { get; private set; }
+
+            /// <summary>
+            /// Address of the client. Null if it is not known.
+            /// </summary>
+            public EndPoint RemoteEndPoint { get; }
+
+            /// <summary>
+            /// Statistics of the rate limit. Null if the input is not limited.
+            /// </summary>
+            public RateLimitStatistics RateLimitStatistics => _rateLimiter?.Statistics;
+
+            /// <summary>
+            /// Is the connection currently not read because of the rate limit?
+            /// </summary>
+            public bool IsThrottled => _rateLimiter?.RemainingDelay > TimeSpan.Zero;
+
+            /// <summary>
+            /// Gets a value indicating whether the connection is encrypted with TLS.
+            /// </summary>
+            public bool IsEncrypted => _tlsStream != null;
+
+            /// <summary>
+            /// Certificate of the client. Null if the connection is not encrypted or the client sent no certificate.
+            /// </summary>
+            public X509Certificate RemoteCertificate => _tlsStream?.RemoteCertificate;
+
+            /// <summary>
+            /// Is the input received asynchronously instead of being polled by an io shard?
+            /// </summary>
+            private bool ReceivesAsynchronously => _receiveArgs != null || _tlsStream != null;
 
             #endregion
 
@@ -86,9 +232,43 @@ namespace Neitzel.Network
             /// </summary>
             /// <param name="socket"></param>
             public ClientConnection(Socket socket)
+                : this(socket, ReceiveMode.Copy)
+            { }
+
+            /// <summary>
+            /// Creates a new instance of ClientConnection.
+            /// </summary>
+            /// <param name="socket">Socket of the connection.</param>
+            /// <param name="receiveMode">The way received bytes are handed over to the protocol code.</param>
+            public ClientConnection(Socket socket, ReceiveMode receiveMode)
+                : this(socket, receiveMode, new ConnectionPipeOptions())
+            { }
+
+            /// <summary>
+            /// Creates a new instance of ClientConnection.
+            /// </summary>
+            /// <param name="socket">Socket of the connection.</param>
+            /// <param name="receiveMode">The way received bytes are handed over to the protocol code.</param>
+            /// <param name="pipeOptions">Options of the pipe in ReceiveMode.Pipe.</param>
+            public ClientConnection(Socket socket, ReceiveMode receiveMode, ConnectionPipeOptions pipeOptions)
             {
                 _socket = socket;
-                _lastActivity = DateTime.Now;
+                RemoteEndPoint = socket.Connected ? Unmap(socket.RemoteEndPoint) : null;
+                _timeoutTracker = new ConnectionTimeoutTracker(TimingWheel.Shared, OnTimedOut);
+                ReceiveMode = receiveMode;
+                if (receiveMode == ReceiveMode.Pipe)
+                {
+                    Pipe = new ConnectionPipe(pipeOptions, Send, Flush, ResumeReceive, RequestClose);
+                }
+                else if (receiveMode == ReceiveMode.Pooled)
+                {
+                    _buffer = BufferPool.Shared.Rent(BufferSize);
+                    _pooledEventArgs = new BytesReceivedEventArgs();
+                }
+                else
+                {
+                    _buffer = new byte[BufferSize];
+                }
                 Logger.TraceEvent(TraceEventType.Information, 0, "New client connection {0}.", Id);
             }
 
@@ -111,8 +291,26 @@ namespace Neitzel.Network
                 // Do the dispose
                 if (disposing)
                 {
-                    // Dispose socket
+                    // Stop the timeouts and sending and dispose socket
+                    _timeoutTracker.Stop();
+                    SendQueue?.Close();
+                    _tlsStream?.Dispose();
                     _socket?.Dispose();
+                    Pipe?.Input.CompleteWriter();
+                    _pipeResume?.TrySetResult(true);
+
+                    // A throttled connection has no pending receive that could end, so end the receiving now.
+                    if (Interlocked.Exchange(ref _receiveDelayed, 0) == 1)
+                    {
+                        _delayedReceive?.Cancel();
+                        EndReceive();
+                    }
+
+                    // Only the owner of the receive returns the buffer: EndReceive for asynchronous receives, the
+                    // io shard when it dropped the connection. The shard could still receive into the buffer or
+                    // hand it to a MessageReceived handler that closed the connection.
+                    if (!ReceivesAsynchronously && !_polled)
+                        ReturnBuffer();
                 }
             }
 
@@ -128,21 +326,23 @@ namespace Neitzel.Network
             {
                 try
                 {
-                    if (_socket.Available > 0)
+                    if (_closeRequested)
+                        return true;
+
+                    // Nothing is received while the connection is throttled or the reader of the pipe is behind.
+                    if (_socket.Available > 0 && !IsThrottled && (Pipe == null || Pipe.Input.TryContinueWriting()))
                     {
-                        var bytesRead = _socket.Receive(_buffer);
-                        _lastActivity = DateTime.Now;
-                        OnMessageReceived(this, new BytesReceivedEventArgs(_buffer.Take(bytesRead).ToArray()));
+                        var received = Receive();
+                        _timeoutTracker.ReadActivity();
+                        LimitRate(received);
+                        HandOverReceivedBytes(received.Count);
+                        Flush();
                     }
                     else
                     {
-                        // Check if we have a Timeout value and if the timeout was reached.
-                        if (Timeout > 0 && DateTime.Now.Subtract(_lastActivity).TotalSeconds > Timeout)
-                        {
-                            // Timeout occured - close connection.
-                            Logger.TraceEvent(TraceEventType.Information, 0, "Closing client connection {0} because a timeout occured.", Id);
+                        // Check if the timeout was reached.
+                        if (IsTimedOut())
                             return true;
-                        }
                     }
 
                     // Return false - the connection should not be closed.
@@ -157,13 +357,102 @@ namespace Neitzel.Network
                 }
             }
 
+            /// <summary>
+            /// Checks if a timeout of this connection was reached.
+            /// </summary>
+            /// <returns>True if the connection timed out and should be closed. Else false.</returns>
+            public bool IsTimedOut()
+            {
+                return _timedOut;
+            }
+
+            /// <summary>
+            /// Signal that the handshake of the connection was completed so the handshake timeout ends.
+            /// </summary>
+            public void CompleteHandshake()
+            {
+                _timeoutTracker.CompleteHandshake();
+            }
+
             /// <summary>
             /// Send the message to the client.
             /// </summary>
+            /// <remarks>
+            /// With a SendQueue the message is only queued and must not be changed afterwards.
+            /// </remarks>
             /// <param name="message">Message to send.</param>
             public void Send(byte[] message)
             {
-                _socket.Send(message);
+                if (message == null) throw new ArgumentNullException(nameof(message));
+
+                if (SendQueue != null)
+                {
+                    SendQueue.Enqueue(new ArraySegment<byte>(message));
+                    return;
+                }
+
+                Write(new ArraySegment<byte>(message));
+            }
+
+            /// <summary>
+            /// Send a shared buffer to the client.
+            /// </summary>
+            /// <remarks>
+            /// With a SendQueue the queue keeps its own reference till the message was sent, so the caller
+            /// can release its reference directly after this call.
+            /// </remarks>
+            /// <param name="buffer">Shared buffer to send.</param>
+            public void Send(SharedBuffer buffer)
+            {
+                if (buffer == null) throw new ArgumentNullException(nameof(buffer));
+
+                if (SendQueue != null)
+                {
+                    SendQueue.Enqueue(buffer);
+                    return;
+                }
+
+                Write(buffer.Data);
+            }
+
+            /// <summary>
+            /// Send all messages that wait inside the SendQueue.
+            /// </summary>
+            /// <remarks>
+            /// The connection flushes after each receive, the io shards in ServerIoMode.Polling also after each loop pass.
+            /// </remarks>
+            public void Flush()
+            {
+                SendQueue?.Flush();
+            }
+
+            /// <summary>
+            /// Send all further messages through a bounded queue asynchronously.
+            /// </summary>
+            /// <remarks>
+            /// A TLS connection writes the queue to its SslStream.
+            /// </remarks>
+            /// <param name="options">Options of the queue.</param>
+            public void UseSendQueue(SendQueueOptions options)
+            {
+                if (SendQueue != null)
+                    throw new InvalidOperationException("Send queue already in use.");
+
+                var queue = _tlsStream != null
+                    ? new SendQueue(_tlsStream, options, OnSendFailed, _timeoutTracker.WriteActivity)
+                    : new SendQueue(_socket, options, OnSendFailed, _timeoutTracker.WriteActivity);
+                SendQueue = queue;
+                _timeoutTracker.PendingWriteSince = () => queue.PendingSendSince;
+            }
+
+            /// <summary>
+            /// Limit the input of the connection. The limit can be changed at any time, e.g. inside a
+            /// MessageReceived handler when the client turned out to be trusted.
+            /// </summary>
+            /// <param name="options">Options of the rate limit. Null removes the limit.</param>
+            public void UseRateLimit(RateLimitOptions options)
+            {
+                _rateLimiter = options == null ? null : new RateLimiter(options);
             }
 
             /// <summary>
@@ -187,111 +476,521 @@ namespace Neitzel.Network
 
             #endregion
 
-        }
+            #region Internal Methods
 
-        #endregion
+            /// <summary>
+            /// Start to receive the input of the client asynchronously.
+            /// </summary>
+            /// <remarks>
+            /// Only one receive is outstanding at any time so the MessageReceived events of this
+            /// connection keep their order.
+            /// </remarks>
+            /// <param name="receiveEnded">Called once when the connection should be closed.</param>
+            internal void StartReceive(Action<ClientConnection> receiveEnded)
+            {
+                _receiveEnded = receiveEnded;
+                if (_tlsStream != null)
+                {
+                    // The first receive must not raise events on the thread of the handshake.
+                    Task.Run(() => ReceiveTlsAsync());
+                    return;
+                }
 
-        #region Fields
+                _receiveArgs = new SocketAsyncEventArgs();
+                if (Pipe == null)
+                    _receiveArgs.SetBuffer(_buffer, 0, _buffer.Length);
+                _receiveArgs.Completed += OnReceiveCompleted;
+                ReceiveNext();
+            }
 
-        /// <summary>
-        /// A Collection of all connected clients.
-        /// </summary>
-        private readonly Collection<ClientConnection> _clients = new Collection<ClientConnection>();
+            /// <summary>
+            /// The connection is polled by an io shard from now on. The shard returns the buffer with
+            /// EndPolling.
+            /// </summary>
+            internal void StartPolling()
+            {
+                _polled = true;
+            }
 
-        /// <summary>
-        /// Socket that listens for new connections.
-        /// </summary>
-        private Socket _socket;
+            /// <summary>
+            /// The io shard dropped the connection and no longer receives into the buffer.
+            /// </summary>
+            internal void EndPolling()
+            {
+                ReturnBuffer();
+            }
 
-        /// <summary>
-        /// IO thread
-        /// </summary>
-        private Thread _ioThread;
+            /// <summary>
+            /// Use an authenticated TLS stream for all further io. Must be called before StartReceive.
+            /// </summary>
+            /// <param name="tlsStream">The TLS stream of the socket.</param>
+            internal void UseTls(SslStream tlsStream)
+            {
+                _tlsStream = tlsStream;
+            }
 
-        /// <summary>
-        /// Signals if the loop should stop or not.
-        /// </summary>
-        private bool _shouldStop;
+            #endregion
 
-        #endregion
+            #region Private Methods
 
-        #region Lifetime
+            /// <summary>
+            /// Gets the IPv4 address of a client that connected to a dual mode listener.
+            /// </summary>
+            /// <param name="endPoint">Remote endpoint of the socket.</param>
+            /// <returns>The endpoint with an IPv4 address if the address was an IPv4-mapped IPv6 address.</returns>
+            private static EndPoint Unmap(EndPoint endPoint)
+            {
+                var ipEndPoint = endPoint as IPEndPoint;
+                if (ipEndPoint == null || !ipEndPoint.Address.IsIPv4MappedToIPv6)
+                    return endPoint;
 
-        /// <summary>
-        /// Creates a new instance of TcpIpServerConnection.
-        /// </summary>
-        public TcpIpServerConnection()
-        { }
+                return new IPEndPoint(ipEndPoint.Address.MapToIPv4(), ipEndPoint.Port);
+            }
 
-        /// <summary>
-        /// Creates a new instance of TcpIpServerConnection.
-        /// </summary>
-        /// <param name="port">Port to listen for new connections.</param>
-        public TcpIpServerConnection(int port)
-           : this()
-        {
-            Port = port;
-        }
+            /// <summary>
+            /// Receive loop of TLS connections: the decrypted input is read with ReadAsync.
+            /// </summary>
+            /// <remarks>
+            /// An SslStream may hold decrypted bytes that the socket no longer reports, so TLS connections
+            /// are never polled by an io shard.
+            /// </remarks>
+            /// <returns>Task that ends with the connection.</returns>
+            private async Task ReceiveTlsAsync()
+            {
+                try
+                {
+                    while (!Disposed && !_closeRequested)
+                    {
+                        var delay = _rateLimiter?.RemainingDelay ?? TimeSpan.Zero;
+                        if (delay > TimeSpan.Zero)
+                        {
+                            await Task.Delay(delay).ConfigureAwait(false);
+                            continue;
+                        }
 
-        /// <summary>
-        /// Dispose this instance.
-        /// </summary>
-        /// <param name="disposing"></param>
-        protected override void Dispose(bool disposing)
-        {
-            // Dispose base
-            base.Dispose(disposing);
+                        if (Pipe != null && !Pipe.Input.TryContinueWriting())
+                        {
+                            await WaitForPipeReader().ConfigureAwait(false);
+                            _pipeResume = null;
+                            continue;
+                        }
 
-            // Check if we are already deisposed.
-            if (Disposed)
-                return;
+                        var buffer = Pipe == null ? new ArraySegment<byte>(_buffer) : Pipe.Input.GetWriteBuffer();
+                        var bytesRead = await _tlsStream.ReadAsync(buffer.Array, buffer.Offset, buffer.Count).ConfigureAwait(false);
 
-            // Dispose this connection
-            if (disposing)
-            {
-                if (!_shouldStop)
+                        // 0 bytes means that the client closed the connection.
+                        if (bytesRead == 0)
+                            break;
+
+                        _timeoutTracker.ReadActivity();
+                        LimitRate(new ArraySegment<byte>(buffer.Array, buffer.Offset, bytesRead));
+                        HandOverReceivedBytes(bytesRead);
+                        Flush();
+                    }
+                }
+                catch (Exception ex) when (ex is IOException || ex is ObjectDisposedException)
                 {
-                    _shouldStop = true;
-                    // Small wait for thread to end.
-                    Thread.Sleep(30);
+                    // Closing the connection ends a pending read with an exception, too.
+                    if (!Disposed && !_closeRequested)
+                        Logger.TraceEvent(TraceEventType.Error, 0, "Exception when reading from socket of Client {2}: {0} / {1}", ex.Message, ex.StackTrace, Id);
                 }
-
-                _socket?.Dispose();
-
-                foreach (var clientConnection in _clients)
+                catch (Exception ex)
                 {
-                    clientConnection.Dispose();
+                    // Same as in HandleInput: Exceptions close the connection.
+                    Logger.TraceEvent(TraceEventType.Error, 0, "Exception when handling input of Client {2}: {0} / {1}", ex.Message, ex.StackTrace, Id);
                 }
-                _clients.Clear();
 
-                // Abort Thread if required.
-                _ioThread?.Abort();
+                EndReceive();
             }
-        }
 
-        #endregion
+            /// <summary>
+            /// Wait till the reader of the pipe caught up.
+            /// </summary>
+            /// <returns>Task that completes when the connection may receive again.</returns>
+            private Task WaitForPipeReader()
+            {
+                var resume = new TaskCompletionSource<bool>(TaskCreationOptions.RunContinuationsAsynchronously);
+                _pipeResume = resume;
 
-        #region Events
+                // The reader could have caught up before the task was set.
+                if (Disposed || _closeRequested || Pipe.Input.TryContinueWriting())
+                    resume.TrySetResult(true);
+                return resume.Task;
+            }
 
-        /// <summary>
-        /// Event that a message was Received.
-        /// </summary>
-        /// <remarks>
-        /// This event is handled by the io Thread of the TcpIpServerConnection so make sure that you do not
-        /// use it for any stuff that is time consuming. Best is to queue Data only and use other threads
-        /// to process it.
-        /// 
-        /// Also be sure to handle all Exception if you do not want your connection closed! Exception handling is
-        /// simply closing the connection to the client.
-        /// </remarks>
-        public event EventHandler<BytesReceivedEventArgs> MessageReceived;
+            /// <summary>
+            /// Write a message synchronously. TLS connections always send through their SendQueue.
+            /// </summary>
+            /// <param name="data">The message.</param>
+            private void Write(ArraySegment<byte> data)
+            {
+                if (_tlsStream != null)
+                    throw new InvalidOperationException("A TLS connection sends through its SendQueue.");
 
-        /// <summary>
-        /// A client connected to the server.
-        /// </summary>
-        public event EventHandler<ClientEventArgs> ClientConnected;
+                _socket.Send(data.Array, data.Offset, data.Count, SocketFlags.None);
+                _timeoutTracker.WriteActivity();
+            }
 
-        /// <summary>
+            /// <summary>
+            /// Start receives till one of them is pending.
+            /// </summary>
+            private void ReceiveNext()
+            {
+                try
+                {
+                    while (!Disposed)
+                    {
+                        // A throttled connection is continued by the timing wheel.
+                        if (DelayReceive())
+                            return;
+
+                        if (Pipe != null)
+                        {
+                            // The reader of the pipe is behind, ResumeReceive continues when it caught up.
+                            if (!Pipe.Input.TryContinueWriting())
+                                return;
+
+                            var buffer = Pipe.Input.GetWriteBuffer();
+                            _receiveArgs.SetBuffer(buffer.Array, buffer.Offset, buffer.Count);
+                        }
+
+                        // Pending receives are continued inside OnReceiveCompleted.
+                        if (_socket.ReceiveAsync(_receiveArgs))
+                            return;
+
+                        if (!ProcessReceive(_receiveArgs))
+                            break;
+                    }
+                }
+                catch (ObjectDisposedException)
+                {
+                    // Socket was closed while starting the receive.
+                }
+                catch (SocketException ex)
+                {
+                    Logger.TraceEvent(TraceEventType.Error, 0, "Exception when reading from socket of Client {2}: {0} / {1}", ex.Message, ex.StackTrace, Id);
+                }
+
+                EndReceive();
+            }
+
+            /// <summary>
+            /// An asynchronous receive completed.
+            /// </summary>
+            /// <param name="sender">Sender of the event.</param>
+            /// <param name="e">Event arguments of the receive.</param>
+            private void OnReceiveCompleted(object sender, SocketAsyncEventArgs e)
+            {
+                if (ProcessReceive(e))
+                    ReceiveNext();
+                else
+                    EndReceive();
+            }
+
+            /// <summary>
+            /// Process the data of a completed receive.
+            /// </summary>
+            /// <param name="e">Event arguments of the receive.</param>
+            /// <returns>True if we should continue to receive. False if the connection should be closed.</returns>
+            private bool ProcessReceive(SocketAsyncEventArgs e)
+            {
+                // 0 bytes means that the client closed the connection.
+                if (e.SocketError != SocketError.Success || e.BytesTransferred == 0)
+                    return false;
+
+                try
+                {
+                    _timeoutTracker.ReadActivity();
+                    LimitRate(new ArraySegment<byte>(e.Buffer, e.Offset, e.BytesTransferred));
+                    HandOverReceivedBytes(e.BytesTransferred);
+                    Flush();
+                    return true;
+                }
+                catch (Exception ex)
+                {
+                    Logger.TraceEvent(TraceEventType.Error, 0, "Exception when handling input of Client {2}: {0} / {1}", ex.Message, ex.StackTrace, Id);
+
+                    // Same as in HandleInput: Exceptions close the connection.
+                    return false;
+                }
+            }
+
+            /// <summary>
+            /// The asynchronous receiving ended. Inform the server only once.
+            /// </summary>
+            private void EndReceive()
+            {
+                if (Interlocked.Exchange(ref _receiveEndedFlag, 1) != 0)
+                    return;
+
+                _receiveArgs?.Dispose();
+                ReturnBuffer();
+                _receiveEnded?.Invoke(this);
+            }
+
+            /// <summary>
+            /// A timeout of the connection expired.
+            /// </summary>
+            /// <param name="kind">Kind of the timeout.</param>
+            private void OnTimedOut(ConnectionTimeoutKind kind)
+            {
+                // Timeout occured - close connection.
+                Logger.TraceEvent(TraceEventType.Information, 0, "Closing client connection {0} because a {1} timeout occured.", Id, kind);
+                _timedOut = true;
+                RequestClose();
+            }
+
+            /// <summary>
+            /// Sending through the SendQueue failed.
+            /// </summary>
+            private void OnSendFailed()
+            {
+                Logger.TraceEvent(TraceEventType.Information, 0, "Closing client connection {0} because sending failed.", Id);
+                RequestClose();
+            }
+
+            /// <summary>
+            /// Request that the connection is closed from a thread that is not the io thread of the connection.
+            /// </summary>
+            private void RequestClose()
+            {
+                _closeRequested = true;
+
+                // In ServerIoMode.Polling the io shard closes the connection. Else nobody polls the connection
+                // so we close the socket which ends the pending receive.
+                if (ReceivesAsynchronously)
+                    Close();
+            }
+
+            /// <summary>
+            /// The reader of the pipe caught up, continue to receive.
+            /// </summary>
+            private void ResumeReceive()
+            {
+                // In ServerIoMode.Polling HandleInput simply receives again.
+                if (_tlsStream != null)
+                    _pipeResume?.TrySetResult(true);
+                else if (_receiveArgs != null)
+                    ReceiveNext();
+            }
+
+            /// <summary>
+            /// Receive synchronously into the buffer or the pipe.
+            /// </summary>
+            /// <returns>The received bytes.</returns>
+            private ArraySegment<byte> Receive()
+            {
+                var buffer = Pipe == null ? new ArraySegment<byte>(_buffer) : Pipe.Input.GetWriteBuffer();
+                var bytesRead = _socket.Receive(buffer.Array, buffer.Offset, buffer.Count, SocketFlags.None);
+                return new ArraySegment<byte>(buffer.Array, buffer.Offset, bytesRead);
+            }
+
+            /// <summary>
+            /// Take received bytes from the rate limit.
+            /// </summary>
+            /// <param name="received">The received bytes.</param>
+            private void LimitRate(ArraySegment<byte> received)
+            {
+                var delay = _rateLimiter?.Consume(received) ?? TimeSpan.Zero;
+                if (delay > TimeSpan.Zero)
+                    Logger.TraceEvent(TraceEventType.Verbose, 0, "Throttling client connection {0} for {1} ms.", Id, (long) delay.TotalMilliseconds);
+            }
+
+            /// <summary>
+            /// Continue an asynchronous receive later if the connection is throttled.
+            /// </summary>
+            /// <remarks>
+            /// Nothing is polled: the timing wheel starts the next receive when the delay passed.
+            /// </remarks>
+            /// <returns>True if the receive was delayed.</returns>
+            private bool DelayReceive()
+            {
+                var delay = _rateLimiter?.RemainingDelay ?? TimeSpan.Zero;
+                if (delay <= TimeSpan.Zero)
+                    return false;
+
+                // Timing wheel callbacks should be short, a receive could handle a lot of input.
+                Interlocked.Exchange(ref _receiveDelayed, 1);
+                _delayedReceive = TimingWheel.Shared.Schedule(delay, OnReceiveDelayPassed);
+                return true;
+            }
+
+            /// <summary>
+            /// The delay of a throttled connection passed. Continue to receive unless the connection was closed
+            /// in the meantime.
+            /// </summary>
+            private void OnReceiveDelayPassed()
+            {
+                if (Interlocked.Exchange(ref _receiveDelayed, 0) == 1)
+                    ThreadPool.QueueUserWorkItem(state => ReceiveNext());
+            }
+
+            /// <summary>
+            /// Hand over received bytes: commit them to the pipe or raise the MessageReceived event.
+            /// </summary>
+            /// <param name="bytesRead">Number of bytes at the start of the buffer (or at the end of the pipe).</param>
+            private void HandOverReceivedBytes(int bytesRead)
+            {
+                if (Pipe != null)
+                {
+                    Pipe.Input.Commit(bytesRead);
+                    return;
+                }
+
+                if (ReceiveMode == ReceiveMode.Pooled)
+                {
+                    _pooledEventArgs.Reset(new ArraySegment<byte>(_buffer, 0, bytesRead));
+                    OnMessageReceived(this, _pooledEventArgs);
+                    return;
+                }
+
+                var message = new byte[bytesRead];
+                Buffer.BlockCopy(_buffer, 0, message, 0, bytesRead);
+                OnMessageReceived(this, new BytesReceivedEventArgs(message));
+            }
+
+            /// <summary>
+            /// Return the buffer to the pool in ReceiveMode.Pooled.
+            /// </summary>
+            private void ReturnBuffer()
+            {
+                var buffer = Interlocked.Exchange(ref _buffer, null);
+                if (buffer != null && ReceiveMode == ReceiveMode.Pooled)
+                    BufferPool.Shared.Return(buffer);
+            }
+
+            #endregion
+        }
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// All connected clients.
+        /// </summary>
+        private readonly ClientRegistry _clients = new ClientRegistry();
+
+        /// <summary>
+        /// Sockets that listen for new connections, one per endpoint.
+        /// </summary>
+        private Socket[] _listeners = new Socket[0];
+
+        /// <summary>
+        /// IO thread
+        /// </summary>
+        private Thread _ioThread;
+
+        /// <summary>
+        /// Signals if the loop should stop or not.
+        /// </summary>
+        private volatile bool _shouldStop;
+
+        /// <summary>
+        /// Io shards that handle the input of the client connections in ServerIoMode.Polling.
+        /// </summary>
+        /// <remarks>
+        /// The first shard is driven by the io thread, all other shards run their own thread.
+        /// </remarks>
+        private IoShard[] _shards = new IoShard[0];
+
+        /// <summary>
+        /// Counter used for ShardAssignment.RoundRobin.
+        /// </summary>
+        private int _nextShard;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of TcpIpServerConnection.
+        /// </summary>
+        public TcpIpServerConnection()
+        { }
+
+        /// <summary>
+        /// Creates a new instance of TcpIpServerConnection.
+        /// </summary>
+        /// <param name="port">Port to listen for new connections.</param>
+        public TcpIpServerConnection(int port)
+           : this()
+        {
+            Port = port;
+        }
+
+        /// <summary>
+        /// Dispose this instance.
+        /// </summary>
+        /// <param name="disposing"></param>
+        protected override void Dispose(bool disposing)
+        {
+            // Check if we are already deisposed.
+            if (Disposed)
+                return;
+
+            // Dispose base
+            base.Dispose(disposing);
+
+            // Dispose this connection
+            if (disposing)
+            {
+                var ioThread = _ioThread;
+                if (!_shouldStop)
+                {
+                    _shouldStop = true;
+                    // Small wait for thread to end.
+                    if (ioThread != null && ioThread != Thread.CurrentThread)
+                        ioThread.Join(100);
+                }
+
+                foreach (var shard in _shards)
+                {
+                    shard.Stop();
+                }
+
+                foreach (var listener in _listeners)
+                {
+                    listener.Dispose();
+                }
+
+                foreach (var clientConnection in _clients.RemoveAll())
+                {
+                    clientConnection.Dispose();
+                }
+
+                // Abort Thread if required.
+                if (ioThread != null && ioThread.IsAlive && ioThread != Thread.CurrentThread)
+                    ioThread.Abort();
+            }
+        }
+
+        #endregion
+
+        #region Events
+
+        /// <summary>
+        /// Event that a message was Received.
+        /// </summary>
+        /// <remarks>
+        /// This event is handled by the io Thread of the TcpIpServerConnection so make sure that you do not
+        /// use it for any stuff that is time consuming. Best is to queue Data only and use other threads
+        /// to process it.
+        /// 
+        /// In ServerIoMode.Asynchronous this event is raised on thread pool threads. Events of one client
+        /// keep their order but events of different clients can be raised in parallel.
+        /// 
+        /// Also be sure to handle all Exception if you do not want your connection closed! Exception handling is
+        /// simply closing the connection to the client.
+        /// </remarks>
+        public event EventHandler<BytesReceivedEventArgs> MessageReceived;
+
+        /// <summary>
+        /// A client connected to the server.
+        /// </summary>
+        public event EventHandler<ClientEventArgs> ClientConnected;
+
+        /// <summary>
         /// A client was disconected from the server.
         /// </summary>
         public event EventHandler<ClientEventArgs> ClientDisconnected;
@@ -301,14 +1000,135 @@ namespace Neitzel.Network
         #region Properties
 
         /// <summary>
-        /// Port to listen on.
+        /// Port to listen on. Only used if there are no Endpoints.
         /// </summary>
         public int Port { get; set; }
 
+        /// <summary>
+        /// Endpoints to listen on, e.g. IPAddress.IPv6Any or the address of one interface. Empty means
+        /// IPAddress.Any with Port. Changing the endpoints has no effect on an opened server.
+        /// </summary>
+        /// <remarks>
+        /// Each endpoint gets its own listen socket. In ServerIoMode.Asynchronous each listener keeps
+        /// AcceptConcurrency accepts outstanding. In ServerIoMode.Polling the listeners are spread over the
+        /// io shards, so the shards accept in parallel.
+        /// </remarks>
+        public IList<IPEndPoint> Endpoints { get; } = new List<IPEndPoint>();
+
+        /// <summary>
+        /// Do listeners on IPAddress.IPv6Any accept IPv4 clients, too?
+        /// </summary>
+        /// <remarks>
+        /// IPv4 clients of a dual mode listener get their IPv4 address as RemoteEndPoint. A dual mode
+        /// listener cannot share its port with a listener on IPAddress.Any.
+        /// </remarks>
+        public bool DualMode { get; set; } = true;
+
+        /// <summary>
+        /// Endpoints the opened server listens on, e.g. to get the port when an endpoint used port 0.
+        /// </summary>
+        public IReadOnlyList<EndPoint> LocalEndPoints => _listeners.Select(l => l.LocalEndPoint).ToList();
+
         /// <summary>
         /// The Timeout used for connections in seconds. 0 means no timeout.
         /// </summary>
-        public int Timeout { get; set; } = NetworkConstants.DefaultTimeout;
+        /// <remarks>
+        /// This is the read timeout of Timeouts.
+        /// </remarks>
+        public int Timeout
+        {
+            get { return (int) Timeouts.ReadTimeout.TotalSeconds; }
+            set { Timeouts = Timeouts.WithReadTimeout(TimeSpan.FromSeconds(value)); }
+        }
+
+        /// <summary>
+        /// The timeouts used for new connections. Each connection can change its own timeouts later.
+        /// </summary>
+        public ConnectionTimeouts Timeouts { get; set; } = ConnectionTimeouts.None.WithReadTimeout(TimeSpan.FromSeconds(NetworkConstants.DefaultTimeout));
+
+        /// <summary>
+        /// The way the io is handled. Changing this property has no effect on an opened server.
+        /// </summary>
+        public ServerIoMode IoMode { get; set; } = ServerIoMode.Polling;
+
+        /// <summary>
+        /// Number of io shards used in ServerIoMode.Polling. Each shard handles a subset of the client
+        /// connections in its own thread. Changing this property has no effect on an opened server.
+        /// </summary>
+        public int IoShardCount { get; set; } = 1;
+
+        /// <summary>
+        /// The way new client connections are assigned to the io shards.
+        /// </summary>
+        public ShardAssignment ShardAssignment { get; set; } = ShardAssignment.RoundRobin;
+
+        /// <summary>
+        /// The way received bytes are handed over to the MessageReceived handlers. Changing this property
+        /// only affects new client connections.
+        /// </summary>
+        public ReceiveMode ReceiveMode { get; set; } = ReceiveMode.Copy;
+
+        /// <summary>
+        /// Options of the pipes of the client connections in ReceiveMode.Pipe.
+        /// </summary>
+        public ConnectionPipeOptions PipeOptions { get; set; } = new ConnectionPipeOptions();
+
+        /// <summary>
+        /// Options of the send queues of new client connections. Null means that ClientConnection.Send
+        /// sends synchronously on the thread of the caller.
+        /// </summary>
+        public SendQueueOptions SendQueueOptions { get; set; }
+
+        /// <summary>
+        /// Options of the rate limit of new client connections. Null means that the input is not limited.
+        /// </summary>
+        /// <remarks>
+        /// A throttled client connection is not read, so one client that floods the server cannot take the
+        /// io thread from the other clients. Each client connection reports its own RateLimitStatistics.
+        /// </remarks>
+        public RateLimitOptions RateLimitOptions { get; set; }
+
+        /// <summary>
+        /// Options of TLS for new client connections. Null means that the connections are not encrypted.
+        /// </summary>
+        /// <remarks>
+        /// The handshake runs asynchronously after the accept, ClientConnected is raised when it succeeded.
+        /// A failed or slow handshake only closes its own connection. TLS connections are always received
+        /// asynchronously, also in ServerIoMode.Polling, and they always send through a SendQueue that is
+        /// written with WriteAsync (with default SendQueueOptions if SendQueueOptions is null).
+        /// </remarks>
+        public TlsServerOptions TlsOptions { get; set; }
+
+        /// <summary>
+        /// All connected clients. The registry can be used from any thread.
+        /// </summary>
+        public ClientRegistry Clients => _clients;
+
+        /// <summary>
+        /// Length of the queue of pending connections of the listen socket.
+        /// </summary>
+        /// <remarks>
+        /// The operating system may limit this value (e.g. somaxconn on Linux).
+        /// </remarks>
+        public int Backlog { get; set; } = NetworkConstants.DefaultBacklog;
+
+        /// <summary>
+        /// Number of accepts that are outstanding at the same time in ServerIoMode.Asynchronous.
+        /// </summary>
+        public int AcceptConcurrency { get; set; } = NetworkConstants.DefaultAcceptConcurrency;
+
+        /// <summary>
+        /// Maximum number of pending connections accepted per loop pass in ServerIoMode.Polling.
+        /// </summary>
+        /// <remarks>
+        /// The limit keeps the io thread responsive for the input of the connected clients during a connect storm.
+        /// </remarks>
+        public int MaxAcceptsPerPass { get; set; } = NetworkConstants.DefaultMaxAcceptsPerPass;
+
+        /// <summary>
+        /// Statistics of the io shards. Empty if the server is not opened in ServerIoMode.Polling.
+        /// </summary>
+        public IReadOnlyList<IoShardStatistics> ShardStatistics => _shards.Select(s => s.Statistics).ToList();
 
         #endregion
 
@@ -321,16 +1141,176 @@ namespace Neitzel.Network
         {
             if (Disposed)
                 throw new InvalidOperationException("Instance already disposed!");
-
-            _socket = new Socket(AddressFamily.InterNetwork, SocketType.Stream, ProtocolType.Tcp);
-            _socket.Bind(new IPEndPoint(IPAddress.Any, Port));
-            _socket.Listen(1000);
+            if (Backlog < 1)
+                throw new InvalidOperationException("Backlog must be at least 1.");
+            if (IoMode == ServerIoMode.Asynchronous && AcceptConcurrency < 1)
+                throw new InvalidOperationException("AcceptConcurrency must be at least 1.");
+            if (IoMode == ServerIoMode.Polling && IoShardCount < 1)
+                throw new InvalidOperationException("IoShardCount must be at least 1.");
+            if (IoMode == ServerIoMode.Polling && MaxAcceptsPerPass < 1)
+                throw new InvalidOperationException("MaxAcceptsPerPass must be at least 1.");
+
+            var endpoints = Endpoints.Count > 0 ? Endpoints.ToList() : new List<IPEndPoint> { new IPEndPoint(IPAddress.Any, Port) };
+            var listeners = new List<Socket>();
+            try
+            {
+                foreach (var endpoint in endpoints)
+                    listeners.Add(Listen(endpoint));
+            }
+            catch
+            {
+                foreach (var listener in listeners)
+                    listener.Dispose();
+                throw;
+            }
+            _listeners = listeners.ToArray();
 
             _shouldStop = false;
+            if (IoMode == ServerIoMode.Asynchronous)
+            {
+                foreach (var listener in _listeners)
+                {
+                    for (var index = 0; index < AcceptConcurrency; index++)
+                        StartAccept(listener);
+                }
+                return;
+            }
+
+            _shards = new IoShard[IoShardCount];
+            for (var index = 0; index < _shards.Length; index++)
+            {
+                _shards[index] = new IoShard(index, RemoveClientConnection);
+
+                // Listener i is accepted by shard i modulo the number of shards.
+                var shardListeners = _listeners.Where((l, i) => i % _shards.Length == index).ToList();
+                if (shardListeners.Count > 0)
+                    _shards[index].Accept = () => AcceptNewConnections(shardListeners);
+
+                if (index > 0)
+                    _shards[index].Start();
+            }
+
             _ioThread = new Thread(HandleIo);
             _ioThread.Start();
         }
 
+        /// <summary>
+        /// Send a message to a client. This can be called from any thread.
+        /// </summary>
+        /// <param name="clientId">Id of the client connection.</param>
+        /// <param name="message">Message to send.</param>
+        /// <returns>True if the client was found, false if it is not connected.</returns>
+        public bool Send(long clientId, byte[] message)
+        {
+            if (message == null) throw new ArgumentNullException(nameof(message));
+
+            ClientConnection client;
+            if (!_clients.TryGetClient(clientId, out client))
+                return false;
+
+            client.Send(message);
+            return true;
+        }
+
+        /// <summary>
+        /// Send a message to all connected clients.
+        /// </summary>
+        /// <param name="message">Message to send.</param>
+        /// <returns>Number of clients the message was sent or queued to.</returns>
+        public int Broadcast(byte[] message)
+        {
+            if (message == null) throw new ArgumentNullException(nameof(message));
+
+            return Broadcast(new ArraySegment<byte>(message));
+        }
+
+        /// <summary>
+        /// Send a message to all connected clients.
+        /// </summary>
+        /// <param name="message">Message to send.</param>
+        /// <returns>Number of clients the message was sent or queued to.</returns>
+        public int Broadcast(ArraySegment<byte> message)
+        {
+            return Multicast(message, _clients);
+        }
+
+        /// <summary>
+        /// Send a message to all connected clients that match the predicate.
+        /// </summary>
+        /// <param name="message">Message to send.</param>
+        /// <param name="predicate">Selects the clients that get the message.</param>
+        /// <returns>Number of clients the message was sent or queued to.</returns>
+        public int Multicast(ArraySegment<byte> message, Func<ClientConnection, bool> predicate)
+        {
+            if (predicate == null) throw new ArgumentNullException(nameof(predicate));
+
+            return Multicast(message, _clients.Where(predicate));
+        }
+
+        /// <summary>
+        /// Send a message to some clients.
+        /// </summary>
+        /// <remarks>
+        /// The message is copied once into a SharedBuffer that all send queues share, so the caller can
+        /// reuse its array directly after this call and there is no copy per client.
+        /// </remarks>
+        /// <param name="message">Message to send.</param>
+        /// <param name="recipients">Clients that get the message.</param>
+        /// <returns>Number of clients the message was sent or queued to.</returns>
+        public int Multicast(ArraySegment<byte> message, IEnumerable<ClientConnection> recipients)
+        {
+            if (message.Array == null) throw new ArgumentNullException(nameof(message));
+            if (recipients == null) throw new ArgumentNullException(nameof(recipients));
+
+            var buffer = new SharedBuffer(message);
+            try
+            {
+                return Multicast(buffer, recipients);
+            }
+            finally
+            {
+                buffer.Release();
+            }
+        }
+
+        /// <summary>
+        /// Send a shared buffer to some clients.
+        /// </summary>
+        /// <remarks>
+        /// A client that fails to send is logged and skipped, it is closed by its own io handling.
+        /// </remarks>
+        /// <param name="buffer">Shared buffer to send. The caller still has to release its reference.</param>
+        /// <param name="recipients">Clients that get the message.</param>
+        /// <returns>Number of clients the message was sent or queued to.</returns>
+        public int Multicast(SharedBuffer buffer, IEnumerable<ClientConnection> recipients)
+        {
+            if (buffer == null) throw new ArgumentNullException(nameof(buffer));
+            if (recipients == null) throw new ArgumentNullException(nameof(recipients));
+
+            var count = 0;
+            foreach (var recipient in recipients)
+            {
+                if (recipient.Disposed)
+                    continue;
+
+                try
+                {
+                    recipient.Send(buffer);
+                    count++;
+                }
+                catch (Exception ex) when (ex is SocketException || ex is IOException)
+                {
+                    Logger.TraceEvent(TraceEventType.Warning, 0, "Unable to send to client {0}: {1}", recipient.Id, ex.Message);
+                }
+                catch (ObjectDisposedException)
+                {
+                    // Client was closed while sending.
+                }
+            }
+
+            return count;
+        }
+
         /// <summary>
         /// Close the socket and all client connections, dispose this instance.
         /// </summary>
@@ -354,63 +1334,260 @@ namespace Neitzel.Network
             // Main Loop
             while (!_shouldStop)
             {
-                stopwatch.Start();
-
-                AcceptNewConnections();
+                stopwatch.Restart();
 
-                HandleInputOfClientConnections();
+                // The first shard is handled by this thread.
+                _shards[0].Accept?.Invoke();
+                _shards[0].HandleInput();
 
                 // Wait a little bit depending on load (duration of check).
                 stopwatch.Stop();
-                if (stopwatch.Elapsed.TotalMilliseconds < 20)
-                    Thread.Sleep(20);
-                else if (stopwatch.Elapsed.TotalMilliseconds < 100)
-                    Thread.Sleep(10);
+                _shards[0].Statistics.AddLoopPass(stopwatch.Elapsed);
+                IoShard.Pause(stopwatch.Elapsed);
 
-                if (!_socket.IsBound)
+                if (_listeners.All(l => !l.IsBound))
                     _shouldStop = true;
             }
 
             // Cleanup
-            _socket?.Dispose();
+            foreach (var listener in _listeners)
+                listener.Dispose();
             _ioThread = null;
         }
 
+        /// <summary>
+        /// Open a listen socket.
+        /// </summary>
+        /// <param name="endpoint">Endpoint to listen on.</param>
+        /// <returns>The listening socket.</returns>
+        private Socket Listen(IPEndPoint endpoint)
+        {
+            var listener = new Socket(endpoint.AddressFamily, SocketType.Stream, ProtocolType.Tcp);
+            try
+            {
+                // Dual mode must be set before the bind.
+                if (endpoint.Address.Equals(IPAddress.IPv6Any))
+                    listener.DualMode = DualMode;
+                listener.Bind(endpoint);
+                listener.Listen(Backlog);
+                return listener;
+            }
+            catch
+            {
+                listener.Dispose();
+                throw;
+            }
+        }
+
         /// <summary>
         /// Accept new Connections
         /// </summary>
-        private void AcceptNewConnections()
+        /// <param name="listeners">The listen sockets of the calling shard.</param>
+        private void AcceptNewConnections(IList<Socket> listeners)
         {
-            if (_socket.Poll(0, SelectMode.SelectRead))
+            foreach (var listener in listeners)
             {
-                // Create a new ClientConnection, add it to the _clients connection and listen to MessageReceived events.
-                var connection = new ClientConnection(_socket.Accept());
-                connection.Timeout = Timeout;
-                _clients.Add(connection);
-                connection.MessageReceived += OnMessageReceived;
-                OnClientConnected(this, new ClientEventArgs(connection));
+                try
+                {
+                    AcceptNewConnections(listener);
+                }
+                catch (ObjectDisposedException)
+                {
+                    // Listen socket was closed by Close.
+                }
             }
         }
 
         /// <summary>
-        /// Handle input of client connections.
+        /// Accept new Connections of one listen socket.
         /// </summary>
-        private void HandleInputOfClientConnections()
+        /// <param name="listener">The listen socket.</param>
+        private void AcceptNewConnections(Socket listener)
         {
-            // Go through all client connections and handle possible input.
-            for (int index = _clients.Count - 1; index >= 0; index--)
+            // Drain the pending connections so a connect storm is not limited by the loop pause.
+            for (var accepted = 0; accepted < MaxAcceptsPerPass && listener.Poll(0, SelectMode.SelectRead); accepted++)
             {
-                var clientConnection = _clients[index];
-                // Handle input of client connection
-                if (clientConnection.HandleInput())
+                Socket socket;
+                try
                 {
-                    // If the client was disconnected: Remove connection and dispose
-                    OnClientDisconnected(this, new ClientEventArgs(clientConnection));
-                    clientConnection.Dispose();
-                    _clients.RemoveAt(index);
+                    socket = listener.Accept();
+                }
+                catch (SocketException ex)
+                {
+                    // The pending connection was reset before we could accept it.
+                    Logger.TraceEvent(TraceEventType.Warning, 0, "Unable to accept a new connection: {0}", ex.SocketErrorCode);
+                    continue;
+                }
+
+                if (TlsOptions != null)
+                {
+                    AcceptTls(socket, TlsOptions);
+                    continue;
+                }
+
+                var connection = new ClientConnection(socket, ReceiveMode, PipeOptions);
+                AddClientConnection(connection);
+                SelectShard().Add(connection);
+            }
+        }
+
+        /// <summary>
+        /// Select the shard for a new client connection.
+        /// </summary>
+        /// <returns>The selected shard.</returns>
+        private IoShard SelectShard()
+        {
+            if (ShardAssignment == ShardAssignment.LeastConnections)
+                return _shards.OrderBy(s => s.Statistics.Connections).First();
+
+            // Several shards can accept at the same time.
+            var next = (uint) Interlocked.Increment(ref _nextShard);
+            return _shards[(int) (next % (uint) _shards.Length)];
+        }
+
+        /// <summary>
+        /// Add a new client connection.
+        /// </summary>
+        /// <param name="connection">The accepted client connection.</param>
+        private void AddClientConnection(ClientConnection connection)
+        {
+            // Add it to the registered clients and listen to MessageReceived events.
+            connection.Timeouts = Timeouts;
+            if (SendQueueOptions != null || connection.IsEncrypted)
+                connection.UseSendQueue(SendQueueOptions ?? new SendQueueOptions());
+            if (RateLimitOptions != null)
+                connection.UseRateLimit(RateLimitOptions);
+            _clients.Add(connection);
+            connection.MessageReceived += OnMessageReceived;
+            OnClientConnected(this, new ClientEventArgs(connection));
+        }
+
+        /// <summary>
+        /// Start to accept new connections asynchronously. Each call keeps one more accept outstanding.
+        /// </summary>
+        /// <param name="listener">The listen socket.</param>
+        private void StartAccept(Socket listener)
+        {
+            var acceptArgs = new SocketAsyncEventArgs { UserToken = listener };
+            acceptArgs.Completed += OnAcceptCompleted;
+            AcceptNext(acceptArgs);
+        }
+
+        /// <summary>
+        /// Start accepts till one of them is pending.
+        /// </summary>
+        /// <param name="acceptArgs">Event arguments used for the accepts. The UserToken is the listen socket.</param>
+        private void AcceptNext(SocketAsyncEventArgs acceptArgs)
+        {
+            var listener = (Socket) acceptArgs.UserToken;
+            try
+            {
+                while (!_shouldStop)
+                {
+                    acceptArgs.AcceptSocket = null;
+
+                    // Pending accepts are continued inside OnAcceptCompleted.
+                    if (listener.AcceptAsync(acceptArgs))
+                        return;
+
+                    ProcessAccept(acceptArgs);
                 }
             }
+            catch (ObjectDisposedException)
+            {
+                // Listen socket was closed.
+            }
+
+            acceptArgs.Dispose();
+        }
+
+        /// <summary>
+        /// An asynchronous accept completed.
+        /// </summary>
+        /// <param name="sender">Sender of the event.</param>
+        /// <param name="e">Event arguments of the accept.</param>
+        private void OnAcceptCompleted(object sender, SocketAsyncEventArgs e)
+        {
+            ProcessAccept(e);
+            AcceptNext(e);
         }
+
+        /// <summary>
+        /// Process a completed accept.
+        /// </summary>
+        /// <param name="e">Event arguments of the accept.</param>
+        private void ProcessAccept(SocketAsyncEventArgs e)
+        {
+            if (e.SocketError != SocketError.Success)
+            {
+                if (!_shouldStop)
+                    Logger.TraceEvent(TraceEventType.Error, 0, "Unable to accept a new connection: {0}", e.SocketError);
+                return;
+            }
+
+            if (_shouldStop)
+            {
+                e.AcceptSocket.Dispose();
+                return;
+            }
+
+            if (TlsOptions != null)
+            {
+                AcceptTls(e.AcceptSocket, TlsOptions);
+                return;
+            }
+
+            var connection = new ClientConnection(e.AcceptSocket, ReceiveMode, PipeOptions);
+            AddClientConnection(connection);
+            connection.StartReceive(RemoveClientConnection);
+        }
+
+        /// <summary>
+        /// Run the TLS handshake of an accepted socket and add the client connection when it succeeded.
+        /// </summary>
+        /// <remarks>
+        /// Nothing waits for the handshake, so the accepting thread continues directly.
+        /// </remarks>
+        /// <param name="socket">The accepted socket.</param>
+        /// <param name="options">The TLS options.</param>
+        private void AcceptTls(Socket socket, TlsServerOptions options)
+        {
+            TlsHandshake.AuthenticateAsServerAsync(socket, options).ContinueWith(t =>
+            {
+                if (t.Status != TaskStatus.RanToCompletion)
+                {
+                    // The handshake already closed the socket and logged the reason.
+                    t.Exception?.Handle(ex => true);
+                    return;
+                }
+
+                if (_shouldStop)
+                {
+                    t.Result.Dispose();
+                    return;
+                }
+
+                var connection = new ClientConnection(socket, ReceiveMode, PipeOptions);
+                connection.UseTls(t.Result);
+                AddClientConnection(connection);
+                connection.StartReceive(RemoveClientConnection);
+            }, TaskContinuationOptions.ExecuteSynchronously);
+        }
+
+        /// <summary>
+        /// Remove a client connection that should be closed.
+        /// </summary>
+        /// <param name="connection">Client connection that ended.</param>
+        private void RemoveClientConnection(ClientConnection connection)
+        {
+            // Connections are already removed when the server was disposed.
+            if (!_clients.Remove(connection))
+                return;
+
+            OnClientDisconnected(this, new ClientEventArgs(connection));
+            connection.Dispose();
+        }
+
         #endregion
 
         #region Protected Methods
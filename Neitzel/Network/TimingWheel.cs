@@ -0,0 +1,240 @@
+﻿using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Threading;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// A hashed timing wheel that calls callbacks after a delay.
+    /// </summary>
+    /// <remarks>
+    /// Scheduling and cancelling an entry is O(1). Each tick only visits the entries of one slot so a lot of
+    /// connections with long timeouts do not have to be scanned on every tick. The wheel is driven by the
+    /// monotonic Stopwatch so changes of the system time have no effect.
+    ///
+    /// Callbacks are called on a thread pool thread and should be short.
+    /// </remarks>
+    public class TimingWheel : DisposableObject
+    {
+        #region Constants
+
+        /// <summary>
+        /// Tick duration of the shared wheel in milliseconds.
+        /// </summary>
+        public const int DefaultTickMilliseconds = 100;
+
+        /// <summary>
+        /// Number of slots of the shared wheel.
+        /// </summary>
+        public const int DefaultSlotCount = 512;
+
+        #endregion
+
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(NetworkConstants.TraceSourceName);
+
+        /// <summary>
+        /// Lazy creation of the shared wheel.
+        /// </summary>
+        private static readonly Lazy<TimingWheel> SharedWheel = new Lazy<TimingWheel>(
+            () => new TimingWheel(TimeSpan.FromMilliseconds(DefaultTickMilliseconds), DefaultSlotCount));
+
+        /// <summary>
+        /// First entry of each slot.
+        /// </summary>
+        private readonly TimingWheelEntry[] _slots;
+
+        /// <summary>
+        /// Lock for the slots and the entries.
+        /// </summary>
+        private readonly object _lock = new object();
+
+        /// <summary>
+        /// Measures the time since the wheel was created.
+        /// </summary>
+        private readonly Stopwatch _stopwatch = Stopwatch.StartNew();
+
+        /// <summary>
+        /// Timer that drives the wheel.
+        /// </summary>
+        private readonly Timer _timer;
+
+        /// <summary>
+        /// Number of the last processed tick.
+        /// </summary>
+        private long _currentTick;
+
+        #endregion
+
+        #region Lifetime
+
+        /// <summary>
+        /// Creates a new instance of TimingWheel.
+        /// </summary>
+        /// <param name="tickDuration">Duration of one tick. This is the resolution of the wheel.</param>
+        /// <param name="slotCount">Number of slots. Delays up to tickDuration * slotCount need only one rotation.</param>
+        public TimingWheel(TimeSpan tickDuration, int slotCount)
+        {
+            if (tickDuration <= TimeSpan.Zero) throw new ArgumentOutOfRangeException(nameof(tickDuration));
+            if (slotCount < 1) throw new ArgumentOutOfRangeException(nameof(slotCount));
+
+            TickDuration = tickDuration;
+            _slots = new TimingWheelEntry[slotCount];
+            _timer = new Timer(Tick, null, tickDuration, tickDuration);
+        }
+
+        /// <summary>
+        /// Dispose this instance.
+        /// </summary>
+        /// <param name="disposing">Controlled dispose not from finalizer.</param>
+        protected override void Dispose(bool disposing)
+        {
+            if (Disposed)
+                return;
+
+            base.Dispose(disposing);
+
+            if (disposing)
+                _timer.Dispose();
+        }
+
+        #endregion
+
+        #region Properties
+
+        /// <summary>
+        /// Wheel shared by all connections of this library.
+        /// </summary>
+        public static TimingWheel Shared => SharedWheel.Value;
+
+        /// <summary>
+        /// Duration of one tick.
+        /// </summary>
+        public TimeSpan TickDuration { get; }
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Schedule a callback.
+        /// </summary>
+        /// <param name="delay">Delay after which the callback is called. It is rounded up to full ticks.</param>
+        /// <param name="callback">Callback to call.</param>
+        /// <returns>Entry that can be used to cancel the callback.</returns>
+        public TimingWheelEntry Schedule(TimeSpan delay, Action callback)
+        {
+            if (callback == null) throw new ArgumentNullException(nameof(callback));
+
+            var entry = new TimingWheelEntry(this, callback);
+            var ticks = Math.Max(1L, (delay.Ticks + TickDuration.Ticks - 1) / TickDuration.Ticks);
+            lock (_lock)
+            {
+                var slot = (int) ((_currentTick + ticks) % _slots.Length);
+                entry.Rounds = (ticks - 1) / _slots.Length;
+                entry.Slot = slot;
+                entry.Next = _slots[slot];
+                if (entry.Next != null)
+                    entry.Next.Previous = entry;
+                _slots[slot] = entry;
+            }
+
+            return entry;
+        }
+
+        #endregion
+
+        #region Internal Methods
+
+        /// <summary>
+        /// Cancel an entry.
+        /// </summary>
+        /// <param name="entry">Entry to cancel.</param>
+        internal void Cancel(TimingWheelEntry entry)
+        {
+            lock (_lock)
+            {
+                Unlink(entry);
+            }
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Process all ticks that are due.
+        /// </summary>
+        /// <param name="state">Not used.</param>
+        private void Tick(object state)
+        {
+            var expired = new List<TimingWheelEntry>();
+            lock (_lock)
+            {
+                // Catch up if the timer was late.
+                var dueTick = _stopwatch.Elapsed.Ticks / TickDuration.Ticks;
+                while (_currentTick < dueTick)
+                {
+                    _currentTick++;
+                    var entry = _slots[_currentTick % _slots.Length];
+                    while (entry != null)
+                    {
+                        var next = entry.Next;
+                        if (entry.Rounds == 0)
+                        {
+                            Unlink(entry);
+                            expired.Add(entry);
+                        }
+                        else
+                        {
+                            entry.Rounds--;
+                        }
+                        entry = next;
+                    }
+                }
+            }
+
+            // Call the callbacks outside of the lock so they can schedule new entries.
+            foreach (var entry in expired)
+            {
+                try
+                {
+                    entry.Callback();
+                }
+                catch (Exception ex)
+                {
+                    Logger.TraceEvent(TraceEventType.Error, 0, "Exception in timing wheel callback: {0} / {1}", ex.Message, ex.StackTrace);
+                }
+            }
+        }
+
+        /// <summary>
+        /// Remove an entry from its slot. Must be called inside the lock.
+        /// </summary>
+        /// <param name="entry">Entry to remove.</param>
+        private void Unlink(TimingWheelEntry entry)
+        {
+            if (entry.Slot < 0)
+                return;
+
+            if (entry.Previous != null)
+                entry.Previous.Next = entry.Next;
+            else
+                _slots[entry.Slot] = entry.Next;
+
+            if (entry.Next != null)
+                entry.Next.Previous = entry.Previous;
+
+            entry.Previous = null;
+            entry.Next = null;
+            entry.Slot = -1;
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,60 @@
+﻿using System;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// A callback that is scheduled on a TimingWheel.
+    /// </summary>
+    public class TimingWheelEntry
+    {
+        /// <summary>
+        /// Creates a new instance of TimingWheelEntry.
+        /// </summary>
+        /// <param name="wheel">Wheel the entry is scheduled on.</param>
+        /// <param name="callback">Callback to call when the entry expires.</param>
+        internal TimingWheelEntry(TimingWheel wheel, Action callback)
+        {
+            Wheel = wheel;
+            Callback = callback;
+            Slot = -1;
+        }
+
+        /// <summary>
+        /// Wheel the entry is scheduled on.
+        /// </summary>
+        internal TimingWheel Wheel { get; }
+
+        /// <summary>
+        /// Callback to call when the entry expires.
+        /// </summary>
+        internal Action Callback { get; }
+
+        /// <summary>
+        /// Slot of the wheel the entry is linked into. -1 if the entry is not linked.
+        /// </summary>
+        internal int Slot { get; set; }
+
+        /// <summary>
+        /// Number of full rotations of the wheel before the entry expires.
+        /// </summary>
+        internal long Rounds { get; set; }
+
+        /// <summary>
+        /// Previous entry inside the slot.
+        /// </summary>
+        internal TimingWheelEntry Previous { get; set; }
+
+        /// <summary>
+        /// Next entry inside the slot.
+        /// </summary>
+        internal TimingWheelEntry Next { get; set; }
+
+        /// <summary>
+        /// Cancel the entry. The callback is not called if the entry did not expire yet.
+        /// </summary>
+        public void Cancel()
+        {
+            Wheel.Cancel(this);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+﻿using System;
+using System.Net.Security;
+using System.Security.Authentication;
+using System.Security.Cryptography.X509Certificates;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Options of the TLS connection of a TcpIpClientConnection.
+    /// </summary>
+    /// <remarks>
+    /// Sessions are resumed through the session cache of the operating system, which SslStream uses on its
+    /// own. The cache is keyed by the target host and the client certificate, so connections that share
+    /// these options (e.g. reconnects or the connections of a pool) resume their sessions.
+    /// </remarks>
+    public class TlsClientOptions
+    {
+        /// <summary>
+        /// Name of the server inside its certificate. Null uses the HostName of the connection.
+        /// </summary>
+        public string TargetHost { get; set; }
+
+        /// <summary>
+        /// Certificates of the client. Null if the client does not authenticate itself.
+        /// </summary>
+        public X509CertificateCollection ClientCertificates { get; set; }
+
+        /// <summary>
+        /// Allowed TLS versions.
+        /// </summary>
+        public SslProtocols Protocols { get; set; } = SslProtocols.Tls12;
+
+        /// <summary>
+        /// Validation of the server certificate. Null accepts only certificates without errors.
+        /// </summary>
+        public RemoteCertificateValidationCallback ServerCertificateValidation { get; set; }
+
+        /// <summary>
+        /// Check the revocation list of the server certificate?
+        /// </summary>
+        public bool CheckCertificateRevocation { get; set; }
+
+        /// <summary>
+        /// Time a handshake may take before the connection is closed.
+        /// </summary>
+        public TimeSpan HandshakeTimeout { get; set; } = TlsServerOptions.DefaultHandshakeTimeout;
+
+        /// <summary>
+        /// Statistics of the handshakes.
+        /// </summary>
+        public TlsStatistics Statistics { get; } = new TlsStatistics();
+    }
+}
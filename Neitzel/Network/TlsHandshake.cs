@@ -0,0 +1,130 @@
+﻿using System;
+using System.Diagnostics;
+using System.Net.Security;
+using System.Net.Sockets;
+using System.Security.Cryptography.X509Certificates;
+using System.Threading.Tasks;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Runs the TLS handshake of a connected socket.
+    /// </summary>
+    /// <remarks>
+    /// The handshake runs asynchronously, so a slow or broken peer does not block a thread and does not delay
+    /// other connections. A handshake that takes longer than the timeout closes the socket.
+    /// </remarks>
+    internal static class TlsHandshake
+    {
+        #region Fields
+
+        /// <summary>
+        /// Trace source for all logging in this class.
+        /// </summary>
+        private static readonly TraceSource Logger = new TraceSource(NetworkConstants.TraceSourceName);
+
+        #endregion
+
+        #region Public Methods
+
+        /// <summary>
+        /// Run the handshake as server.
+        /// </summary>
+        /// <param name="socket">The accepted socket. It is owned by the returned stream.</param>
+        /// <param name="options">The TLS options.</param>
+        /// <returns>The authenticated stream.</returns>
+        /// <exception cref="TimeoutException">The handshake took longer than HandshakeTimeout.</exception>
+        public static async Task<SslStream> AuthenticateAsServerAsync(Socket socket, TlsServerOptions options)
+        {
+            if (socket == null) throw new ArgumentNullException(nameof(socket));
+            if (options == null) throw new ArgumentNullException(nameof(options));
+
+            var counter = new CountingStream(new NetworkStream(socket, true));
+            var stream = new SslStream(counter, false, options.ClientCertificateValidation);
+            await RunAsync(stream, socket, options.HandshakeTimeout, options.Statistics,
+                () => stream.AuthenticateAsServerAsync(options.Certificate, options.ClientCertificateRequired, options.Protocols, options.CheckCertificateRevocation),
+                () => counter.BytesWritten < GetCertificateLength(stream.LocalCertificate)).ConfigureAwait(false);
+            return stream;
+        }
+
+        /// <summary>
+        /// Run the handshake as client.
+        /// </summary>
+        /// <param name="socket">The connected socket. It is owned by the returned stream.</param>
+        /// <param name="targetHost">Name of the server inside its certificate.</param>
+        /// <param name="options">The TLS options.</param>
+        /// <returns>The authenticated stream.</returns>
+        /// <exception cref="TimeoutException">The handshake took longer than HandshakeTimeout.</exception>
+        public static async Task<SslStream> AuthenticateAsClientAsync(Socket socket, string targetHost, TlsClientOptions options)
+        {
+            if (socket == null) throw new ArgumentNullException(nameof(socket));
+            if (targetHost == null) throw new ArgumentNullException(nameof(targetHost));
+            if (options == null) throw new ArgumentNullException(nameof(options));
+
+            var counter = new CountingStream(new NetworkStream(socket, true));
+            var stream = new SslStream(counter, false, options.ServerCertificateValidation);
+            await RunAsync(stream, socket, options.HandshakeTimeout, options.Statistics,
+                () => stream.AuthenticateAsClientAsync(targetHost, options.ClientCertificates, options.Protocols, options.CheckCertificateRevocation),
+                () => counter.BytesRead < GetCertificateLength(stream.RemoteCertificate)).ConfigureAwait(false);
+            return stream;
+        }
+
+        #endregion
+
+        #region Private Methods
+
+        /// <summary>
+        /// Run a handshake with timeout and statistics.
+        /// </summary>
+        /// <param name="stream">The stream. It is disposed if the handshake fails.</param>
+        /// <param name="socket">The socket, closed by the timeout.</param>
+        /// <param name="timeout">Time the handshake may take.</param>
+        /// <param name="statistics">Statistics to update.</param>
+        /// <param name="authenticate">Starts the handshake.</param>
+        /// <param name="resumed">Tells after the handshake if a session was resumed.</param>
+        /// <returns>Task that ends with the handshake.</returns>
+        private static async Task RunAsync(SslStream stream, Socket socket, TimeSpan timeout, TlsStatistics statistics, Func<Task> authenticate, Func<bool> resumed)
+        {
+            var timedOut = false;
+            var stopwatch = Stopwatch.StartNew();
+            var timer = timeout > TimeSpan.Zero
+                ? TimingWheel.Shared.Schedule(timeout, () =>
+                {
+                    timedOut = true;
+                    socket.Close();
+                })
+                : null;
+
+            try
+            {
+                await authenticate().ConfigureAwait(false);
+            }
+            catch (Exception ex)
+            {
+                timer?.Cancel();
+                statistics.AddFailure();
+                stream.Dispose();
+                Logger.TraceEvent(TraceEventType.Warning, 0, "TLS handshake failed: {0}", ex.Message);
+                if (timedOut)
+                    throw new TimeoutException("TLS handshake did not complete within " + timeout + ".", ex);
+                throw;
+            }
+
+            timer?.Cancel();
+            stopwatch.Stop();
+            statistics.AddHandshake(stopwatch.Elapsed, resumed());
+        }
+
+        /// <summary>
+        /// Gets the length of a certificate, 0 if there is none.
+        /// </summary>
+        /// <param name="certificate">The certificate or null.</param>
+        /// <returns>Length of the encoded certificate.</returns>
+        private static int GetCertificateLength(X509Certificate certificate)
+        {
+            return certificate?.GetRawCertData().Length ?? 0;
+        }
+
+        #endregion
+    }
+}
@@ -0,0 +1,68 @@
+﻿using System;
+using System.Net.Security;
+using System.Security.Authentication;
+using System.Security.Cryptography.X509Certificates;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Options of the TLS connections of a TcpIpServerConnection.
+    /// </summary>
+    /// <remarks>
+    /// Sessions are resumed through the session cache of the operating system, which SslStream uses on its
+    /// own. Clients that connect again with the same TLS settings skip the certificate exchange.
+    /// </remarks>
+    public class TlsServerOptions
+    {
+        /// <summary>
+        /// Default time a handshake may take.
+        /// </summary>
+        public static readonly TimeSpan DefaultHandshakeTimeout = TimeSpan.FromSeconds(10);
+
+        /// <summary>
+        /// Creates a new instance of TlsServerOptions.
+        /// </summary>
+        /// <param name="certificate">Certificate of the server, including its private key.</param>
+        public TlsServerOptions(X509Certificate certificate)
+        {
+            if (certificate == null) throw new ArgumentNullException(nameof(certificate));
+
+            Certificate = certificate;
+        }
+
+        /// <summary>
+        /// Certificate of the server, including its private key.
+        /// </summary>
+        public X509Certificate Certificate { get; }
+
+        /// <summary>
+        /// Allowed TLS versions.
+        /// </summary>
+        public SslProtocols Protocols { get; set; } = SslProtocols.Tls12;
+
+        /// <summary>
+        /// Must the clients send a certificate?
+        /// </summary>
+        public bool ClientCertificateRequired { get; set; }
+
+        /// <summary>
+        /// Validation of the client certificates. Null accepts only certificates without errors.
+        /// </summary>
+        public RemoteCertificateValidationCallback ClientCertificateValidation { get; set; }
+
+        /// <summary>
+        /// Check the revocation lists of the client certificates?
+        /// </summary>
+        public bool CheckCertificateRevocation { get; set; }
+
+        /// <summary>
+        /// Time a handshake may take before the connection is closed.
+        /// </summary>
+        public TimeSpan HandshakeTimeout { get; set; } = DefaultHandshakeTimeout;
+
+        /// <summary>
+        /// Statistics of the handshakes.
+        /// </summary>
+        public TlsStatistics Statistics { get; } = new TlsStatistics();
+    }
+}
@@ -0,0 +1,100 @@
+﻿using System;
+using System.Threading;
+
+namespace Neitzel.Network
+{
+    /// <summary>
+    /// Statistics of the TLS handshakes of all connections that use the same TLS options.
+    /// </summary>
+    /// <remarks>
+    /// A handshake counts as resumed when the certificate was not sent: a resumed session only exchanges a
+    /// few hundred bytes, a full handshake carries the certificate of the server.
+    /// </remarks>
+    public class TlsStatistics
+    {
+        /// <summary>
+        /// Number of completed handshakes.
+        /// </summary>
+        private long _handshakes;
+
+        /// <summary>
+        /// Number of completed handshakes that resumed a session.
+        /// </summary>
+        private long _resumedHandshakes;
+
+        /// <summary>
+        /// Number of failed handshakes.
+        /// </summary>
+        private long _failedHandshakes;
+
+        /// <summary>
+        /// Ticks of all completed handshakes.
+        /// </summary>
+        private long _handshakeTicks;
+
+        /// <summary>
+        /// Number of completed handshakes.
+        /// </summary>
+        public long Handshakes => Interlocked.Read(ref _handshakes);
+
+        /// <summary>
+        /// Number of completed handshakes that resumed a session.
+        /// </summary>
+        public long ResumedHandshakes => Interlocked.Read(ref _resumedHandshakes);
+
+        /// <summary>
+        /// Number of handshakes that failed or timed out.
+        /// </summary>
+        public long FailedHandshakes => Interlocked.Read(ref _failedHandshakes);
+
+        /// <summary>
+        /// Total time of the completed handshakes.
+        /// </summary>
+        public TimeSpan HandshakeTime => TimeSpan.FromTicks(Interlocked.Read(ref _handshakeTicks));
+
+        /// <summary>
+        /// Average time of a completed handshake.
+        /// </summary>
+        public TimeSpan AverageHandshakeTime
+        {
+            get
+            {
+                var handshakes = Handshakes;
+                return handshakes == 0 ? TimeSpan.Zero : TimeSpan.FromTicks(Interlocked.Read(ref _handshakeTicks) / handshakes);
+            }
+        }
+
+        /// <summary>
+        /// Part of the completed handshakes that resumed a session, between 0 and 1.
+        /// </summary>
+        public double ResumptionRate
+        {
+            get
+            {
+                var handshakes = Handshakes;
+                return handshakes == 0 ? 0 : (double) ResumedHandshakes / handshakes;
+            }
+        }
+
+        /// <summary>
+        /// Count a completed handshake.
+        /// </summary>
+        /// <param name="duration">Duration of the handshake.</param>
+        /// <param name="resumed">Was a session resumed?</param>
+        internal void AddHandshake(TimeSpan duration, bool resumed)
+        {
+            Interlocked.Add(ref _handshakeTicks, duration.Ticks);
+            if (resumed)
+                Interlocked.Increment(ref _resumedHandshakes);
+            Interlocked.Increment(ref _handshakes);
+        }
+
+        /// <summary>
+        /// Count a failed handshake.
+        /// </summary>
+        internal void AddFailure()
+        {
+            Interlocked.Increment(ref _failedHandshakes);
+        }
+    }
+}